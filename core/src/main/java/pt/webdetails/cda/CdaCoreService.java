@@ -13,14 +13,29 @@
 
 package pt.webdetails.cda;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.swing.table.TableModel;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.json.JSONObject;
 
 import pt.webdetails.cda.dataaccess.AbstractDataAccess;
 import pt.webdetails.cda.dataaccess.DataAccessConnectionDescriptor;
@@ -34,9 +49,10 @@ import pt.webdetails.cda.query.QueryOptions;
 import pt.webdetails.cda.settings.CdaSettings;
 import pt.webdetails.cda.settings.SettingsManager;
 import pt.webdetails.cda.utils.DoQueryParameters;
+import pt.webdetails.cda.utils.QueryParameters;
 
 /**
- * Basic CDA functionality.<br> <ul> <li>doQuery</li> <li>listQueries</li> <li>listParameters</li>
+ * Basic CDA functionality.<br> <ul> <li>doQuery</li> <li>doBatchQuery</li> <li>listQueries</li> <li>listParameters</li>
  * <li>listDataAccessTypes</li> <li>getCdaList</li> </ul>
  */
 public class CdaCoreService {
@@ -76,6 +92,155 @@ public class CdaCoreService {
     return engine.doExportQuery( cdaSettings, queryOptions );
   }
 
+  /**
+   * Entity tag the query's output would have if it's answered from the cache, found without running the query.
+   *
+   * @param parameters
+   * @return quoted entity tag, null if the query's result isn't cached
+   * @throws Exception
+   */
+  public String getETag( DoQueryParameters parameters ) throws Exception {
+    final CdaSettings cdaSettings = settingsManager.parseSettingsFile( parameters.getPath() );
+    return engine.getETag( cdaSettings, getQueryOptions( parameters ) );
+  }
+
+  /**
+   * Runs several queries at the same time, writing each result as a line of json as soon as it is ready:
+   * <code>{"index":0,"result":{...}}</code>, or <code>{"index":0,"error":"..."}</code> if it failed, where index is
+   * the position of its spec. Results are always json.
+   * <br>
+   * Each cda file is read once for the whole batch, and identical specs are queried once.
+   *
+   * @param specs parameters of each query, as read by {@link QueryParameters#getDoQueryParameters(Map)}
+   * @param out   stream for the results
+   * @throws IOException if the results can't be written; queries still running are then cancelled
+   */
+  public void doBatchQuery( final List<Map<String, List<String>>> specs, final OutputStream out ) throws IOException {
+    doBatchQuery( specs, out, null );
+  }
+
+  /**
+   * Same as {@link #doBatchQuery(List, OutputStream)}, auditing each query.
+   *
+   * @param auditor audits each distinct spec while it is queried, null not to audit
+   */
+  public void doBatchQuery( final List<Map<String, List<String>>> specs, final OutputStream out,
+                            final QueryAuditor auditor ) throws IOException {
+    final Map<Map<String, List<String>>, List<Integer>> indexesBySpec =
+      new LinkedHashMap<Map<String, List<String>>, List<Integer>>();
+    for ( int i = 0; i < specs.size(); i++ ) {
+      indexesBySpec.computeIfAbsent( specs.get( i ), spec -> new ArrayList<Integer>() ).add( i );
+    }
+
+    final Map<String, CdaSettings> settingsByPath = new HashMap<String, CdaSettings>();
+    final ExecutorService executor = engine.getBatchQueryExecutor();
+    // no more queries in flight than threads to run them, so that none runs in this thread while results wait
+    final int maxPending = executor instanceof ThreadPoolExecutor
+      ? ( (ThreadPoolExecutor) executor ).getMaximumPoolSize() : Integer.MAX_VALUE;
+    final ExecutorCompletionService<byte[]> completion = new ExecutorCompletionService<byte[]>( executor );
+    final Map<Future<byte[]>, List<Integer>> pending = new HashMap<Future<byte[]>, List<Integer>>();
+    try {
+      for ( Map.Entry<Map<String, List<String>>, List<Integer>> entry : indexesBySpec.entrySet() ) {
+        final Callable<byte[]> query;
+        try {
+          query = getBatchQuery( entry.getKey(), settingsByPath, auditor );
+        } catch ( Exception e ) {
+          writeBatchError( out, entry.getValue(), e );
+          continue;
+        }
+        while ( pending.size() >= maxPending ) {
+          writeBatchResult( out, completion.take(), pending );
+        }
+        pending.put( completion.submit( query ), entry.getValue() );
+        // results ready by now aren't held back by the remaining submissions
+        for ( Future<byte[]> done = completion.poll(); done != null; done = completion.poll() ) {
+          writeBatchResult( out, done, pending );
+        }
+      }
+
+      while ( !pending.isEmpty() ) {
+        writeBatchResult( out, completion.take(), pending );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for batch queries" );
+    } finally {
+      for ( Future<byte[]> future : pending.keySet() ) {
+        future.cancel( true );
+      }
+    }
+  }
+
+  /**
+   * Audits the queries of a batch.
+   */
+  public interface QueryAuditor {
+    /**
+     * Called in the thread running the query, before it runs.
+     *
+     * @param path   cda file of the query
+     * @param params parameters of the query, as in its spec
+     * @return closed once the query is done
+     */
+    AutoCloseable startQuery( String path, Map<String, List<String>> params );
+  }
+
+  private Callable<byte[]> getBatchQuery( final Map<String, List<String>> spec,
+                                          final Map<String, CdaSettings> settingsByPath,
+                                          final QueryAuditor auditor ) throws Exception {
+    final DoQueryParameters parameters = new QueryParameters().getDoQueryParameters( spec );
+    // every line of the response is plain json
+    parameters.setOutputType( "json" );
+    parameters.setJsonCallback( "<blank>" );
+    parameters.getExtraSettings().remove( JSONP_CALLBACK );
+
+    CdaSettings cdaSettings = settingsByPath.get( parameters.getPath() );
+    if ( cdaSettings == null ) {
+      cdaSettings = settingsManager.parseSettingsFile( parameters.getPath() );
+      settingsByPath.put( parameters.getPath(), cdaSettings );
+    }
+    final CdaSettings settings = cdaSettings;
+    final QueryOptions queryOptions = getQueryOptions( parameters );
+
+    return CdaEngine.getEnvironment().propagateContext( () -> {
+      final ByteArrayOutputStream result = new ByteArrayOutputStream();
+      try ( AutoCloseable audit = auditor != null ? auditor.startQuery( parameters.getPath(), spec ) : null ) {
+        engine.doExportQuery( settings, queryOptions ).writeOut( result );
+      }
+      return result.toByteArray();
+    } );
+  }
+
+  private static void writeBatchResult( final OutputStream out, final Future<byte[]> done,
+                                        final Map<Future<byte[]>, List<Integer>> pending )
+    throws IOException, InterruptedException {
+    final List<Integer> indexes = pending.remove( done );
+    final byte[] result;
+    try {
+      result = done.get();
+    } catch ( ExecutionException e ) {
+      writeBatchError( out, indexes, e.getCause() );
+      return;
+    }
+    for ( int index : indexes ) {
+      out.write( ( "{\"index\":" + index + ",\"result\":" ).getBytes( StandardCharsets.UTF_8 ) );
+      out.write( result );
+      out.write( "}\n".getBytes( StandardCharsets.UTF_8 ) );
+    }
+    out.flush();
+  }
+
+  private static void writeBatchError( final OutputStream out, final List<Integer> indexes, final Throwable error )
+    throws IOException {
+    logger.error( "Batch query failed", error );
+    final String message = error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+    for ( int index : indexes ) {
+      out.write( ( "{\"index\":" + index + ",\"error\":" + JSONObject.quote( message ) + "}\n" )
+        .getBytes( StandardCharsets.UTF_8 ) );
+    }
+    out.flush();
+  }
+
   /**
    * List data accesses available in cda settings.
    *
@@ -13,17 +13,27 @@
 
 package pt.webdetails.cda;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
 import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
 import org.pentaho.reporting.libraries.base.config.Configuration;
+import pt.webdetails.cda.cache.CachedTable;
+import pt.webdetails.cda.cache.ResponseCache;
+import pt.webdetails.cda.connections.sql.JdbcConnectionPool;
 import pt.webdetails.cda.dataaccess.DataAccess;
 import pt.webdetails.cda.dataaccess.QueryException;
+import pt.webdetails.cda.dataaccess.SimpleDataAccess;
 import pt.webdetails.cda.dataaccess.kettle.DataAccessKettleAdapter;
 import pt.webdetails.cda.dataaccess.kettle.DataAccessKettleAdapterFactory;
 import pt.webdetails.cda.exporter.AbstractKettleExporter;
+import pt.webdetails.cda.exporter.CachingTableQueryResult;
+import pt.webdetails.cda.exporter.CompressedQueryResult;
+import pt.webdetails.cda.exporter.CsvExporter;
+import pt.webdetails.cda.exporter.CursorExporter;
+import pt.webdetails.cda.exporter.CursorStreamExporter;
 import pt.webdetails.cda.exporter.DefaultStreamExporter;
 import pt.webdetails.cda.exporter.ExportOptions;
 import pt.webdetails.cda.exporter.ExportedQueryResult;
@@ -38,6 +48,8 @@ import pt.webdetails.cda.query.QueryOptions;
 import pt.webdetails.cda.settings.CdaSettings;
 import pt.webdetails.cda.settings.SettingsManager;
 import pt.webdetails.cda.settings.UnknownDataAccessException;
+import pt.webdetails.cda.utils.BoundedExecutor;
+import pt.webdetails.cda.utils.BoundedExecutorMXBean;
 import pt.webdetails.cpf.repository.api.IBasicFile;
 import pt.webdetails.cpf.repository.api.IBasicFileFilter;
 import pt.webdetails.cpf.repository.api.IContentAccessFactory;
@@ -46,12 +58,16 @@ import pt.webdetails.cpf.repository.api.IUserContentAccess;
 import pt.webdetails.cpf.resources.IResourceLoader;
 
 import javax.swing.table.TableModel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Main singleton, brokering access to most functionality.
@@ -59,6 +75,21 @@ import java.util.concurrent.Executors;
 public class CdaEngine {
 
   private static final Log logger = LogFactory.getLog( CdaEngine.class );
+  private static final String EXECUTOR_NAME = "cda-engine";
+  private static final String BATCH_EXECUTOR_NAME = "cda-batch-query";
+  private static final String REFRESH_EXECUTOR_NAME = "cda-cache-refresh";
+  private static final String CHILD_QUERY_EXECUTOR_NAME = "cda-compound-query";
+  private static final String CURSOR_EXPORT_PROPERTY = "pt.webdetails.cda.CursorExport";
+  private static final String RESPONSE_CACHE_PROPERTY = "pt.webdetails.cda.ResponseCache";
+  private static final String RESPONSE_CACHE_MAX_MB_PROPERTY = "pt.webdetails.cda.ResponseCacheMaxMB";
+  private static final int DEFAULT_EXECUTOR_CORE_SIZE = 4;
+  private static final int DEFAULT_EXECUTOR_MAX_SIZE = 64;
+  private static final int DEFAULT_BATCH_THREADS = 8;
+  private static final int DEFAULT_BATCH_QUEUE_SIZE = 64;
+  private static final int DEFAULT_REFRESH_THREADS = 2;
+  private static final int DEFAULT_REFRESH_QUEUE_SIZE = 16;
+  private static final int DEFAULT_CHILD_QUERY_THREADS = 8;
+  private static final int DEFAULT_CHILD_QUERY_QUEUE_SIZE = 64;
   private static CdaEngine _instance;
   private final ICdaEnvironment environment;
 
@@ -66,6 +97,12 @@ public class CdaEngine {
   private Map<UUID, QueryOptions> wrappedQueries = new ConcurrentHashMap<UUID, QueryOptions>();
   private ExporterEngine exporterEngine;
   private SettingsManager defaultSettingsManager;
+  private BoundedExecutor executorService;
+  private BoundedExecutor batchQueryExecutor;
+  private BoundedExecutor refreshExecutor;
+  private BoundedExecutor childQueryExecutor;
+  private ForkJoinPool sortPool;
+  private volatile ResponseCache responseCache;
 
   /**
    * Must have been initialized at least once first;
@@ -146,6 +183,22 @@ public class CdaEngine {
     DataAccess dataAccess = cdaSettings.getDataAccess( queryOptions.getDataAccessId() );
     TableExporter exporter = getExporter( queryOptions );
 
+    final ResponseCache responseCache = getResponseCache();
+    if ( responseCache != null ) {
+      final String eTag = getETag( cdaSettings, queryOptions );
+      final byte[] gzipped = eTag != null ? responseCache.get( eTag ) : null;
+      if ( gzipped != null ) {
+        ExportedQueryResult result = new CompressedQueryResult( exporter, gzipped );
+        result.setETag( eTag );
+        return result;
+      }
+    }
+
+    if ( isCursorExport( queryOptions, dataAccess, exporter ) ) {
+      return new ExportedStreamQueryResult(
+        new CursorStreamExporter( (CursorExporter) exporter, (SimpleDataAccess) dataAccess, queryOptions ) );
+    }
+
     if ( isLegacyStreamingExport( queryOptions, dataAccess, exporter ) ) {
       // Try to initiate a streaming Kettle transformation:
       DataAccessKettleAdapter dataAccessKettleAdapter =
@@ -155,8 +208,72 @@ public class CdaEngine {
       }
     }
 
-    TableModel table = doQuery( cdaSettings, queryOptions );
-    return new ExportedTableQueryResult( exporter, table );
+    final TableModel table;
+    String eTag = null;
+    if ( dataAccess instanceof SimpleDataAccess ) {
+      // tagged from the cache entry the result was read from, which a refresh may have replaced since
+      final CachedTable cached = ( (SimpleDataAccess) dataAccess ).doCachedQuery( queryOptions );
+      table = cached.getTable();
+      eTag = getETag( ( (SimpleDataAccess) dataAccess ).getCacheValidator( cached ), queryOptions );
+    } else {
+      table = doQuery( cdaSettings, queryOptions );
+    }
+    if ( responseCache != null && eTag != null ) {
+      return new CachingTableQueryResult( exporter, table, responseCache, eTag );
+    }
+    ExportedQueryResult result = new ExportedTableQueryResult( exporter, table );
+    result.setETag( eTag );
+    return result;
+  }
+
+  /**
+   * Entity tag for the export of a query answered from the cache. It is found from the cache entry's key and time and
+   * the export options, without running the query or reading its result.
+   *
+   * @return quoted entity tag, null if the query's result isn't in the cache
+   */
+  public String getETag( CdaSettings cdaSettings, QueryOptions queryOptions )
+    throws QueryException, UnknownDataAccessException {
+    DataAccess dataAccess = cdaSettings.getDataAccess( queryOptions.getDataAccessId() );
+    if ( !( dataAccess instanceof SimpleDataAccess ) ) {
+      return null;
+    }
+    return getETag( ( (SimpleDataAccess) dataAccess ).getCacheValidator( queryOptions ), queryOptions );
+  }
+
+  private String getETag( String validator, QueryOptions queryOptions ) {
+    if ( validator == null ) {
+      return null;
+    }
+    // everything but the parameters, already in the cache key, that changes the exported output
+    final StringBuilder tag = new StringBuilder( validator )
+      .append( '\n' ).append( queryOptions.getOutputType() )
+      .append( '\n' ).append( queryOptions.getOutputIndexId() )
+      .append( '\n' ).append( queryOptions.isPaginate() ).append( ',' ).append( queryOptions.getPageStart() )
+      .append( ',' ).append( queryOptions.getPageSize() )
+      .append( '\n' ).append( queryOptions.getSortBy() )
+      .append( '\n' ).append( queryOptions.getOutputColumnName() )
+      .append( '\n' ).append( new TreeMap<String, String>( queryOptions.getExtraSettings() ) );
+    try {
+      final byte[] digest =
+        MessageDigest.getInstance( "SHA-256" ).digest( tag.toString().getBytes( StandardCharsets.UTF_8 ) );
+      return '"' + new String( Hex.encodeHex( digest ) ) + '"';
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Results that wouldn't be cached anyway are written as their rows are read, unless they are sorted or
+   * <code>pt.webdetails.cda.CursorExport</code> is false.
+   */
+  private boolean isCursorExport( QueryOptions queryOptions, DataAccess dataAccess, TableExporter exporter )
+    throws QueryException {
+    return CdaPropertiesHelper.getBoolProperty( CURSOR_EXPORT_PROPERTY, true )
+      && exporter instanceof CursorExporter && ( !( exporter instanceof CsvExporter ) || CsvExporter.isNativeExport() )
+      && dataAccess instanceof SimpleDataAccess && ( (SimpleDataAccess) dataAccess ).isCursorQuerySupported()
+      && ( !dataAccess.isCacheEnabled() || queryOptions.isCacheBypass() )
+      && queryOptions.getSortBy().isEmpty() && !dataAccess.hasIterableParameterValues( queryOptions );
   }
 
   private boolean isLegacyStreamingExport( QueryOptions queryOptions, DataAccess dataAccess, TableExporter exporter )
@@ -231,8 +348,167 @@ public class CdaEngine {
     return typedTableModel;
   }
 
-  public ExecutorService getExecutorService() {
-    return Executors.newCachedThreadPool();
+  /**
+   * Shared bounded executor for row producers and other short lived tasks, created on first use.
+   * Its size, queue and rejection policy are set by the <code>pt.webdetails.cda.Executor*</code> properties.
+   *
+   * @return the engine executor
+   */
+  public synchronized ExecutorService getExecutorService() {
+    if ( executorService == null || executorService.isShutdown() ) {
+      executorService = new BoundedExecutor( EXECUTOR_NAME,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.ExecutorCorePoolSize", DEFAULT_EXECUTOR_CORE_SIZE ),
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.ExecutorMaxPoolSize", DEFAULT_EXECUTOR_MAX_SIZE ),
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.ExecutorQueueSize", 0 ),
+        BoundedExecutor.RejectionPolicy.parse(
+          getConfigProperty( "pt.webdetails.cda.ExecutorRejectionPolicy" ), BoundedExecutor.RejectionPolicy.ABORT ) );
+      executorService.registerMBean();
+    }
+    return executorService;
+  }
+
+  /**
+   * Executor for the queries of batch requests, kept apart from the engine executor so that a batch can't take the
+   * threads its own queries need. Once its threads and queue are full, queries run in the requesting thread.
+   *
+   * @return the batch query executor
+   */
+  public synchronized ExecutorService getBatchQueryExecutor() {
+    if ( batchQueryExecutor == null || batchQueryExecutor.isShutdown() ) {
+      final int threads = Math.max( 1,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.BatchQueryThreads", DEFAULT_BATCH_THREADS ) );
+      batchQueryExecutor = new BoundedExecutor( BATCH_EXECUTOR_NAME, threads, threads,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.BatchQueryQueueSize", DEFAULT_BATCH_QUEUE_SIZE ),
+        BoundedExecutor.RejectionPolicy.CALLER_RUNS );
+      batchQueryExecutor.allowCoreThreadTimeOut( true );
+      batchQueryExecutor.registerMBean();
+    }
+    return batchQueryExecutor;
+  }
+
+  /**
+   * Executor for the background refreshes of stale cache entries, kept small and apart from the engine executor so
+   * that refreshes can't take the threads of the queries being answered. Refreshes that don't fit are rejected.
+   *
+   * @return the cache refresh executor
+   */
+  public synchronized ExecutorService getRefreshExecutor() {
+    if ( refreshExecutor == null || refreshExecutor.isShutdown() ) {
+      final int threads = Math.max( 1,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.CacheRefreshThreads", DEFAULT_REFRESH_THREADS ) );
+      refreshExecutor = new BoundedExecutor( REFRESH_EXECUTOR_NAME, threads, threads,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.CacheRefreshQueueSize", DEFAULT_REFRESH_QUEUE_SIZE ),
+        BoundedExecutor.RejectionPolicy.ABORT );
+      refreshExecutor.allowCoreThreadTimeOut( true );
+      refreshExecutor.registerMBean();
+    }
+    return refreshExecutor;
+  }
+
+  /**
+   * Executor for the children of compound data accesses queried at the same time. It is kept apart from the engine
+   * executor, whose row producers must all get a thread at once, and child queries don't fan out again, so its
+   * threads never wait on each other. Child queries that don't fit are rejected, and then run sequentially.
+   *
+   * @return the child query executor
+   */
+  public synchronized ExecutorService getChildQueryExecutor() {
+    if ( childQueryExecutor == null || childQueryExecutor.isShutdown() ) {
+      final int threads = Math.max( 1,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.CompoundQueryThreads", DEFAULT_CHILD_QUERY_THREADS ) );
+      childQueryExecutor = new BoundedExecutor( CHILD_QUERY_EXECUTOR_NAME, threads, threads, Math.max( 1,
+        CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.CompoundQueryQueueSize",
+          DEFAULT_CHILD_QUERY_QUEUE_SIZE ) ),
+        BoundedExecutor.RejectionPolicy.ABORT );
+      childQueryExecutor.allowCoreThreadTimeOut( true );
+      childQueryExecutor.registerMBean();
+    }
+    return childQueryExecutor;
+  }
+
+  /**
+   * Pool for sorting large tables in parallel, sized by <code>pt.webdetails.cda.NativeSortThreads</code>.
+   *
+   * @return the sort pool
+   */
+  public synchronized ForkJoinPool getSortPool() {
+    if ( sortPool == null || sortPool.isShutdown() ) {
+      final int threads = Math.max( 1, CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.NativeSortThreads",
+        Runtime.getRuntime().availableProcessors() ) );
+      sortPool = new ForkJoinPool( threads );
+    }
+    return sortPool;
+  }
+
+  /**
+   * Cache of compressed exports of cached results, enabled by <code>pt.webdetails.cda.ResponseCache</code>.
+   *
+   * @return the response cache, null if disabled
+   */
+  public ResponseCache getResponseCache() {
+    if ( !CdaPropertiesHelper.getBoolProperty( RESPONSE_CACHE_PROPERTY, false ) ) {
+      return null;
+    }
+    ResponseCache cache = responseCache;
+    if ( cache == null ) {
+      synchronized ( this ) {
+        cache = responseCache;
+        if ( cache == null ) {
+          cache = new ResponseCache( 1024L * 1024L
+            * CdaPropertiesHelper.getIntProperty( RESPONSE_CACHE_MAX_MB_PROPERTY, ResponseCache.DEFAULT_MAX_MB ) );
+          responseCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Drops all compressed exports, as when the result cache is cleared.
+   */
+  public void clearResponseCache() {
+    final ResponseCache cache = responseCache;
+    if ( cache != null ) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * @return queue depth, active threads and rejected tasks of the engine executor
+   */
+  public BoundedExecutorMXBean getExecutorMetrics() {
+    return (BoundedExecutorMXBean) getExecutorService();
+  }
+
+  /**
+   * Stops the engine threads and closes pooled jdbc connections. Tasks still running are interrupted.
+   */
+  public synchronized void shutdown() {
+    if ( executorService != null ) {
+      executorService.shutdownNow();
+      executorService.unregisterMBean();
+      executorService = null;
+    }
+    if ( batchQueryExecutor != null ) {
+      batchQueryExecutor.shutdownNow();
+      batchQueryExecutor.unregisterMBean();
+      batchQueryExecutor = null;
+    }
+    if ( refreshExecutor != null ) {
+      refreshExecutor.shutdownNow();
+      refreshExecutor.unregisterMBean();
+      refreshExecutor = null;
+    }
+    if ( childQueryExecutor != null ) {
+      childQueryExecutor.shutdownNow();
+      childQueryExecutor.unregisterMBean();
+      childQueryExecutor = null;
+    }
+    if ( sortPool != null ) {
+      sortPool.shutdownNow();
+      sortPool = null;
+    }
+    JdbcConnectionPool.closeAll();
   }
 
   private ICdaEnvironment getEnv() {
@@ -31,6 +31,7 @@ import pt.webdetails.cpf.session.IUserSession;
 
 import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 
 public interface ICdaEnvironment {
@@ -84,5 +85,16 @@ public interface ICdaEnvironment {
 
   public IUserSession getUserSession();
 
+  /**
+   * Wraps a task to be run by another thread so that it sees the calling thread's context (session, security).
+   * The default implementation returns the task unchanged.
+   *
+   * @param task task created in the calling thread
+   * @return a task that can be run in any thread
+   */
+  default <T> Callable<T> propagateContext( Callable<T> task ) {
+    return task;
+  }
+
   public boolean canCreateContent();
 }
@@ -0,0 +1,52 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+
+package pt.webdetails.cda.cache;
+
+import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+
+import javax.swing.table.TableModel;
+
+/**
+ * A cached result with the key and info it was cached with, as read together from the cache.
+ */
+public class CachedTable {
+
+  private final TableCacheKey key;
+  private final TableModel table;
+  private final ExtraCacheInfo info;
+
+  /**
+   * @param key   key it is cached under
+   * @param table cached result
+   * @param info  info it was cached with, may be null
+   */
+  public CachedTable( TableCacheKey key, TableModel table, ExtraCacheInfo info ) {
+    this.key = key;
+    this.table = table;
+    this.info = info;
+  }
+
+  public TableCacheKey getKey() {
+    return key;
+  }
+
+  public TableModel getTable() {
+    return table;
+  }
+
+  public ExtraCacheInfo getInfo() {
+    return info;
+  }
+}
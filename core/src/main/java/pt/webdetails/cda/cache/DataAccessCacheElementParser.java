@@ -30,10 +30,12 @@ public class DataAccessCacheElementParser {
   private static final Log logger = LogFactory.getLog( DataAccessCacheElementParser.class );
   private static final String ATTR_CACHE_ENABLED = "enabled"; //$NON-NLS-1$
   private static final String ATTR_DURATION = "duration"; //$NON-NLS-1$
+  private static final String ATTR_STALE_WHILE_REVALIDATE = "staleWhileRevalidate"; //$NON-NLS-1$
   private static final String ATTR_KEY_NAME = "name"; //$NON-NLS-1$
   private static final String ATTR_KEY_VALUE = "value"; //$NON-NLS-1$
   private static final String ATTR_KEY_DEFAULT_VALUE = "default"; //$NON-NLS-1$
   private Integer cacheDuration;
+  private Integer staleWhileRevalidate;
   private CacheKey cacheKey; // DataAccess/Cache/Key nodes
   private Element element; // DataAccess/Cache node
 
@@ -59,6 +61,11 @@ public class DataAccessCacheElementParser {
         setCacheDuration( Integer.parseInt( element.attributeValue( ATTR_DURATION ).toString() ) );
       }
 
+      if ( contains( element, ATTR_STALE_WHILE_REVALIDATE )
+        && isValidPositiveInteger( element.attributeValue( ATTR_STALE_WHILE_REVALIDATE ) ) ) {
+        setStaleWhileRevalidate( Integer.parseInt( element.attributeValue( ATTR_STALE_WHILE_REVALIDATE ) ) );
+      }
+
       success = true;
 
     } catch ( Exception e ) {
@@ -137,6 +144,17 @@ public class DataAccessCacheElementParser {
     this.cacheDuration = cacheDuration;
   }
 
+  /**
+   * @return seconds an expired entry may still be served while it is refreshed, or null if not set
+   */
+  public Integer getStaleWhileRevalidate() {
+    return staleWhileRevalidate;
+  }
+
+  public void setStaleWhileRevalidate( Integer staleWhileRevalidate ) {
+    this.staleWhileRevalidate = staleWhileRevalidate;
+  }
+
   public CacheKey getCacheKey() {
     return cacheKey;
   }
@@ -25,8 +25,10 @@ import mondrian.olap.InvalidArgumentException;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.Status;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -34,8 +36,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
 import pt.webdetails.cda.cache.monitor.CacheElementInfo;
 import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+import pt.webdetails.cda.utils.TableSizeEstimator;
 
 public class EHCacheQueryCache implements IQueryCache {
 
@@ -44,6 +48,7 @@ public class EHCacheQueryCache implements IQueryCache {
   private static final String CACHE_CFG_FILE = "ehcache-cda.xml";
   private static final String CACHE_CFG_FILE_DIST = "ehcache-dist.xml";
   private static final String USE_TERRACOTTA_PROPERTY = "pt.webdetails.cda.UseTerracotta";
+  private static final String MAX_MEMORY_PROPERTY = "pt.webdetails.cda.cache.maxMemoryMB";
   private static CacheManager cacheManager;
 
   private static class CacheElement implements Serializable {
@@ -67,12 +72,14 @@ public class EHCacheQueryCache implements IQueryCache {
     }
 
     private void writeObject( ObjectOutputStream out ) throws IOException {
-      out.writeObject( table );
+      out.writeObject( TableModelCodec.isEnabled() ? TableModelCodec.encode( table ) : table );
       out.writeObject( info );
     }
 
     private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
-      table = (TableModel) in.readObject();
+      final Object stored = in.readObject();
+      // tables written before the codec, or with it disabled, are plain serialized table models
+      table = stored instanceof byte[] ? TableModelCodec.decode( (byte[]) stored ) : (TableModel) stored;
       info = (ExtraCacheInfo) in.readObject();
     }
 
@@ -137,9 +144,46 @@ public class EHCacheQueryCache implements IQueryCache {
   }
 
   Cache cache = null;
+  private final GreedyDualSizePolicy<TableCacheKey> sizePolicy;
 
   public EHCacheQueryCache( final Cache cache ) {
+    this( cache, CdaPropertiesHelper.getIntProperty( MAX_MEMORY_PROPERTY, 0 ) * 1024L * 1024L );
+  }
+
+  /**
+   * @param cache    backing cache
+   * @param maxBytes if positive, evict entries by their estimated size to keep their total under this budget
+   */
+  public EHCacheQueryCache( final Cache cache, final long maxBytes ) {
     this.cache = cache;
+    if ( maxBytes > 0 && cache != null ) {
+      sizePolicy = new GreedyDualSizePolicy<TableCacheKey>( maxBytes );
+      // entries leaving the cache on their own stop counting against the budget
+      cache.getCacheEventNotificationService().registerListener( new CacheEventListenerAdapter() {
+        @Override
+        public void notifyElementRemoved( final Ehcache ehcache, final Element element ) {
+          sizePolicy.remove( (TableCacheKey) element.getObjectKey() );
+        }
+
+        @Override
+        public void notifyElementExpired( final Ehcache ehcache, final Element element ) {
+          sizePolicy.remove( (TableCacheKey) element.getObjectKey() );
+        }
+
+        @Override
+        public void notifyElementEvicted( final Ehcache ehcache, final Element element ) {
+          sizePolicy.remove( (TableCacheKey) element.getObjectKey() );
+        }
+
+        @Override
+        public void notifyRemoveAll( final Ehcache ehcache ) {
+          sizePolicy.clear();
+        }
+      } );
+      logger.info( "Evicting cached results over " + maxBytes + " bytes" );
+    } else {
+      sizePolicy = null;
+    }
   }
 
   public EHCacheQueryCache() {
@@ -155,6 +199,12 @@ public class EHCacheQueryCache implements IQueryCache {
     final Element storeElement = new Element( key, cacheElement );
     storeElement.setTimeToLive( ttlSec );
     cache.put( storeElement );
+    if ( sizePolicy != null ) {
+      final long size = info.getByteSize() > 0 ? info.getByteSize() : TableSizeEstimator.estimate( table );
+      for ( TableCacheKey evicted : sizePolicy.add( key, size, info.getQueryDurationMs() ) ) {
+        cache.remove( evicted );
+      }
+    }
     cache.flush();
 
     // Print cache status size
@@ -164,6 +214,12 @@ public class EHCacheQueryCache implements IQueryCache {
 
   @Override
   public TableModel getTableModel( TableCacheKey key ) {
+    final CachedTable cached = getCachedTable( key );
+    return cached != null ? cached.getTable() : null;
+  }
+
+  @Override
+  public CachedTable getCachedTable( TableCacheKey key ) {
     ClassLoader contextCL = Thread.currentThread().getContextClassLoader();
     try {
       //make sure we have the right class loader in thread to instantiate cda classes in case DiskStore is used
@@ -171,8 +227,12 @@ public class EHCacheQueryCache implements IQueryCache {
       Thread.currentThread().setContextClassLoader( this.getClass().getClassLoader() );
       final Element element = cache.get( key );
       if ( element != null ) {
-        final TableModel cachedTableModel = (TableModel) ( (CacheElement) element.getObjectValue() ).getTable();
+        final CacheElement cacheElement = (CacheElement) element.getObjectValue();
+        final TableModel cachedTableModel = cacheElement.getTable();
         if ( cachedTableModel != null ) {
+          if ( sizePolicy != null ) {
+            sizePolicy.touch( key );
+          }
           if ( logger.isDebugEnabled() ) {
             // we have a entry in the cache ... great!
             logger.debug( "Found tableModel in cache. Returning" );
@@ -180,7 +240,7 @@ public class EHCacheQueryCache implements IQueryCache {
             logger.debug( "Cache status: " + cache.getMemoryStoreSize() + " in memory, "
               + cache.getDiskStoreSize() + " in disk" );
           }
-          return cachedTableModel;
+          return new CachedTable( key, cachedTableModel, cacheElement.getInfo() );
         }
       }
       return null;
@@ -201,6 +261,13 @@ public class EHCacheQueryCache implements IQueryCache {
     return this.cache;
   }
 
+  /**
+   * @return size-aware eviction policy, null unless <code>pt.webdetails.cda.cache.maxMemoryMB</code> is set
+   */
+  public GreedyDualSizePolicy<TableCacheKey> getSizePolicy() {
+    return sizePolicy;
+  }
+
   @Override
   public boolean remove( TableCacheKey key ) {
     return cache.remove( key );
@@ -216,7 +283,7 @@ public class EHCacheQueryCache implements IQueryCache {
   public ExtraCacheInfo getCacheEntryInfo( TableCacheKey key ) {
     Element element = cache.getQuiet( key );
     if ( element == null ) {
-      logger.warn( "Null element in cache, removing." );
+      logger.debug( "Null element in cache, removing." );
       remove( key );
       return null;
     }
@@ -245,6 +312,9 @@ public class EHCacheQueryCache implements IQueryCache {
       Object val = element.getValue();
       if ( val instanceof CacheElement ) {
         info.setRows( ( (CacheElement) val ).getTable().getRowCount() );
+        if ( ( (CacheElement) val ).getInfo() != null ) {
+          info.setByteSize( ( (CacheElement) val ).getInfo().getByteSize() );
+        }
       }
     }
     return info;
@@ -0,0 +1,159 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Picks cache entries to evict so that their total size stays within a budget, following GreedyDual-Size-Frequency.
+ * <br>
+ * Each entry gets a priority of <code>L + hits * cost / size</code>, where cost is what it takes to compute the entry
+ * again and L is the priority of the last evicted entry. The entry with the lowest priority goes first: small results
+ * of slow, popular queries are kept over large results of quick ones. L grows with each eviction, so entries that are
+ * no longer read eventually age out however costly they were.
+ * <br>
+ * Only tracks keys and their weights; evicting the entries themselves is up to the caller.
+ *
+ * @param <K> cache key
+ */
+public class GreedyDualSizePolicy<K> {
+
+  private final long maxSize;
+  private final Map<K, Entry<K>> entries = new HashMap<K, Entry<K>>();
+  private final TreeSet<Entry<K>> queue = new TreeSet<Entry<K>>();
+  private double inflation;
+  private long totalSize;
+  private long sequence;
+  private long evictionCount;
+
+  /**
+   * @param maxSize budget for the sum of entry sizes
+   */
+  public GreedyDualSizePolicy( final long maxSize ) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Adds or replaces an entry.
+   *
+   * @param key  entry key
+   * @param size entry size, in the same unit as the budget
+   * @param cost cost of computing the entry again, such as query duration
+   * @return keys of the entries to evict, possibly including the one just added
+   */
+  public synchronized List<K> add( final K key, final long size, final long cost ) {
+    final Entry<K> previous = entries.remove( key );
+    if ( previous != null ) {
+      queue.remove( previous );
+      totalSize -= previous.size;
+    }
+    final Entry<K> entry = new Entry<K>( key, Math.max( 1, size ), Math.max( 1, cost ), sequence++ );
+    entry.prioritize( inflation );
+    entries.put( key, entry );
+    queue.add( entry );
+    totalSize += entry.size;
+
+    if ( totalSize <= maxSize ) {
+      return Collections.emptyList();
+    }
+    final List<K> evicted = new ArrayList<K>();
+    while ( totalSize > maxSize ) {
+      final Entry<K> victim = queue.pollFirst();
+      entries.remove( victim.key );
+      totalSize -= victim.size;
+      inflation = victim.priority;
+      evictionCount++;
+      evicted.add( victim.key );
+    }
+    return evicted;
+  }
+
+  /**
+   * Counts a hit, raising the entry's priority.
+   */
+  public synchronized void touch( final K key ) {
+    final Entry<K> entry = entries.get( key );
+    if ( entry != null ) {
+      queue.remove( entry );
+      entry.hits++;
+      entry.prioritize( inflation );
+      queue.add( entry );
+    }
+  }
+
+  /**
+   * Stops tracking an entry removed from the cache.
+   */
+  public synchronized void remove( final K key ) {
+    final Entry<K> entry = entries.remove( key );
+    if ( entry != null ) {
+      queue.remove( entry );
+      totalSize -= entry.size;
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    queue.clear();
+    totalSize = 0;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  private static final class Entry<K> implements Comparable<Entry<K>> {
+    private final K key;
+    private final long size;
+    private final long cost;
+    private final long sequence;
+    private long hits = 1;
+    private double priority;
+
+    Entry( final K key, final long size, final long cost, final long sequence ) {
+      this.key = key;
+      this.size = size;
+      this.cost = cost;
+      this.sequence = sequence;
+    }
+
+    void prioritize( final double inflation ) {
+      priority = inflation + (double) hits * cost / size;
+    }
+
+    @Override
+    public int compareTo( final Entry<K> other ) {
+      final int byPriority = Double.compare( priority, other.priority );
+      // older entries go first among equals
+      return byPriority != 0 ? byPriority : Long.compare( sequence, other.sequence );
+    }
+  }
+}
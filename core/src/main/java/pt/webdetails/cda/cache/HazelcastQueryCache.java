@@ -31,6 +31,8 @@ import pt.webdetails.cda.CdaPropertiesHelper;
 import pt.webdetails.cda.cache.monitor.CacheElementInfo;
 import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
 
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.NearCacheConfig;
 import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.EntryListener;
 import com.hazelcast.core.Hazelcast;
@@ -64,6 +66,8 @@ public class HazelcastQueryCache extends ClassLoaderAwareCaller implements IQuer
   private static long cacheDisablePeriod =
     CdaPropertiesHelper.getIntProperty( "pt.webdetails.cda.cache.disablePeriod", 5 );
   private static boolean debugCache = CdaPropertiesHelper.getBoolProperty( "pt.webdetails.cda.cache.debug", true );
+  private static final String NEAR_CACHE = "pt.webdetails.cda.cache.nearCache";
+  private static final String NEAR_CACHE_MAX_SIZE = "pt.webdetails.cda.cache.nearCacheMaxSize";
 
   private static int timeoutsReached = 0;
   private static boolean active = true;
@@ -124,6 +128,7 @@ public class HazelcastQueryCache extends ClassLoaderAwareCaller implements IQuer
     ClassLoader cdaPluginClassLoader = Thread.currentThread().getContextClassLoader();
     SyncRemoveStatsEntryListener syncRemoveStats = new SyncRemoveStatsEntryListener( cdaPluginClassLoader );
 
+    configureNearCache();
     IMap<TableCacheKey, TableModel> cache = hzInstance.getMap( MAP_NAME );
 
     cache.removeEntryListener( syncRemoveStats );
@@ -135,24 +140,46 @@ public class HazelcastQueryCache extends ClassLoaderAwareCaller implements IQuer
     }
   }
 
+  /**
+   * Keeps recently read tables on each node if <code>pt.webdetails.cda.cache.nearCache</code> is set. Only applies if
+   * the map has no near cache configured and was not used yet on this node.
+   */
+  private static void configureNearCache() {
+    if ( !CdaPropertiesHelper.getBoolProperty( NEAR_CACHE, false ) ) {
+      return;
+    }
+    MapConfig mapConfig = hzInstance.getConfig().getMapConfig( MAP_NAME );
+    if ( mapConfig.getNearCacheConfig() == null ) {
+      NearCacheConfig nearCache = new NearCacheConfig();
+      nearCache.setMaxSize( CdaPropertiesHelper.getIntProperty( NEAR_CACHE_MAX_SIZE, 100 ) );
+      nearCache.setEvictionPolicy( "LRU" );
+      // removals, updates and expirations anywhere in the cluster drop the local copy
+      nearCache.setInvalidateOnChange( true );
+      mapConfig.setNearCacheConfig( nearCache );
+      logger.info( "Near cache enabled for " + MAP_NAME );
+    }
+  }
+
   public void shutdownIfRunning() {
     // let cdc handle this
   }
 
   public void putTableModel( TableCacheKey key, TableModel table, int ttlSec, ExtraCacheInfo info ) {
-    getCache().putAsync( key, table );
-    // TODO:async version of :?
-    //    getCache().put(key, table, ttlSec, TimeUnit.SECONDS);
     info.setEntryTime( System.currentTimeMillis() );
     info.setTimeToLive( ttlSec * 1000 );
-    getCacheStats().putAsync( key, info );
+    final TableModel value = TableModelCodec.isEnabled() ? TableModelCodec.serializable( table ) : table;
+    // the stats entry expires along with the table, not only once SyncRemoveStatsEntryListener hears of it;
+    // there is no asynchronous put with a time to live in this Hazelcast version
+    if ( ttlSec > 0 ) {
+      getCacheStats().put( key, info, ttlSec, TimeUnit.SECONDS );
+      getCache().put( key, value, ttlSec, TimeUnit.SECONDS );
+    } else {
+      getCacheStats().putAsync( key, info );
+      getCache().putAsync( key, value );
+    }
   }
 
-  private <K, V> V getWithTimeout( K key, IMap<K, V> map ) {
-    if ( !active ) {
-      return null;
-    }
-    Future<V> future = map.getAsync( key );
+  private <V> V getWithTimeout( Future<V> future, String mapName ) {
     try {
       V result = future.get( getTimeout, timeoutUnit );
       resetTimeouts();
@@ -161,7 +188,7 @@ public class HazelcastQueryCache extends ClassLoaderAwareCaller implements IQuer
       int nbrTimeouts = incrTimeouts();
       checkNbrTimeouts( nbrTimeouts );
       logger.error( "Timeout " + getTimeout + " " + timeoutUnit + " expired fetching from "
-        + map.getName() + " (timeout#" + nbrTimeouts + ")" );
+        + mapName + " (timeout#" + nbrTimeouts + ")" );
     } catch ( InterruptedException e ) {
       logger.error( e );
     } catch ( ExecutionException e ) {
@@ -197,26 +224,35 @@ public class HazelcastQueryCache extends ClassLoaderAwareCaller implements IQuer
 
   @Override
   public TableModel getTableModel( TableCacheKey key ) {
+    return active ? getTableModel( key, getCache().getAsync( key ) ) : null;
+  }
+
+  /**
+   * Fetches the table and its info concurrently, so a hit costs a single round trip.
+   */
+  @Override
+  public CachedTable getCachedTable( TableCacheKey key ) {
+    if ( !active ) {
+      return null;
+    }
+    // info first: if the entry is replaced in between it only looks older than the table, never newer
+    final Future<ExtraCacheInfo> info = getCacheStats().getAsync( key );
+    final TableModel table = getTableModel( key, getCache().getAsync( key ) );
+    if ( table == null ) {
+      info.cancel( false );
+      return null;
+    }
+    return new CachedTable( key, table, getWithTimeout( info, AUX_MAP_NAME ) );
+  }
+
+  private TableModel getTableModel( TableCacheKey key, Future<TableModel> future ) {
     try {
-      ExtraCacheInfo info = getWithTimeout( key, getCacheStats() );
-      if ( info != null ) {
-        // per instance ttl not supported by hazelcast, need to check manually
-        if ( info.getTimeToLive() > 0 && ( info.getTimeToLive() + info.getEntryTime() ) < System.currentTimeMillis() ) {
-          logger.info( "Cache element expired, removing from cache." );
-          getCache().removeAsync( key );
-          return null;
-        } else {
-          TableModel tm = getWithTimeout( key, getCache() );
-          if ( tm == null ) {
-            logger.error( "Cache stats out of sync! Removing element." );
-            getCacheStats().removeAsync( key );
-            return null;
-          }
-          logger.info( "Table found in cache. Returning." );
-          return tm;
-        }
+      // entries expire by themselves, so the table is all we need to fetch
+      TableModel tm = getWithTimeout( future, MAP_NAME );
+      if ( tm != null ) {
+        logger.info( "Table found in cache. Returning." );
       }
-      return null;
+      return tm;
     } catch ( ClassCastException e ) {
       //handle issue when map would return a dataRecordEntry instead of element type
       //TODO: hasn't been caught in a while, maybe we can drop this
@@ -277,7 +313,7 @@ public class HazelcastQueryCache extends ClassLoaderAwareCaller implements IQuer
 
   @Override
   public ExtraCacheInfo getCacheEntryInfo( TableCacheKey key ) {
-    return getCacheStats().get( key );
+    return active ? getWithTimeout( getCacheStats().getAsync( key ), AUX_MAP_NAME ) : null;
   }
 
   /**
@@ -39,6 +39,19 @@ public interface IQueryCache {
    */
   public TableModel getTableModel( TableCacheKey key );
 
+  /**
+   * Reads a cached result along with its info, both of the same entry.
+   *
+   * @param key the key to retrieve.
+   * @return result and info associated with key, null if not in cache
+   */
+  public default CachedTable getCachedTable( TableCacheKey key ) {
+    // info first: if the entry is replaced in between it only looks older than the table, never newer
+    final ExtraCacheInfo info = getCacheEntryInfo( key );
+    final TableModel table = getTableModel( key );
+    return table != null ? new CachedTable( key, table, info ) : null;
+  }
+
   /**
    * Removes element with given key from cache.
    *
@@ -0,0 +1,181 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.swing.table.TableModel;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.cache.monitor.CacheElementInfo;
+import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+
+/**
+ * Keeps query results off the java heap, in memory-mapped files that are picked up again after a restart.
+ * <br>
+ * Tables are stored with {@link TableModelCodec} and decoded straight from the mapped files on each hit. Only keys and
+ * their {@link ExtraCacheInfo} stay on the heap. To use it, set it as the <code>IQueryCache</code> bean class.
+ *
+ * @see MappedSegmentStore
+ */
+public class MappedQueryCache implements IQueryCache {
+
+  private static final Log logger = LogFactory.getLog( MappedQueryCache.class );
+
+  private static final String DIRECTORY_PROPERTY = "pt.webdetails.cda.cache.mappedDirectory";
+  private static final String SEGMENT_SIZE_PROPERTY = "pt.webdetails.cda.cache.mappedSegmentSizeMB";
+  private static final String SEGMENTS_PROPERTY = "pt.webdetails.cda.cache.mappedSegments";
+  private static final String DEFAULT_DIRECTORY = "_pentaho-cda-mapped";
+
+  private final MappedSegmentStore store;
+  private boolean closed;
+
+  public MappedQueryCache() throws IOException {
+    this( getDefaultDirectory(), CdaPropertiesHelper.getIntProperty( SEGMENT_SIZE_PROPERTY, 64 ) * 1024 * 1024,
+      CdaPropertiesHelper.getIntProperty( SEGMENTS_PROPERTY, 16 ) );
+  }
+
+  /**
+   * @param directory   where segment files are kept; reopening the same directory brings back what was cached there
+   * @param segmentSize bytes per segment file, which is also the largest table that can be cached
+   * @param maxSegments segment files kept before dropping the oldest
+   */
+  public MappedQueryCache( final File directory, final int segmentSize, final int maxSegments ) throws IOException {
+    this.store = MappedSegmentStore.open( directory, segmentSize, maxSegments );
+  }
+
+  private static File getDefaultDirectory() {
+    final String directory = CdaPropertiesHelper.getStringProperty( DIRECTORY_PROPERTY, null );
+    return StringUtils.isEmpty( directory )
+      ? new File( System.getProperty( "java.io.tmpdir" ), DEFAULT_DIRECTORY ) : new File( directory );
+  }
+
+  @Override
+  public void putTableModel( TableCacheKey key, TableModel table, int ttlSec, ExtraCacheInfo info ) {
+    info.setEntryTime( System.currentTimeMillis() );
+    info.setTimeToLive( ttlSec * 1000 );
+    final long expiresAt = ttlSec > 0 ? info.getEntryTime() + ttlSec * 1000L : Long.MAX_VALUE;
+    try {
+      if ( !store.put( key, TableModelCodec.encode( table ), info, expiresAt ) ) {
+        logger.debug( "Table too large for a cache segment, not caching " + key );
+        store.remove( key );
+      }
+    } catch ( IOException e ) {
+      logger.error( "Error writing table to cache", e );
+    }
+  }
+
+  @Override
+  public TableModel getTableModel( TableCacheKey key ) {
+    final CachedTable cached = getCachedTable( key );
+    return cached != null ? cached.getTable() : null;
+  }
+
+  @Override
+  public CachedTable getCachedTable( TableCacheKey key ) {
+    final MappedSegmentStore.Location location = store.get( key );
+    if ( location == null ) {
+      return null;
+    }
+    final InputStream in = location.openTable();
+    try {
+      return new CachedTable( key, TableModelCodec.decode( in ), location.getInfo() );
+    } catch ( Exception e ) {
+      logger.error( "Error while attempting to load from cache, bypassing cache (cause: " + e.getClass() + ")", e );
+      store.remove( key );
+      return null;
+    }
+  }
+
+  @Override
+  public boolean remove( TableCacheKey key ) {
+    return store.remove( key );
+  }
+
+  @Override
+  public int removeAll( String cdaSettingsId, String dataAccessId ) {
+    if ( cdaSettingsId == null ) {
+      final int deleteCount = store.getEntryCount();
+      clearCache();
+      return deleteCount;
+    }
+    int deleteCount = 0;
+    for ( Map.Entry<TableCacheKey, MappedSegmentStore.Location> entry : store.getEntries() ) {
+      final ExtraCacheInfo info = entry.getValue().getInfo();
+      if ( StringUtils.equals( cdaSettingsId, info.getCdaSettingsId() )
+        && ( dataAccessId == null || StringUtils.equals( dataAccessId, info.getDataAccessId() ) ) ) {
+        if ( remove( entry.getKey() ) ) {
+          deleteCount++;
+        }
+      }
+    }
+    return deleteCount;
+  }
+
+  @Override
+  public void clearCache() {
+    store.clear();
+  }
+
+  @Override
+  public Iterable<TableCacheKey> getKeys() {
+    return store.getKeys();
+  }
+
+  @Override
+  public CacheElementInfo getElementInfo( TableCacheKey key ) {
+    final CacheElementInfo ceInfo = new CacheElementInfo();
+    ceInfo.setKey( key );
+    final MappedSegmentStore.Location location = store.get( key );
+    if ( location != null ) {
+      final ExtraCacheInfo info = location.getInfo();
+      ceInfo.setInsertTime( info.getEntryTime() );
+      ceInfo.setAccessTime( location.getAccessTime() > 0 ? location.getAccessTime() : info.getEntryTime() );
+      ceInfo.setHits( location.getHits() );
+      ceInfo.setRows( info.getNbrRows() );
+      ceInfo.setDuration( info.getQueryDurationMs() );
+      ceInfo.setByteSize( (long) location.getTableLength() );
+    }
+    return ceInfo;
+  }
+
+  @Override
+  public ExtraCacheInfo getCacheEntryInfo( TableCacheKey key ) {
+    final MappedSegmentStore.Location location = store.get( key );
+    return location != null ? location.getInfo() : null;
+  }
+
+  public MappedSegmentStore getStore() {
+    return store;
+  }
+
+  /**
+   * Releases the store, which is closed once no other cache on the same directory uses it.
+   */
+  @Override
+  public synchronized void shutdownIfRunning() {
+    if ( !closed ) {
+      closed = true;
+      logger.debug( "Releasing " + store );
+      store.close();
+    }
+  }
+}
@@ -0,0 +1,523 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+
+/**
+ * Append-only store of encoded tables in memory-mapped segment files, indexed on the heap by cache key.
+ * <br>
+ * Records are appended to the newest segment; when the segment count limit is reached the oldest segment is dropped
+ * along with its records. Removed or replaced records are marked as such in place. Table data is only ever read
+ * through views of the mapped files, so it stays out of the java heap until decoded.
+ * <br>
+ * The index is rebuilt from the segment files when a store is opened, so cached tables survive restarts. A record is
+ * only counted once its header is written, after its data, and is checked against a checksum.
+ */
+public class MappedSegmentStore {
+
+  private static final Log logger = LogFactory.getLog( MappedSegmentStore.class );
+
+  private static final int SEGMENT_MAGIC = 0x43444153; // CDAS
+  private static final int RECORD_MAGIC = 0x43444152; // CDAR
+  private static final int VERSION = 1;
+  private static final int SEGMENT_HEADER = 16;
+  // magic, status, key, info and table lengths, expiry, crc
+  private static final int RECORD_HEADER = 4 + 1 + 4 + 4 + 4 + 8 + 4;
+  private static final byte LIVE = 1;
+  private static final byte REMOVED = 0;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".dat";
+
+  // how long to wait for the directory lock if it's held in this JVM, such as by the plugin being reloaded
+  private static final long LOCK_WAIT_MILLIS = 10000;
+  private static final long LOCK_RETRY_MILLIS = 100;
+
+  private static final Map<File, MappedSegmentStore> openStores = new ConcurrentHashMap<File, MappedSegmentStore>();
+
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final Deque<Segment> segments = new ArrayDeque<Segment>();
+  private final Map<TableCacheKey, Location> index = new ConcurrentHashMap<TableCacheKey, Location>();
+  private final RandomAccessFile lockFile;
+  private final FileLock lock;
+  private long nextSegmentId;
+  // caches using the store, guarded by the class lock
+  private int references;
+
+  /**
+   * Each call must be matched by a {@link #close()} once the store is no longer used.
+   *
+   * @return the open store for a directory, opened and loaded with what was left there if needed
+   */
+  public static synchronized MappedSegmentStore open( final File directory, final int segmentSize,
+                                                      final int maxSegments ) throws IOException {
+    final File dir = directory.getCanonicalFile();
+    MappedSegmentStore store = openStores.get( dir );
+    if ( store == null ) {
+      store = new MappedSegmentStore( dir, segmentSize, maxSegments );
+      openStores.put( dir, store );
+    }
+    store.references++;
+    return store;
+  }
+
+  private MappedSegmentStore( final File directory, final int segmentSize, final int maxSegments )
+    throws IOException {
+    if ( segmentSize <= SEGMENT_HEADER + RECORD_HEADER || maxSegments < 1 ) {
+      throw new IllegalArgumentException( "Invalid segment size or count." );
+    }
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Cannot create " + directory );
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.lockFile = new RandomAccessFile( new File( directory, "lock" ), "rw" );
+    this.lock = lock( lockFile, directory );
+    load();
+  }
+
+  private static FileLock lock( final RandomAccessFile lockFile, final File directory ) throws IOException {
+    final long giveUpAt = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+    try {
+      while ( true ) {
+        try {
+          final FileLock lock = lockFile.getChannel().tryLock();
+          if ( lock == null ) {
+            throw new IOException( directory + " is in use by another process" );
+          }
+          return lock;
+        } catch ( OverlappingFileLockException e ) {
+          // held by a store of another class loader, that should soon be closed
+          if ( System.currentTimeMillis() >= giveUpAt ) {
+            throw new IOException( directory + " is still in use in this JVM", e );
+          }
+          Thread.sleep( LOCK_RETRY_MILLIS );
+        }
+      }
+    } catch ( IOException e ) {
+      lockFile.close();
+      throw e;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      lockFile.close();
+      throw new InterruptedIOException( "Interrupted while waiting for " + directory );
+    }
+  }
+
+  /**
+   * Appends a table, replacing any previous one with the same key.
+   *
+   * @param key       cache key
+   * @param table     encoded table
+   * @param info      entry info, kept on the heap as well
+   * @param expiresAt time after which the table is no longer returned, <code>Long.MAX_VALUE</code> for never
+   * @return false if the table doesn't fit in a segment
+   */
+  public synchronized boolean put( final TableCacheKey key, final byte[] table, final ExtraCacheInfo info,
+                                   final long expiresAt ) throws IOException {
+    final byte[] keyBytes = serialize( key );
+    final byte[] infoBytes = serialize( info );
+    final int length = RECORD_HEADER + keyBytes.length + infoBytes.length + table.length;
+    if ( length > segmentSize - SEGMENT_HEADER ) {
+      return false;
+    }
+    Segment segment = segments.peekLast();
+    if ( segment == null || segment.position + length > segmentSize ) {
+      segment = addSegment();
+    }
+
+    final int offset = segment.position;
+    final ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position( offset + RECORD_HEADER );
+    buffer.put( keyBytes ).put( infoBytes ).put( table );
+    final CRC32 crc = new CRC32();
+    crc.update( keyBytes );
+    crc.update( infoBytes );
+    crc.update( table );
+    buffer.position( offset + 4 );
+    buffer.put( LIVE ).putInt( keyBytes.length ).putInt( infoBytes.length ).putInt( table.length )
+      .putLong( expiresAt ).putInt( (int) crc.getValue() );
+    // the record counts once its magic is there
+    buffer.putInt( offset, RECORD_MAGIC );
+    segment.position += length;
+
+    final Location location = new Location( segment, offset, keyBytes.length + infoBytes.length, table.length,
+      expiresAt, info );
+    markRemoved( index.put( key, location ) );
+    return true;
+  }
+
+  /**
+   * @return location of a live table, or null
+   */
+  public Location get( final TableCacheKey key ) {
+    final Location location = index.get( key );
+    if ( location != null && location.isExpired() ) {
+      remove( key );
+      return null;
+    }
+    return location;
+  }
+
+  public synchronized boolean remove( final TableCacheKey key ) {
+    final Location location = index.remove( key );
+    markRemoved( location );
+    return location != null;
+  }
+
+  public synchronized void clear() {
+    index.clear();
+    while ( !segments.isEmpty() ) {
+      deleteSegment( segments.pollFirst() );
+    }
+  }
+
+  public Iterable<TableCacheKey> getKeys() {
+    return new ArrayList<TableCacheKey>( index.keySet() );
+  }
+
+  public Iterable<Map.Entry<TableCacheKey, Location>> getEntries() {
+    return index.entrySet();
+  }
+
+  public int getEntryCount() {
+    return index.size();
+  }
+
+  public synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Releases one use of the store. Once the last is released, flushes the segments to disk and releases the
+   * directory.
+   */
+  public void close() {
+    synchronized ( MappedSegmentStore.class ) {
+      if ( references == 0 || --references > 0 ) {
+        return;
+      }
+      openStores.remove( directory );
+    }
+    synchronized ( this ) {
+      for ( Segment segment : segments ) {
+        segment.buffer.force();
+      }
+      try {
+        lock.release();
+        lockFile.close();
+      } catch ( IOException e ) {
+        logger.error( "Error releasing " + directory, e );
+      }
+    }
+  }
+
+  private void markRemoved( final Location location ) {
+    if ( location != null ) {
+      location.segment.buffer.put( location.offset + 4, REMOVED );
+    }
+  }
+
+  private Segment addSegment() throws IOException {
+    while ( segments.size() >= maxSegments ) {
+      dropOldestSegment();
+    }
+    final Segment segment = mapSegment( new File( directory, SEGMENT_PREFIX + nextSegmentId + SEGMENT_SUFFIX ) );
+    segment.buffer.putInt( 0, SEGMENT_MAGIC );
+    segment.buffer.putInt( 4, VERSION );
+    segment.buffer.putLong( 8, nextSegmentId );
+    nextSegmentId++;
+    segments.addLast( segment );
+    return segment;
+  }
+
+  private void dropOldestSegment() {
+    final Segment oldest = segments.pollFirst();
+    for ( Iterator<Location> it = index.values().iterator(); it.hasNext(); ) {
+      if ( it.next().segment == oldest ) {
+        it.remove();
+      }
+    }
+    deleteSegment( oldest );
+  }
+
+  private void deleteSegment( final Segment segment ) {
+    // tables being read keep the mapping alive until they are done with it
+    if ( !segment.file.delete() ) {
+      logger.warn( "Could not delete " + segment.file );
+    }
+  }
+
+  private Segment mapSegment( final File file ) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+    try {
+      raf.setLength( segmentSize );
+      return new Segment( file, raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, segmentSize ) );
+    } finally {
+      // the mapping stays valid after the file is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Maps the segments left in the directory, oldest first, and indexes their live records.
+   */
+  private void load() {
+    final File[] files = directory.listFiles();
+    final List<Segment> found = new ArrayList<Segment>();
+    for ( File file : files != null ? files : new File[ 0 ] ) {
+      if ( file.getName().startsWith( SEGMENT_PREFIX ) && file.getName().endsWith( SEGMENT_SUFFIX ) ) {
+        try {
+          if ( file.length() != segmentSize ) {
+            throw new IOException( "unexpected size" );
+          }
+          final Segment segment = mapSegment( file );
+          if ( segment.buffer.getInt( 0 ) != SEGMENT_MAGIC || segment.buffer.getInt( 4 ) != VERSION ) {
+            throw new IOException( "not a segment" );
+          }
+          segment.id = segment.buffer.getLong( 8 );
+          found.add( segment );
+        } catch ( IOException e ) {
+          logger.warn( "Discarding " + file + ": " + e.getMessage() );
+          deleteSegment( new Segment( file, null ) );
+        }
+      }
+    }
+    found.sort( ( a, b ) -> Long.compare( a.id, b.id ) );
+    for ( Segment segment : found ) {
+      nextSegmentId = segment.id + 1;
+      segments.addLast( segment );
+      loadRecords( segment );
+    }
+    while ( segments.size() > maxSegments ) {
+      dropOldestSegment();
+    }
+    if ( !index.isEmpty() ) {
+      logger.info( "Loaded " + index.size() + " cached tables from " + directory );
+    }
+  }
+
+  private void loadRecords( final Segment segment ) {
+    final ByteBuffer buffer = segment.buffer;
+    final long now = System.currentTimeMillis();
+    int offset = SEGMENT_HEADER;
+    while ( offset + RECORD_HEADER <= segmentSize && buffer.getInt( offset ) == RECORD_MAGIC ) {
+      final byte status = buffer.get( offset + 4 );
+      final int keyLength = buffer.getInt( offset + 5 );
+      final int infoLength = buffer.getInt( offset + 9 );
+      final int tableLength = buffer.getInt( offset + 13 );
+      final long expiresAt = buffer.getLong( offset + 17 );
+      final int length = RECORD_HEADER + keyLength + infoLength + tableLength;
+      if ( keyLength < 0 || infoLength < 0 || tableLength < 0 || length < 0 || offset + length > segmentSize ) {
+        break;
+      }
+      if ( status == LIVE && expiresAt > now ) {
+        loadRecord( segment, offset, keyLength, infoLength, tableLength, expiresAt );
+      }
+      offset += length;
+    }
+    segment.position = offset;
+  }
+
+  private void loadRecord( final Segment segment, final int offset, final int keyLength, final int infoLength,
+                           final int tableLength, final long expiresAt ) {
+    final ByteBuffer data = segment.buffer.duplicate();
+    data.position( offset + RECORD_HEADER );
+    final byte[] keyBytes = new byte[ keyLength ];
+    final byte[] infoBytes = new byte[ infoLength ];
+    data.get( keyBytes ).get( infoBytes );
+    final CRC32 crc = new CRC32();
+    crc.update( keyBytes );
+    crc.update( infoBytes );
+    final byte[] chunk = new byte[ 8192 ];
+    for ( int left = tableLength; left > 0; left -= chunk.length ) {
+      final int read = Math.min( left, chunk.length );
+      data.get( chunk, 0, read );
+      crc.update( chunk, 0, read );
+    }
+    try {
+      if ( (int) crc.getValue() != segment.buffer.getInt( offset + 25 ) ) {
+        throw new IOException( "checksum mismatch" );
+      }
+      final TableCacheKey key = (TableCacheKey) deserialize( keyBytes );
+      final ExtraCacheInfo info = (ExtraCacheInfo) deserialize( infoBytes );
+      final Location location = new Location( segment, offset, keyLength + infoLength, tableLength, expiresAt, info );
+      markRemoved( index.put( key, location ) );
+    } catch ( Exception e ) {
+      logger.warn( "Skipping unreadable cached table in " + segment.file + " at " + offset + ": " + e.getMessage() );
+      segment.buffer.put( offset + 4, REMOVED );
+    }
+  }
+
+  private static byte[] serialize( final Object object ) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( object );
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize( final byte[] bytes ) throws IOException, ClassNotFoundException {
+    final ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) {
+      @Override
+      protected Class<?> resolveClass( final ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+        try {
+          // keys and infos are cda classes, which the default resolution may not see from here
+          return Class.forName( desc.getName(), false, MappedSegmentStore.class.getClassLoader() );
+        } catch ( ClassNotFoundException e ) {
+          return super.resolveClass( desc );
+        }
+      }
+    };
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static final class Segment {
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private long id;
+    private int position = SEGMENT_HEADER;
+
+    Segment( final File file, final MappedByteBuffer buffer ) {
+      this.file = file;
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * Where a table is stored, along with the info kept for it on the heap.
+   */
+  public static final class Location {
+    private final Segment segment;
+    private final int offset;
+    private final int dataOffset;
+    private final int tableLength;
+    private final long expiresAt;
+    private final ExtraCacheInfo info;
+    private volatile long accessTime;
+    private volatile long hits;
+
+    Location( final Segment segment, final int offset, final int skipped, final int tableLength,
+              final long expiresAt, final ExtraCacheInfo info ) {
+      this.segment = segment;
+      this.offset = offset;
+      this.dataOffset = offset + RECORD_HEADER + skipped;
+      this.tableLength = tableLength;
+      this.expiresAt = expiresAt;
+      this.info = info;
+    }
+
+    /**
+     * @return the encoded table, read straight from the mapped segment
+     */
+    public InputStream openTable() {
+      final ByteBuffer view = segment.buffer.duplicate();
+      view.limit( dataOffset + tableLength ).position( dataOffset );
+      accessTime = System.currentTimeMillis();
+      hits++;
+      return new ByteBufferInputStream( view.slice() );
+    }
+
+    public int getTableLength() {
+      return tableLength;
+    }
+
+    public ExtraCacheInfo getInfo() {
+      return info;
+    }
+
+    public long getAccessTime() {
+      return accessTime;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    boolean isExpired() {
+      return expiresAt <= System.currentTimeMillis();
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream( final ByteBuffer buffer ) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read( final byte[] bytes, final int offset, final int length ) {
+      if ( length == 0 ) {
+        return 0;
+      }
+      if ( !buffer.hasRemaining() ) {
+        return -1;
+      }
+      final int read = Math.min( length, buffer.remaining() );
+      buffer.get( bytes, offset, read );
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return MappedSegmentStore.class.getSimpleName() + Arrays.asList( directory, segmentSize, maxSegments );
+  }
+}
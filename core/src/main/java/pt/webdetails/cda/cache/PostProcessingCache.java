@@ -0,0 +1,149 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second level cache for post-processed query results. It holds the rows that the row filter and sort of a query
+ * select from its raw result, in order, so paging through a filtered or sorted result only has to copy each page.
+ * <br>
+ * Entries are bound to the cache entry of the raw result they were computed for, by its key and the time it was
+ * cached, so they are found from any copy of that result read from the cache, whichever the cache implementation.
+ * A result cached again never gets stale rows, and entries computed for the result it replaced are discarded. The most
+ * recently used entries are kept up to a total number of rows.
+ */
+public class PostProcessingCache {
+
+  public static final int DEFAULT_MAX_ROWS = 5000000;
+
+  private final long maxRows;
+  private final LinkedHashMap<Key, int[]> entries = new LinkedHashMap<Key, int[]>( 16, 0.75f, true );
+  private long cachedRows;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @param maxRows maximum number of row indexes kept in all entries
+   */
+  public PostProcessingCache( final long maxRows ) {
+    this.maxRows = maxRows;
+  }
+
+  /**
+   * @return rows of the raw table in the post-processed result, or null if not cached
+   */
+  public synchronized int[] get( final Key key ) {
+    final int[] rows = entries.get( key );
+    if ( rows == null ) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.incrementAndGet();
+    }
+    return rows;
+  }
+
+  /**
+   * @param key  post-processing of a raw table
+   * @param rows rows of the raw table in the post-processed result; not copied
+   */
+  public synchronized void put( final Key key, final int[] rows ) {
+    if ( rows.length > maxRows ) {
+      return;
+    }
+    final int[] previous = entries.put( key, rows );
+    cachedRows += rows.length - ( previous != null ? previous.length : 0 );
+    for ( Iterator<Map.Entry<Key, int[]>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+      final Map.Entry<Key, int[]> entry = it.next();
+      if ( cachedRows > maxRows || entry.getKey().isReplacedBy( key ) ) {
+        cachedRows -= entry.getValue().length;
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    cachedRows = 0;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getCachedRowCount() {
+    return cachedRows;
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Identifies the post-processing of a cached raw result: the key of its cache entry and when it was cached, plus the
+   * data access definition and query options that affect which rows are shown and in which order.
+   */
+  public static final class Key {
+    private final Object entryKey;
+    private final long entryTime;
+    private final List<Object> options;
+    private final int hash;
+
+    /**
+     * @param entryKey  key the raw result is cached under
+     * @param entryTime when the raw result was cached
+     * @param options   anything else that changes the resulting rows, such as sort columns or filter text
+     */
+    public Key( final Object entryKey, final long entryTime, final Object... options ) {
+      this.entryKey = entryKey;
+      this.entryTime = entryTime;
+      this.options = Arrays.asList( options );
+      this.hash = 31 * ( 31 * entryKey.hashCode() + Long.hashCode( entryTime ) ) + this.options.hashCode();
+    }
+
+    /**
+     * @return if this was computed for a result since cached again under the same key
+     */
+    boolean isReplacedBy( final Key other ) {
+      return entryTime != other.entryTime && entryKey.equals( other.entryKey );
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( this == o ) {
+        return true;
+      }
+      if ( !( o instanceof Key ) ) {
+        return false;
+      }
+      final Key that = (Key) o;
+      return hash == that.hash && entryTime == that.entryTime && entryKey.equals( that.entryKey )
+        && options.equals( that.options );
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
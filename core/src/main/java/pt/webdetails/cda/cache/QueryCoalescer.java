@@ -0,0 +1,99 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight execution: concurrent calls for an equal key share one in-flight execution and its result.
+ * <br>
+ * The first caller for a key (the leader) runs the task in its own thread; callers arriving while it is still
+ * running (coalesced) wait for it and get the same result or exception. Once the leader finishes the key is
+ * released, so later calls are expected to be served by whatever the task left behind (e.g. the query cache).
+ *
+ * @param <K> key type, must implement equals/hashCode
+ * @param <V> result type
+ */
+public class QueryCoalescer<K, V> {
+
+  private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+  private final AtomicLong leaderCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  /**
+   * Runs <code>task</code> unless an execution for an equal key is already in flight, in which case waits for it.
+   *
+   * @param key  execution key
+   * @param task what to run if this caller becomes the leader
+   * @return the result of the (possibly shared) execution
+   * @throws Exception whatever the (possibly shared) execution threw
+   */
+  public V execute( final K key, final Callable<V> task ) throws Exception {
+    final FutureTask<V> future = new FutureTask<V>( task );
+    final FutureTask<V> running = inFlight.putIfAbsent( key, future );
+    if ( running != null ) {
+      coalescedCount.incrementAndGet();
+      return getResult( running );
+    }
+    leaderCount.incrementAndGet();
+    try {
+      future.run();
+    } finally {
+      inFlight.remove( key, future );
+    }
+    return getResult( future );
+  }
+
+  /**
+   * @return number of calls that ran their own execution
+   */
+  public long getLeaderCount() {
+    return leaderCount.get();
+  }
+
+  /**
+   * @return number of calls that waited on another call's execution
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * @return number of executions currently running
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  private V getResult( final FutureTask<V> future ) throws Exception {
+    try {
+      return future.get();
+    } catch ( ExecutionException e ) {
+      final Throwable cause = e.getCause();
+      if ( cause instanceof Exception ) {
+        throw (Exception) cause;
+      }
+      if ( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+
+package pt.webdetails.cda.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Cache of exported query results, compressed with gzip, so that the results of hot queries are not post-processed
+ * and serialized again for every request that the result cache answers.
+ * <br>
+ * Entries are keyed by the entity tag of the export, which covers the cache key and entry time of the result and the
+ * export options. Exports of a result that was refreshed or dropped from the result cache can no longer be found,
+ * and are discarded as the least recently used. The most recently used entries are kept up to a total size.
+ */
+public class ResponseCache {
+
+  public static final int DEFAULT_MAX_MB = 64;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>( 16, 0.75f, true );
+  private long cachedBytes;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @param maxBytes maximum compressed size of all entries
+   */
+  public ResponseCache( final long maxBytes ) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @param eTag entity tag of the export
+   * @return gzip compressed export, or null if not cached
+   */
+  public synchronized byte[] get( final String eTag ) {
+    final byte[] gzipped = entries.get( eTag );
+    if ( gzipped == null ) {
+      missCount.incrementAndGet();
+    } else {
+      hitCount.incrementAndGet();
+    }
+    return gzipped;
+  }
+
+  /**
+   * @param eTag    entity tag of the export
+   * @param gzipped gzip compressed export; not copied
+   */
+  public synchronized void put( final String eTag, final byte[] gzipped ) {
+    if ( gzipped.length > maxBytes ) {
+      return;
+    }
+    final byte[] previous = entries.put( eTag, gzipped );
+    cachedBytes += gzipped.length - ( previous != null ? previous.length : 0 );
+    for ( Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+          cachedBytes > maxBytes && it.hasNext(); ) {
+      cachedBytes -= it.next().getValue().length;
+      it.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    cachedBytes = 0;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Writes a cached export uncompressed.
+   */
+  public static void gunzip( final byte[] gzipped, final OutputStream out ) throws IOException {
+    try ( InputStream in = new GZIPInputStream( new ByteArrayInputStream( gzipped ) ) ) {
+      IOUtils.copy( in, out );
+    }
+  }
+}
@@ -0,0 +1,598 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.utils.ColumnarTableModel;
+
+/**
+ * Compact binary format for cached query results, used instead of default java serialization when tables are written
+ * to disk or sent to other cluster members.
+ * <br>
+ * The table is written column by column after a header with the column names and classes. Each column is encoded
+ * according to the class of its values: integral numbers and dates as variable length deltas, floating point numbers
+ * as raw bits, booleans and nulls as bit sets and strings through a dictionary, so repeated values are written once.
+ * Columns with values of mixed or unknown classes fall back to java serialization. The encoded columns can also be
+ * deflated, trading some cpu for smaller entries.
+ * <br>
+ * Tables are decoded as {@link ColumnarTableModel}s.
+ */
+public final class TableModelCodec {
+
+  private static final String COMPACT_TABLES = "pt.webdetails.cda.cache.compactTables";
+  private static final String COMPRESS_TABLES = "pt.webdetails.cda.cache.compressTables";
+
+  private static final int MAGIC = 0x43444154; // CDAT
+  private static final int VERSION = 1;
+  private static final int FLAG_DEFLATED = 1;
+
+  /**
+   * Column encodings, written by ordinal: only append.
+   */
+  private enum Encoding {
+    OBJECT( null ),
+    LONG( Long.class ),
+    INTEGER( Integer.class ),
+    SHORT( Short.class ),
+    BYTE( Byte.class ),
+    DOUBLE( Double.class ),
+    FLOAT( Float.class ),
+    BOOLEAN( Boolean.class ),
+    STRING( String.class ),
+    DATE( Date.class ),
+    SQL_DATE( java.sql.Date.class ),
+    SQL_TIME( java.sql.Time.class ),
+    TIMESTAMP( Timestamp.class ),
+    BIG_DECIMAL( BigDecimal.class );
+
+    private final Class<?> valueClass;
+
+    Encoding( final Class<?> valueClass ) {
+      this.valueClass = valueClass;
+    }
+
+    static Encoding forClass( final Class<?> clazz ) {
+      for ( Encoding encoding : values() ) {
+        if ( encoding.valueClass == clazz ) {
+          return encoding;
+        }
+      }
+      return OBJECT;
+    }
+  }
+
+  private TableModelCodec() {
+  }
+
+  /**
+   * @return if caches should write tables with this codec
+   */
+  public static boolean isEnabled() {
+    return CdaPropertiesHelper.getBoolProperty( COMPACT_TABLES, true );
+  }
+
+  /**
+   * Encodes a table, deflating it if <code>pt.webdetails.cda.cache.compressTables</code> is set.
+   */
+  public static byte[] encode( final TableModel table ) throws IOException {
+    return encode( table, CdaPropertiesHelper.getBoolProperty( COMPRESS_TABLES, false ) );
+  }
+
+  public static byte[] encode( final TableModel table, final boolean deflate ) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1024 );
+    encode( table, bytes, deflate );
+    return bytes.toByteArray();
+  }
+
+  public static void encode( final TableModel table, final OutputStream out, final boolean deflate )
+    throws IOException {
+    final DataOutputStream header = new DataOutputStream( out );
+    header.writeInt( MAGIC );
+    header.writeByte( VERSION );
+    header.writeByte( deflate ? FLAG_DEFLATED : 0 );
+    header.flush();
+
+    final Deflater deflater = deflate ? new Deflater( Deflater.BEST_SPEED ) : null;
+    final DeflaterOutputStream deflated;
+    final DataOutputStream data;
+    if ( deflate ) {
+      deflated = new DeflaterOutputStream( out, deflater, 8192 );
+      data = new DataOutputStream( deflated );
+    } else {
+      deflated = null;
+      data = header;
+    }
+
+    final int rowCount = table.getRowCount();
+    final int columnCount = table.getColumnCount();
+    writeVarInt( data, rowCount );
+    writeVarInt( data, columnCount );
+    for ( int col = 0; col < columnCount; col++ ) {
+      writeString( data, table.getColumnName( col ) );
+      writeString( data, table.getColumnClass( col ).getName() );
+    }
+    for ( int col = 0; col < columnCount; col++ ) {
+      writeColumn( data, table, col, rowCount );
+    }
+
+    data.flush();
+    if ( deflate ) {
+      deflated.finish();
+      deflater.end();
+    }
+  }
+
+  public static TableModel decode( final byte[] encoded ) throws IOException {
+    return decode( new ByteArrayInputStream( encoded ) );
+  }
+
+  public static TableModel decode( final InputStream in ) throws IOException {
+    final DataInputStream header = new DataInputStream( in );
+    if ( header.readInt() != MAGIC ) {
+      throw new IOException( "Not an encoded table." );
+    }
+    final int version = header.readUnsignedByte();
+    if ( version != VERSION ) {
+      throw new IOException( "Unsupported encoded table version " + version );
+    }
+    final boolean deflated = ( header.readUnsignedByte() & FLAG_DEFLATED ) != 0;
+    final DataInputStream data = deflated ? new DataInputStream( new InflaterInputStream( in ) ) : header;
+
+    final int rowCount = readVarInt( data );
+    final int columnCount = readVarInt( data );
+    final String[] names = new String[ columnCount ];
+    final Class<?>[] classes = new Class<?>[ columnCount ];
+    for ( int col = 0; col < columnCount; col++ ) {
+      names[ col ] = readString( data );
+      classes[ col ] = loadClass( readString( data ) );
+    }
+    final Object[][] columns = new Object[ columnCount ][];
+    for ( int col = 0; col < columnCount; col++ ) {
+      columns[ col ] = readColumn( data, rowCount );
+    }
+    return new ColumnarTableModel( names, classes, new ArrayTableModel( columns, rowCount ) );
+  }
+
+  /**
+   * @return a view of the table that is written with this codec when serialized, and read back as the decoded table
+   */
+  public static TableModel serializable( final TableModel table ) {
+    return table instanceof EncodingTableModel ? table : new EncodingTableModel( table );
+  }
+
+  private static void writeColumn( final DataOutputStream out, final TableModel table, final int col,
+                                   final int rowCount ) throws IOException {
+    final Encoding encoding = chooseEncoding( table, col, rowCount );
+    out.writeByte( encoding.ordinal() );
+    if ( encoding == Encoding.OBJECT ) {
+      final Object[] values = new Object[ rowCount ];
+      for ( int row = 0; row < rowCount; row++ ) {
+        values[ row ] = table.getValueAt( row, col );
+      }
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ObjectOutputStream objects = new ObjectOutputStream( bytes );
+      objects.writeObject( values );
+      objects.close();
+      writeVarInt( out, bytes.size() );
+      bytes.writeTo( out );
+      return;
+    }
+
+    final BitSet nulls = new BitSet( rowCount );
+    for ( int row = 0; row < rowCount; row++ ) {
+      if ( table.getValueAt( row, col ) == null ) {
+        nulls.set( row );
+      }
+    }
+    writeBitSet( out, nulls );
+
+    if ( encoding == Encoding.BOOLEAN ) {
+      final BitSet values = new BitSet( rowCount );
+      for ( int row = nulls.nextClearBit( 0 ); row < rowCount; row = nulls.nextClearBit( row + 1 ) ) {
+        if ( (Boolean) table.getValueAt( row, col ) ) {
+          values.set( row );
+        }
+      }
+      writeBitSet( out, values );
+      return;
+    }
+
+    final Map<String, Integer> dictionary = encoding == Encoding.STRING ? new HashMap<String, Integer>() : null;
+    long previous = 0;
+    for ( int row = nulls.nextClearBit( 0 ); row < rowCount; row = nulls.nextClearBit( row + 1 ) ) {
+      final Object value = table.getValueAt( row, col );
+      switch ( encoding ) {
+        case LONG:
+        case INTEGER:
+        case SHORT:
+        case BYTE:
+          writeVarLong( out, zigZag( ( (Number) value ).longValue() ) );
+          break;
+        case DOUBLE:
+          out.writeLong( Double.doubleToRawLongBits( (Double) value ) );
+          break;
+        case FLOAT:
+          out.writeInt( Float.floatToRawIntBits( (Float) value ) );
+          break;
+        case STRING:
+          final Integer code = dictionary.get( value );
+          if ( code != null ) {
+            writeVarInt( out, code );
+          } else {
+            // a new entry is written in place, with the next free code
+            writeVarInt( out, dictionary.size() );
+            dictionary.put( (String) value, dictionary.size() );
+            writeString( out, (String) value );
+          }
+          break;
+        case DATE:
+        case SQL_DATE:
+        case SQL_TIME:
+        case TIMESTAMP:
+          final long time = ( (Date) value ).getTime();
+          writeVarLong( out, zigZag( time - previous ) );
+          previous = time;
+          if ( encoding == Encoding.TIMESTAMP ) {
+            writeVarInt( out, ( (Timestamp) value ).getNanos() );
+          }
+          break;
+        case BIG_DECIMAL:
+          final BigDecimal decimal = (BigDecimal) value;
+          writeVarInt( out, (int) zigZag( decimal.scale() ) );
+          final byte[] unscaled = decimal.unscaledValue().toByteArray();
+          writeVarInt( out, unscaled.length );
+          out.write( unscaled );
+          break;
+        default:
+          throw new IllegalStateException( encoding.name() );
+      }
+    }
+  }
+
+  private static Object[] readColumn( final DataInputStream in, final int rowCount ) throws IOException {
+    final int ordinal = in.readUnsignedByte();
+    if ( ordinal >= Encoding.values().length ) {
+      throw new IOException( "Unknown column encoding " + ordinal );
+    }
+    final Encoding encoding = Encoding.values()[ ordinal ];
+    if ( encoding == Encoding.OBJECT ) {
+      final byte[] bytes = new byte[ readVarInt( in ) ];
+      in.readFully( bytes );
+      final ObjectInputStream objects = new ContextObjectInputStream( new ByteArrayInputStream( bytes ) );
+      try {
+        return (Object[]) objects.readObject();
+      } catch ( ClassNotFoundException e ) {
+        throw new IOException( e );
+      } finally {
+        objects.close();
+      }
+    }
+
+    final Object[] values = new Object[ rowCount ];
+    final BitSet nulls = readBitSet( in );
+    if ( encoding == Encoding.BOOLEAN ) {
+      final BitSet trues = readBitSet( in );
+      for ( int row = nulls.nextClearBit( 0 ); row < rowCount; row = nulls.nextClearBit( row + 1 ) ) {
+        values[ row ] = trues.get( row );
+      }
+      return values;
+    }
+
+    final List<String> dictionary = encoding == Encoding.STRING ? new ArrayList<String>() : null;
+    long previous = 0;
+    for ( int row = nulls.nextClearBit( 0 ); row < rowCount; row = nulls.nextClearBit( row + 1 ) ) {
+      switch ( encoding ) {
+        case LONG:
+          values[ row ] = unZigZag( readVarLong( in ) );
+          break;
+        case INTEGER:
+          values[ row ] = (int) unZigZag( readVarLong( in ) );
+          break;
+        case SHORT:
+          values[ row ] = (short) unZigZag( readVarLong( in ) );
+          break;
+        case BYTE:
+          values[ row ] = (byte) unZigZag( readVarLong( in ) );
+          break;
+        case DOUBLE:
+          values[ row ] = Double.longBitsToDouble( in.readLong() );
+          break;
+        case FLOAT:
+          values[ row ] = Float.intBitsToFloat( in.readInt() );
+          break;
+        case STRING:
+          final int code = readVarInt( in );
+          if ( code == dictionary.size() ) {
+            dictionary.add( readString( in ) );
+          } else if ( code > dictionary.size() ) {
+            throw new IOException( "Invalid dictionary code " + code );
+          }
+          values[ row ] = dictionary.get( code );
+          break;
+        case DATE:
+          previous += unZigZag( readVarLong( in ) );
+          values[ row ] = new Date( previous );
+          break;
+        case SQL_DATE:
+          previous += unZigZag( readVarLong( in ) );
+          values[ row ] = new java.sql.Date( previous );
+          break;
+        case SQL_TIME:
+          previous += unZigZag( readVarLong( in ) );
+          values[ row ] = new java.sql.Time( previous );
+          break;
+        case TIMESTAMP:
+          previous += unZigZag( readVarLong( in ) );
+          final Timestamp timestamp = new Timestamp( previous );
+          timestamp.setNanos( readVarInt( in ) );
+          values[ row ] = timestamp;
+          break;
+        case BIG_DECIMAL:
+          final int scale = (int) unZigZag( readVarInt( in ) & 0xFFFFFFFFL );
+          final byte[] unscaled = new byte[ readVarInt( in ) ];
+          in.readFully( unscaled );
+          values[ row ] = new BigDecimal( new BigInteger( unscaled ), scale );
+          break;
+        default:
+          throw new IllegalStateException( encoding.name() );
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Typed encoding if all values have the same supported class, {@link Encoding#OBJECT} otherwise.
+   */
+  private static Encoding chooseEncoding( final TableModel table, final int col, final int rowCount ) {
+    Class<?> valueClass = null;
+    for ( int row = 0; row < rowCount; row++ ) {
+      final Object value = table.getValueAt( row, col );
+      if ( value == null ) {
+        continue;
+      }
+      if ( valueClass == null ) {
+        valueClass = value.getClass();
+      } else if ( valueClass != value.getClass() ) {
+        return Encoding.OBJECT;
+      }
+    }
+    // only nulls: any typed encoding will do
+    return valueClass == null ? Encoding.LONG : Encoding.forClass( valueClass );
+  }
+
+  private static Class<?> loadClass( final String name ) {
+    try {
+      return Class.forName( name, false, TableModelCodec.class.getClassLoader() );
+    } catch ( ClassNotFoundException e ) {
+      return Object.class;
+    }
+  }
+
+  private static void writeBitSet( final DataOutputStream out, final BitSet bits ) throws IOException {
+    final long[] words = bits.toLongArray();
+    writeVarInt( out, words.length );
+    for ( long word : words ) {
+      out.writeLong( word );
+    }
+  }
+
+  private static BitSet readBitSet( final DataInputStream in ) throws IOException {
+    final long[] words = new long[ readVarInt( in ) ];
+    for ( int i = 0; i < words.length; i++ ) {
+      words[ i ] = in.readLong();
+    }
+    return BitSet.valueOf( words );
+  }
+
+  /**
+   * UTF-8 bytes, with their length plus one so that 0 stands for null.
+   */
+  private static void writeString( final DataOutputStream out, final String value ) throws IOException {
+    if ( value == null ) {
+      writeVarInt( out, 0 );
+      return;
+    }
+    final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+    writeVarInt( out, bytes.length + 1 );
+    out.write( bytes );
+  }
+
+  private static String readString( final DataInputStream in ) throws IOException {
+    final int length = readVarInt( in ) - 1;
+    if ( length < 0 ) {
+      return null;
+    }
+    final byte[] bytes = new byte[ length ];
+    in.readFully( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  private static long zigZag( final long value ) {
+    return ( value << 1 ) ^ ( value >> 63 );
+  }
+
+  private static long unZigZag( final long value ) {
+    return ( value >>> 1 ) ^ -( value & 1 );
+  }
+
+  private static void writeVarInt( final DataOutputStream out, final int value ) throws IOException {
+    writeVarLong( out, value & 0xFFFFFFFFL );
+  }
+
+  private static int readVarInt( final DataInputStream in ) throws IOException {
+    return (int) readVarLong( in );
+  }
+
+  private static void writeVarLong( final DataOutputStream out, long value ) throws IOException {
+    while ( ( value & ~0x7FL ) != 0 ) {
+      out.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+      value >>>= 7;
+    }
+    out.writeByte( (int) value );
+  }
+
+  private static long readVarLong( final DataInputStream in ) throws IOException {
+    long value = 0;
+    for ( int shift = 0; shift < 64; shift += 7 ) {
+      final int b = in.readUnsignedByte();
+      value |= (long) ( b & 0x7F ) << shift;
+      if ( ( b & 0x80 ) == 0 ) {
+        return value;
+      }
+    }
+    throw new IOException( "Malformed variable length number." );
+  }
+
+  /**
+   * Decoded columns, only read while copying them into the resulting table.
+   */
+  private static class ArrayTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object[][] columns;
+    private final int rowCount;
+
+    ArrayTableModel( final Object[][] columns, final int rowCount ) {
+      this.columns = columns;
+      this.rowCount = rowCount;
+    }
+
+    @Override
+    public int getRowCount() {
+      return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return columns.length;
+    }
+
+    @Override
+    public Object getValueAt( final int rowIndex, final int columnIndex ) {
+      return columns[ columnIndex ][ rowIndex ];
+    }
+  }
+
+  /**
+   * Delegates to a table and replaces it with its encoded form when serialized.
+   */
+  private static class EncodingTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TableModel table;
+
+    EncodingTableModel( final TableModel table ) {
+      this.table = table;
+    }
+
+    @Override
+    public int getRowCount() {
+      return table.getRowCount();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return table.getColumnCount();
+    }
+
+    @Override
+    public String getColumnName( final int columnIndex ) {
+      return table.getColumnName( columnIndex );
+    }
+
+    @Override
+    public Class<?> getColumnClass( final int columnIndex ) {
+      return table.getColumnClass( columnIndex );
+    }
+
+    @Override
+    public Object getValueAt( final int rowIndex, final int columnIndex ) {
+      return table.getValueAt( rowIndex, columnIndex );
+    }
+
+    private Object writeReplace() throws IOException {
+      return new EncodedTable( encode( table ) );
+    }
+  }
+
+  /**
+   * Serialized form of {@link EncodingTableModel}.
+   */
+  private static class EncodedTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] encoded;
+
+    EncodedTable( final byte[] encoded ) {
+      this.encoded = encoded;
+    }
+
+    private Object readResolve() throws IOException {
+      return decode( encoded );
+    }
+  }
+
+  /**
+   * Resolves classes of plain object columns with the thread's context class loader first, as the caches do.
+   */
+  private static class ContextObjectInputStream extends ObjectInputStream {
+
+    ContextObjectInputStream( final InputStream in ) throws IOException {
+      super( in );
+    }
+
+    @Override
+    protected Class<?> resolveClass( final ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+      final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+      if ( loader != null ) {
+        try {
+          return Class.forName( desc.getName(), false, loader );
+        } catch ( ClassNotFoundException e ) {
+          // fall back to the default resolution
+        }
+      }
+      return super.resolveClass( desc );
+    }
+  }
+}
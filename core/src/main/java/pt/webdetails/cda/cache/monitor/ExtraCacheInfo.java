@@ -13,6 +13,7 @@
 
 package pt.webdetails.cda.cache.monitor;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -20,43 +21,34 @@ import java.io.Serializable;
 
 import javax.swing.table.TableModel;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.json.JSONObject;
-
-import pt.webdetails.cda.exporter.JsonExporter;
-
 /**
- * Info about cached item that shouldn't be factored in key comparison
+ * Info about cached item that shouldn't be factored in key comparison.
+ * <br>
+ * Kept small and cheap to build, as one is created and stored (and with Hazelcast, shipped across the cluster) for
+ * every cached result. A preview of the table is rendered from the cached table itself when asked for.
  */
 public class ExtraCacheInfo implements Serializable {
 
   private static final long serialVersionUID = 1L;
-  private static final int TABLE_SNAPSHOT_ROWS = 10;
-
-  static Log logger = LogFactory.getLog( ExtraCacheInfo.class );
 
   private String cdaSettingsId;
   private String dataAccessId;
   private long queryDurationMs;
-  private JSONObject tableSnapshot;
   private int nbrRows;
+  private long byteSize;
 
   private long entryTime;
   private int timeToLive; // TODO: delete?
 
   public ExtraCacheInfo( String cdaSettingsId, String dataAccessId, long queryDurationMs, TableModel tm ) {
+    this( cdaSettingsId, dataAccessId, queryDurationMs, tm.getRowCount() );
+  }
+
+  public ExtraCacheInfo( String cdaSettingsId, String dataAccessId, long queryDurationMs, int nbrRows ) {
     this.cdaSettingsId = cdaSettingsId;
     this.dataAccessId = dataAccessId;
     this.queryDurationMs = queryDurationMs;
-    this.nbrRows = tm.getRowCount();
-    JsonExporter exporter = new JsonExporter( null );
-
-    try {
-      this.tableSnapshot = exporter.getTableAsJson( tm, TABLE_SNAPSHOT_ROWS );
-    } catch ( Exception e ) {
-      logger.error( "Error exporting table snapshot as json.", e );
-    }
+    this.nbrRows = nbrRows;
   }
 
   public String getCdaSettingsId() {
@@ -83,14 +75,6 @@ public class ExtraCacheInfo implements Serializable {
     this.queryDurationMs = queryDurationMs;
   }
 
-  public JSONObject getTableSnapshot() {
-    return tableSnapshot;
-  }
-
-  public void setTableSnapshot( JSONObject tableSnapshot ) {
-    this.tableSnapshot = tableSnapshot;
-  }
-
   public int getNbrRows() {
     return nbrRows;
   }
@@ -99,6 +83,17 @@ public class ExtraCacheInfo implements Serializable {
     this.nbrRows = nbrRows;
   }
 
+  /**
+   * @return estimated heap footprint of the cached table, 0 if unknown
+   */
+  public long getByteSize() {
+    return byteSize;
+  }
+
+  public void setByteSize( long byteSize ) {
+    this.byteSize = byteSize;
+  }
+
   public long getEntryTime() {
     return entryTime;
   }
@@ -122,7 +117,7 @@ public class ExtraCacheInfo implements Serializable {
     out.writeInt( nbrRows );
     out.writeLong( entryTime );
     out.writeInt( timeToLive );
-    out.writeObject( tableSnapshot != null ? tableSnapshot.toString() : null );
+    out.writeLong( byteSize );
   }
 
   private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
@@ -132,11 +127,11 @@ public class ExtraCacheInfo implements Serializable {
     nbrRows = in.readInt();
     entryTime = in.readLong();
     timeToLive = in.readInt();
-
     try {
-      tableSnapshot = new JSONObject( (String) in.readObject() );
-    } catch ( Exception e ) {
-      tableSnapshot = null;
+      byteSize = in.readLong();
+    } catch ( EOFException e ) {
+      // written by an older version, without a size; some are followed by a json snapshot, skipped here
+      byteSize = 0;
     }
   }
 
@@ -149,6 +144,7 @@ public class ExtraCacheInfo implements Serializable {
       + ", timeToLive=" + timeToLive
       + ", queryDurationMs=" + queryDurationMs
       + ", nbrRows=" + nbrRows
+      + ", byteSize=" + byteSize
       + "]";
   }
 }
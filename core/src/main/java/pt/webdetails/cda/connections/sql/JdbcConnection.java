@@ -1,5 +1,5 @@
 /*!
- * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
  *
  * This software was developed by Webdetails and is provided under the terms
  * of the Mozilla Public License, Version 2.0, or any later version. You may not use
@@ -72,6 +72,18 @@ public class JdbcConnection extends AbstractSqlConnection {
       connectionProvider.setProperty( key, value );
     }
 
+    if ( connectionInfo.getPoolConfig() != null ) {
+      try {
+        final String owner = ( getCdaSettings() != null ? getCdaSettings().getId() : "" ) + "/" + getId();
+        final JdbcConnectionPool pool = JdbcConnectionPool.getPool( owner, connectionInfo, connectionProvider );
+        return new PooledConnectionProvider( pool, connectionProvider, connectionInfo.getUser(),
+          connectionInfo.getPass() );
+      } catch ( SQLException e ) {
+        throw new InvalidConnectionException( "JdbcConnection: Found SQLException: "
+          + Util.getExceptionDescription( e ), e );
+      }
+    }
+
     logger.debug( "Opening connection" );
     try {
       final Connection connection =
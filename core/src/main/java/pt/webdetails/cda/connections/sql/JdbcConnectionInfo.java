@@ -1,5 +1,5 @@
 /*!
- * Copyright 2002 - 2017 Webdetails, a Hitachi Vantara company. All rights reserved.
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
  *
  * This software was developed by Webdetails and is provided under the terms
  * of the Mozilla Public License, Version 2.0, or any later version. You may not use
@@ -28,6 +28,7 @@ public class JdbcConnectionInfo {
   private String userField;
   private String passwordField;
   private Properties properties;
+  private JdbcPoolConfig poolConfig;
 
   public JdbcConnectionInfo( final Element connection ) {
 
@@ -74,6 +75,11 @@ public class JdbcConnectionInfo {
       final String text = childElement.getText();
       properties.put( name, text );
     }
+
+    final Element pool = connection.element( "Pool" );
+    if ( pool != null ) {
+      setPoolConfig( new JdbcPoolConfig( pool ) );
+    }
   }
 
   public String getUserField() {
@@ -96,6 +102,17 @@ public class JdbcConnectionInfo {
     return properties;
   }
 
+  /**
+   * @return connection pool settings, null if connections aren't pooled
+   */
+  public JdbcPoolConfig getPoolConfig() {
+    return poolConfig;
+  }
+
+  public void setPoolConfig( final JdbcPoolConfig poolConfig ) {
+    this.poolConfig = poolConfig;
+  }
+
   public String getDriver() {
     return driver;
   }
@@ -150,6 +167,9 @@ public class JdbcConnectionInfo {
     if ( user != null ? !user.equals( that.user ) : that.user != null ) {
       return false;
     }
+    if ( properties != null ? !properties.equals( that.properties ) : that.properties != null ) {
+      return false;
+    }
 
     return true;
   }
@@ -159,6 +179,7 @@ public class JdbcConnectionInfo {
     result = 31 * result + ( url != null ? url.hashCode() : 0 );
     result = 31 * result + ( user != null ? user.hashCode() : 0 );
     result = 31 * result + ( pass != null ? pass.hashCode() : 0 );
+    result = 31 * result + ( properties != null ? properties.hashCode() : 0 );
     return result;
   }
 }
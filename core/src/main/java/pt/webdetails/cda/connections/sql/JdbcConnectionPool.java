@@ -0,0 +1,592 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.connections.sql;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+/**
+ * Pool of physical connections for one jdbc connection definition.
+ * <br>
+ * Pools are shared by all connections with an equal {@link JdbcConnectionInfo} and pool settings, and closed once
+ * no connection uses them after their definitions change. Connections handed out return to the pool when closed,
+ * with the read-only, catalog, schema and isolation settings they were handed out with; idle ones are reused most
+ * recent first and validated before reuse if they have been idle for a while. A background task closes connections
+ * idle for longer than the idle timeout, down to the minimum size. Statistics are published through JMX as
+ * <code>pt.webdetails.cda:type=JdbcPool,name="user@url",pool="settings"</code>.
+ */
+public class JdbcConnectionPool implements JdbcConnectionPoolMXBean {
+
+  private static final Log logger = LogFactory.getLog( JdbcConnectionPool.class );
+
+  private static final long VALIDATION_INTERVAL_MS = 5000;
+  private static final int VALIDATION_TIMEOUT = 5; //seconds
+  private static final long EVICTION_PERIOD = 30; //seconds
+
+  private static final ConcurrentMap<PoolKey, JdbcConnectionPool> pools =
+    new ConcurrentHashMap<PoolKey, JdbcConnectionPool>();
+  // pool each connection definition last asked for
+  private static final ConcurrentMap<String, PoolKey> poolsByOwner = new ConcurrentHashMap<String, PoolKey>();
+  private static ScheduledExecutorService evictor;
+
+  private final String url;
+  private final String user;
+  private final String pass;
+  private final JdbcPoolConfig config;
+  private final ConnectionProvider connectionFactory;
+
+  private final Deque<IdleConnection> idle = new ArrayDeque<IdleConnection>();
+  private final Semaphore permits;
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final AtomicLong borrowCount = new AtomicLong();
+  private final AtomicLong createdCount = new AtomicLong();
+  private final AtomicLong destroyedCount = new AtomicLong();
+  private final AtomicLong validationFailureCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private volatile boolean closed;
+  private ObjectName objectName;
+
+  /**
+   * @param url               url, for logging and statistics
+   * @param user              user to open connections with
+   * @param pass              password to open connections with
+   * @param config            pool settings
+   * @param connectionFactory opens the physical connections
+   */
+  public JdbcConnectionPool( final String url, final String user, final String pass, final JdbcPoolConfig config,
+                             final ConnectionProvider connectionFactory ) {
+    this.url = url;
+    this.user = user;
+    this.pass = pass;
+    this.config = config;
+    this.connectionFactory = connectionFactory;
+    this.permits = new Semaphore( config.getMaxSize(), true );
+  }
+
+  /**
+   * Gets the pool for a connection definition, creating it if needed. A new pool opens its minimum number of
+   * connections, and at least one to check the connection works. If the owner used another pool that no other owner
+   * uses, that pool is closed.
+   *
+   * @param owner             identifies the connection definition, such as its cda file and id
+   * @param info              connection definition, with its pool settings
+   * @param connectionFactory opens the physical connections of a new pool
+   * @return shared pool
+   * @throws SQLException if a new pool can't open its first connections
+   */
+  public static JdbcConnectionPool getPool( final String owner, final JdbcConnectionInfo info,
+                                            final ConnectionProvider connectionFactory ) throws SQLException {
+    final JdbcPoolConfig config = info.getPoolConfig() != null ? info.getPoolConfig() : new JdbcPoolConfig();
+    final PoolKey key = new PoolKey( info, config );
+    JdbcConnectionPool pool = pools.get( key );
+    if ( pool != null && key.equals( poolsByOwner.get( owner ) ) ) {
+      return pool;
+    }
+    synchronized ( pools ) {
+      pool = pools.get( key );
+      if ( pool == null ) {
+        pool = new JdbcConnectionPool( info.getUrl(), info.getUser(), info.getPass(), config, connectionFactory );
+        pool.fill( Math.max( 1, config.getMinSize() ) );
+        pool.registerMBean();
+        pools.put( key, pool );
+        startEvictor();
+        logger.info( "Created connection pool for " + pool.getName() );
+      }
+      final PoolKey previous = poolsByOwner.put( owner, key );
+      if ( previous != null && !previous.equals( key ) && !poolsByOwner.containsValue( previous ) ) {
+        final JdbcConnectionPool replaced = pools.remove( previous );
+        if ( replaced != null ) {
+          logger.info( "Closing connection pool for " + replaced.getName() + ", its definition changed" );
+          replaced.close();
+        }
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * @return statistics of all shared pools
+   */
+  public static Collection<JdbcConnectionPoolMXBean> getPools() {
+    return Collections.<JdbcConnectionPoolMXBean>unmodifiableCollection( pools.values() );
+  }
+
+  /**
+   * Closes all shared pools and stops the eviction task.
+   */
+  public static void closeAll() {
+    synchronized ( pools ) {
+      for ( JdbcConnectionPool pool : pools.values() ) {
+        pool.close();
+      }
+      pools.clear();
+      poolsByOwner.clear();
+      if ( evictor != null ) {
+        evictor.shutdownNow();
+        evictor = null;
+      }
+    }
+  }
+
+  private static void startEvictor() {
+    if ( evictor == null ) {
+      evictor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "cda-jdbc-pool-evictor" );
+        thread.setDaemon( true );
+        return thread;
+      } );
+      evictor.scheduleWithFixedDelay( () -> {
+        for ( JdbcConnectionPool pool : pools.values() ) {
+          try {
+            pool.evictIdle();
+          } catch ( Exception e ) {
+            logger.warn( "Error evicting idle connections of " + pool.getName(), e );
+          }
+        }
+      }, EVICTION_PERIOD, EVICTION_PERIOD, TimeUnit.SECONDS );
+    }
+  }
+
+  /**
+   * Borrows a connection, waiting up to the configured time if all are in use. Closing it returns it to the pool.
+   *
+   * @return pooled connection
+   * @throws SQLException if the wait times out or a connection can't be opened
+   */
+  public Connection getConnection() throws SQLException {
+    if ( closed ) {
+      throw new SQLException( "Connection pool for " + getName() + " is closed" );
+    }
+    waiting.incrementAndGet();
+    final boolean acquired;
+    try {
+      acquired = permits.tryAcquire( config.getMaxWait(), TimeUnit.SECONDS );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new SQLException( "Interrupted while waiting for a connection to " + getName(), e );
+    } finally {
+      waiting.decrementAndGet();
+    }
+    if ( !acquired ) {
+      timeoutCount.incrementAndGet();
+      throw new SQLException( "Timed out after " + config.getMaxWait() + "s waiting for a connection to " + getName()
+        + ", all " + config.getMaxSize() + " in use" );
+    }
+    try {
+      Connection physical = null;
+      IdleConnection entry;
+      while ( physical == null && ( entry = pollIdle() ) != null ) {
+        if ( isUsable( entry ) ) {
+          physical = entry.connection;
+        } else {
+          validationFailureCount.incrementAndGet();
+          destroy( entry.connection );
+        }
+      }
+      if ( physical == null ) {
+        physical = create();
+      }
+      active.incrementAndGet();
+      borrowCount.incrementAndGet();
+      return wrap( physical );
+    } catch ( SQLException | RuntimeException e ) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Closes idle connections and prevents new ones from being handed out. Connections in use are closed when
+   * returned.
+   */
+  public void close() {
+    final List<IdleConnection> toClose;
+    synchronized ( this ) {
+      closed = true;
+      toClose = new ArrayList<IdleConnection>( idle );
+      idle.clear();
+    }
+    for ( IdleConnection entry : toClose ) {
+      destroy( entry.connection );
+    }
+    unregisterMBean();
+  }
+
+  /**
+   * Closes connections idle for longer than the idle timeout, keeping the minimum size, and opens connections up to
+   * the minimum size.
+   */
+  void evictIdle() {
+    final List<IdleConnection> toClose = new ArrayList<IdleConnection>();
+    int missing;
+    synchronized ( this ) {
+      if ( closed ) {
+        return;
+      }
+      if ( config.getIdleTimeout() > 0 ) {
+        final long limit = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis( config.getIdleTimeout() );
+        // oldest are at the end
+        while ( !idle.isEmpty() && idle.size() + active.get() > config.getMinSize()
+          && idle.peekLast().idleSince < limit ) {
+          toClose.add( idle.pollLast() );
+        }
+      }
+      missing = config.getMinSize() - idle.size() - active.get();
+    }
+    for ( IdleConnection entry : toClose ) {
+      destroy( entry.connection );
+    }
+    if ( missing > 0 ) {
+      try {
+        fill( missing );
+      } catch ( SQLException e ) {
+        logger.debug( "Could not open idle connections for " + getName(), e );
+      }
+    }
+  }
+
+  private void fill( final int count ) throws SQLException {
+    for ( int i = 0; i < count; i++ ) {
+      final Connection connection = create();
+      synchronized ( this ) {
+        if ( !closed ) {
+          idle.addLast( new IdleConnection( connection ) );
+          continue;
+        }
+      }
+      destroy( connection );
+    }
+  }
+
+  private synchronized IdleConnection pollIdle() {
+    return idle.pollFirst();
+  }
+
+  private Connection create() throws SQLException {
+    final Connection connection = connectionFactory.createConnection( user, pass );
+    createdCount.incrementAndGet();
+    return connection;
+  }
+
+  private void destroy( final Connection connection ) {
+    destroyedCount.incrementAndGet();
+    try {
+      connection.close();
+    } catch ( SQLException e ) {
+      logger.debug( "Error closing pooled connection", e );
+    }
+  }
+
+  private boolean isUsable( final IdleConnection entry ) {
+    if ( System.currentTimeMillis() - entry.idleSince < VALIDATION_INTERVAL_MS ) {
+      return true;
+    }
+    final Connection connection = entry.connection;
+    try {
+      if ( config.getValidationQuery() != null ) {
+        final Statement statement = connection.createStatement();
+        try {
+          statement.setQueryTimeout( VALIDATION_TIMEOUT );
+          statement.execute( config.getValidationQuery() );
+        } finally {
+          statement.close();
+        }
+        return true;
+      }
+      return connection.isValid( VALIDATION_TIMEOUT );
+    } catch ( SQLException e ) {
+      logger.debug( "Pooled connection to " + getName() + " failed validation", e );
+      return false;
+    } catch ( AbstractMethodError e ) {
+      // pre jdbc 4 driver without isValid
+      try {
+        return !connection.isClosed();
+      } catch ( SQLException e1 ) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * @param changed settings changed while it was handed out, with their values before that
+   */
+  private void release( final Connection physical, final Map<String, Object> changed ) {
+    active.decrementAndGet();
+    try {
+      boolean reusable = !physical.isClosed();
+      if ( reusable && !physical.getAutoCommit() ) {
+        physical.rollback();
+        physical.setAutoCommit( true );
+      }
+      reusable = reusable && restore( physical, changed );
+      synchronized ( this ) {
+        if ( reusable && !closed ) {
+          idle.addFirst( new IdleConnection( physical ) );
+          return;
+        }
+      }
+      destroy( physical );
+    } catch ( SQLException e ) {
+      logger.debug( "Discarding pooled connection that could not be reset", e );
+      destroy( physical );
+    } finally {
+      permits.release();
+    }
+  }
+
+  private static Object getSetting( final Connection connection, final String setter ) throws SQLException {
+    switch ( setter ) {
+      case "setReadOnly":
+        return connection.isReadOnly();
+      case "setCatalog":
+        return connection.getCatalog();
+      case "setSchema":
+        return connection.getSchema();
+      default:
+        return connection.getTransactionIsolation();
+    }
+  }
+
+  /**
+   * @return false if a setting can't be set back, as not all drivers take a null catalog or schema
+   */
+  private static boolean restore( final Connection connection, final Map<String, Object> settings )
+    throws SQLException {
+    for ( Map.Entry<String, Object> setting : settings.entrySet() ) {
+      if ( setting.getValue() == null ) {
+        return false;
+      }
+      switch ( setting.getKey() ) {
+        case "setReadOnly":
+          connection.setReadOnly( (Boolean) setting.getValue() );
+          break;
+        case "setCatalog":
+          connection.setCatalog( (String) setting.getValue() );
+          break;
+        case "setSchema":
+          connection.setSchema( (String) setting.getValue() );
+          break;
+        default:
+          connection.setTransactionIsolation( (Integer) setting.getValue() );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hands out a connection whose <code>close</code> returns it to the pool.
+   */
+  private Connection wrap( final Connection physical ) {
+    final AtomicBoolean released = new AtomicBoolean();
+    final Map<String, Object> changed = Collections.synchronizedMap( new HashMap<String, Object>() );
+    return (Connection) Proxy.newProxyInstance( JdbcConnectionPool.class.getClassLoader(),
+      new Class<?>[] { Connection.class }, ( proxy, method, args ) -> {
+        switch ( method.getName() ) {
+          case "close":
+            if ( released.compareAndSet( false, true ) ) {
+              release( physical, changed );
+            }
+            return null;
+          case "setReadOnly":
+          case "setCatalog":
+          case "setSchema":
+          case "setTransactionIsolation":
+            if ( released.get() ) {
+              throw new SQLException( "Connection already returned to the pool" );
+            }
+            if ( !changed.containsKey( method.getName() ) ) {
+              changed.put( method.getName(), getSetting( physical, method.getName() ) );
+            }
+            break;
+          case "isClosed":
+            if ( released.get() ) {
+              return true;
+            }
+            break;
+          case "equals":
+            return proxy == args[ 0 ];
+          case "hashCode":
+            return System.identityHashCode( proxy );
+          case "toString":
+            return "Pooled " + physical;
+          default:
+            if ( released.get() ) {
+              throw new SQLException( "Connection already returned to the pool" );
+            }
+        }
+        try {
+          return method.invoke( physical, args );
+        } catch ( InvocationTargetException e ) {
+          throw e.getCause();
+        }
+      } );
+  }
+
+  private String getName() {
+    return ( user != null ? user + "@" : "" ) + url;
+  }
+
+  private void registerMBean() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName( "pt.webdetails.cda:type=JdbcPool,name=" + ObjectName.quote( getName() )
+        + ",pool=" + ObjectName.quote( config.toString() ) );
+      if ( server.isRegistered( name ) ) {
+        server.unregisterMBean( name );
+      }
+      server.registerMBean( this, name );
+      objectName = name;
+    } catch ( Exception e ) {
+      logger.warn( "Could not register connection pool " + getName() + " in JMX", e );
+    }
+  }
+
+  private void unregisterMBean() {
+    if ( objectName != null ) {
+      try {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if ( server.isRegistered( objectName ) ) {
+          server.unregisterMBean( objectName );
+        }
+      } catch ( Exception e ) {
+        logger.warn( "Could not unregister connection pool " + getName() + " from JMX", e );
+      }
+      objectName = null;
+    }
+  }
+
+  @Override
+  public String getUrl() {
+    return url;
+  }
+
+  @Override
+  public String getUser() {
+    return user;
+  }
+
+  @Override
+  public int getMinSize() {
+    return config.getMinSize();
+  }
+
+  @Override
+  public int getMaxSize() {
+    return config.getMaxSize();
+  }
+
+  @Override
+  public int getActiveConnections() {
+    return active.get();
+  }
+
+  @Override
+  public synchronized int getIdleConnections() {
+    return idle.size();
+  }
+
+  @Override
+  public int getWaitingRequests() {
+    return waiting.get();
+  }
+
+  @Override
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  @Override
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  @Override
+  public long getDestroyedCount() {
+    return destroyedCount.get();
+  }
+
+  @Override
+  public long getValidationFailureCount() {
+    return validationFailureCount.get();
+  }
+
+  @Override
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  /**
+   * Connection definition and pool settings, as pools are shared by connections with equal ones.
+   */
+  private static final class PoolKey {
+    private final JdbcConnectionInfo info;
+    private final JdbcPoolConfig config;
+
+    PoolKey( final JdbcConnectionInfo info, final JdbcPoolConfig config ) {
+      this.info = info;
+      this.config = config;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+      if ( !( o instanceof PoolKey ) ) {
+        return false;
+      }
+      final PoolKey that = (PoolKey) o;
+      return info.equals( that.info ) && config.equals( that.config );
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * info.hashCode() + config.hashCode();
+    }
+  }
+
+  private static class IdleConnection {
+    private final Connection connection;
+    private final long idleSince = System.currentTimeMillis();
+
+    IdleConnection( final Connection connection ) {
+      this.connection = connection;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.connections.sql;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dom4j.Element;
+
+/**
+ * Connection pool settings of a jdbc connection, from its <code>Pool</code> element:
+ * <pre>
+ * &lt;Pool&gt;
+ *   &lt;MinSize&gt;1&lt;/MinSize&gt;
+ *   &lt;MaxSize&gt;10&lt;/MaxSize&gt;
+ *   &lt;ValidationQuery&gt;select 1&lt;/ValidationQuery&gt;
+ *   &lt;IdleTimeout&gt;600&lt;/IdleTimeout&gt;
+ *   &lt;MaxWait&gt;30&lt;/MaxWait&gt;
+ * &lt;/Pool&gt;
+ * </pre>
+ * All settings are optional; times are in seconds.
+ */
+public class JdbcPoolConfig {
+
+  private static final Log logger = LogFactory.getLog( JdbcPoolConfig.class );
+
+  public static final int DEFAULT_MIN_SIZE = 1;
+  public static final int DEFAULT_MAX_SIZE = 10;
+  public static final int DEFAULT_IDLE_TIMEOUT = 600;
+  public static final int DEFAULT_MAX_WAIT = 30;
+
+  private int minSize = DEFAULT_MIN_SIZE;
+  private int maxSize = DEFAULT_MAX_SIZE;
+  private String validationQuery;
+  private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private int maxWait = DEFAULT_MAX_WAIT;
+
+  public JdbcPoolConfig() {
+  }
+
+  public JdbcPoolConfig( final Element pool ) {
+    maxSize = Math.max( 1, getInt( pool, "MaxSize", DEFAULT_MAX_SIZE ) );
+    minSize = Math.min( maxSize, Math.max( 0, getInt( pool, "MinSize", DEFAULT_MIN_SIZE ) ) );
+    idleTimeout = Math.max( 0, getInt( pool, "IdleTimeout", DEFAULT_IDLE_TIMEOUT ) );
+    maxWait = Math.max( 0, getInt( pool, "MaxWait", DEFAULT_MAX_WAIT ) );
+    final String query = (String) pool.selectObject( "string(./ValidationQuery)" );
+    validationQuery = StringUtils.isBlank( query ) ? null : query.trim();
+  }
+
+  private static int getInt( final Element pool, final String name, final int defaultValue ) {
+    final String value = (String) pool.selectObject( "string(./" + name + ")" );
+    if ( StringUtils.isBlank( value ) ) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      logger.warn( "Invalid value for pool setting " + name + ": '" + value + "', using " + defaultValue );
+      return defaultValue;
+    }
+  }
+
+  /**
+   * @return connections kept open when idle
+   */
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public void setMinSize( final int minSize ) {
+    this.minSize = minSize;
+  }
+
+  /**
+   * @return maximum number of open connections
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public void setMaxSize( final int maxSize ) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return query run to check an idle connection before handing it out, null to use
+   * {@link java.sql.Connection#isValid(int)}
+   */
+  public String getValidationQuery() {
+    return validationQuery;
+  }
+
+  public void setValidationQuery( final String validationQuery ) {
+    this.validationQuery = validationQuery;
+  }
+
+  /**
+   * @return seconds after which an idle connection above the minimum size is closed, 0 to keep them
+   */
+  public int getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  public void setIdleTimeout( final int idleTimeout ) {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * @return seconds to wait for a connection when all are in use
+   */
+  public int getMaxWait() {
+    return maxWait;
+  }
+
+  public void setMaxWait( final int maxWait ) {
+    this.maxWait = maxWait;
+  }
+
+  @Override
+  public boolean equals( final Object o ) {
+    if ( this == o ) {
+      return true;
+    }
+    if ( o == null || getClass() != o.getClass() ) {
+      return false;
+    }
+    final JdbcPoolConfig that = (JdbcPoolConfig) o;
+    return minSize == that.minSize && maxSize == that.maxSize && idleTimeout == that.idleTimeout
+      && maxWait == that.maxWait && StringUtils.equals( validationQuery, that.validationQuery );
+  }
+
+  @Override
+  public int hashCode() {
+    int result = minSize;
+    result = 31 * result + maxSize;
+    result = 31 * result + idleTimeout;
+    result = 31 * result + maxWait;
+    result = 31 * result + ( validationQuery != null ? validationQuery.hashCode() : 0 );
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "min=" + minSize + " max=" + maxSize + " idleTimeout=" + idleTimeout + " maxWait=" + maxWait
+      + ( validationQuery != null ? " validationQuery=" + validationQuery : "" );
+  }
+}
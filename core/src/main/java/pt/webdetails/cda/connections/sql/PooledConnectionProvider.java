@@ -0,0 +1,62 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.connections.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+/**
+ * Takes connections from a {@link JdbcConnectionPool}. Connections requested with credentials other than the pool's
+ * are opened directly, as are all connections after the provider is deserialized.
+ */
+public class PooledConnectionProvider implements ConnectionProvider {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient JdbcConnectionPool pool;
+  private final ConnectionProvider unpooled;
+  private final String user;
+  private final String pass;
+
+  /**
+   * @param pool     pool for the connection's own credentials
+   * @param unpooled opens connections outside the pool
+   * @param user     pool user
+   * @param pass     pool password
+   */
+  public PooledConnectionProvider( final JdbcConnectionPool pool, final ConnectionProvider unpooled,
+                                   final String user, final String pass ) {
+    this.pool = pool;
+    this.unpooled = unpooled;
+    this.user = user;
+    this.pass = pass;
+  }
+
+  @Override
+  public Connection createConnection( final String user, final String password ) throws SQLException {
+    if ( pool != null && ( ( user == null && password == null )
+      || ( ObjectUtils.equals( user, this.user ) && ObjectUtils.equals( password, this.pass ) ) ) ) {
+      return pool.getConnection();
+    }
+    return unpooled.createConnection( user, password );
+  }
+
+  @Override
+  public Object getConnectionHash() {
+    return unpooled.getConnectionHash();
+  }
+}
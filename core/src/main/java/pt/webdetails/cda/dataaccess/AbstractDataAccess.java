@@ -13,6 +13,7 @@
 
 package pt.webdetails.cda.dataaccess;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -21,8 +22,10 @@ import org.pentaho.reporting.libraries.base.config.Configuration;
 import pt.webdetails.cda.CdaEngine;
 import pt.webdetails.cda.cache.CacheKey;
 import pt.webdetails.cda.cache.CacheKey.KeyValuePair;
+import pt.webdetails.cda.cache.CachedTable;
 import pt.webdetails.cda.cache.DataAccessCacheElementParser;
 import pt.webdetails.cda.cache.IQueryCache;
+import pt.webdetails.cda.cache.PostProcessingCache;
 import pt.webdetails.cda.connections.Connection;
 import pt.webdetails.cda.connections.ConnectionCatalog;
 import pt.webdetails.cda.connections.ConnectionCatalog.ConnectionType;
@@ -59,12 +62,14 @@ public abstract class AbstractDataAccess implements DataAccess {
   private DataAccessEnums.ACCESS_TYPE access = DataAccessEnums.ACCESS_TYPE.PUBLIC;
   private boolean cacheEnabled = false;
   private int cacheDuration = 3600;
+  private int staleWhileRevalidate = 0;
   private ArrayList<Parameter> parameters;
   private HashMap<Integer, OutputMode> outputMode;
   private HashMap<Integer, ArrayList<Integer>> outputs;
   private ArrayList<ColumnDefinition> columnDefinitions;
   protected HashMap<Integer, ColumnDefinition> columnDefinitionIndexMap;
   private DataAccessCacheElementParser cdaCacheParser;
+  private String definitionVersion;
 
   private static final String PARAM_ITERATOR_BEGIN = "$FOREACH(";
   private static final String PARAM_ITERATOR_END = ")";
@@ -86,7 +91,7 @@ public abstract class AbstractDataAccess implements DataAccess {
     outputMode.put( 1, OutputMode.INCLUDE );
 
     parseOptions( element );
-
+    definitionVersion = DigestUtils.sha256Hex( element.asXML() );
   }
 
 
@@ -200,6 +205,9 @@ public abstract class AbstractDataAccess implements DataAccess {
           setCacheDuration(
             cdaCacheParser.getCacheDuration() ); // overrides the cacheDuration declared at DataAccess node
         }
+        if ( cdaCacheParser.getStaleWhileRevalidate() != null ) {
+          setStaleWhileRevalidate( cdaCacheParser.getStaleWhileRevalidate() );
+        }
       }
     }
   }
@@ -233,6 +241,12 @@ public abstract class AbstractDataAccess implements DataAccess {
   public static synchronized void clearCache() {
     IQueryCache cache = getCdaCache();
     cache.clearCache();
+    final PostProcessingCache viewCache = TableModelUtils.getPostProcessingCache();
+    if ( viewCache != null ) {
+      viewCache.clear();
+    }
+    // exports of the cleared results
+    CdaEngine.getInstance().clearResponseCache();
   }
 
 
@@ -253,10 +267,16 @@ public abstract class AbstractDataAccess implements DataAccess {
      *
      */
 
-    final TableModel tableModel = queryDataSource( queryOptions );
+    return postProcessResult( queryOptions, new CachedTable( null, queryDataSource( queryOptions ), null ) );
+  }
 
+  /**
+   * @param result raw result, with the key and info of its cache entry if it has one
+   */
+  protected TableModel postProcessResult( final QueryOptions queryOptions, final CachedTable result )
+    throws QueryException {
     try {
-      final TableModel outputTableModel = TableModelUtils.postProcessTableModel( this, queryOptions, tableModel );
+      final TableModel outputTableModel = TableModelUtils.postProcessTableModel( this, queryOptions, result );
       logger.debug( "Query " + getId() + " done successfully - returning tableModel" );
       return outputTableModel;
     } catch ( InvalidOutputIndexException e ) {
@@ -275,6 +295,14 @@ public abstract class AbstractDataAccess implements DataAccess {
 
   protected abstract TableModel queryDataSource( final QueryOptions queryOptions ) throws QueryException;
 
+  /**
+   * @return digest of the definition this was parsed from, the same on every node and reload until it is edited; null
+   * if not parsed from a definition
+   */
+  public String getDefinitionVersion() {
+    return definitionVersion;
+  }
+
 
   //public abstract void closeDataSource() throws QueryException;
 
@@ -355,6 +383,18 @@ public abstract class AbstractDataAccess implements DataAccess {
     this.cacheDuration = cacheDuration;
   }
 
+  /**
+   * @return seconds past the cache duration during which a cached result is still served while a fresh one is
+   * queried in the background; 0 if expired results are never served
+   */
+  public int getStaleWhileRevalidate() {
+    return staleWhileRevalidate;
+  }
+
+  public void setStaleWhileRevalidate( int staleWhileRevalidate ) {
+    this.staleWhileRevalidate = staleWhileRevalidate;
+  }
+
 
   public CdaSettings getCdaSettings() {
     return cdaSettings;
@@ -14,15 +14,40 @@
 package pt.webdetails.cda.dataaccess;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.swing.table.TableModel;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.dom4j.Element;
+import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
 import pt.webdetails.cda.connections.ConnectionCatalog.ConnectionType;
 import pt.webdetails.cda.dataaccess.PropertyDescriptor.Type;
+import pt.webdetails.cda.query.QueryOptions;
+import pt.webdetails.cda.settings.UnknownDataAccessException;
 import pt.webdetails.cda.xml.DomVisitable;
 import pt.webdetails.cda.xml.DomVisitor;
 
 public abstract class CompoundDataAccess extends AbstractDataAccess implements DomVisitable {
 
+  private static final Log logger = LogFactory.getLog( CompoundDataAccess.class );
+
+  private static final String PARALLEL_PROPERTY = "pt.webdetails.cda.CompoundParallelQueries";
+  private static final String TIMEOUT_PROPERTY = "pt.webdetails.cda.CompoundQueryTimeout";
+  private static final int DEFAULT_TIMEOUT = 300; //seconds
+
+  /**
+   * Child queries run by the executor don't fan out again, so its threads never wait on each other.
+   */
+  private static final ThreadLocal<Boolean> inChildQuery = new ThreadLocal<Boolean>();
+
   public CompoundDataAccess( final Element element ) {
     super( element );
   }
@@ -34,6 +59,90 @@ public abstract class CompoundDataAccess extends AbstractDataAccess implements D
     // not needed
   }
 
+  /**
+   * Queries two child data accesses, in parallel when enabled. If one of them fails or the timeout expires, the
+   * other is cancelled.
+   *
+   * @param firstId      id of the first data access
+   * @param secondId     id of the second data access
+   * @param queryOptions options for both queries
+   * @return results of the first and second data accesses
+   * @throws QueryException               if either query fails or times out
+   * @throws UnknownDataAccessException   if either data access does not exist
+   */
+  protected TableModel[] queryChildren( final String firstId, final String secondId, final QueryOptions queryOptions )
+    throws QueryException, UnknownDataAccessException {
+    final DataAccess first = getCdaSettings().getDataAccess( firstId );
+    final DataAccess second = getCdaSettings().getDataAccess( secondId );
+    final boolean parallel = CdaPropertiesHelper.getBoolProperty( PARALLEL_PROPERTY, true );
+    if ( !parallel || Boolean.TRUE.equals( inChildQuery.get() ) ) {
+      return new TableModel[] { first.doQuery( queryOptions ), second.doQuery( queryOptions ) };
+    }
+
+    final ExecutorCompletionService<TableModel> completion =
+      new ExecutorCompletionService<TableModel>( CdaEngine.getInstance().getChildQueryExecutor() );
+    final List<Future<TableModel>> futures = new ArrayList<Future<TableModel>>( 2 );
+    try {
+      try {
+        futures.add( completion.submit( childQuery( first, queryOptions.copy() ) ) );
+      } catch ( RejectedExecutionException e ) {
+        logger.warn( "Compound query executor is full, running " + getId() + " children sequentially." );
+        return new TableModel[] { first.doQuery( queryOptions ), second.doQuery( queryOptions ) };
+      }
+      TableModel secondResult = null;
+      try {
+        futures.add( completion.submit( childQuery( second, queryOptions.copy() ) ) );
+      } catch ( RejectedExecutionException e ) {
+        // the first one may already be running, only the second runs here
+        logger.warn( "Compound query executor is full, running " + secondId + " of " + getId()
+          + " in the calling thread." );
+        secondResult = second.doQuery( queryOptions );
+      }
+
+      final long timeout = CdaPropertiesHelper.getIntProperty( TIMEOUT_PROPERTY, DEFAULT_TIMEOUT );
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( timeout );
+      for ( int i = 0; i < futures.size(); i++ ) {
+        final Future<TableModel> done = completion.poll( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+        if ( done == null ) {
+          throw new QueryException( "Timed out after " + timeout + "s waiting for the children of " + getId(),
+            (Exception) null );
+        }
+        // fail as soon as any of them fails
+        done.get();
+      }
+      return new TableModel[] { futures.get( 0 ).get(), futures.size() > 1 ? futures.get( 1 ).get() : secondResult };
+    } catch ( ExecutionException e ) {
+      final Throwable cause = e.getCause();
+      if ( cause instanceof QueryException ) {
+        throw (QueryException) cause;
+      }
+      throw new QueryException( "Exception during child query of " + getId(), cause );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new QueryException( "Interrupted while waiting for the children of " + getId(), e );
+    } finally {
+      // no-op when both are done
+      cancel( futures );
+    }
+  }
+
+  private static Callable<TableModel> childQuery( final DataAccess dataAccess, final QueryOptions queryOptions ) {
+    return CdaEngine.getEnvironment().propagateContext( () -> {
+      inChildQuery.set( Boolean.TRUE );
+      try {
+        return dataAccess.doQuery( queryOptions );
+      } finally {
+        inChildQuery.remove();
+      }
+    } );
+  }
+
+  private static void cancel( final List<Future<TableModel>> futures ) {
+    for ( Future<TableModel> future : futures ) {
+      future.cancel( true );
+    }
+  }
+
   public ConnectionType getConnectionType() {
     return ConnectionType.NONE;
   }
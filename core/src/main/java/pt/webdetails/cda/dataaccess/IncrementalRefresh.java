@@ -0,0 +1,231 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.dataaccess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+import org.apache.commons.lang.StringUtils;
+import org.dom4j.Element;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+
+import pt.webdetails.cda.utils.ColumnarTableModel;
+
+/**
+ * Refreshes cached results by only querying their newest rows, for data that is only ever added to or changed at
+ * its end, such as time series.
+ * <br>
+ * Declared in a data access as
+ * <code>&lt;Incremental column="day" parameter="since" keys="day,region" retention="86400"/&gt;</code>. When the
+ * cached result goes stale, the query runs again with <code>parameter</code> set to the highest value of
+ * <code>column</code> in it, and is expected to return only rows from there on. These rows replace the cached rows
+ * with the same <code>keys</code>, or are appended if no keys are given. The result is queried in full again once it
+ * has been cached for <code>retention</code> seconds, which picks up any change made further back. Without a
+ * retention, it is <code>pt.webdetails.cda.IncrementalRetentionFactor</code> (24 by default) times the cache
+ * duration.
+ */
+public class IncrementalRefresh {
+
+  private final String watermarkColumn;
+  private final String watermarkParameter;
+  private final String[] keyColumns;
+  private final int retention;
+
+  public IncrementalRefresh( final Element element ) {
+    this( element.attributeValue( "column" ), element.attributeValue( "parameter" ),
+      StringUtils.isBlank( element.attributeValue( "keys" ) )
+        ? new String[ 0 ] : StringUtils.stripAll( element.attributeValue( "keys" ).split( "," ) ),
+      StringUtils.isBlank( element.attributeValue( "retention" ) )
+        ? 0 : Integer.parseInt( element.attributeValue( "retention" ).trim() ) );
+  }
+
+  /**
+   * @param watermarkColumn    column that only grows as rows are added
+   * @param watermarkParameter parameter the query takes the highest cached watermark from
+   * @param keyColumns         columns identifying rows to replace, none to append
+   * @param retention          seconds before querying in full again, 0 for a multiple of the cache duration
+   */
+  public IncrementalRefresh( final String watermarkColumn, final String watermarkParameter,
+                             final String[] keyColumns, final int retention ) {
+    if ( StringUtils.isBlank( watermarkColumn ) || StringUtils.isBlank( watermarkParameter ) ) {
+      throw new IllegalArgumentException( "Incremental refresh needs a watermark column and parameter." );
+    }
+    this.watermarkColumn = watermarkColumn.trim();
+    this.watermarkParameter = watermarkParameter.trim();
+    this.keyColumns = keyColumns.clone();
+    this.retention = retention;
+  }
+
+  public String getWatermarkColumn() {
+    return watermarkColumn;
+  }
+
+  public String getWatermarkParameter() {
+    return watermarkParameter;
+  }
+
+  public String[] getKeyColumns() {
+    return keyColumns.clone();
+  }
+
+  public int getRetention() {
+    return retention;
+  }
+
+  /**
+   * @return highest value of the watermark column, null if the table has none
+   */
+  @SuppressWarnings( { "unchecked", "rawtypes" } )
+  public Object getWatermark( final TableModel table ) {
+    final int column = findColumn( table, watermarkColumn );
+    if ( column < 0 ) {
+      return null;
+    }
+    Comparable watermark = null;
+    for ( int row = 0; row < table.getRowCount(); row++ ) {
+      final Object value = table.getValueAt( row, column );
+      if ( value instanceof Comparable && ( watermark == null || watermark.compareTo( value ) < 0 ) ) {
+        watermark = (Comparable) value;
+      }
+    }
+    return watermark;
+  }
+
+  /**
+   * Merges newly queried rows into a cached table. Rows with a key found in the cached table replace it in place,
+   * others are appended in their order.
+   *
+   * @param cached table being refreshed
+   * @param delta  rows from its watermark on, with the same columns
+   * @return a new table of the same kind as the cached one
+   * @throws IllegalArgumentException if the tables don't have the same columns
+   */
+  public TableModel merge( final TableModel cached, final TableModel delta ) {
+    final int columnCount = cached.getColumnCount();
+    if ( delta.getColumnCount() != columnCount ) {
+      throw new IllegalArgumentException( "Refreshed rows don't have the columns of the cached table." );
+    }
+    for ( int col = 0; col < columnCount; col++ ) {
+      if ( !StringUtils.equals( cached.getColumnName( col ), delta.getColumnName( col ) ) ) {
+        throw new IllegalArgumentException( "Refreshed rows don't have the columns of the cached table." );
+      }
+    }
+    final int[] keys = new int[ keyColumns.length ];
+    for ( int i = 0; i < keys.length; i++ ) {
+      keys[ i ] = findColumn( cached, keyColumns[ i ] );
+      if ( keys[ i ] < 0 ) {
+        throw new IllegalArgumentException( "Unknown key column " + keyColumns[ i ] );
+      }
+    }
+
+    // rows of the merged table, as indexes of cached rows or, if negative, as -1 - index of delta rows
+    final List<Integer> rows = new ArrayList<Integer>( cached.getRowCount() + delta.getRowCount() );
+    if ( keys.length == 0 ) {
+      for ( int row = 0; row < cached.getRowCount(); row++ ) {
+        rows.add( row );
+      }
+      for ( int row = 0; row < delta.getRowCount(); row++ ) {
+        rows.add( -1 - row );
+      }
+    } else {
+      final Map<List<Object>, Integer> deltaRows = new HashMap<List<Object>, Integer>();
+      for ( int row = 0; row < delta.getRowCount(); row++ ) {
+        deltaRows.put( getKey( delta, row, keys ), row );
+      }
+      for ( int row = 0; row < cached.getRowCount(); row++ ) {
+        final Integer replacement = deltaRows.remove( getKey( cached, row, keys ) );
+        rows.add( replacement == null ? row : -1 - replacement );
+      }
+      for ( int row = 0; row < delta.getRowCount(); row++ ) {
+        // appended unless it replaced a cached row, or a later delta row has the same key
+        if ( Integer.valueOf( row ).equals( deltaRows.get( getKey( delta, row, keys ) ) ) ) {
+          rows.add( -1 - row );
+        }
+      }
+    }
+    return copy( cached, new MergedTableModel( cached, delta, rows ) );
+  }
+
+  private static List<Object> getKey( final TableModel table, final int row, final int[] keys ) {
+    final Object[] key = new Object[ keys.length ];
+    for ( int i = 0; i < keys.length; i++ ) {
+      key[ i ] = table.getValueAt( row, keys[ i ] );
+    }
+    return Arrays.asList( key );
+  }
+
+  private static TableModel copy( final TableModel like, final TableModel source ) {
+    final String[] names = new String[ like.getColumnCount() ];
+    final Class<?>[] classes = new Class<?>[ names.length ];
+    for ( int col = 0; col < names.length; col++ ) {
+      names[ col ] = like.getColumnName( col );
+      classes[ col ] = like.getColumnClass( col );
+    }
+    if ( like instanceof ColumnarTableModel ) {
+      return new ColumnarTableModel( names, classes, source );
+    }
+    final TypedTableModel copy = new TypedTableModel( names, classes, source.getRowCount() );
+    for ( int row = 0; row < source.getRowCount(); row++ ) {
+      for ( int col = 0; col < names.length; col++ ) {
+        copy.setValueAt( source.getValueAt( row, col ), row, col );
+      }
+    }
+    return copy;
+  }
+
+  private static int findColumn( final TableModel table, final String name ) {
+    for ( int col = 0; col < table.getColumnCount(); col++ ) {
+      if ( name.equals( table.getColumnName( col ) ) ) {
+        return col;
+      }
+    }
+    return -1;
+  }
+
+  private static class MergedTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    private final TableModel cached;
+    private final TableModel delta;
+    private final List<Integer> rows;
+
+    MergedTableModel( final TableModel cached, final TableModel delta, final List<Integer> rows ) {
+      this.cached = cached;
+      this.delta = delta;
+      this.rows = rows;
+    }
+
+    @Override
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return cached.getColumnCount();
+    }
+
+    @Override
+    public Object getValueAt( final int row, final int column ) {
+      final int source = rows.get( row );
+      return source >= 0 ? cached.getValueAt( source, column ) : delta.getValueAt( -1 - source, column );
+    }
+  }
+}
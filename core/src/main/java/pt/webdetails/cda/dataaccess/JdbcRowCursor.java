@@ -0,0 +1,205 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.dataaccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.DefaultParametrizationProviderFactory;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ParametrizationProvider;
+
+import pt.webdetails.cda.utils.RowCursor;
+
+/**
+ * Rows of a sql query read straight from a forward-only result set, fetched from the database a few at a time.
+ * <br>
+ * Parameters are written and translated as in sql data accesses, by the reporting engine's parametrization, and bound
+ * to the statement; array values take one placeholder per element, for <code>in</code> clauses.
+ */
+public class JdbcRowCursor extends RowCursor {
+
+  private static final Log logger = LogFactory.getLog( JdbcRowCursor.class );
+
+  private final Connection connection;
+  private final boolean restoreAutoCommit;
+  private final PreparedStatement statement;
+  private final ResultSet resultSet;
+  private final String[] columnNames;
+  private final Class<?>[] columnClasses;
+  private boolean closed;
+
+  private JdbcRowCursor( final Connection connection, final boolean restoreAutoCommit,
+                         final PreparedStatement statement, final ResultSet resultSet ) throws SQLException {
+    this.connection = connection;
+    this.restoreAutoCommit = restoreAutoCommit;
+    this.statement = statement;
+    this.resultSet = resultSet;
+
+    final ResultSetMetaData metaData = resultSet.getMetaData();
+    columnNames = new String[ metaData.getColumnCount() ];
+    columnClasses = new Class<?>[ columnNames.length ];
+    for ( int i = 0; i < columnNames.length; i++ ) {
+      columnNames[ i ] = metaData.getColumnLabel( i + 1 );
+      columnClasses[ i ] = getColumnClass( metaData.getColumnClassName( i + 1 ) );
+    }
+  }
+
+  /**
+   * Runs the query, leaving the connection open until the cursor is closed.
+   *
+   * @param provider   connection provider of the data access' connection
+   * @param user       user to connect as, null for the connection's
+   * @param password   password to connect with, null for the connection's
+   * @param query      sql with <code>${name}</code> parameters
+   * @param parameters parameter values, environment ones included
+   * @param fetchSize  rows fetched from the database at a time
+   */
+  public static JdbcRowCursor open( final ConnectionProvider provider, final String user, final String password,
+                                    final String query, final DataRow parameters, final int fetchSize )
+    throws SQLException, ReportDataFactoryException {
+    final Connection connection = provider.createConnection( user, password );
+    boolean restoreAutoCommit = false;
+    PreparedStatement statement = null;
+    try {
+      final ParametrizationProvider parametrization = new DefaultParametrizationProviderFactory().create( connection );
+      final String sql = parametrization.rewriteQueryForParametrization( connection, query, parameters );
+
+      // some drivers, like postgresql's, only fetch rows as they are read inside a transaction
+      if ( connection.getAutoCommit() ) {
+        connection.setAutoCommit( false );
+        restoreAutoCommit = true;
+      }
+      statement = connection.prepareStatement( sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+      statement.setFetchSize( fetchSize );
+      bind( statement, parametrization.getPreparedParameterNames(), parameters );
+      return new JdbcRowCursor( connection, restoreAutoCommit, statement, statement.executeQuery() );
+    } catch ( SQLException | ReportDataFactoryException | RuntimeException e ) {
+      close( connection, restoreAutoCommit, statement, null );
+      throw e;
+    }
+  }
+
+  /**
+   * Binds parameter values as the sql data factory does, with array values expanded to their placeholders.
+   *
+   * @param names parameter of each placeholder of the translated query, once for all the elements of an array
+   */
+  static void bind( final PreparedStatement statement, final String[] names, final DataRow parameters )
+    throws SQLException {
+    int index = 0;
+    for ( String name : names ) {
+      final Object value = parameters.get( name );
+      if ( value instanceof Object[] && ( (Object[]) value ).length > 0 ) {
+        for ( Object element : (Object[]) value ) {
+          statement.setObject( ++index, toSqlValue( element ) );
+        }
+      } else {
+        statement.setObject( ++index, value instanceof Object[] ? null : toSqlValue( value ) );
+      }
+    }
+  }
+
+  private static Object toSqlValue( final Object value ) {
+    if ( value instanceof java.util.Date && !( value instanceof java.sql.Date || value instanceof java.sql.Time
+      || value instanceof Timestamp ) ) {
+      return new Timestamp( ( (java.util.Date) value ).getTime() );
+    }
+    return value;
+  }
+
+  private static Class<?> getColumnClass( final String className ) {
+    if ( className == null ) {
+      return Object.class;
+    }
+    try {
+      return Class.forName( className, false, JdbcRowCursor.class.getClassLoader() );
+    } catch ( ClassNotFoundException e ) {
+      return Object.class;
+    }
+  }
+
+  @Override
+  public int getColumnCount() {
+    return columnNames.length;
+  }
+
+  @Override
+  public String getColumnName( final int column ) {
+    return columnNames[ column ];
+  }
+
+  @Override
+  public Class<?> getColumnClass( final int column ) {
+    return columnClasses[ column ];
+  }
+
+  @Override
+  public boolean next() throws QueryException {
+    try {
+      return resultSet.next();
+    } catch ( SQLException e ) {
+      throw new QueryException( "Error reading query results", e );
+    }
+  }
+
+  @Override
+  public Object getValue( final int column ) {
+    try {
+      return resultSet.getObject( column + 1 );
+    } catch ( SQLException e ) {
+      throw new IllegalStateException( "Error reading column " + columnNames[ column ], e );
+    }
+  }
+
+  @Override
+  public void close() {
+    if ( !closed ) {
+      closed = true;
+      close( connection, restoreAutoCommit, statement, resultSet );
+    }
+  }
+
+  private static void close( final Connection connection, final boolean restoreAutoCommit,
+                             final PreparedStatement statement, final ResultSet resultSet ) {
+    try {
+      if ( resultSet != null ) {
+        resultSet.close();
+      }
+      if ( statement != null ) {
+        statement.close();
+      }
+      if ( restoreAutoCommit ) {
+        connection.rollback();
+        connection.setAutoCommit( true );
+      }
+    } catch ( SQLException e ) {
+      logger.warn( "Error closing query results", e );
+    } finally {
+      try {
+        connection.close();
+      } catch ( SQLException e ) {
+        logger.warn( "Error closing connection", e );
+      }
+    }
+  }
+}
@@ -18,7 +18,6 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import javax.swing.table.TableModel;
@@ -31,6 +30,7 @@ import org.pentaho.metadata.model.concept.types.JoinType;
 import org.pentaho.reporting.libraries.base.util.StringUtils;
 
 import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
 import pt.webdetails.cda.query.QueryOptions;
 import pt.webdetails.cda.settings.UnknownDataAccessException;
 import pt.webdetails.robochef.DynamicTransConfig;
@@ -42,12 +42,18 @@ import pt.webdetails.cda.utils.kettle.RowMetaToTableModel;
 import pt.webdetails.robochef.RowProductionManager;
 import pt.webdetails.robochef.TableModelInput;
 import pt.webdetails.cda.connections.ConnectionCatalog.ConnectionType;
+import pt.webdetails.cda.utils.HashJoin;
 import pt.webdetails.cda.utils.MetadataTableModel;
 
 
 public class JoinCompoundDataAccess extends CompoundDataAccess implements RowProductionManager {
 
   public static final String MAX_ROWS_VALUE_TYPE_SEARCH_PROPERTY = "pt.webdetails.cda.TypeSearchMaxRows";
+  public static final String JOIN_ENGINE_PROPERTY = "pt.webdetails.cda.JoinEngine";
+  /**
+   * {@link #JOIN_ENGINE_PROPERTY} value for joining in memory instead of with a kettle transformation
+   */
+  public static final String HASH_JOIN = "HASH";
   private static final Log logger = LogFactory.getLog( JoinCompoundDataAccess.class );
   private static final String TYPE = "join";
   private static final long DEFAULT_ROW_PRODUCTION_TIMEOUT = 120;
@@ -58,7 +64,6 @@ public class JoinCompoundDataAccess extends CompoundDataAccess implements RowPro
   private String rightId;
   private String[] leftKeys;
   private String[] rightKeys;
-  private ExecutorService executorService = CdaEngine.getInstance().getExecutorService();
 
   public JoinCompoundDataAccess() {
   }
@@ -140,8 +145,9 @@ public class JoinCompoundDataAccess extends CompoundDataAccess implements RowPro
       croppedOptions.setSortBy( new ArrayList<String>() );
       croppedOptions.setPageSize( 0 );
       croppedOptions.setPageStart( 0 );
-      final TableModel tableModelA = this.getCdaSettings().getDataAccess( leftId ).doQuery( croppedOptions );
-      final TableModel tableModelB = this.getCdaSettings().getDataAccess( rightId ).doQuery( croppedOptions );
+      final TableModel[] tableModels = queryChildren( leftId, rightId, croppedOptions );
+      final TableModel tableModelA = tableModels[ 0 ];
+      final TableModel tableModelB = tableModels[ 1 ];
 
       if ( tableModelA.getColumnCount() == 0 || tableModelB.getColumnCount() == 0 ) {
         return new MetadataTableModel( new String[ 0 ], new Class[ 0 ], 0 );
@@ -151,6 +157,10 @@ public class JoinCompoundDataAccess extends CompoundDataAccess implements RowPro
         return voidMerge( tableModelA, tableModelB );
       }
 
+      if ( isHashJoin() ) {
+        return hashJoin( tableModelA, tableModelB );
+      }
+
       String[] leftColumnNames = new String[ leftKeys.length ];
       for ( int i = 0; i < leftKeys.length; i++ ) {
         leftColumnNames[ i ] = tableModelA.getColumnName( Integer.parseInt( leftKeys[ i ] ) );
@@ -209,6 +219,25 @@ public class JoinCompoundDataAccess extends CompoundDataAccess implements RowPro
     return output;
   }
 
+  /**
+   * In-memory join, same output layout as the kettle transformation.
+   */
+  protected TableModel hashJoin( final TableModel tableModelA, final TableModel tableModelB ) {
+    return new HashJoin( tableModelA, toIndexes( leftKeys ), tableModelB, toIndexes( rightKeys ), joinType ).join();
+  }
+
+  private static boolean isHashJoin() {
+    return HASH_JOIN.equalsIgnoreCase( CdaPropertiesHelper.getStringProperty( JOIN_ENGINE_PROPERTY, null ) );
+  }
+
+  private static int[] toIndexes( final String[] keys ) {
+    final int[] indexes = new int[ keys.length ];
+    for ( int i = 0; i < keys.length; i++ ) {
+      indexes[ i ] = Integer.parseInt( keys[ i ].trim() );
+    }
+    return indexes;
+  }
+
   private String getMergeJoinXml( String[] leftColumnNames, String[] rightColumnNames ) {
     StringBuilder mergeJoinXML = new StringBuilder( "<step><name>mergeJoin</name><type>MergeJoin</type><join_type>" );
     mergeJoinXML.append( getMergeJoinType( joinType ) );
@@ -368,7 +397,8 @@ public class JoinCompoundDataAccess extends CompoundDataAccess implements RowPro
 
   public void startRowProduction( long timeout, TimeUnit unit, Collection<Callable<Boolean>> inputCallables ) {
     try {
-      List<Future<Boolean>> results = executorService.invokeAll( inputCallables, timeout, unit );
+      List<Future<Boolean>> results =
+        CdaEngine.getInstance().getExecutorService().invokeAll( inputCallables, timeout, unit );
       for ( Future<Boolean> result : results ) {
         result.get();
       }
@@ -15,6 +15,7 @@ package pt.webdetails.cda.dataaccess;
 import org.dom4j.Element;
 import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
 import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
 import org.pentaho.reporting.engine.classic.core.ParameterDataRow;
 import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
 import org.pentaho.reporting.engine.classic.core.ReportEnvironmentDataRow;
@@ -112,14 +113,9 @@ public abstract class PREDataAccess extends SimpleDataAccess {
 
       // fire the query. you always get a table model or an exception.
 
-      IDataAccessUtils dataAccessUtils = CdaEngine.getEnvironment().getDataAccessUtils();
-      final ReportEnvironmentDataRow environmentDataRow = dataAccessUtils.createEnvironmentDataRow( configuration );
-
-
       PREDataSourceQuery queryExecution = null;
       try {
-        final CompoundDataRow compoundDataRow = new CompoundDataRow( environmentDataRow, parameterDataRow );
-        final TableModel tableModel = dataFactory.queryData( "query", compoundDataRow );
+        final TableModel tableModel = dataFactory.queryData( "query", createQueryDataRow( parameterDataRow ) );
 
         //  Store this variable so that we can close it later
         queryExecution = new PREDataSourceQuery( tableModel, dataFactory );
@@ -170,6 +166,17 @@ public abstract class PREDataAccess extends SimpleDataAccess {
   }
 
 
+  /**
+   * @return the query's parameters along with the reporting environment's, such as <code>env::username</code>
+   */
+  protected DataRow createQueryDataRow( final ParameterDataRow parameterDataRow ) {
+    final Configuration configuration = ClassicEngineBoot.getInstance().getGlobalConfig();
+    final IDataAccessUtils dataAccessUtils = CdaEngine.getEnvironment().getDataAccessUtils();
+    final ReportEnvironmentDataRow environmentDataRow = dataAccessUtils.createEnvironmentDataRow( configuration );
+    return new CompoundDataRow( environmentDataRow, parameterDataRow );
+  }
+
+
   public void initializeDataFactory( final DataFactory dataFactory, final Configuration configuration )
     throws ReportDataFactoryException {
     final ResourceManager resourceManager = CdaEngine.getInstance().getSettingsManager().getResourceManager();
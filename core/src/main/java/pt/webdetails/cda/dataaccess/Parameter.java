@@ -86,6 +86,22 @@ public class Parameter implements java.io.Serializable {
     this.setQuoteCharacter( param.getQuoteCharacter() );
   }
 
+  /**
+   * Exact copy, including current value; unlike {@link #Parameter(Parameter)} nothing is converted to string.
+   */
+  public Parameter copy() {
+    final Parameter copy = new Parameter();
+    copy.name = name;
+    copy.type = type;
+    copy.defaultValue = defaultValue;
+    copy.pattern = pattern;
+    copy.value = value;
+    copy.access = access;
+    copy.separator = separator;
+    copy.quoteCharacter = quoteCharacter;
+    return copy;
+  }
+
   public Parameter( final Element p ) {
     this(
       p.attributeValue( "name" ),
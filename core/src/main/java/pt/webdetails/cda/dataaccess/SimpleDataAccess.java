@@ -20,7 +20,10 @@ import org.dom4j.Element;
 import org.dom4j.Node;
 import org.pentaho.reporting.engine.classic.core.ParameterDataRow;
 import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.cache.CachedTable;
 import pt.webdetails.cda.cache.IQueryCache;
+import pt.webdetails.cda.cache.QueryCoalescer;
 import pt.webdetails.cda.cache.TableCacheKey;
 import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
 import pt.webdetails.cda.connections.Connection;
@@ -31,17 +34,25 @@ import pt.webdetails.cda.events.QueryErrorEvent;
 import pt.webdetails.cda.events.QueryTooLongEvent;
 import pt.webdetails.cda.query.QueryOptions;
 import pt.webdetails.cda.settings.UnknownConnectionException;
+import pt.webdetails.cda.utils.InvalidOutputIndexException;
+import pt.webdetails.cda.utils.RowCursor;
 import pt.webdetails.cda.utils.TableModelUtils;
+import pt.webdetails.cda.utils.TableSizeEstimator;
 import pt.webdetails.cda.xml.DomVisitable;
 import pt.webdetails.cda.xml.DomVisitor;
 import pt.webdetails.cpf.messaging.IEventPublisher;
 
 import javax.swing.table.TableModel;
+import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -59,6 +70,16 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
   private static final String QUERY_TIME_THRESHOLD_PROPERTY = "pt.webdetails.cda.QueryTimeThreshold";
   private static int queryTimeThreshold = getQueryTimeThresholdFromConfig( 3600 ); //seconds
 
+  private static final String QUERY_COALESCING_PROPERTY = "pt.webdetails.cda.QueryCoalescing";
+  private static boolean queryCoalescing = CdaPropertiesHelper.getBoolProperty( QUERY_COALESCING_PROPERTY, true );
+  private static final QueryCoalescer<TableCacheKey, CachedTable> inFlightQueries =
+    new QueryCoalescer<TableCacheKey, CachedTable>();
+  private static final Set<TableCacheKey> refreshingQueries = ConcurrentHashMap.newKeySet();
+
+  private static final String INCREMENTAL_RETENTION_FACTOR_PROPERTY = "pt.webdetails.cda.IncrementalRetentionFactor";
+  private static int incrementalRetentionFactor =
+    Math.max( 1, CdaPropertiesHelper.getIntProperty( INCREMENTAL_RETENTION_FACTOR_PROPERTY, 24 ) );
+
   public SimpleDataAccess() {
     this.eventPublisher = CdaEngine.getEnvironment().getEventPublisher();
   }
@@ -104,6 +125,32 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
 
 
   protected TableModel queryDataSource( final QueryOptions queryOptions ) throws QueryException {
+    return queryCachedDataSource( queryOptions ).getTable();
+  }
+
+  @Override
+  public TableModel doQuery( final QueryOptions queryOptions ) throws QueryException {
+    return doCachedQuery( queryOptions ).getTable();
+  }
+
+  /**
+   * Same as {@link #doQuery(QueryOptions)}, keeping track of the cache entry the result comes from.
+   *
+   * @return the post-processed result, with the key and info of the cache entry it was taken from or cached as; no
+   * info if not cached
+   */
+  public CachedTable doCachedQuery( final QueryOptions queryOptions ) throws QueryException {
+    if ( hasIterableParameterValues( queryOptions ) ) {
+      return new CachedTable( null, super.doQuery( queryOptions ), null );
+    }
+    final CachedTable result = queryCachedDataSource( queryOptions );
+    return new CachedTable( result.getKey(), postProcessResult( queryOptions, result ), result.getInfo() );
+  }
+
+  /**
+   * @return result of the query, with the key and info of the cache entry it was read from or cached as
+   */
+  private CachedTable queryCachedDataSource( final QueryOptions queryOptions ) throws QueryException {
     final List<Parameter> parameters = getFilledParameters( queryOptions );
 
     final ParameterDataRow parameterDataRow;
@@ -116,25 +163,165 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
     logQueryStart( queryOptions, parameters );
 
     // create the cache-key which is both query and parameter values
-    TableCacheKey key;
-    TableModel tableModelCopy;
-    IDataSourceQuery rawQueryExecution = null;
-    Long queryTime = null;
+    final TableCacheKey key;
     try {
       key = createCacheKey( parameters );
+    } catch ( QueryException e ) {
+      publishQueryError( parameterDataRow, e );
+      throw e;
+    }
 
-      if ( isCacheEnabled() && !queryOptions.isCacheBypass() ) {
-        try {
-          final TableModel cachedTableModel = getCdaCache().getTableModel( key );
-          if ( cachedTableModel != null ) {
-            logger.debug( "Found table in cache, returning." );
-            return cachedTableModel;
+    if ( isCacheEnabled() && !queryOptions.isCacheBypass() ) {
+      try {
+        final CachedTable cached = getCdaCache().getCachedTable( key );
+        if ( cached != null ) {
+          logger.debug( "Found table in cache, returning." );
+          final ExtraCacheInfo info = cached.getInfo();
+          if ( isStale( info ) ) {
+            if ( getStaleWhileRevalidate() > 0 ) {
+              refreshInBackground( key, parameters, parameterDataRow, cached.getTable(), info );
+            } else {
+              return refresh( key, parameters, parameterDataRow, cached.getTable(), info );
+            }
           }
-        } catch ( Exception e ) {
-          logger.error( "Error while attempting to load from cache, bypassing cache (cause: " + e.getClass() + ")", e );
+          return cached;
         }
+      } catch ( Exception e ) {
+        logger.error( "Error while attempting to load from cache, bypassing cache (cause: " + e.getClass() + ")", e );
       }
+    }
+
+    return coalesceQuery( key, parameters, parameterDataRow );
+  }
+
+  private CachedTable coalesceQuery( final TableCacheKey key, final List<Parameter> parameters,
+                                     final ParameterDataRow parameterDataRow ) throws QueryException {
+    return coalesce( key, () -> executeQuery( key, parameters, parameterDataRow ) );
+  }
+
+  private CachedTable coalesce( final TableCacheKey key, final Callable<CachedTable> query ) throws QueryException {
+    // identical queries arriving while this one runs share its result; later ones will find it in cache
+    try {
+      return isCacheEnabled() && queryCoalescing ? inFlightQueries.execute( key, query ) : query.call();
+    } catch ( QueryException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new QueryException( "Found an unhandled exception:", e );
+    }
+  }
+
+  /**
+   * @return if the cached entry is older than the cache duration, and only still there to be served while stale or
+   * refreshed incrementally
+   */
+  private boolean isStale( final ExtraCacheInfo info ) {
+    if ( getCacheDuration() <= 0 ) {
+      return false;
+    }
+    return info != null && info.getEntryTime() > 0
+      && System.currentTimeMillis() - info.getEntryTime() > getCacheDuration() * 1000L;
+  }
 
+  /**
+   * Refreshes a stale result on the engine's refresh executor, in the context of the request that found it stale,
+   * unless it is already being refreshed. Failures keep the stale entry until it expires.
+   */
+  private void refreshInBackground( final TableCacheKey key, final List<Parameter> parameters,
+                                    final ParameterDataRow parameterDataRow, final TableModel cached,
+                                    final ExtraCacheInfo info ) {
+    if ( !refreshingQueries.add( key ) ) {
+      return;
+    }
+    logger.debug( "Serving stale table from cache, refreshing it in the background." );
+    try {
+      CdaEngine.getInstance().getRefreshExecutor().submit( CdaEngine.getEnvironment().propagateContext( () -> {
+        try {
+          refresh( key, parameters, parameterDataRow, cached, info );
+        } finally {
+          refreshingQueries.remove( key );
+        }
+        return null;
+      } ) );
+    } catch ( RejectedExecutionException e ) {
+      refreshingQueries.remove( key );
+      logger.warn( "No thread available to refresh stale cache entry of " + getId() );
+    }
+  }
+
+  /**
+   * Queries and caches a stale result again, only for its newest rows if refreshed incrementally. It is queried in
+   * full if it has no rows to take a watermark from, or is about to expire. If that fails, the stale result is kept
+   * and returned.
+   */
+  private CachedTable refresh( final TableCacheKey key, final List<Parameter> parameters,
+                               final ParameterDataRow parameterDataRow, final TableModel cached,
+                               final ExtraCacheInfo info ) {
+    try {
+      return requery( key, parameters, parameterDataRow, cached, info );
+    } catch ( QueryException e ) {
+      logger.error( "Error refreshing stale cache entry of " + getId() + ", keeping it", e );
+      return new CachedTable( key, cached, info );
+    }
+  }
+
+  private CachedTable requery( final TableCacheKey key, final List<Parameter> parameters,
+                               final ParameterDataRow parameterDataRow, final TableModel cached,
+                               final ExtraCacheInfo info ) throws QueryException {
+    final IncrementalRefresh incremental = getIncrementalRefresh();
+    final Object watermark = incremental != null ? incremental.getWatermark( cached ) : null;
+    // the merged result keeps the expiry of the full one, after which it is queried in full again
+    final long timeLeft = info.getTimeToLive() > 0
+      ? info.getEntryTime() + info.getTimeToLive() - System.currentTimeMillis() : 0;
+    if ( watermark == null || info.getTimeToLive() > 0 && timeLeft < 1000 ) {
+      return coalesceQuery( key, parameters, parameterDataRow );
+    }
+    final List<Parameter> deltaParameters = new ArrayList<Parameter>( parameters.size() );
+    boolean found = false;
+    for ( Parameter parameter : parameters ) {
+      final Parameter copy = parameter.copy();
+      if ( parameter.getName().equals( incremental.getWatermarkParameter() ) ) {
+        copy.setValue( watermark );
+        found = true;
+      }
+      deltaParameters.add( copy );
+    }
+    if ( !found ) {
+      throw new QueryException( "Incremental refresh parameter " + incremental.getWatermarkParameter()
+        + " not declared in " + getId(), null );
+    }
+    final ParameterDataRow deltaDataRow;
+    try {
+      deltaDataRow = Parameter.createParameterDataRowFromParameters( deltaParameters );
+    } catch ( InvalidParameterException e ) {
+      throw new QueryException( "Error parsing parameters ", e );
+    }
+    final int ttl = info.getTimeToLive() > 0 ? (int) ( timeLeft / 1000 ) : getCacheTimeToLive();
+    return coalesce( key, () -> executeQuery( key, parameters, deltaDataRow,
+      delta -> incremental.merge( cached, delta ), ttl ) );
+  }
+
+  /**
+   * Runs the query against the data source and caches the result, if enabled.
+   *
+   * @return the result, with the info it was cached with if it was
+   */
+  private CachedTable executeQuery( final TableCacheKey key, final List<Parameter> parameters,
+                                    final ParameterDataRow parameterDataRow ) throws QueryException {
+    return executeQuery( key, parameters, parameterDataRow, Function.identity(), getCacheTimeToLive() );
+  }
+
+  /**
+   * @param merge combines the copied query result with what was cached
+   * @param ttl   seconds to cache the result for
+   */
+  private CachedTable executeQuery( final TableCacheKey key, final List<Parameter> parameters,
+                                    final ParameterDataRow parameterDataRow,
+                                    final Function<TableModel, TableModel> merge, final int ttl )
+    throws QueryException {
+    TableModel tableModelCopy;
+    IDataSourceQuery rawQueryExecution = null;
+    Long queryTime = null;
+    try {
       //start timing query
       long beginTime = System.currentTimeMillis();
 
@@ -145,21 +332,9 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
       queryTime = logIfDurationAboveThreshold( beginTime, getId(), getQuery(), parameters );
 
       // Copy the tableModel and cache it
-      tableModelCopy = TableModelUtils.copyTableModel( this, tableModel );
+      tableModelCopy = merge.apply( TableModelUtils.copyTableModel( this, tableModel ) );
     } catch ( Exception e ) {
-
-      try {
-        CdaEvent.QueryInfo info = new CdaEvent.QueryInfo( getCdaSettings().getId(), getId(),
-          getQuery(), parameterDataRow );
-
-        if ( e instanceof QueryException && e.getCause() != null ) {
-          eventPublisher.publish( new QueryErrorEvent( info, e.getCause() ) );
-        } else {
-          eventPublisher.publish( new QueryErrorEvent( info, e ) );
-        }
-      } catch ( Exception inner ) {
-        logger.error( "Error pushing event", inner );
-      }
+      publishQueryError( parameterDataRow, e );
       if ( e instanceof QueryException ) {
         throw (QueryException) e;
       }
@@ -174,16 +349,113 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
     if ( isCacheEnabled() ) {
       ExtraCacheInfo cInfo =
         new ExtraCacheInfo( this.getCdaSettings().getId(), getId(), queryTime, tableModelCopy );
+      cInfo.setEntryTime( System.currentTimeMillis() );
+      cInfo.setTimeToLive( ttl * 1000 );
+      cInfo.setByteSize( TableSizeEstimator.estimate( tableModelCopy ) );
       IQueryCache cache = getCdaCache();
       if ( cache != null ) {
-        cache.putTableModel( key, tableModelCopy, getCacheDuration(), cInfo );
+        cache.putTableModel( key, tableModelCopy, ttl, cInfo );
+        return new CachedTable( key, tableModelCopy, cInfo );
       } else {
         logger.error( "Cache enabled but no cache available." );
       }
     }
 
     // and finally return the copy.
-    return tableModelCopy;
+    return new CachedTable( key, tableModelCopy, null );
+  }
+
+  /**
+   * @return seconds to keep a fully queried result in cache
+   */
+  private int getCacheTimeToLive() {
+    if ( getCacheDuration() <= 0 ) {
+      return getCacheDuration();
+    }
+    final IncrementalRefresh incremental = getIncrementalRefresh();
+    if ( incremental != null ) {
+      // kept to be refreshed incrementally, until its retention is up; by default a number of cache durations
+      final int retention = incremental.getRetention() > 0
+        ? incremental.getRetention() : getCacheDuration() * incrementalRetentionFactor;
+      return Math.max( retention, getCacheDuration() + getStaleWhileRevalidate() );
+    }
+    // results that may be served stale are kept for that much longer
+    return getStaleWhileRevalidate() > 0 ? getCacheDuration() + getStaleWhileRevalidate() : getCacheDuration();
+  }
+
+  /**
+   * @return how stale cached results are refreshed with only their newest rows, or null to query them in full
+   */
+  public IncrementalRefresh getIncrementalRefresh() {
+    return null;
+  }
+
+  private void publishQueryError( final ParameterDataRow parameterDataRow, final Exception e ) {
+    try {
+      CdaEvent.QueryInfo info = new CdaEvent.QueryInfo( getCdaSettings().getId(), getId(),
+        getQuery(), parameterDataRow );
+
+      if ( e instanceof QueryException && e.getCause() != null ) {
+        eventPublisher.publish( new QueryErrorEvent( info, e.getCause() ) );
+      } else {
+        eventPublisher.publish( new QueryErrorEvent( info, e ) );
+      }
+    } catch ( Exception inner ) {
+      logger.error( "Error pushing event", inner );
+    }
+  }
+
+  /**
+   * Identifies the cached result a query would get, without reading it.
+   *
+   * @return validator of the cached result, null if the query wouldn't be answered from the cache as it is
+   * @see #getCacheValidator(CachedTable)
+   */
+  public String getCacheValidator( final QueryOptions queryOptions ) throws QueryException {
+    if ( !isCacheEnabled() || queryOptions.isCacheBypass() ) {
+      return null;
+    }
+    final IQueryCache cache = getCdaCache();
+    if ( cache == null ) {
+      return null;
+    }
+    final TableCacheKey key = createCacheKey( getFilledParameters( queryOptions ) );
+    return getCacheValidator( new CachedTable( key, null, cache.getCacheEntryInfo( key ) ) );
+  }
+
+  /**
+   * Identifies a cached result by its cache key, when it was cached and the version of this data access' definition.
+   * It changes whenever the result does.
+   *
+   * @param result as returned by {@link #doCachedQuery(QueryOptions)}
+   * @return validator of the cached result, null if not taken from a fresh cache entry
+   */
+  public String getCacheValidator( final CachedTable result ) throws QueryException {
+    final ExtraCacheInfo info = result.getInfo();
+    // stale entries are only served by a query, which refreshes them
+    if ( result.getKey() == null || info == null || info.getEntryTime() <= 0 || isStale( info ) ) {
+      return null;
+    }
+    try {
+      return TableCacheKey.getTableCacheKeyAsString( result.getKey() ) + ':' + info.getEntryTime() + ':'
+        + StringUtils.defaultString( getDefinitionVersion() );
+    } catch ( IOException e ) {
+      throw new QueryException( "Unable to serialize cache key", e );
+    }
+  }
+
+  /**
+   * @return number of cache misses that ran their own query
+   */
+  public static long getCoalescingLeaderCount() {
+    return inFlightQueries.getLeaderCount();
+  }
+
+  /**
+   * @return number of cache misses that waited for an identical query already running
+   */
+  public static long getCoalescedQueryCount() {
+    return inFlightQueries.getCoalescedCount();
   }
 
   public List<Parameter> getFilledParameters( final QueryOptions queryOptions ) throws QueryException {
@@ -234,12 +506,13 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
 
   /**
    * @param beginTime When query execution began.
-   * @return duration (in seconds)
+   * @return duration (in milliseconds)
    */
   private long logIfDurationAboveThreshold( final long beginTime, final String queryId, final String query,
                                             final List<Parameter> parameters ) {
     long endTime = System.currentTimeMillis();
-    long duration = ( endTime - beginTime ) / 1000; //precision not an issue: integer op is ok
+    long durationMs = endTime - beginTime;
+    long duration = durationMs / 1000; //precision not an issue: integer op is ok
     if ( duration > queryTimeThreshold ) {
       //publish
       try {
@@ -261,7 +534,7 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
       }
       logger.warn( logMsg );
     }
-    return duration;
+    return durationMs;
   }
 
 
@@ -335,6 +608,60 @@ public abstract class SimpleDataAccess extends AbstractDataAccess implements Dom
 
   protected abstract IDataSourceQuery performRawQuery( ParameterDataRow parameterDataRow ) throws QueryException;
 
+  /**
+   * @return if {@link #doQueryCursor} can read the results of this data access one row at a time
+   */
+  public boolean isCursorQuerySupported() {
+    return false;
+  }
+
+  /**
+   * Queries the data source for rows to be read one at a time, for results too large to be held in memory. Rows
+   * are neither cached nor looked up in cache, and go through the same calculated columns, output columns, row filter
+   * and pagination as {@link #doQuery}, but can't be sorted.
+   *
+   * @return rows of the query, which must be closed once read
+   * @see #isCursorQuerySupported()
+   */
+  public RowCursor doQueryCursor( final QueryOptions queryOptions ) throws QueryException {
+    if ( !queryOptions.getSortBy().isEmpty() ) {
+      throw new QueryException( "Cannot sort rows read one at a time", null );
+    }
+    final List<Parameter> parameters = getFilledParameters( queryOptions );
+    final ParameterDataRow parameterDataRow;
+    try {
+      parameterDataRow = Parameter.createParameterDataRowFromParameters( parameters );
+    } catch ( InvalidParameterException e ) {
+      throw new QueryException( "Error parsing parameters ", e );
+    }
+
+    logQueryStart( queryOptions, parameters );
+
+    final RowCursor rawCursor;
+    try {
+      rawCursor = performCursorQuery( parameterDataRow );
+    } catch ( QueryException e ) {
+      publishQueryError( parameterDataRow, e );
+      throw e;
+    }
+    try {
+      return TableModelUtils.postProcessCursor( this, queryOptions, rawCursor );
+    } catch ( InvalidOutputIndexException e ) {
+      rawCursor.close();
+      throw new QueryException( "Error while setting output index id ", e );
+    }
+  }
+
+  /**
+   * Runs the query for {@link #doQueryCursor}, to be overridden along with {@link #isCursorQuerySupported()}.
+   *
+   * @return raw rows of the query
+   * @throws QueryException unless overridden, as the data access can't be read one row at a time
+   */
+  protected RowCursor performCursorQuery( final ParameterDataRow parameterDataRow ) throws QueryException {
+    throw new QueryException( getType() + " data accesses can't be read one row at a time", null );
+  }
+
 
   //  public abstract void closeDataSource() throws QueryException;
   public String getQuery() {
@@ -17,11 +17,18 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Element;
 import org.pentaho.reporting.engine.classic.core.DataFactory;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.ParameterDataRow;
+import org.pentaho.reporting.engine.classic.core.ReportDataFactoryException;
 import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.SQLReportDataFactory;
+import pt.webdetails.cda.CdaPropertiesHelper;
 import pt.webdetails.cda.connections.ConnectionCatalog.ConnectionType;
 import pt.webdetails.cda.connections.InvalidConnectionException;
 import pt.webdetails.cda.connections.sql.SqlConnection;
 import pt.webdetails.cda.settings.UnknownConnectionException;
+import pt.webdetails.cda.utils.RowCursor;
+
+import java.sql.SQLException;
 
 /**
  * Implementation of a DataAccess that will get data from a SQL database
@@ -30,9 +37,16 @@ public class SqlDataAccess extends PREDataAccess {
 
   private static final Log logger = LogFactory.getLog( SqlDataAccess.class );
   private static final String TYPE = "sql";
+  private static final String FETCH_SIZE_PROPERTY = "pt.webdetails.cda.CursorFetchSize";
+
+  private IncrementalRefresh incrementalRefresh;
 
   public SqlDataAccess( final Element element ) {
     super( element );
+    final Element incremental = (Element) element.selectSingleNode( "./Incremental" );
+    if ( incremental != null ) {
+      incrementalRefresh = new IncrementalRefresh( incremental );
+    }
   }
 
   public SqlDataAccess() {
@@ -72,6 +86,48 @@ public class SqlDataAccess extends PREDataAccess {
 
   }
 
+  @Override
+  public boolean isCursorQuerySupported() {
+    return true;
+  }
+
+  @Override
+  protected RowCursor performCursorQuery( final ParameterDataRow parameterDataRow ) throws QueryException {
+    // same parameters as the sql data factory gets, environment ones included
+    final DataRow queryDataRow = createQueryDataRow( parameterDataRow );
+    try {
+      final SqlConnection connection = (SqlConnection) getCdaSettings().getConnection( getConnectionId() );
+      return JdbcRowCursor.open( connection.getInitializedConnectionProvider(),
+        getStringParameter( queryDataRow, connection.getUserField() ),
+        getStringParameter( queryDataRow, connection.getPasswordField() ),
+        getQuery(), queryDataRow, CdaPropertiesHelper.getIntProperty( FETCH_SIZE_PROPERTY, 1000 ) );
+    } catch ( UnknownConnectionException | InvalidConnectionException e ) {
+      throw new QueryException( "Unknown connection", e );
+    } catch ( SQLException | ReportDataFactoryException e ) {
+      throw new QueryException( "Error running query", e );
+    }
+  }
+
+  /**
+   * Same as the sql data factory, users and passwords can be taken from parameters.
+   */
+  private static String getStringParameter( final DataRow queryDataRow, final String field ) {
+    if ( field == null ) {
+      return null;
+    }
+    final Object value = queryDataRow.get( field );
+    return value instanceof String ? (String) value : null;
+  }
+
+  @Override
+  public IncrementalRefresh getIncrementalRefresh() {
+    return incrementalRefresh;
+  }
+
+  public void setIncrementalRefresh( IncrementalRefresh incrementalRefresh ) {
+    this.incrementalRefresh = incrementalRefresh;
+  }
+
   @Override
   public ConnectionType getConnectionType() {
     return ConnectionType.SQL;
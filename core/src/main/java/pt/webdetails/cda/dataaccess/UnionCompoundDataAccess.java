@@ -62,10 +62,9 @@ public class UnionCompoundDataAccess extends CompoundDataAccess {
       croppedOptions.setSortBy( new ArrayList<String>() );
       croppedOptions.setPageSize( 0 );
       croppedOptions.setPageStart( 0 );
-      final TableModel tableModelA = this.getCdaSettings().getDataAccess( topId ).doQuery( croppedOptions );
-      final TableModel tableModelB = this.getCdaSettings().getDataAccess( bottomId ).doQuery( croppedOptions );
+      final TableModel[] tableModels = queryChildren( topId, bottomId, croppedOptions );
 
-      return TableModelUtils.appendTableModel( tableModelA, tableModelB );
+      return TableModelUtils.appendTableModel( tableModels[ 0 ], tableModels[ 1 ] );
 
     } catch ( CloneNotSupportedException e ) {
       throw new QueryException( "Couldn't clone settings ", e );
@@ -0,0 +1,58 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+
+package pt.webdetails.cda.exporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.swing.table.TableModel;
+
+import org.apache.commons.io.output.TeeOutputStream;
+
+import pt.webdetails.cda.cache.ResponseCache;
+
+/**
+ * Table export that is also compressed as it is written, and kept in the response cache once complete.
+ */
+public class CachingTableQueryResult extends ExportedTableQueryResult {
+
+  private final ResponseCache responseCache;
+
+  /**
+   * @param responseCache where the output is kept
+   * @param eTag          entity tag the output is kept under
+   */
+  public CachingTableQueryResult( TableExporter exporter, TableModel table, ResponseCache responseCache,
+                                  String eTag ) {
+    super( exporter, table );
+    this.responseCache = responseCache;
+    setETag( eTag );
+  }
+
+  @Override
+  public void writeOut( OutputStream out ) throws ExporterException {
+    final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try {
+      final GZIPOutputStream gzip = new GZIPOutputStream( gzipped );
+      super.writeOut( new TeeOutputStream( out, gzip ) );
+      gzip.close();
+    } catch ( IOException e ) {
+      throw new ExporterException( "Error compressing output", e );
+    }
+    responseCache.put( getETag(), gzipped.toByteArray() );
+  }
+}
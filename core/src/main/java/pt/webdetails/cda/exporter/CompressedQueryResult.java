@@ -0,0 +1,51 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+
+package pt.webdetails.cda.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import pt.webdetails.cda.cache.ResponseCache;
+
+/**
+ * Export of a query taken from the response cache, already compressed with gzip.
+ */
+public class CompressedQueryResult extends ExportedQueryResult {
+
+  private final byte[] gzipped;
+
+  /**
+   * @param exporter exporter the output was written by, for its headers
+   * @param gzipped  gzip compressed output
+   */
+  public CompressedQueryResult( Exporter exporter, byte[] gzipped ) {
+    super( exporter );
+    this.gzipped = gzipped;
+  }
+
+  @Override
+  public byte[] getGzippedOutput() {
+    return gzipped;
+  }
+
+  @Override
+  public void writeOut( OutputStream out ) throws ExporterException {
+    try {
+      ResponseCache.gunzip( gzipped, out );
+    } catch ( IOException e ) {
+      throw new ExporterException( "Error writing cached output", e );
+    }
+  }
+}
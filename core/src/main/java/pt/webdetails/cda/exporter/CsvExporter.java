@@ -13,8 +13,15 @@
 
 package pt.webdetails.cda.exporter;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Map;
+import javax.swing.table.TableModel;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.di.trans.step.StepMeta;
@@ -22,8 +29,11 @@ import org.pentaho.di.trans.steps.textfileoutput.TextFileField;
 import org.pentaho.di.trans.steps.textfileoutput.TextFileOutputMeta;
 
 import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.dataaccess.QueryException;
+import pt.webdetails.cda.utils.RowCursor;
 
-public class CsvExporter extends AbstractKettleExporter {
+public class CsvExporter extends AbstractKettleExporter implements CursorExporter {
 
   public static final String CSV_SEPARATOR_SETTING = "csvSeparator";
   public static final String CSV_QUOTE_SETTING = "csvQuote";
@@ -31,6 +41,7 @@ public class CsvExporter extends AbstractKettleExporter {
   private static final Log logger = LogFactory.getLog( CsvExporter.class );
   private static final String DEFAULT_CSV_SEPARATOR_SETTING = ";";
   private static final String DEFAULT_CSV_ENCLOSURE_SETTING = "\"";
+  private static final String NATIVE_EXPORT_PROPERTY = "pt.webdetails.cda.exporter.csv.Native";
   private String separator;
 
   private String enclosure;
@@ -62,6 +73,123 @@ public class CsvExporter extends AbstractKettleExporter {
 
   }
 
+  /**
+   * Writes the table straight to the stream, unless <code>pt.webdetails.cda.exporter.csv.Native</code> is false.
+   * The output is the same as the kettle text file output step: all values enclosed, nulls empty, the header
+   * only enclosing string column names, platform line separators.
+   */
+  @Override
+  public void export( final OutputStream out, final TableModel tableModel ) throws ExporterException {
+    if ( !isNativeExport() ) {
+      super.export( out, tableModel );
+      return;
+    }
+    export( out, RowCursor.over( tableModel ) );
+  }
+
+  /**
+   * Writes the rows as they are read, as the native export does.
+   */
+  @Override
+  public void export( final OutputStream out, final RowCursor cursor ) throws ExporterException {
+    final int columnCount = cursor.getColumnCount();
+    final String lineSeparator = System.lineSeparator();
+    final StringBuilder line = new StringBuilder();
+    try {
+      // column classes inferred from values are only known once they are read
+      Object[] row = cursor.nextRow();
+      final ValueFormatter[] formatters = new ValueFormatter[ columnCount ];
+      for ( int i = 0; i < columnCount; i++ ) {
+        formatters[ i ] = getFormatter( cursor.getColumnClass( i ) );
+      }
+      final Writer writer = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ) );
+      if ( showColumnHeaders && columnCount > 0 ) {
+        for ( int i = 0; i < columnCount; i++ ) {
+          if ( i > 0 ) {
+            line.append( separator );
+          }
+          final String name = cursor.getColumnName( i );
+          if ( "String".equals( getColType( cursor.getColumnClass( i ) ) ) || needsEnclosure( name ) ) {
+            appendEnclosed( line, name );
+          } else {
+            line.append( name );
+          }
+        }
+        writer.write( line.append( lineSeparator ).toString() );
+      }
+      for ( ; row != null; row = cursor.nextRow() ) {
+        line.setLength( 0 );
+        for ( int i = 0; i < columnCount; i++ ) {
+          if ( i > 0 ) {
+            line.append( separator );
+          }
+          if ( row[ i ] != null ) {
+            appendEnclosed( line, formatters[ i ].format( row[ i ] ) );
+          }
+        }
+        writer.write( line.append( lineSeparator ).toString() );
+      }
+      writer.flush();
+    } catch ( IOException e ) {
+      throw new ExporterException( "IO exception during csv export", e );
+    } catch ( QueryException e ) {
+      throw new ExporterException( "Error reading query results", e );
+    }
+  }
+
+  /**
+   * @return if tables are written without going through kettle
+   */
+  public static boolean isNativeExport() {
+    return CdaPropertiesHelper.getBoolProperty( NATIVE_EXPORT_PROPERTY, true );
+  }
+
+  private boolean needsEnclosure( final String value ) {
+    return value.contains( separator ) || ( !StringUtils.isEmpty( enclosure ) && value.contains( enclosure ) )
+      || value.indexOf( '\n' ) >= 0 || value.indexOf( '\r' ) >= 0;
+  }
+
+  /**
+   * Encloses the value, doubling any enclosure inside it.
+   */
+  private void appendEnclosed( final StringBuilder line, final String value ) {
+    if ( StringUtils.isEmpty( enclosure ) ) {
+      line.append( value );
+      return;
+    }
+    line.append( enclosure );
+    int start = 0;
+    for ( int pos = value.indexOf( enclosure ); pos >= 0; pos = value.indexOf( enclosure, start ) ) {
+      line.append( value, start, pos ).append( enclosure ).append( enclosure );
+      start = pos + enclosure.length();
+    }
+    line.append( value, start, value.length() ).append( enclosure );
+  }
+
+  /**
+   * Text of a non-null cell, chosen once per column.
+   */
+  private interface ValueFormatter {
+    String format( Object value );
+  }
+
+  /**
+   * Numbers are written as the kettle type of their column (Double or Long), anything else as its string.
+   */
+  private static ValueFormatter getFormatter( final Class<?> columnClass ) {
+    if ( Double.class.equals( columnClass ) || Float.class.equals( columnClass ) ) {
+      return value -> value instanceof Number ? Double.toString( ( (Number) value ).doubleValue() ) : value.toString();
+    }
+    if ( Long.class.equals( columnClass ) || Integer.class.equals( columnClass ) || Short.class.equals( columnClass )
+      || Byte.class.equals( columnClass ) ) {
+      return value -> value instanceof Number ? Long.toString( ( (Number) value ).longValue() ) : value.toString();
+    }
+    if ( byte[].class.equals( columnClass ) ) {
+      return value -> value instanceof byte[] ? new String( (byte[]) value ) : value.toString();
+    }
+    return Object::toString;
+  }
+
   protected StepMeta getExportStepMeta( String name ) {
     TextFileOutputMeta csvOutputStepMeta = new TextFileOutputMeta();
     csvOutputStepMeta.setOutputFields( new TextFileField[ 0 ] );
@@ -0,0 +1,29 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.exporter;
+
+import java.io.OutputStream;
+
+import pt.webdetails.cda.utils.RowCursor;
+
+/**
+ * Exporter that can write rows as they are read, without the whole table in memory.
+ */
+public interface CursorExporter extends TableExporter {
+
+  /**
+   * Writes all the cursor's rows, in the same format as a table with them. The cursor is not closed.
+   */
+  public void export( OutputStream out, RowCursor cursor ) throws ExporterException;
+}
@@ -0,0 +1,58 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.exporter;
+
+import java.io.OutputStream;
+
+import pt.webdetails.cda.dataaccess.QueryException;
+import pt.webdetails.cda.dataaccess.SimpleDataAccess;
+import pt.webdetails.cda.query.QueryOptions;
+import pt.webdetails.cda.utils.RowCursor;
+
+/**
+ * Runs a query when exporting and writes its rows as they are read from the data source.
+ *
+ * @see SimpleDataAccess#doQueryCursor(QueryOptions)
+ */
+public class CursorStreamExporter implements StreamExporter {
+
+  private final CursorExporter exporter;
+  private final SimpleDataAccess dataAccess;
+  private final QueryOptions queryOptions;
+
+  public CursorStreamExporter( CursorExporter exporter, SimpleDataAccess dataAccess, QueryOptions queryOptions ) {
+    this.exporter = exporter;
+    this.dataAccess = dataAccess;
+    this.queryOptions = queryOptions;
+  }
+
+  @Override
+  public void export( OutputStream out ) throws ExporterException {
+    try ( RowCursor cursor = dataAccess.doQueryCursor( queryOptions ) ) {
+      exporter.export( out, cursor );
+    } catch ( QueryException e ) {
+      throw new ExporterException( "Error running query " + dataAccess.getId(), e );
+    }
+  }
+
+  @Override
+  public String getMimeType() {
+    return exporter.getMimeType();
+  }
+
+  @Override
+  public String getAttachmentName() {
+    return exporter.getAttachmentName();
+  }
+}
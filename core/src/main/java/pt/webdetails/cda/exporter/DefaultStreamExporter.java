@@ -44,7 +44,6 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -62,7 +61,7 @@ public class DefaultStreamExporter implements RowProductionManager, StreamExport
 
   private DataAccessKettleAdapter dataAccess;
   private AbstractKettleExporter exporter;
-  private ExecutorService executorService = Executors.newCachedThreadPool();
+  private ExecutorService executorService = CdaEngine.getInstance().getExecutorService();
 
   public DefaultStreamExporter( AbstractKettleExporter exporter,
                                 DataAccessKettleAdapter dataAccess ) {
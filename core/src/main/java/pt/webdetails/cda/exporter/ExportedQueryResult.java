@@ -29,6 +29,7 @@ import pt.webdetails.cpf.utils.MimeTypes;
 public abstract class ExportedQueryResult {
 
   private Exporter exporter;
+  private String eTag;
 
   public ExportedQueryResult( Exporter exporter ) {
     assert exporter != null;
@@ -39,12 +40,32 @@ public abstract class ExportedQueryResult {
     return exporter;
   }
 
+  /**
+   * @return quoted entity tag of the output, null if it has none
+   */
+  public String getETag() {
+    return eTag;
+  }
+
+  public void setETag( String eTag ) {
+    this.eTag = eTag;
+  }
+
+  /**
+   * @return the output already compressed with gzip, null if it is only written uncompressed
+   */
+  public byte[] getGzippedOutput() {
+    return null;
+  }
+
   public void writeHeaders( HttpServletResponse response ) throws IOException {
     setResponseHeaders( response, exporter.getMimeType(), exporter.getAttachmentName() );
+    setETagHeader( response );
   }
 
   public void writeResponse( HttpServletResponse response ) throws ExporterException, IOException {
     setResponseHeaders( response, exporter.getMimeType(), exporter.getAttachmentName() );
+    setETagHeader( response );
     OutputStream out = response.getOutputStream();
     writeOut( out );
   }
@@ -95,6 +116,9 @@ public abstract class ExportedQueryResult {
       case MimeTypes.XLS:
         extension = "." + ExporterEngine.OutputType.XLS.toString();
         break;
+      case XlsxExporter.MIME_TYPE:
+        extension = "." + ExporterEngine.OutputType.XLSX.toString();
+        break;
       case MimeTypes.XML:
         extension = "." + ExporterEngine.OutputType.XML.toString();
         break;
@@ -109,6 +133,12 @@ public abstract class ExportedQueryResult {
     return "inline; filename=doQuery" + extension;
   }
 
+  private void setETagHeader( HttpServletResponse response ) {
+    if ( eTag != null ) {
+      response.setHeader( "ETag", eTag );
+    }
+  }
+
   private static void setResponseHeaders( HttpServletResponse response, String mimeType, String attachmentName ) {
     final String contentType = getContentType( mimeType, attachmentName );
     response.setContentType( contentType );
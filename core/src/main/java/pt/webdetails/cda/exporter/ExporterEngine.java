@@ -33,6 +33,7 @@ public class ExporterEngine {
     XML( "xml" ),
     CSV( "csv" ),
     XLS( "xls" ),
+    XLSX( "xlsx" ),
     HTML( "html" ),
     BINARY( "binary" );
 
@@ -108,6 +109,8 @@ public class ExporterEngine {
         return new JsonExporter( extraSettings );
       case XLS:
         return new XlsExporter( extraSettings );
+      case XLSX:
+        return new XlsxExporter( extraSettings );
       case XML:
         return new XmlExporter( extraSettings );
       case BINARY:
@@ -13,8 +13,12 @@
 
 package pt.webdetails.cda.exporter;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.Map;
 
 import javax.swing.table.TableModel;
@@ -25,9 +29,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import pt.webdetails.cda.dataaccess.QueryException;
 import pt.webdetails.cda.utils.MetadataTableModel;
+import pt.webdetails.cda.utils.RowCursor;
 
-public class JsonExporter extends AbstractExporter {
+public class JsonExporter extends AbstractExporter implements CursorExporter {
   private static final String MIME_TYPE = "application/json";
   private static final Log logger = LogFactory.getLog( XmlExporter.class );
   private String attachmentName;
@@ -49,34 +55,111 @@ public class JsonExporter extends AbstractExporter {
     logger.debug( "Initialized JsonExporter with attachment filename '" + attachmentName + "'" );
   }
 
+  /**
+   * Writes the table to the stream as it is read, with the same output as {@link #getTableAsJson(TableModel, Integer)}
+   * but without building the whole json object in memory.
+   */
   public void export( final OutputStream out, final TableModel tableModel ) throws ExporterException {
+    export( out, RowCursor.over( tableModel ) );
+  }
 
-    try {
-      JSONObject json = getTableAsJson( tableModel, null );
+  @Override
+  public void export( final OutputStream out, final RowCursor cursor ) throws ExporterException {
 
-      try {
+    try {
+      final Writer writer = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ) );
 
-        if ( isJsonp ) {
-          out.write( this.getSetting( "callback", "xxx" ).concat( "(" ).getBytes( "UTF-8" ) );
-        }
+      if ( isJsonp ) {
+        writer.write( this.getSetting( "callback", "xxx" ) );
+        writer.write( '(' );
+      }
 
-        out.write( json.toString().getBytes( "UTF-8" ) );
+      writeRows( writer, cursor );
 
-        if ( isJsonp ) {
-          out.write( ");".getBytes( "UTF-8" ) );
-        }
-        out.flush();
-      } catch ( IOException e ) {
-        throw new ExporterException( "IO Exception converting to utf-8", e );
+      if ( isJsonp ) {
+        writer.write( ");" );
       }
-
+      writer.flush();
+    } catch ( IOException e ) {
+      throw new ExporterException( "IO Exception converting to utf-8", e );
     } catch ( JSONException e ) {
       throw new ExporterException( "JSONException building object", e );
+    } catch ( QueryException e ) {
+      throw new ExporterException( "Error reading query results", e );
+    }
+  }
+
+  private void writeRows( final Writer writer, final RowCursor cursor )
+    throws IOException, JSONException, QueryException {
+    final int columnCount = cursor.getColumnCount();
+    // column classes inferred from values are only known once they are read
+    Object[] row = cursor.nextRow();
+
+    writer.write( "{\"metadata\":[" );
+    for ( int i = 0; i < columnCount; i++ ) {
+      if ( i > 0 ) {
+        writer.write( ',' );
+      }
+      writer.write( getColumnInfo( cursor.getCurrentRow(), i ).toString() );
+    }
+
+    writer.write( "],\"resultset\":[" );
+    for ( boolean first = true; row != null; row = cursor.nextRow(), first = false ) {
+      if ( !first ) {
+        writer.write( ',' );
+      }
+      writer.write( '[' );
+      for ( int colIdx = 0; colIdx < columnCount; colIdx++ ) {
+        if ( colIdx > 0 ) {
+          writer.write( ',' );
+        }
+        writeValue( writer, row[ colIdx ] );
+      }
+      writer.write( ']' );
     }
+    writer.write( ']' );
 
+    final Map<String, String> queryInfo = cursor.getMetadata();
+    if ( queryInfo != null ) {
+      writer.write( ",\"queryInfo\":" );
+      writer.write( new JSONObject( queryInfo ).toString() );
+    }
+    writer.write( '}' );
+  }
 
+  /**
+   * Same representation as a {@link JSONArray} element; infinite and NaN numbers are written as null.
+   */
+  private static void writeValue( final Writer writer, final Object value ) throws IOException, JSONException {
+    if ( value == null ) {
+      writer.write( "null" );
+    } else if ( value instanceof String ) {
+      writer.write( JSONObject.quote( (String) value ) );
+    } else if ( value instanceof Number ) {
+      if ( ( value instanceof Double && ( ( (Double) value ).isInfinite() || ( (Double) value ).isNaN() ) )
+        || ( value instanceof Float && ( ( (Float) value ).isInfinite() || ( (Float) value ).isNaN() ) ) ) {
+        writer.write( "null" );
+      } else {
+        writer.write( JSONObject.numberToString( (Number) value ) );
+      }
+    } else if ( value instanceof Boolean ) {
+      writer.write( value.toString() );
+    } else if ( value instanceof Map ) {
+      writer.write( new JSONObject( (Map<?, ?>) value ).toString() );
+    } else if ( value instanceof Collection ) {
+      writer.write( new JSONArray( (Collection<?>) value ).toString() );
+    } else {
+      writer.write( JSONObject.quote( value.toString() ) );
+    }
   }
 
+  private JSONObject getColumnInfo( final TableModel tableModel, final int column ) throws JSONException {
+    JSONObject info = new JSONObject();
+    info.put( "colIndex", column );
+    info.put( "colName", tableModel.getColumnName( column ) );
+    info.put( "colType", getColType( tableModel.getColumnClass( column ) ) );
+    return info;
+  }
 
   public JSONObject getTableAsJson( TableModel tableModel, Integer rowLimit ) throws JSONException, ExporterException {
     JSONObject json = new JSONObject();
@@ -93,13 +176,8 @@ public class JsonExporter extends AbstractExporter {
 
     boolean[] isColumnDouble = new boolean[ columnCount ];
     for ( int i = 0; i < columnCount; i++ ) {
-      JSONObject info = new JSONObject();
-      info.put( "colIndex", i );
-      info.put( "colName", tableModel.getColumnName( i ) );
-      Class<?> columnClass = tableModel.getColumnClass( i );
-      isColumnDouble[ i ] = ( columnClass.isAssignableFrom( Double.class ) );
-      info.put( "colType", getColType( columnClass ) );
-      metadataArray.put( info );
+      isColumnDouble[ i ] = ( tableModel.getColumnClass( i ).isAssignableFrom( Double.class ) );
+      metadataArray.put( getColumnInfo( tableModel, i ) );
     }
     json.put( "metadata", metadataArray );
 
@@ -0,0 +1,234 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.exporter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.swing.table.TableModel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Office Open XML (xlsx) workbook with a single sheet, written row by row straight to the output stream.
+ * <br>
+ * Only the row being written is kept in memory: strings are written inline instead of in a shared string table, so
+ * the sheet can be streamed as it is read from the table model.
+ */
+public class XlsxExporter extends AbstractExporter {
+
+  public static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+  private static final Log logger = LogFactory.getLog( XlsxExporter.class );
+
+  private static final int MAX_ROWS = 1048576;
+  private static final int MAX_CELL_LENGTH = 32767;
+  private static final long MILLIS_PER_DAY = 86400000L;
+  /**
+   * 1970-01-01 in excel 1900 date system
+   */
+  private static final double EPOCH_SERIAL = 25569d;
+
+  // cell styles, as indexes of cellXfs in styles.xml
+  private static final int STYLE_DATE = 1;
+  private static final int STYLE_HEADER = 2;
+
+  private static final String CONTENT_TYPES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+    + "<Override PartName=\"/xl/workbook.xml\""
+    + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+    + "<Override PartName=\"/xl/worksheets/sheet1.xml\""
+    + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+    + "<Override PartName=\"/xl/styles.xml\""
+    + " ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+    + "</Types>";
+
+  private static final String ROOT_RELS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+    + "<Relationship Id=\"rId1\""
+    + " Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\""
+    + " Target=\"xl/workbook.xml\"/>"
+    + "</Relationships>";
+
+  private static final String WORKBOOK = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+    + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\""
+    + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+    + "<sheets><sheet name=\"Sheet1\" sheetId=\"1\" r:id=\"rId1\"/></sheets>"
+    + "</workbook>";
+
+  private static final String WORKBOOK_RELS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+    + "<Relationship Id=\"rId1\""
+    + " Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\""
+    + " Target=\"worksheets/sheet1.xml\"/>"
+    + "<Relationship Id=\"rId2\""
+    + " Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\""
+    + " Target=\"styles.xml\"/>"
+    + "</Relationships>";
+
+  private static final String STYLES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+    + "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+    + "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"yyyy/mm/dd hh:mm:ss\"/></numFmts>"
+    + "<fonts count=\"2\"><font><sz val=\"10\"/><name val=\"Arial\"/></font>"
+    + "<font><b/><sz val=\"10\"/><name val=\"Arial\"/></font></fonts>"
+    + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>"
+    + "<fill><patternFill patternType=\"gray125\"/></fill></fills>"
+    + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+    + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+    + "<cellXfs count=\"3\">"
+    + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+    + "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>"
+    + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/>"
+    + "</cellXfs>"
+    + "</styleSheet>";
+
+  private String attachmentName;
+  private boolean includeHeader;
+
+  public XlsxExporter( Map<String, String> extraSettings ) {
+    super( extraSettings );
+    this.attachmentName = getSetting( ATTACHMENT_NAME_SETTING, "cda-export.xlsx" );
+    this.includeHeader = Boolean.parseBoolean( getSetting( AbstractKettleExporter.COLUMN_HEADERS_SETTING, "true" ) );
+    if ( getSetting( XlsExporter.TEMPLATE_NAME_SETTING, null ) != null ) {
+      // kettle templates are xls workbooks, which can't be appended to an xlsx one
+      logger.warn( "Excel templates are only supported by the xls output type, ignoring template for xlsx export" );
+    }
+  }
+
+  public void export( final OutputStream out, final TableModel tableModel ) throws ExporterException {
+    final int columnCount = tableModel.getColumnCount();
+    final int rowCount = tableModel.getRowCount();
+    if ( rowCount + ( includeHeader ? 1 : 0 ) > MAX_ROWS ) {
+      throw new ExporterException( "Too many rows for an xlsx sheet: " + rowCount, null );
+    }
+
+    try {
+      final ZipOutputStream zip = new ZipOutputStream( out );
+      final Writer writer = new BufferedWriter( new OutputStreamWriter( zip, "UTF-8" ) );
+      writeEntry( zip, writer, "[Content_Types].xml", CONTENT_TYPES );
+      writeEntry( zip, writer, "_rels/.rels", ROOT_RELS );
+      writeEntry( zip, writer, "xl/workbook.xml", WORKBOOK );
+      writeEntry( zip, writer, "xl/_rels/workbook.xml.rels", WORKBOOK_RELS );
+      writeEntry( zip, writer, "xl/styles.xml", STYLES );
+
+      zip.putNextEntry( new ZipEntry( "xl/worksheets/sheet1.xml" ) );
+      writer.write( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+        + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>" );
+      int sheetRow = 0;
+      if ( includeHeader ) {
+        writer.write( "<row r=\"" + ( ++sheetRow ) + "\">" );
+        for ( int col = 0; col < columnCount; col++ ) {
+          writeString( writer, tableModel.getColumnName( col ), STYLE_HEADER );
+        }
+        writer.write( "</row>" );
+      }
+      final TimeZone timeZone = TimeZone.getDefault();
+      for ( int row = 0; row < rowCount; row++ ) {
+        writer.write( "<row r=\"" + ( ++sheetRow ) + "\">" );
+        for ( int col = 0; col < columnCount; col++ ) {
+          writeCell( writer, tableModel.getValueAt( row, col ), timeZone );
+        }
+        writer.write( "</row>" );
+      }
+      writer.write( "</sheetData></worksheet>" );
+      writer.flush();
+      zip.closeEntry();
+      // writes the zip directory without closing the response stream
+      zip.finish();
+      out.flush();
+    } catch ( IOException e ) {
+      throw new ExporterException( "IO exception during xlsx export", e );
+    }
+  }
+
+  private static void writeEntry( final ZipOutputStream zip, final Writer writer, final String name,
+                                  final String content ) throws IOException {
+    zip.putNextEntry( new ZipEntry( name ) );
+    writer.write( content );
+    writer.flush();
+    zip.closeEntry();
+  }
+
+  private static void writeCell( final Writer writer, final Object value, final TimeZone timeZone ) throws IOException {
+    if ( value == null ) {
+      writer.write( "<c/>" );
+    } else if ( value instanceof Number ) {
+      final double number = ( (Number) value ).doubleValue();
+      if ( Double.isNaN( number ) || Double.isInfinite( number ) ) {
+        writer.write( "<c/>" );
+      } else {
+        writer.write( "<c><v>" );
+        writer.write( value.toString() );
+        writer.write( "</v></c>" );
+      }
+    } else if ( value instanceof Date ) {
+      final long millis = ( (Date) value ).getTime();
+      final double serial = EPOCH_SERIAL + (double) ( millis + timeZone.getOffset( millis ) ) / MILLIS_PER_DAY;
+      writer.write( "<c s=\"" + STYLE_DATE + "\"><v>" );
+      writer.write( Double.toString( serial ) );
+      writer.write( "</v></c>" );
+    } else if ( value instanceof Boolean ) {
+      writer.write( (Boolean) value ? "<c t=\"b\"><v>1</v></c>" : "<c t=\"b\"><v>0</v></c>" );
+    } else {
+      writeString( writer, value.toString(), 0 );
+    }
+  }
+
+  private static void writeString( final Writer writer, final String value, final int style ) throws IOException {
+    writer.write( style > 0 ? "<c s=\"" + style + "\" t=\"inlineStr\"><is><t xml:space=\"preserve\">"
+      : "<c t=\"inlineStr\"><is><t xml:space=\"preserve\">" );
+    final int length = Math.min( value.length(), MAX_CELL_LENGTH );
+    for ( int i = 0; i < length; i++ ) {
+      final char c = value.charAt( i );
+      switch ( c ) {
+        case '<':
+          writer.write( "&lt;" );
+          break;
+        case '>':
+          writer.write( "&gt;" );
+          break;
+        case '&':
+          writer.write( "&amp;" );
+          break;
+        case '"':
+          writer.write( "&quot;" );
+          break;
+        default:
+          // control characters are not allowed in xml 1.0
+          if ( c >= 0x20 || c == '\t' || c == '\n' || c == '\r' ) {
+            writer.write( c );
+          }
+      }
+    }
+    writer.write( "</t></is></c>" );
+  }
+
+  public String getMimeType() {
+    return MIME_TYPE;
+  }
+
+  public String getAttachmentName() {
+    return attachmentName;
+  }
+}
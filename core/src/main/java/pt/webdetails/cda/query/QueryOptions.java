@@ -198,4 +198,26 @@ public class QueryOptions implements ExportOptions, IQueryArguments, Cloneable {
   public Object clone() throws CloneNotSupportedException {
     return super.clone();
   }
+
+  /**
+   * Unlike {@link #clone()}, the copy does not share parameters, sorting, settings or output columns with this
+   * instance, so both can be used by different threads.
+   */
+  public QueryOptions copy() {
+    try {
+      final QueryOptions copy = (QueryOptions) super.clone();
+      copy.sortBy = sortBy == null ? null : new ArrayList<String>( sortBy );
+      if ( parameters != null ) {
+        copy.parameters = new ArrayList<Parameter>( parameters.size() );
+        for ( Parameter parameter : parameters ) {
+          copy.parameters.add( parameter.copy() );
+        }
+      }
+      copy.extraSettings = extraSettings == null ? null : new HashMap<String, String>( extraSettings );
+      copy.outputColumnName = outputColumnName == null ? null : new ArrayList<String>( outputColumnName );
+      return copy;
+    } catch ( CloneNotSupportedException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
 }
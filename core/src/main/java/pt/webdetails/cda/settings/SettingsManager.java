@@ -18,12 +18,11 @@ import java.lang.reflect.Modifier;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,6 +35,8 @@ import org.pentaho.reporting.libraries.resourceloader.ResourceManager;
 
 import pt.webdetails.cda.AccessDeniedException;
 import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.cache.QueryCoalescer;
 import pt.webdetails.cda.connections.UnsupportedConnectionException;
 import pt.webdetails.cda.dataaccess.AbstractDataAccess;
 import pt.webdetails.cda.dataaccess.DataAccessConnectionDescriptor;
@@ -44,7 +45,8 @@ import pt.webdetails.cda.dataaccess.UnsupportedDataAccessException;
 /**
  * This file is responsible to build / keep the different cda settings.
  * <p/>
- * Works mostly with inputStreams
+ * Works mostly with inputStreams. Lookups don't lock: whether a cached file was modified is checked at most once
+ * every <code>pt.webdetails.cda.SettingsCheckIntervalMs</code>, and concurrent reads of the same file share one parse.
  * <p/>
  * User: pedro Date: Feb 2, 2010 Time: 2:40:12 PM
  */
@@ -55,12 +57,15 @@ public class SettingsManager {
   private static final String SYSTEM_RESOURCE_LOADER_NAME = "system";
   private static final Log logger = LogFactory.getLog( SettingsManager.class );
 
-  private Map<String, CdaSettings> settingsCache;
-  private Map<String, Long> settingsTimestamps;
+  private final Map<String, CachedSettings> settingsCache = new ConcurrentHashMap<String, CachedSettings>();
+  private final QueryCoalescer<String, CdaSettings> inFlightReads = new QueryCoalescer<String, CdaSettings>();
   private ICdaResourceLoader defaultResourceLoader;
   private Map<String, ICdaResourceLoader> resourceLoaders;
+  private volatile long checkInterval = -1;
 
   private static final int MAX_SETTINGS_CACHE_SIZE = 50;
+  private static final String CHECK_INTERVAL_PROPERTY = "pt.webdetails.cda.SettingsCheckIntervalMs";
+  private static final long DEFAULT_CHECK_INTERVAL = 1000;
 
   /**
    * This class controls how the different .cda files will be read and cached.
@@ -71,9 +76,6 @@ public class SettingsManager {
 
     logger.debug( "Initializing SettingsManager." );
 
-    settingsCache = new LRUMap( MAX_SETTINGS_CACHE_SIZE );
-    settingsTimestamps = new HashMap<String, Long>();
-
     this.defaultResourceLoader = new CdaRepositoryResourceLoader( DEFAULT_RESOURCE_LOADER_NAME );
     // order is important
     this.resourceLoaders = new LinkedHashMap<String, ICdaResourceLoader>();
@@ -81,7 +83,7 @@ public class SettingsManager {
     this.resourceLoaders.put( SYSTEM_RESOURCE_LOADER_NAME, new CdaSystemResourceLoader( SYSTEM_RESOURCE_LOADER_NAME ) );
   }
 
-  public synchronized CdaSettings getCdaSettings( final String resourceLoader, final String id )
+  public CdaSettings getCdaSettings( final String resourceLoader, final String id )
     throws CdaSettingsReadException, AccessDeniedException {
     ICdaResourceLoader loader = resourceLoaders.get( resourceLoader );
     if ( loader == null ) {
@@ -102,28 +104,40 @@ public class SettingsManager {
   }
 
   private CdaSettings getFromCache( ICdaResourceLoader loader, String id ) {
-    if ( settingsCache.containsKey( id ) ) {
-      CdaSettings cachedCda = settingsCache.get( id );
-
-      if ( !settingsTimestamps.containsKey( id ) ) {
-        // something went very wrong
-        logger.error( MessageFormat.format( "No cache timestamp found for item {0}, cache bypassed.", id ) );
-      } else {
-        // Is cache up to date?
-        long cachedTime = settingsTimestamps.get( id );
-        Long savedFileTime = loader.getLastModified( id );
-
-        if ( savedFileTime != null && // don't cache on-the-fly items
-          savedFileTime <= cachedTime ) {
-          // Up-to-date, use cache
-          return cachedCda;
-        }
-      }
+    final CachedSettings cached = settingsCache.get( id );
+    if ( cached == null ) {
+      return null;
+    }
+    final long now = System.currentTimeMillis();
+    cached.accessTime = now;
+    if ( now - cached.checkTime < getCheckInterval() ) {
+      return cached.settings;
+    }
+    // Is cache up to date?
+    Long savedFileTime = loader.getLastModified( id );
+    if ( savedFileTime != null && // don't cache on-the-fly items
+      savedFileTime <= cached.loadTime ) {
+      // Up-to-date, use cache
+      cached.checkTime = now;
+      return cached.settings;
     }
     return null;
   }
 
-  private CdaSettings readCdaSettings( ICdaResourceLoader loader, String id ) throws CdaSettingsReadException {
+  private CdaSettings readCdaSettings( final ICdaResourceLoader loader, final String id )
+    throws CdaSettingsReadException {
+    try {
+      return inFlightReads.execute( id, () -> parseCdaSettings( loader, id ) );
+    } catch ( CdaSettingsReadException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new CdaSettingsReadException( "Error reading " + id, e );
+    }
+  }
+
+  private CdaSettings parseCdaSettings( ICdaResourceLoader loader, String id ) throws CdaSettingsReadException {
+    // changes made while parsing are picked up by the next freshness check
+    final long loadTime = System.currentTimeMillis();
     try {
       final ResourceManager resourceManager = getResourceManager();
       final ResourceKey key = loader.createKey( id, null );
@@ -133,7 +147,7 @@ public class SettingsManager {
       final Document doc = saxReader.read( document );
 
       final CdaSettings settings = new CdaSettings( doc, id, resource.getSource() );
-      addToCache( settings );
+      addToCache( settings, loadTime );
 
       return settings;
     } catch ( ResourceException re ) {
@@ -152,7 +166,7 @@ public class SettingsManager {
    * @throws org.dom4j.DocumentException
    * @throws pt.webdetails.cda.connections.UnsupportedConnectionException
    */
-  public synchronized CdaSettings parseSettingsFile( final String id ) throws CdaSettingsReadException,
+  public CdaSettings parseSettingsFile( final String id ) throws CdaSettingsReadException,
     AccessDeniedException {
 
     // see if a loader accepts this
@@ -176,15 +190,26 @@ public class SettingsManager {
     return resourceLoaders.get( name );
   }
 
-  /**
-   * (use in synchronized methods)
-   *
-   * @param settings
-   */
-  private void addToCache( CdaSettings settings ) {
-    String id = settings.getId();
-    settingsCache.put( id, settings );
-    settingsTimestamps.put( id, System.currentTimeMillis() );
+  private void addToCache( CdaSettings settings, long loadTime ) {
+    settingsCache.put( settings.getId(), new CachedSettings( settings, loadTime ) );
+    if ( settingsCache.size() > MAX_SETTINGS_CACHE_SIZE ) {
+      // evict the least recently used
+      Map.Entry<String, CachedSettings> eldest = null;
+      for ( Map.Entry<String, CachedSettings> entry : settingsCache.entrySet() ) {
+        if ( eldest == null || entry.getValue().accessTime < eldest.getValue().accessTime ) {
+          eldest = entry;
+        }
+      }
+      settingsCache.remove( eldest.getKey(), eldest.getValue() );
+    }
+  }
+
+  private long getCheckInterval() {
+    if ( checkInterval < 0 ) {
+      checkInterval = Math.max( 0, CdaPropertiesHelper.getIntProperty( CHECK_INTERVAL_PROPERTY,
+        (int) DEFAULT_CHECK_INTERVAL ) );
+    }
+    return checkInterval;
   }
 
   /**
@@ -192,20 +217,14 @@ public class SettingsManager {
    *
    * @param id
    */
-  public synchronized void clearEntryFromCache( final String id ) {
-    if ( settingsCache.containsKey( id ) ) {
-      settingsCache.remove( id );
-    }
-    if ( settingsTimestamps.containsKey( id ) ) {
-      settingsTimestamps.remove( id );
-    }
+  public void clearEntryFromCache( final String id ) {
+    settingsCache.remove( id );
   }
 
-  public synchronized void clearCache() {
+  public void clearCache() {
 
     logger.info( "Cleaning CDA settings cache" );
     settingsCache.clear();
-    settingsTimestamps.clear();
   }
 
   public DataAccessConnectionDescriptor[] getDataAccessDescriptors( boolean refreshCache ) {
@@ -257,4 +276,18 @@ public class SettingsManager {
     }
     return descriptors.toArray( new DataAccessConnectionDescriptor[ descriptors.size() ] );
   }
+
+  private static final class CachedSettings {
+    private final CdaSettings settings;
+    private final long loadTime;
+    // only checked once modified times are known, so on-the-fly items are read every time
+    private volatile long checkTime;
+    private volatile long accessTime;
+
+    CachedSettings( final CdaSettings settings, final long loadTime ) {
+      this.settings = settings;
+      this.loadTime = loadTime;
+      this.accessTime = loadTime;
+    }
+  }
 }
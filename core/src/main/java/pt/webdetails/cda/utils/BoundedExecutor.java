@@ -0,0 +1,169 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Thread pool with a bounded number of threads and waiting tasks, counting the tasks it rejects.
+ * <br>
+ * With a queue size of 0 tasks are handed directly to a thread, creating new ones up to the maximum pool size;
+ * this suits tasks that must run concurrently, such as the row producers of a kettle transformation.
+ * Threads are daemon threads named after the executor and idle threads above the core size are released after a
+ * minute.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor implements BoundedExecutorMXBean {
+
+  private static final Log logger = LogFactory.getLog( BoundedExecutor.class );
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  /**
+   * What to do with a task when all threads are busy and the queue is full.
+   */
+  public enum RejectionPolicy {
+    /**
+     * throw a {@link java.util.concurrent.RejectedExecutionException}
+     */
+    ABORT,
+    /**
+     * run the task in the submitting thread
+     */
+    CALLER_RUNS;
+
+    public static RejectionPolicy parse( final String value, final RejectionPolicy defaultValue ) {
+      if ( value != null ) {
+        for ( RejectionPolicy policy : values() ) {
+          if ( policy.name().equalsIgnoreCase( value.trim() ) ) {
+            return policy;
+          }
+        }
+        logger.warn( "Unknown rejection policy '" + value + "', using " + defaultValue );
+      }
+      return defaultValue;
+    }
+  }
+
+  private final String name;
+  private final RejectionPolicy rejectionPolicy;
+  private final AtomicLong rejectedTaskCount = new AtomicLong();
+  private ObjectName objectName;
+
+  /**
+   * @param name            executor name, used for thread names and the JMX object name
+   * @param corePoolSize    threads kept when idle
+   * @param maximumPoolSize maximum number of threads
+   * @param queueSize       maximum number of tasks waiting for a thread, 0 for none
+   * @param rejectionPolicy what to do when both threads and queue are exhausted
+   */
+  public BoundedExecutor( final String name, final int corePoolSize, final int maximumPoolSize, final int queueSize,
+                          final RejectionPolicy rejectionPolicy ) {
+    super( Math.max( 0, corePoolSize ), Math.max( 1, Math.max( corePoolSize, maximumPoolSize ) ), KEEP_ALIVE_SECONDS,
+      TimeUnit.SECONDS, createQueue( queueSize ), createThreadFactory( name ) );
+    this.name = name;
+    this.rejectionPolicy = rejectionPolicy;
+    final RejectedExecutionHandler handler = rejectionPolicy == RejectionPolicy.CALLER_RUNS
+      ? new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy();
+    setRejectedExecutionHandler( ( runnable, executor ) -> {
+      if ( !executor.isShutdown() ) {
+        rejectedTaskCount.incrementAndGet();
+      }
+      handler.rejectedExecution( runnable, executor );
+    } );
+  }
+
+  private static BlockingQueue<Runnable> createQueue( final int queueSize ) {
+    return queueSize > 0 ? new ArrayBlockingQueue<Runnable>( queueSize ) : new SynchronousQueue<Runnable>();
+  }
+
+  private static ThreadFactory createThreadFactory( final String name ) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread( runnable, name + "-" + threadCount.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    };
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  @Override
+  public long getRejectedTaskCount() {
+    return rejectedTaskCount.get();
+  }
+
+  @Override
+  public String getRejectionPolicy() {
+    return rejectionPolicy.name();
+  }
+
+  /**
+   * Publishes the executor metrics in the platform MBean server as
+   * <code>pt.webdetails.cda:type=Executor,name=&lt;name&gt;</code>, replacing any executor previously registered
+   * with the same name. Failures are logged and otherwise ignored.
+   */
+  public synchronized void registerMBean() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName objectName = new ObjectName( "pt.webdetails.cda:type=Executor,name=" + name );
+      if ( server.isRegistered( objectName ) ) {
+        server.unregisterMBean( objectName );
+      }
+      server.registerMBean( this, objectName );
+      this.objectName = objectName;
+    } catch ( Exception e ) {
+      logger.warn( "Could not register executor " + name + " in JMX", e );
+    }
+  }
+
+  public synchronized void unregisterMBean() {
+    if ( objectName != null ) {
+      try {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if ( server.isRegistered( objectName ) ) {
+          server.unregisterMBean( objectName );
+        }
+      } catch ( Exception e ) {
+        logger.warn( "Could not unregister executor " + name + " from JMX", e );
+      }
+      objectName = null;
+    }
+  }
+
+  @Override
+  protected void terminated() {
+    super.terminated();
+    unregisterMBean();
+  }
+}
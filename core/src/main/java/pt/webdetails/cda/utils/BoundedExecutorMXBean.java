@@ -0,0 +1,50 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+/**
+ * Executor metrics published through JMX.
+ */
+public interface BoundedExecutorMXBean {
+
+  int getCorePoolSize();
+
+  int getMaximumPoolSize();
+
+  /**
+   * @return threads currently in the pool
+   */
+  int getPoolSize();
+
+  int getLargestPoolSize();
+
+  /**
+   * @return threads running a task
+   */
+  int getActiveCount();
+
+  /**
+   * @return tasks waiting for a thread
+   */
+  int getQueueDepth();
+
+  long getCompletedTaskCount();
+
+  /**
+   * @return tasks refused because all threads were busy and the queue was full
+   */
+  long getRejectedTaskCount();
+
+  String getRejectionPolicy();
+}
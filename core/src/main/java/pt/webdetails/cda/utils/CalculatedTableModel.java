@@ -13,7 +13,11 @@
 
 package pt.webdetails.cda.utils;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import javax.swing.event.TableModelListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableModel;
 
 import org.pentaho.reporting.engine.classic.core.MetaTableModel;
@@ -33,16 +37,28 @@ public class CalculatedTableModel implements MetaTableModel {
   private class DataAccessFormulaContext extends DefaultFormulaContext {
     private int rowIndex;
     private boolean[] columnLocks;
+    /**
+     * Formulas are parsed once for each context and bound to it; only its row changes between evaluations.
+     */
+    private Formula[] compiledFormulas;
 
     private DataAccessFormulaContext( final int rowIndex ) {
       this.rowIndex = rowIndex;
       this.columnLocks = new boolean[ calculatedColumns.length ];
+      this.compiledFormulas = new Formula[ calculatedColumns.length ];
     }
 
     public int getRowIndex() {
       return rowIndex;
     }
 
+    /**
+     * Rebinds the context to another row; compiled formulas keep using this same context.
+     */
+    public void setRowIndex( final int rowIndex ) {
+      this.rowIndex = rowIndex;
+    }
+
     public void lock( final int calcColumnIndex ) {
       if ( columnLocks[ calcColumnIndex ] ) {
         throw new IllegalStateException( "Infinite loop while evaluating a formula" );
@@ -52,13 +68,18 @@ public class CalculatedTableModel implements MetaTableModel {
     }
 
     public void unlock( final int calcColumnIndex ) {
-      columnLocks[ calcColumnIndex ] = true;
+      columnLocks[ calcColumnIndex ] = false;
     }
 
     public Object resolveReference( final Object name ) {
       for ( int column = 0; column < getColumnCount(); column++ ) {
         if ( getColumnName( column ).equals( name ) ) {
-          return getValueAt( rowIndex, column );
+          try {
+            return getValueInternal( column, this );
+          } catch ( ParseException | EvaluationException e ) {
+            throw new IllegalStateException( new CalculatedColumnException( "Error in calculated column position ("
+              + rowIndex + "," + column + ");", e ) );
+          }
         }
       }
       return null;
@@ -72,6 +93,16 @@ public class CalculatedTableModel implements MetaTableModel {
   private boolean inferTypes = false;
   private Class<?>[] calculatedColumnClasses;
 
+  /**
+   * Contexts not in use by any read. A read takes one, or a new one if all are taken, and returns it when done, so
+   * concurrent reads don't wait on each other and still reuse compiled formulas.
+   */
+  private final Queue<DataAccessFormulaContext> idleFormulaContexts = new ConcurrentLinkedQueue<>();
+  /**
+   * Calculated column values when materialized, in primitive arrays where their values allow it.
+   */
+  private volatile ColumnarTableModel materializedColumns;
+
   /**
    * @param backend           Table that provides the first columns of the table, which can be used by the calculated
    *                          columns
@@ -102,6 +133,64 @@ public class CalculatedTableModel implements MetaTableModel {
     }
   }
 
+  /**
+   * Evaluates all calculated cells at once and keeps them by column, so subsequent reads are simple array lookups.
+   * Values are held in a {@link ColumnarTableModel}, so columns of a single numeric or date class use primitive
+   * arrays. With type inference enabled, column classes are final after this call.
+   *
+   * @return this table model
+   */
+  public synchronized CalculatedTableModel materialize() {
+    if ( materializedColumns != null ) {
+      return this;
+    }
+    final int rowCount = getRowCount();
+    final String[] names = new String[ calculatedColumns.length ];
+    final Class<?>[] classes = new Class<?>[ calculatedColumns.length ];
+    final Object[][] columns = new Object[ calculatedColumns.length ][];
+    // a single context for the whole pass
+    final DataAccessFormulaContext formulaContext = takeFormulaContext();
+    try {
+      for ( int calcColumnIndex = 0; calcColumnIndex < calculatedColumns.length; calcColumnIndex++ ) {
+        final Object[] values = new Object[ rowCount ];
+        final int columnIndex = backendColumnCount + calcColumnIndex;
+        Class<?> valueClass = null;
+        for ( int row = 0; row < rowCount; row++ ) {
+          values[ row ] = getValueAt( row, columnIndex, formulaContext );
+          if ( values[ row ] != null && valueClass != Object.class ) {
+            valueClass = valueClass == null || valueClass == values[ row ].getClass()
+              ? values[ row ].getClass() : Object.class;
+          }
+        }
+        names[ calcColumnIndex ] = getColumnName( columnIndex );
+        classes[ calcColumnIndex ] = valueClass != null ? valueClass : Object.class;
+        columns[ calcColumnIndex ] = values;
+      }
+    } finally {
+      idleFormulaContexts.offer( formulaContext );
+    }
+    materializedColumns = new ColumnarTableModel( names, classes, new AbstractTableModel() {
+      public int getRowCount() {
+        return rowCount;
+      }
+
+      public int getColumnCount() {
+        return columns.length;
+      }
+
+      public Object getValueAt( final int row, final int column ) {
+        return columns[ column ][ row ];
+      }
+    } );
+    // reads no longer evaluate formulas
+    idleFormulaContexts.clear();
+    return this;
+  }
+
+  public boolean isMaterialized() {
+    return materializedColumns != null;
+  }
+
   public int getRowCount() {
     return backend.getRowCount();
   }
@@ -141,13 +230,15 @@ public class CalculatedTableModel implements MetaTableModel {
   }
 
   protected void accumulateClassAt( final int calcColumnIndex, Class<?> valueClass ) {
-    if ( calculatedColumnClasses[ calcColumnIndex ] == null ) {
-      calculatedColumnClasses[ calcColumnIndex ] = valueClass;
-    } else if ( !calculatedColumnClasses[ calcColumnIndex ].isAssignableFrom( valueClass ) ) {
-      if ( valueClass.isAssignableFrom( calculatedColumnClasses[ calcColumnIndex ] ) ) {
+    synchronized ( calculatedColumnClasses ) {
+      if ( calculatedColumnClasses[ calcColumnIndex ] == null ) {
         calculatedColumnClasses[ calcColumnIndex ] = valueClass;
-      } else {
-        calculatedColumnClasses[ calcColumnIndex ] = Object.class;
+      } else if ( !calculatedColumnClasses[ calcColumnIndex ].isAssignableFrom( valueClass ) ) {
+        if ( valueClass.isAssignableFrom( calculatedColumnClasses[ calcColumnIndex ] ) ) {
+          calculatedColumnClasses[ calcColumnIndex ] = valueClass;
+        } else {
+          calculatedColumnClasses[ calcColumnIndex ] = Object.class;
+        }
       }
     }
   }
@@ -162,6 +253,27 @@ public class CalculatedTableModel implements MetaTableModel {
     final int calcColumnIndex = columnIndex - backendColumnCount;
     try {
       context.lock( calcColumnIndex );
+      final Formula formulaObject = getCompiledFormula( calcColumnIndex, context );
+      Object value = formulaObject.evaluate();
+
+      if ( this.isLibFormulaErrorValue( value ) ) {
+        value = null;
+      }
+
+      if ( inferTypes && value != null ) {
+        accumulateClassAt( calcColumnIndex, value.getClass() );
+      }
+
+      return value;
+    } finally {
+      context.unlock( calcColumnIndex );
+    }
+  }
+
+  private Formula getCompiledFormula( final int calcColumnIndex, final DataAccessFormulaContext context )
+    throws ParseException {
+    Formula formulaObject = context.compiledFormulas[ calcColumnIndex ];
+    if ( formulaObject == null ) {
       final String formula = calculatedColumns[ calcColumnIndex ].getFormula();
       // final String formulaNamespace;
       final String formulaExpression;
@@ -179,22 +291,11 @@ public class CalculatedTableModel implements MetaTableModel {
           formulaExpression = formula.substring( separator + 1 );
         }
       }
-      final Formula formulaObject = new Formula( formulaExpression );
+      formulaObject = new Formula( formulaExpression );
       formulaObject.initialize( context );
-      Object value = formulaObject.evaluate();
-
-      if ( this.isLibFormulaErrorValue( value ) ) {
-        value = null;
-      }
-
-      if ( inferTypes && value != null ) {
-        accumulateClassAt( calcColumnIndex, value.getClass() );
-      }
-
-      return value;
-    } finally {
-      context.unlock( calcColumnIndex );
+      context.compiledFormulas[ calcColumnIndex ] = formulaObject;
     }
+    return formulaObject;
   }
 
   public Object getValueAt( final int rowIndex, final int columnIndex ) {
@@ -202,8 +303,28 @@ public class CalculatedTableModel implements MetaTableModel {
       return backend.getValueAt( rowIndex, columnIndex );
     }
 
+    final ColumnarTableModel materialized = materializedColumns;
+    if ( materialized != null ) {
+      return materialized.getValueAt( rowIndex, columnIndex - backendColumnCount );
+    }
+
+    final DataAccessFormulaContext formulaContext = takeFormulaContext();
+    try {
+      return getValueAt( rowIndex, columnIndex, formulaContext );
+    } finally {
+      idleFormulaContexts.offer( formulaContext );
+    }
+  }
+
+  private DataAccessFormulaContext takeFormulaContext() {
+    final DataAccessFormulaContext formulaContext = idleFormulaContexts.poll();
+    return formulaContext != null ? formulaContext : new DataAccessFormulaContext( 0 );
+  }
+
+  private Object getValueAt( final int rowIndex, final int columnIndex,
+                             final DataAccessFormulaContext formulaContext ) {
     try {
-      final DataAccessFormulaContext formulaContext = new DataAccessFormulaContext( rowIndex );
+      formulaContext.setRowIndex( rowIndex );
       return getValueInternal( columnIndex, formulaContext );
     } catch ( Exception e ) {
       throw new IllegalStateException( new CalculatedColumnException( "Error in calculated column position ("
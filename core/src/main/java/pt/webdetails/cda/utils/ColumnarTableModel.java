@@ -0,0 +1,560 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * Read-only table model storing each column in a single array.
+ * <br>
+ * Numeric, boolean, date and timestamp columns are kept as primitive arrays with a null bitmap, decimals as their
+ * unscaled longs and scales, and string columns as indexes into a dictionary of their distinct values, so a copy
+ * takes a fraction of the memory of boxed rows. Columns whose
+ * values don't all match the column class are kept as plain objects. Values are boxed again when read, with the
+ * same class they were copied with.
+ */
+public class ColumnarTableModel extends AbstractTableModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String[] columnNames;
+  private final Class<?>[] columnClasses;
+  private final int rowCount;
+  private final Column[] columns;
+
+  /**
+   * Copies the first <code>columnNames.length</code> columns of a table.
+   *
+   * @param columnNames   names of the copied columns
+   * @param columnClasses classes of the copied columns
+   * @param source        table to copy
+   */
+  public ColumnarTableModel( final String[] columnNames, final Class<?>[] columnClasses, final TableModel source ) {
+    if ( columnNames.length != columnClasses.length ) {
+      throw new IllegalArgumentException( "Each column needs a name and a class." );
+    }
+    this.columnNames = columnNames.clone();
+    this.columnClasses = columnClasses.clone();
+    this.rowCount = source.getRowCount();
+    this.columns = new Column[ columnNames.length ];
+    for ( int col = 0; col < columns.length; col++ ) {
+      columns[ col ] = createColumn( source, col, columnClasses[ col ] );
+    }
+  }
+
+  /**
+   * Copies a table with its own column names and classes.
+   */
+  public static ColumnarTableModel copyOf( final TableModel source ) {
+    final String[] names = new String[ source.getColumnCount() ];
+    final Class<?>[] classes = new Class<?>[ names.length ];
+    for ( int col = 0; col < names.length; col++ ) {
+      names[ col ] = source.getColumnName( col );
+      classes[ col ] = source.getColumnClass( col );
+    }
+    return new ColumnarTableModel( names, classes, source );
+  }
+
+  @Override
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return columns.length;
+  }
+
+  @Override
+  public String getColumnName( final int column ) {
+    return columnNames[ column ];
+  }
+
+  @Override
+  public Class<?> getColumnClass( final int column ) {
+    return columnClasses[ column ];
+  }
+
+  @Override
+  public Object getValueAt( final int row, final int column ) {
+    if ( row < 0 || row >= rowCount ) {
+      throw new IndexOutOfBoundsException( "Row " + row + " out of " + rowCount );
+    }
+    return columns[ column ].get( row );
+  }
+
+  /**
+   * @return estimated bytes taken by this table
+   * @see TableSizeEstimator
+   */
+  public long getEstimatedSize() {
+    long size = TableSizeEstimator.OBJECT_HEADER + 24;
+    for ( int col = 0; col < columns.length; col++ ) {
+      size += TableSizeEstimator.estimateString( columnNames[ col ] ) + columns[ col ].getEstimatedSize();
+    }
+    return size;
+  }
+
+  /**
+   * @throws UnsupportedOperationException always, copies are read-only
+   */
+  @Override
+  public void setValueAt( final Object value, final int row, final int column ) {
+    throw new UnsupportedOperationException( "ColumnarTableModel is read-only" );
+  }
+
+  private static Column createColumn( final TableModel source, final int col, final Class<?> columnClass ) {
+    Column column = null;
+    if ( columnClass == Long.class || columnClass == Integer.class || columnClass == Short.class
+      || columnClass == Byte.class ) {
+      column = LongColumn.create( source, col, columnClass );
+    } else if ( columnClass == Double.class || columnClass == Float.class ) {
+      column = DoubleColumn.create( source, col, columnClass );
+    } else if ( columnClass == String.class ) {
+      column = StringColumn.create( source, col );
+    } else if ( columnClass == Boolean.class ) {
+      column = BooleanColumn.create( source, col );
+    } else if ( columnClass == Date.class || columnClass == java.sql.Date.class
+      || columnClass == java.sql.Time.class ) {
+      column = DateColumn.create( source, col, columnClass );
+    } else if ( columnClass == Timestamp.class ) {
+      column = TimestampColumn.create( source, col );
+    } else if ( columnClass == BigDecimal.class ) {
+      column = DecimalColumn.create( source, col );
+    }
+    return column != null ? column : ObjectColumn.create( source, col );
+  }
+
+  private abstract static class Column implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    abstract Object get( int row );
+
+    abstract long getEstimatedSize();
+
+    static long sizeOf( final BitSet bits ) {
+      return TableSizeEstimator.OBJECT_HEADER + 8 + TableSizeEstimator.ARRAY_HEADER + bits.size() / 8;
+    }
+
+    static long sizeOf( final long[] values ) {
+      return TableSizeEstimator.ARRAY_HEADER + 8L * values.length;
+    }
+  }
+
+  private static class LongColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] values;
+    private final BitSet nulls;
+    private final Class<?> valueClass;
+
+    private LongColumn( final long[] values, final BitSet nulls, final Class<?> valueClass ) {
+      this.values = values;
+      this.nulls = nulls;
+      this.valueClass = valueClass;
+    }
+
+    /**
+     * @return null if some value is not of the column class
+     */
+    static LongColumn create( final TableModel source, final int col, final Class<?> valueClass ) {
+      final int rowCount = source.getRowCount();
+      final long[] values = new long[ rowCount ];
+      final BitSet nulls = new BitSet();
+      for ( int row = 0; row < rowCount; row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          nulls.set( row );
+        } else if ( value.getClass() == valueClass ) {
+          values[ row ] = ( (Number) value ).longValue();
+        } else {
+          return null;
+        }
+      }
+      return new LongColumn( values, nulls, valueClass );
+    }
+
+    @Override
+    Object get( final int row ) {
+      if ( nulls.get( row ) ) {
+        return null;
+      }
+      final long value = values[ row ];
+      if ( valueClass == Long.class ) {
+        return value;
+      } else if ( valueClass == Integer.class ) {
+        return (int) value;
+      } else if ( valueClass == Short.class ) {
+        return (short) value;
+      }
+      return (byte) value;
+    }
+
+    @Override
+    long getEstimatedSize() {
+      return TableSizeEstimator.OBJECT_HEADER + sizeOf( values ) + sizeOf( nulls );
+    }
+  }
+
+  private static class DoubleColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] values;
+    private final BitSet nulls;
+    private final boolean isFloat;
+
+    private DoubleColumn( final double[] values, final BitSet nulls, final boolean isFloat ) {
+      this.values = values;
+      this.nulls = nulls;
+      this.isFloat = isFloat;
+    }
+
+    static DoubleColumn create( final TableModel source, final int col, final Class<?> valueClass ) {
+      final int rowCount = source.getRowCount();
+      final double[] values = new double[ rowCount ];
+      final BitSet nulls = new BitSet();
+      for ( int row = 0; row < rowCount; row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          nulls.set( row );
+        } else if ( value.getClass() == valueClass ) {
+          values[ row ] = ( (Number) value ).doubleValue();
+        } else {
+          return null;
+        }
+      }
+      return new DoubleColumn( values, nulls, valueClass == Float.class );
+    }
+
+    @Override
+    Object get( final int row ) {
+      if ( nulls.get( row ) ) {
+        return null;
+      }
+      return isFloat ? (Object) (float) values[ row ] : (Object) values[ row ];
+    }
+
+    @Override
+    long getEstimatedSize() {
+      return TableSizeEstimator.OBJECT_HEADER + TableSizeEstimator.ARRAY_HEADER + 8L * values.length
+        + sizeOf( nulls );
+    }
+  }
+
+  private static class BooleanColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final BitSet values;
+    private final BitSet nulls;
+
+    private BooleanColumn( final BitSet values, final BitSet nulls ) {
+      this.values = values;
+      this.nulls = nulls;
+    }
+
+    static BooleanColumn create( final TableModel source, final int col ) {
+      final BitSet values = new BitSet();
+      final BitSet nulls = new BitSet();
+      for ( int row = 0; row < source.getRowCount(); row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          nulls.set( row );
+        } else if ( value instanceof Boolean ) {
+          values.set( row, (Boolean) value );
+        } else {
+          return null;
+        }
+      }
+      return new BooleanColumn( values, nulls );
+    }
+
+    @Override
+    Object get( final int row ) {
+      return nulls.get( row ) ? null : Boolean.valueOf( values.get( row ) );
+    }
+
+    @Override
+    long getEstimatedSize() {
+      return TableSizeEstimator.OBJECT_HEADER + sizeOf( values ) + sizeOf( nulls );
+    }
+  }
+
+  /**
+   * Dates as milliseconds; a new date is returned on each read, as they are mutable.
+   */
+  private static class DateColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] values;
+    private final BitSet nulls;
+    private final Class<?> valueClass;
+
+    private DateColumn( final long[] values, final BitSet nulls, final Class<?> valueClass ) {
+      this.values = values;
+      this.nulls = nulls;
+      this.valueClass = valueClass;
+    }
+
+    static DateColumn create( final TableModel source, final int col, final Class<?> valueClass ) {
+      final int rowCount = source.getRowCount();
+      final long[] values = new long[ rowCount ];
+      final BitSet nulls = new BitSet();
+      for ( int row = 0; row < rowCount; row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          nulls.set( row );
+        } else if ( value.getClass() == valueClass ) {
+          values[ row ] = ( (Date) value ).getTime();
+        } else {
+          return null;
+        }
+      }
+      return new DateColumn( values, nulls, valueClass );
+    }
+
+    @Override
+    Object get( final int row ) {
+      if ( nulls.get( row ) ) {
+        return null;
+      }
+      final long time = values[ row ];
+      if ( valueClass == java.sql.Date.class ) {
+        return new java.sql.Date( time );
+      } else if ( valueClass == java.sql.Time.class ) {
+        return new java.sql.Time( time );
+      }
+      return new Date( time );
+    }
+
+    @Override
+    long getEstimatedSize() {
+      return TableSizeEstimator.OBJECT_HEADER + sizeOf( values ) + sizeOf( nulls );
+    }
+  }
+
+  /**
+   * Timestamps as milliseconds and nanoseconds, returned as new timestamps on each read.
+   */
+  private static class TimestampColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] values;
+    private final int[] nanos;
+    private final BitSet nulls;
+
+    private TimestampColumn( final long[] values, final int[] nanos, final BitSet nulls ) {
+      this.values = values;
+      this.nanos = nanos;
+      this.nulls = nulls;
+    }
+
+    static TimestampColumn create( final TableModel source, final int col ) {
+      final int rowCount = source.getRowCount();
+      final long[] values = new long[ rowCount ];
+      final int[] nanos = new int[ rowCount ];
+      final BitSet nulls = new BitSet();
+      for ( int row = 0; row < rowCount; row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          nulls.set( row );
+        } else if ( value.getClass() == Timestamp.class ) {
+          values[ row ] = ( (Timestamp) value ).getTime();
+          nanos[ row ] = ( (Timestamp) value ).getNanos();
+        } else {
+          return null;
+        }
+      }
+      return new TimestampColumn( values, nanos, nulls );
+    }
+
+    @Override
+    Object get( final int row ) {
+      if ( nulls.get( row ) ) {
+        return null;
+      }
+      final Timestamp timestamp = new Timestamp( values[ row ] );
+      timestamp.setNanos( nanos[ row ] );
+      return timestamp;
+    }
+
+    @Override
+    long getEstimatedSize() {
+      return TableSizeEstimator.OBJECT_HEADER + sizeOf( values ) + TableSizeEstimator.ARRAY_HEADER
+        + 4L * nanos.length + sizeOf( nulls );
+    }
+  }
+
+  /**
+   * Decimals as unscaled longs, with the scale shared by all of them or, if they differ, one for each row. Columns
+   * with a value that doesn't fit are kept as objects.
+   */
+  private static class DecimalColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] values;
+    private final int scale;
+    private final byte[] scales;
+    private final BitSet nulls;
+
+    private DecimalColumn( final long[] values, final int scale, final byte[] scales, final BitSet nulls ) {
+      this.values = values;
+      this.scale = scale;
+      this.scales = scales;
+      this.nulls = nulls;
+    }
+
+    static DecimalColumn create( final TableModel source, final int col ) {
+      final int rowCount = source.getRowCount();
+      final long[] values = new long[ rowCount ];
+      final byte[] scales = new byte[ rowCount ];
+      final BitSet nulls = new BitSet();
+      Integer scale = null;
+      boolean sameScale = true;
+      for ( int row = 0; row < rowCount; row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          nulls.set( row );
+          continue;
+        }
+        if ( value.getClass() != BigDecimal.class ) {
+          return null;
+        }
+        final BigDecimal decimal = (BigDecimal) value;
+        if ( decimal.unscaledValue().bitLength() > 63 || decimal.scale() != (byte) decimal.scale() ) {
+          return null;
+        }
+        values[ row ] = decimal.unscaledValue().longValue();
+        scales[ row ] = (byte) decimal.scale();
+        if ( scale == null ) {
+          scale = decimal.scale();
+        } else if ( scale != decimal.scale() ) {
+          sameScale = false;
+        }
+      }
+      return new DecimalColumn( values, scale == null ? 0 : scale, sameScale ? null : scales, nulls );
+    }
+
+    @Override
+    Object get( final int row ) {
+      if ( nulls.get( row ) ) {
+        return null;
+      }
+      return BigDecimal.valueOf( values[ row ], scales == null ? scale : scales[ row ] );
+    }
+
+    @Override
+    long getEstimatedSize() {
+      return TableSizeEstimator.OBJECT_HEADER + sizeOf( values ) + sizeOf( nulls )
+        + ( scales == null ? 0 : TableSizeEstimator.ARRAY_HEADER + scales.length );
+    }
+  }
+
+  /**
+   * Distinct values in a dictionary, each row holding the index of its value or -1 for null.
+   */
+  private static class StringColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] codes;
+    private final String[] dictionary;
+
+    private StringColumn( final int[] codes, final String[] dictionary ) {
+      this.codes = codes;
+      this.dictionary = dictionary;
+    }
+
+    static StringColumn create( final TableModel source, final int col ) {
+      final int rowCount = source.getRowCount();
+      final int[] codes = new int[ rowCount ];
+      final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+      for ( int row = 0; row < rowCount; row++ ) {
+        final Object value = source.getValueAt( row, col );
+        if ( value == null ) {
+          codes[ row ] = -1;
+        } else if ( value instanceof String ) {
+          Integer code = dictionary.get( value );
+          if ( code == null ) {
+            code = dictionary.size();
+            dictionary.put( (String) value, code );
+          }
+          codes[ row ] = code;
+        } else {
+          return null;
+        }
+      }
+      final String[] values = new String[ dictionary.size() ];
+      for ( Map.Entry<String, Integer> entry : dictionary.entrySet() ) {
+        values[ entry.getValue() ] = entry.getKey();
+      }
+      return new StringColumn( codes, values );
+    }
+
+    @Override
+    Object get( final int row ) {
+      final int code = codes[ row ];
+      return code < 0 ? null : dictionary[ code ];
+    }
+
+    @Override
+    long getEstimatedSize() {
+      long size = TableSizeEstimator.OBJECT_HEADER + TableSizeEstimator.ARRAY_HEADER + 4L * codes.length
+        + TableSizeEstimator.ARRAY_HEADER + (long) TableSizeEstimator.REFERENCE * dictionary.length;
+      for ( String value : dictionary ) {
+        size += TableSizeEstimator.estimateString( value );
+      }
+      return size;
+    }
+  }
+
+  private static class ObjectColumn extends Column {
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] values;
+
+    private ObjectColumn( final Object[] values ) {
+      this.values = values;
+    }
+
+    static ObjectColumn create( final TableModel source, final int col ) {
+      final Object[] values = new Object[ source.getRowCount() ];
+      for ( int row = 0; row < values.length; row++ ) {
+        values[ row ] = source.getValueAt( row, col );
+      }
+      return new ObjectColumn( values );
+    }
+
+    @Override
+    Object get( final int row ) {
+      return values[ row ];
+    }
+
+    @Override
+    long getEstimatedSize() {
+      long size = TableSizeEstimator.OBJECT_HEADER + TableSizeEstimator.ARRAY_HEADER
+        + (long) TableSizeEstimator.REFERENCE * values.length;
+      for ( Object value : values ) {
+        size += TableSizeEstimator.estimateValue( value );
+      }
+      return size;
+    }
+  }
+}
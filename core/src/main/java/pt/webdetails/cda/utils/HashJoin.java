@@ -0,0 +1,259 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.table.TableModel;
+
+import org.pentaho.metadata.model.concept.types.JoinType;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+
+/**
+ * In-memory equi-join of two table models.
+ * <br>
+ * A hash table is built on the key columns of the smaller table and probed with the rows of the other one. The output
+ * has the same layout as the kettle MergeJoin step: all left columns followed by all right columns, right column names
+ * already used being renamed <code>name_1</code>, <code>name_2</code>..., and column types normalized to
+ * String, Long, Double, BigDecimal, Date or Boolean. As in MergeJoin, null keys match each other.
+ * Row order is not sorted by key.
+ */
+public class HashJoin {
+
+  private final TableModel left;
+  private final TableModel right;
+  private final int[] leftKeys;
+  private final int[] rightKeys;
+  private final JoinType joinType;
+
+  private Class<?>[] outputTypes;
+  private TypedTableModel output;
+
+  /**
+   * @param left      left table
+   * @param leftKeys  left key column indexes
+   * @param right     right table
+   * @param rightKeys right key column indexes, matched by position with <code>leftKeys</code>
+   * @param joinType  join type
+   */
+  public HashJoin( final TableModel left, final int[] leftKeys, final TableModel right, final int[] rightKeys,
+                   final JoinType joinType ) {
+    if ( leftKeys.length != rightKeys.length ) {
+      throw new IllegalArgumentException( "Left and right keys must have the same number of columns." );
+    }
+    this.left = left;
+    this.right = right;
+    this.leftKeys = leftKeys;
+    this.rightKeys = rightKeys;
+    this.joinType = joinType;
+  }
+
+  public TableModel join() {
+    final int leftColumnCount = left.getColumnCount();
+    final int rightColumnCount = right.getColumnCount();
+    final String[] names = new String[ leftColumnCount + rightColumnCount ];
+    outputTypes = new Class<?>[ names.length ];
+    final Set<String> usedNames = new HashSet<String>();
+    for ( int i = 0; i < leftColumnCount; i++ ) {
+      names[ i ] = uniqueName( left.getColumnName( i ), usedNames );
+      outputTypes[ i ] = getOutputType( left, i );
+    }
+    for ( int i = 0; i < rightColumnCount; i++ ) {
+      names[ leftColumnCount + i ] = uniqueName( right.getColumnName( i ), usedNames );
+      outputTypes[ leftColumnCount + i ] = getOutputType( right, i );
+    }
+    output = new TypedTableModel( names, outputTypes, Math.max( left.getRowCount(), right.getRowCount() ) );
+
+    final boolean keepLeft = joinType == JoinType.LEFT_OUTER || joinType == JoinType.FULL_OUTER;
+    final boolean keepRight = joinType == JoinType.RIGHT_OUTER || joinType == JoinType.FULL_OUTER;
+
+    // build on the smaller side, probe with the other
+    final boolean buildLeft = left.getRowCount() < right.getRowCount();
+    final TableModel build = buildLeft ? left : right;
+    final int[] buildKeys = buildLeft ? leftKeys : rightKeys;
+    final TableModel probe = buildLeft ? right : left;
+    final int[] probeKeys = buildLeft ? rightKeys : leftKeys;
+    final boolean keepBuild = buildLeft ? keepLeft : keepRight;
+    final boolean keepProbe = buildLeft ? keepRight : keepLeft;
+
+    final Map<Object, int[]> hashTable = buildHashTable( build, buildKeys );
+    final boolean[] matched = new boolean[ build.getRowCount() ];
+
+    for ( int probeRow = 0; probeRow < probe.getRowCount(); probeRow++ ) {
+      final int[] buildRows = hashTable.get( getKey( probe, probeRow, probeKeys ) );
+      if ( buildRows != null ) {
+        // first slot holds the number of rows
+        for ( int i = 1; i <= buildRows[ 0 ]; i++ ) {
+          final int buildRow = buildRows[ i ];
+          matched[ buildRow ] = true;
+          if ( buildLeft ) {
+            addRow( buildRow, probeRow );
+          } else {
+            addRow( probeRow, buildRow );
+          }
+        }
+      } else if ( keepProbe ) {
+        if ( buildLeft ) {
+          addRow( -1, probeRow );
+        } else {
+          addRow( probeRow, -1 );
+        }
+      }
+    }
+
+    if ( keepBuild ) {
+      for ( int buildRow = 0; buildRow < matched.length; buildRow++ ) {
+        if ( !matched[ buildRow ] ) {
+          if ( buildLeft ) {
+            addRow( buildRow, -1 );
+          } else {
+            addRow( -1, buildRow );
+          }
+        }
+      }
+    }
+    return output;
+  }
+
+  /**
+   * @return row indexes for each key; the first position of each array holds how many of the others are used
+   */
+  private static Map<Object, int[]> buildHashTable( final TableModel table, final int[] keys ) {
+    final int rowCount = table.getRowCount();
+    final Map<Object, int[]> hashTable = new HashMap<Object, int[]>( Math.max( 16, rowCount * 4 / 3 + 1 ) );
+    for ( int row = 0; row < rowCount; row++ ) {
+      final Object key = getKey( table, row, keys );
+      int[] rows = hashTable.get( key );
+      if ( rows == null ) {
+        rows = new int[ 2 ];
+      } else if ( rows[ 0 ] + 1 == rows.length ) {
+        rows = Arrays.copyOf( rows, rows.length * 2 );
+      }
+      rows[ ++rows[ 0 ] ] = row;
+      hashTable.put( key, rows );
+    }
+    return hashTable;
+  }
+
+  private static Object getKey( final TableModel table, final int row, final int[] keys ) {
+    if ( keys.length == 1 ) {
+      return normalizeKey( table.getValueAt( row, keys[ 0 ] ) );
+    }
+    final List<Object> key = new ArrayList<Object>( keys.length );
+    for ( int column : keys ) {
+      key.add( normalizeKey( table.getValueAt( row, column ) ) );
+    }
+    return key;
+  }
+
+  /**
+   * Numbers with the same value must match regardless of their class.
+   */
+  private static Object normalizeKey( final Object value ) {
+    if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+      return ( (Number) value ).longValue();
+    }
+    if ( value instanceof Number ) {
+      final double number = ( (Number) value ).doubleValue();
+      if ( number == Math.rint( number ) && Math.abs( number ) < Long.MAX_VALUE ) {
+        return (long) number;
+      }
+      return number;
+    }
+    if ( value instanceof Date ) {
+      return ( (Date) value ).getTime();
+    }
+    return value;
+  }
+
+  /**
+   * @param leftRow  left row, -1 for nulls
+   * @param rightRow right row, -1 for nulls
+   */
+  private void addRow( final int leftRow, final int rightRow ) {
+    final int leftColumnCount = left.getColumnCount();
+    final Object[] row = new Object[ outputTypes.length ];
+    if ( leftRow >= 0 ) {
+      for ( int i = 0; i < leftColumnCount; i++ ) {
+        row[ i ] = convert( left.getValueAt( leftRow, i ), outputTypes[ i ] );
+      }
+    }
+    if ( rightRow >= 0 ) {
+      for ( int i = 0; i < right.getColumnCount(); i++ ) {
+        row[ leftColumnCount + i ] = convert( right.getValueAt( rightRow, i ), outputTypes[ leftColumnCount + i ] );
+      }
+    }
+    output.addRow( row );
+  }
+
+  private static Object convert( final Object value, final Class<?> type ) {
+    if ( value == null || type.isInstance( value ) ) {
+      return value;
+    }
+    if ( value instanceof Number ) {
+      if ( type == Long.class ) {
+        return ( (Number) value ).longValue();
+      } else if ( type == Double.class ) {
+        return ( (Number) value ).doubleValue();
+      } else if ( type == BigDecimal.class ) {
+        return new BigDecimal( value.toString() );
+      }
+    }
+    if ( type == String.class ) {
+      return value.toString();
+    }
+    return value;
+  }
+
+  private static String uniqueName( final String name, final Set<String> usedNames ) {
+    String unique = name;
+    for ( int nr = 1; !usedNames.add( unique.toLowerCase() ); nr++ ) {
+      unique = name + "_" + nr;
+    }
+    return unique;
+  }
+
+  /**
+   * Same type mapping as the kettle join; undeclared column types are taken from the first value.
+   */
+  private static Class<?> getOutputType( final TableModel table, final int column ) {
+    Class<?> columnClass = table.getColumnClass( column );
+    if ( Object.class.equals( columnClass ) ) {
+      for ( int row = 0; row < table.getRowCount(); row++ ) {
+        final Object value = table.getValueAt( row, column );
+        if ( value != null ) {
+          columnClass = value.getClass();
+          break;
+        }
+      }
+    }
+    if ( columnClass == Long.class || columnClass == Integer.class ) {
+      return Long.class;
+    } else if ( columnClass == Double.class || columnClass == Float.class ) {
+      return Double.class;
+    } else if ( Date.class.isAssignableFrom( columnClass ) ) {
+      return Date.class;
+    } else if ( columnClass == Object.class ) {
+      return String.class;
+    }
+    return columnClass;
+  }
+}
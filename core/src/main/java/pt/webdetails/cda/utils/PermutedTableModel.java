@@ -0,0 +1,81 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * Read-only view of a {@link TableModel} through a row index permutation. Row <code>i</code> of the view is row
+ * <code>rowIndexes[i]</code> of the base table; the permutation may also select a subset of rows.
+ */
+public class PermutedTableModel extends AbstractTableModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final TableModel base;
+  private final int[] rowIndexes;
+
+  /**
+   * @param base       backing table
+   * @param rowIndexes base table row for each row of this table; not copied
+   */
+  public PermutedTableModel( final TableModel base, final int[] rowIndexes ) {
+    if ( base == null ) {
+      throw new IllegalArgumentException( "Null base table." );
+    }
+    this.base = base;
+    this.rowIndexes = rowIndexes;
+  }
+
+  public TableModel getBase() {
+    return base;
+  }
+
+  /**
+   * @return base table row for each row of this table; not copied
+   */
+  public int[] getRowIndexes() {
+    return rowIndexes;
+  }
+
+  public int getBaseRowIndex( final int rowIndex ) {
+    return rowIndexes[ rowIndex ];
+  }
+
+  @Override
+  public int getRowCount() {
+    return rowIndexes.length;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return base.getColumnCount();
+  }
+
+  @Override
+  public String getColumnName( final int columnIndex ) {
+    return base.getColumnName( columnIndex );
+  }
+
+  @Override
+  public Class<?> getColumnClass( final int columnIndex ) {
+    return base.getColumnClass( columnIndex );
+  }
+
+  @Override
+  public Object getValueAt( final int rowIndex, final int columnIndex ) {
+    return base.getValueAt( rowIndexes[ rowIndex ], columnIndex );
+  }
+}
@@ -0,0 +1,120 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.table.TableModel;
+
+import pt.webdetails.cda.dataaccess.QueryException;
+import pt.webdetails.cda.query.QueryOptions;
+
+/**
+ * Output rows of a query read from a cursor over its raw rows, through views built on the raw cursor's current row.
+ *
+ * @see TableModelUtils#postProcessCursor
+ */
+class PostProcessedRowCursor extends RowCursor {
+
+  private final RowCursor source;
+  private final TableModel output;
+  private final TableModel searched;
+  private final DataTableFilter rowFilter;
+  private final boolean paginate;
+  private final int pageStart;
+  private final int pageSize;
+
+  private int matchedRows;
+  private boolean done;
+
+  /**
+   * @param source    raw rows
+   * @param output    view of the output columns over the source's current row
+   * @param searched  view the row filter looks into, over the source's current row
+   * @param rowFilter (optional)
+   */
+  PostProcessedRowCursor( final RowCursor source, final TableModel output, final TableModel searched,
+                          final DataTableFilter rowFilter, final QueryOptions queryOptions ) {
+    this.source = source;
+    this.output = output;
+    this.searched = searched;
+    this.rowFilter = rowFilter;
+    this.paginate =
+      queryOptions.isPaginate() && ( queryOptions.getPageSize() != 0 || queryOptions.getPageStart() != 0 );
+    this.pageStart = paginate ? queryOptions.getPageStart() : 0;
+    this.pageSize = queryOptions.getPageSize();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return output.getColumnCount();
+  }
+
+  @Override
+  public String getColumnName( final int column ) {
+    return output.getColumnName( column );
+  }
+
+  @Override
+  public Class<?> getColumnClass( final int column ) {
+    return output.getColumnClass( column );
+  }
+
+  @Override
+  public boolean next() throws QueryException {
+    if ( done ) {
+      return false;
+    }
+    while ( source.next() ) {
+      if ( rowFilter != null && !rowFilter.rowContainsSearchTerms( searched, 0 ) ) {
+        continue;
+      }
+      matchedRows++;
+      // rows past the page are still counted for the total
+      if ( matchedRows > pageStart && ( !paginate || matchedRows <= pageStart + pageSize ) ) {
+        return true;
+      }
+    }
+    done = true;
+    return false;
+  }
+
+  @Override
+  public Object getValue( final int column ) {
+    return output.getValueAt( 0, column );
+  }
+
+  /**
+   * Same query info as a paginated table model.
+   */
+  @Override
+  public Map<String, String> getMetadata() {
+    if ( !done ) {
+      return null;
+    }
+    final Map<String, String> metadata = new HashMap<String, String>();
+    metadata.put( "totalRows", Integer.toString( matchedRows ) );
+    if ( paginate ) {
+      metadata.put( "pageSize", Integer.toString( pageSize ) );
+      metadata.put( "pageStart", Integer.toString( pageStart ) );
+    }
+    return metadata;
+  }
+
+  @Override
+  public void close() {
+    source.close();
+  }
+}
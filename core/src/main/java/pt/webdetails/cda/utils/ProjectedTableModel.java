@@ -0,0 +1,76 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+/**
+ * Read-only view of some columns of a {@link TableModel}, in any order and under other names. Column classes are
+ * read from the base table on each call, so types inferred by a {@link CalculatedTableModel} stay current.
+ */
+public class ProjectedTableModel extends AbstractTableModel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final TableModel base;
+  private final int[] columnIndexes;
+  private final String[] columnNames;
+
+  /**
+   * @param base          backing table
+   * @param columnIndexes base table column for each column of this table
+   * @param columnNames   name of each column of this table
+   */
+  public ProjectedTableModel( final TableModel base, final int[] columnIndexes, final String[] columnNames ) {
+    if ( base == null ) {
+      throw new IllegalArgumentException( "Null base table." );
+    }
+    if ( columnIndexes.length != columnNames.length ) {
+      throw new IllegalArgumentException( "Each column needs a name." );
+    }
+    this.base = base;
+    this.columnIndexes = columnIndexes.clone();
+    this.columnNames = columnNames.clone();
+  }
+
+  public TableModel getBase() {
+    return base;
+  }
+
+  @Override
+  public int getRowCount() {
+    return base.getRowCount();
+  }
+
+  @Override
+  public int getColumnCount() {
+    return columnIndexes.length;
+  }
+
+  @Override
+  public String getColumnName( final int columnIndex ) {
+    return columnNames[ columnIndex ];
+  }
+
+  @Override
+  public Class<?> getColumnClass( final int columnIndex ) {
+    return base.getColumnClass( columnIndexes[ columnIndex ] );
+  }
+
+  @Override
+  public Object getValueAt( final int rowIndex, final int columnIndex ) {
+    return base.getValueAt( rowIndex, columnIndexes[ columnIndex ] );
+  }
+}
@@ -0,0 +1,168 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.util.Map;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableModel;
+
+import pt.webdetails.cda.dataaccess.QueryException;
+
+/**
+ * Forward-only rows of a query result, read one at a time so that the whole result never has to be in memory.
+ * <br>
+ * The current row can also be seen as a single row {@link TableModel}, so that the views used on whole results
+ * (calculated columns, projections, row filters) can be built once and read again for every row.
+ */
+public abstract class RowCursor implements AutoCloseable {
+
+  private final TableModel currentRow = new CurrentRowTableModel();
+
+  public abstract int getColumnCount();
+
+  public abstract String getColumnName( int column );
+
+  /**
+   * May change as rows are read, like the classes of calculated columns.
+   */
+  public abstract Class<?> getColumnClass( int column );
+
+  /**
+   * Moves to the next row, which is the first one on the first call.
+   *
+   * @return false if there are no more rows
+   */
+  public abstract boolean next() throws QueryException;
+
+  /**
+   * @return value of the current row
+   */
+  public abstract Object getValue( int column );
+
+  /**
+   * Moves to the next row and reads all its values.
+   *
+   * @return values of the next row, null if there are no more rows
+   */
+  public Object[] nextRow() throws QueryException {
+    if ( !next() ) {
+      return null;
+    }
+    final Object[] row = new Object[ getColumnCount() ];
+    for ( int i = 0; i < row.length; i++ ) {
+      row[ i ] = getValue( i );
+    }
+    return row;
+  }
+
+  /**
+   * @return query info, such as the total row count, available once all rows are read; null if there is none
+   */
+  public Map<String, String> getMetadata() {
+    return null;
+  }
+
+  /**
+   * @return table with the columns of this cursor and the current row as its only row
+   */
+  public TableModel getCurrentRow() {
+    return currentRow;
+  }
+
+  /**
+   * Releases any resources held by the cursor; rows can't be read after this.
+   */
+  @Override
+  public void close() {
+  }
+
+  /**
+   * @return cursor over the rows of a table
+   */
+  public static RowCursor over( final TableModel table ) {
+    return new TableRowCursor( table );
+  }
+
+  private class CurrentRowTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int getRowCount() {
+      return 1;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return RowCursor.this.getColumnCount();
+    }
+
+    @Override
+    public String getColumnName( final int column ) {
+      return RowCursor.this.getColumnName( column );
+    }
+
+    @Override
+    public Class<?> getColumnClass( final int column ) {
+      return RowCursor.this.getColumnClass( column );
+    }
+
+    @Override
+    public Object getValueAt( final int row, final int column ) {
+      return getValue( column );
+    }
+  }
+
+  private static class TableRowCursor extends RowCursor {
+    private final TableModel table;
+    private int row = -1;
+
+    TableRowCursor( final TableModel table ) {
+      this.table = table;
+    }
+
+    @Override
+    public int getColumnCount() {
+      return table.getColumnCount();
+    }
+
+    @Override
+    public String getColumnName( final int column ) {
+      return table.getColumnName( column );
+    }
+
+    @Override
+    public Class<?> getColumnClass( final int column ) {
+      return table.getColumnClass( column );
+    }
+
+    @Override
+    public boolean next() {
+      if ( row < table.getRowCount() ) {
+        row++;
+      }
+      return row < table.getRowCount();
+    }
+
+    @Override
+    public Object getValue( final int column ) {
+      return table.getValueAt( row, column );
+    }
+
+    @Override
+    public Map<String, String> getMetadata() {
+      return table instanceof MetadataTableModel ? ( (MetadataTableModel) table ).getAllMetadata() : null;
+    }
+  }
+}
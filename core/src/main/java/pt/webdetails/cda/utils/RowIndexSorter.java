@@ -0,0 +1,346 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.swing.table.TableModel;
+
+/**
+ * Sorts the rows of an in-memory {@link TableModel} into an <code>int[]</code> row index permutation.
+ * <br>
+ * Sort columns are read once into type-specialized keys (double, long, case-insensitive String, Date as long,
+ * generic Comparable otherwise) and rows are ordered with a stable merge sort, split across a fork/join pool for
+ * large tables if one is given. Ordering follows the Kettle SortRows step used by default: nulls are lower than any
+ * value, strings are compared ignoring case and descending columns reverse the whole comparison.
+ */
+public class RowIndexSorter {
+
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 20000;
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
+  private final ColumnKey[] keys;
+  private final int rowCount;
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+  private ForkJoinPool pool;
+
+  /**
+   * @param table     table to sort
+   * @param columns   sort columns, by precedence
+   * @param ascending sort direction for each of the sort columns
+   */
+  public RowIndexSorter( final TableModel table, final int[] columns, final boolean[] ascending ) {
+    if ( columns.length != ascending.length ) {
+      throw new IllegalArgumentException( "Each sort column needs a direction." );
+    }
+    this.rowCount = table.getRowCount();
+    this.keys = new ColumnKey[ columns.length ];
+    for ( int i = 0; i < columns.length; i++ ) {
+      keys[ i ] = createKey( table, columns[ i ], ascending[ i ] );
+    }
+  }
+
+  /**
+   * @param parallelThreshold minimum number of rows in a partition before it is split across threads
+   */
+  public void setParallelThreshold( final int parallelThreshold ) {
+    this.parallelThreshold = Math.max( INSERTION_SORT_THRESHOLD, parallelThreshold );
+  }
+
+  /**
+   * @param pool pool to sort large tables in, null to always sort in the calling thread
+   */
+  public void setPool( final ForkJoinPool pool ) {
+    this.pool = pool;
+  }
+
+  /**
+   * @return sorted row indexes: position <code>i</code> holds the original index of the i-th row in sort order
+   */
+  public int[] sort() {
+    final int[] indexes = new int[ rowCount ];
+    for ( int i = 0; i < rowCount; i++ ) {
+      indexes[ i ] = i;
+    }
+    sort( indexes );
+    return indexes;
+  }
+
+  /**
+   * Sorts a subset of row indexes in place.
+   *
+   * @param indexes row indexes to sort
+   */
+  public void sort( final int[] indexes ) {
+    if ( indexes.length < 2 || keys.length == 0 ) {
+      return;
+    }
+    final int[] buffer = indexes.clone();
+    if ( pool == null || indexes.length < parallelThreshold ) {
+      mergeSort( buffer, indexes, 0, indexes.length );
+    } else {
+      pool.invoke( new ParallelMergeSort( buffer, indexes, 0, indexes.length ) );
+    }
+  }
+
+  /**
+   * Compares two rows of the table.
+   */
+  public int compare( final int rowA, final int rowB ) {
+    for ( ColumnKey key : keys ) {
+      final int result = key.compare( rowA, rowB );
+      if ( result != 0 ) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Sorts <code>dest[from, to)</code>; <code>src</code> must hold the same values in that range and is used as
+   * scratch space.
+   */
+  private void mergeSort( final int[] src, final int[] dest, final int from, final int to ) {
+    final int length = to - from;
+    if ( length < INSERTION_SORT_THRESHOLD ) {
+      insertionSort( dest, from, to );
+      return;
+    }
+    final int middle = ( from + to ) >>> 1;
+    mergeSort( dest, src, from, middle );
+    mergeSort( dest, src, middle, to );
+    merge( src, dest, from, middle, to );
+  }
+
+  private void insertionSort( final int[] values, final int from, final int to ) {
+    for ( int i = from + 1; i < to; i++ ) {
+      final int value = values[ i ];
+      int j = i - 1;
+      while ( j >= from && compare( values[ j ], value ) > 0 ) {
+        values[ j + 1 ] = values[ j ];
+        j--;
+      }
+      values[ j + 1 ] = value;
+    }
+  }
+
+  /**
+   * Merges sorted <code>src[from, middle)</code> and <code>src[middle, to)</code> into <code>dest</code>, keeping
+   * left elements first on ties.
+   */
+  private void merge( final int[] src, final int[] dest, final int from, final int middle, final int to ) {
+    if ( compare( src[ middle - 1 ], src[ middle ] ) <= 0 ) {
+      System.arraycopy( src, from, dest, from, to - from );
+      return;
+    }
+    int left = from;
+    int right = middle;
+    for ( int i = from; i < to; i++ ) {
+      if ( right >= to || ( left < middle && compare( src[ left ], src[ right ] ) <= 0 ) ) {
+        dest[ i ] = src[ left++ ];
+      } else {
+        dest[ i ] = src[ right++ ];
+      }
+    }
+  }
+
+  private class ParallelMergeSort extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] src;
+    private final int[] dest;
+    private final int from;
+    private final int to;
+
+    ParallelMergeSort( final int[] src, final int[] dest, final int from, final int to ) {
+      this.src = src;
+      this.dest = dest;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if ( to - from < parallelThreshold ) {
+        mergeSort( src, dest, from, to );
+        return;
+      }
+      final int middle = ( from + to ) >>> 1;
+      invokeAll( new ParallelMergeSort( dest, src, from, middle ), new ParallelMergeSort( dest, src, middle, to ) );
+      merge( src, dest, from, middle, to );
+    }
+  }
+
+  private static ColumnKey createKey( final TableModel table, final int column, final boolean ascending ) {
+    final int rowCount = table.getRowCount();
+    final Object[] values = new Object[ rowCount ];
+    boolean allDouble = true;
+    boolean allLong = true;
+    boolean allString = true;
+    boolean allDate = true;
+    for ( int row = 0; row < rowCount; row++ ) {
+      final Object value = table.getValueAt( row, column );
+      values[ row ] = value;
+      if ( value != null ) {
+        allDouble &= value instanceof Double || value instanceof Float;
+        allLong &= value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+        allString &= value instanceof String;
+        allDate &= value instanceof Date;
+      }
+    }
+    final int sign = ascending ? 1 : -1;
+    if ( allDouble ) {
+      return new DoubleKey( values, sign );
+    } else if ( allLong ) {
+      return new LongKey( values, sign );
+    } else if ( allString ) {
+      return new StringKey( values, sign );
+    } else if ( allDate ) {
+      return new DateKey( values, sign );
+    }
+    return new GenericKey( values, sign );
+  }
+
+  private abstract static class ColumnKey {
+    protected final boolean[] nulls;
+    private final int sign;
+
+    ColumnKey( final Object[] values, final int sign ) {
+      this.sign = sign;
+      this.nulls = new boolean[ values.length ];
+      for ( int i = 0; i < values.length; i++ ) {
+        nulls[ i ] = values[ i ] == null;
+      }
+    }
+
+    final int compare( final int rowA, final int rowB ) {
+      final int result;
+      if ( nulls[ rowA ] || nulls[ rowB ] ) {
+        result = nulls[ rowA ] == nulls[ rowB ] ? 0 : ( nulls[ rowA ] ? -1 : 1 );
+      } else {
+        result = compareValues( rowA, rowB );
+      }
+      return sign * result;
+    }
+
+    /**
+     * Both values are known to be non-null.
+     */
+    abstract int compareValues( int rowA, int rowB );
+  }
+
+  private static class DoubleKey extends ColumnKey {
+    private final double[] keys;
+
+    DoubleKey( final Object[] values, final int sign ) {
+      super( values, sign );
+      keys = new double[ values.length ];
+      for ( int i = 0; i < values.length; i++ ) {
+        if ( values[ i ] != null ) {
+          keys[ i ] = ( (Number) values[ i ] ).doubleValue();
+        }
+      }
+    }
+
+    @Override
+    int compareValues( final int rowA, final int rowB ) {
+      return Double.compare( keys[ rowA ], keys[ rowB ] );
+    }
+  }
+
+  private static class LongKey extends ColumnKey {
+    private final long[] keys;
+
+    LongKey( final Object[] values, final int sign ) {
+      super( values, sign );
+      keys = new long[ values.length ];
+      for ( int i = 0; i < values.length; i++ ) {
+        if ( values[ i ] != null ) {
+          keys[ i ] = ( (Number) values[ i ] ).longValue();
+        }
+      }
+    }
+
+    @Override
+    int compareValues( final int rowA, final int rowB ) {
+      return Long.compare( keys[ rowA ], keys[ rowB ] );
+    }
+  }
+
+  private static class DateKey extends ColumnKey {
+    private final long[] keys;
+
+    DateKey( final Object[] values, final int sign ) {
+      super( values, sign );
+      keys = new long[ values.length ];
+      for ( int i = 0; i < values.length; i++ ) {
+        if ( values[ i ] != null ) {
+          keys[ i ] = ( (Date) values[ i ] ).getTime();
+        }
+      }
+    }
+
+    @Override
+    int compareValues( final int rowA, final int rowB ) {
+      return Long.compare( keys[ rowA ], keys[ rowB ] );
+    }
+  }
+
+  private static class StringKey extends ColumnKey {
+    private final String[] keys;
+
+    StringKey( final Object[] values, final int sign ) {
+      super( values, sign );
+      keys = new String[ values.length ];
+      for ( int i = 0; i < values.length; i++ ) {
+        keys[ i ] = (String) values[ i ];
+      }
+    }
+
+    @Override
+    int compareValues( final int rowA, final int rowB ) {
+      return keys[ rowA ].compareToIgnoreCase( keys[ rowB ] );
+    }
+  }
+
+  /**
+   * Mixed or other types: numbers by value, same-class Comparables naturally, anything else by its string.
+   */
+  private static class GenericKey extends ColumnKey {
+    private final Object[] keys;
+
+    GenericKey( final Object[] values, final int sign ) {
+      super( values, sign );
+      keys = values;
+    }
+
+    @Override
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    int compareValues( final int rowA, final int rowB ) {
+      final Object a = keys[ rowA ];
+      final Object b = keys[ rowB ];
+      if ( a instanceof Number && b instanceof Number ) {
+        return Double.compare( ( (Number) a ).doubleValue(), ( (Number) b ).doubleValue() );
+      }
+      if ( a instanceof String && b instanceof String ) {
+        return ( (String) a ).compareToIgnoreCase( (String) b );
+      }
+      if ( a instanceof Comparable && a.getClass().equals( b.getClass() ) ) {
+        return ( (Comparable) a ).compareTo( b );
+      }
+      return a.toString().compareToIgnoreCase( b.toString() );
+    }
+  }
+}
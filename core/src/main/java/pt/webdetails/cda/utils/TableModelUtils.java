@@ -17,6 +17,11 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.cache.CachedTable;
+import pt.webdetails.cda.cache.PostProcessingCache;
+import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+import pt.webdetails.cda.dataaccess.AbstractDataAccess;
 import pt.webdetails.cda.dataaccess.ColumnDefinition;
 import pt.webdetails.cda.dataaccess.DataAccess;
 import pt.webdetails.cda.dataaccess.DataAccessEnums;
@@ -27,6 +32,7 @@ import pt.webdetails.cda.utils.kettle.SortTableModel;
 
 import javax.swing.table.TableModel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -41,6 +47,13 @@ public class TableModelUtils {
   private static final Log logger = LogFactory.getLog( TableModelUtils.class );
   private static final String DT_FILTER = "dtFilter";
   private static final String DT_SEARCHABLE = "dtSearchableColumns";
+  private static final String MATERIALIZE_CALCULATED_COLUMNS = "pt.webdetails.cda.MaterializeCalculatedColumns";
+  private static final String COLUMNAR_COPY = "pt.webdetails.cda.ColumnarResults";
+  private static final String POST_PROCESSING_CACHE = "pt.webdetails.cda.PostProcessingCache";
+  private static final String POST_PROCESSING_CACHE_MAX_ROWS = "pt.webdetails.cda.PostProcessingCacheMaxRows";
+  private static final String SORTING_TYPE = "pt.webdetails.cda.SortingType";
+
+  private static volatile PostProcessingCache postProcessingCache;
 
   private static TableModelUtils _instance = new TableModelUtils();
 
@@ -64,7 +77,21 @@ public class TableModelUtils {
                                                   final QueryOptions queryOptions,
                                                   final TableModel rawTableModel )
     throws SortException, InvalidOutputIndexException {
+    return postProcessTableModel( dataAccess, queryOptions, new CachedTable( null, rawTableModel, null ) );
+  }
+
+  /**
+   * Same as {@link #postProcessTableModel(DataAccess, QueryOptions, TableModel)}, keeping the filtered and sorted rows
+   * of a result read from or put in the result cache for the following pages.
+   *
+   * @param rawResult raw result, with the key and info of its cache entry if it has one
+   */
+  public static TableModel postProcessTableModel( final DataAccess dataAccess,
+                                                  final QueryOptions queryOptions,
+                                                  final CachedTable rawResult )
+    throws SortException, InvalidOutputIndexException {
 
+    final TableModel rawTableModel = rawResult.getTable();
     if ( rawTableModel == null ) {
       throw new IllegalArgumentException( "Cannot process null table." );
     }
@@ -74,6 +101,7 @@ public class TableModelUtils {
     //  2. Show only the output columns we want;
     //  3. Sort
     //  4. Pagination
+    // Steps 1 to 3 only build views over the raw table, rows are copied for the requested page only.
 
     TableModel table;
 
@@ -92,38 +120,74 @@ public class TableModelUtils {
       useOutputIndexes = false;
       logger.warn( "Mdx query returned empty result set, output indexes will be ignored." );
     }
-    table = useOutputIndexes
-      ? filterTable( table, outputIndexes, columnNames, rowFilter, dataAccess.getColumnDefinitions().size() > 0 )
-      : filterTable( table, new ArrayList<Integer>(), columnNames, rowFilter, false );
+    final TableModel projected = useOutputIndexes
+      ? projectTable( table, outputIndexes, columnNames, rowFilter, dataAccess.getColumnDefinitions().size() > 0 )
+      : projectTable( table, new ArrayList<Integer>(), columnNames, rowFilter, false );
+    final boolean filterRows = rowFilter != null && projected != table;
+    final List<String> sortBy = queryOptions.getSortBy();
+
+    // filtered and sorted rows of a cached result are kept for the following pages
+    final PostProcessingCache viewCache = getPostProcessingCache();
+    final PostProcessingCache.Key viewKey = viewCache != null && ( filterRows || !sortBy.isEmpty() )
+      ? createViewKey( dataAccess, queryOptions, rawResult ) : null;
+    final int[] cachedRows = viewKey != null ? viewCache.get( viewKey ) : null;
+    if ( cachedRows != null ) {
+      table = new PermutedTableModel( projected, cachedRows );
+    } else {
+      table = filterRows ? filterRows( projected, table, rowFilter ) : projected;
 
-    //  3. Sort
-    if ( !queryOptions.getSortBy().isEmpty() ) {
-      // no action
-      table = ( new SortTableModel() ).doSort( table, queryOptions.getSortBy() );
+      //  3. Sort
+      if ( !sortBy.isEmpty() ) {
+        table = viewKey != null
+          ? new SortTableModel().sortPermutation( table, sortBy )
+          : new SortTableModel().doSort( table, sortBy );
+      }
+      if ( viewKey != null ) {
+        viewCache.put( viewKey, ( (PermutedTableModel) table ).getRowIndexes() );
+      }
     }
 
-    // Create a metadata-aware table model
+    //  4. Pagination
+    return paginateTableModel( table, queryOptions );
+
 
-    final Class<?>[] colTypes = new Class[ table.getColumnCount() ];
-    final String[] colNames = new String[ table.getColumnCount() ];
+  }
 
-    for ( int i = 0; i < table.getColumnCount(); i++ ) {
-      colTypes[ i ] = table.getColumnClass( i );
-      colNames[ i ] = table.getColumnName( i );
+  /**
+   * Same as {@link #postProcessTableModel} for rows read one at a time, without sorting. The views are built once
+   * over the raw cursor's current row, and only the rows of the requested page are returned.
+   *
+   * @param rawCursor raw rows of the query, closed with the returned cursor
+   * @throws IllegalArgumentException if the query options ask for sorting
+   */
+  public static RowCursor postProcessCursor( final DataAccess dataAccess, final QueryOptions queryOptions,
+                                             final RowCursor rawCursor ) throws InvalidOutputIndexException {
+    if ( !queryOptions.getSortBy().isEmpty() ) {
+      throw new IllegalArgumentException( "Cannot sort rows read from a cursor." );
     }
 
-    final int rowCount = table.getRowCount();
-    MetadataTableModel result = new MetadataTableModel( colNames, colTypes, rowCount );
-    result.setMetadata( "totalRows", rowCount );
-    for ( int r = 0; r < rowCount; r++ ) {
-      for ( int j = 0; j < table.getColumnCount(); j++ ) {
-        result.setValueAt( table.getValueAt( r, j ), r, j );
-      }
+    // columns named as in the copy of a queried table, which calculated columns refer to
+    final TableModel rawRow = rawCursor.getCurrentRow();
+    final int[] rawColumns = new int[ rawRow.getColumnCount() ];
+    final String[] rawNames = new String[ rawColumns.length ];
+    for ( int i = 0; i < rawColumns.length; i++ ) {
+      final ColumnDefinition col = dataAccess.getColumnDefinition( i );
+      rawColumns[ i ] = i;
+      rawNames[ i ] = col != null ? col.getName() : rawRow.getColumnName( i );
     }
-    //  4. Pagination
-    return paginateTableModel( result, queryOptions );
 
+    // calculated columns are never materialized, there is a single row to evaluate at a time
+    final ArrayList<ColumnDefinition> calculatedColumns = dataAccess.getCalculatedColumns();
+    final TableModel named = new ProjectedTableModel( rawRow, rawColumns, rawNames );
+    final TableModel table = calculatedColumns.isEmpty() ? named : new CalculatedTableModel( named,
+      calculatedColumns.toArray( new ColumnDefinition[ calculatedColumns.size() ] ), true );
 
+    List<Integer> outputIndexes = getOutputIndexes( dataAccess, queryOptions, table );
+    List<String> columnNames = getColumnNames( dataAccess, table );
+    DataTableFilter rowFilter = getRowFilter( queryOptions, outputIndexes );
+    final TableModel projected =
+      projectTable( table, outputIndexes, columnNames, rowFilter, dataAccess.getColumnDefinitions().size() > 0 );
+    return new PostProcessedRowCursor( rawCursor, projected, table, rowFilter, queryOptions );
   }
 
 
@@ -138,8 +202,12 @@ public class TableModelUtils {
     if ( columnDefinitions.isEmpty() ) {
       table = rawTableModel;
     } else {
-      table = new CalculatedTableModel( rawTableModel,
+      CalculatedTableModel calculatedTable = new CalculatedTableModel( rawTableModel,
         columnDefinitions.toArray( new ColumnDefinition[ columnDefinitions.size() ] ), true );
+      if ( CdaPropertiesHelper.getBoolProperty( MATERIALIZE_CALCULATED_COLUMNS, false ) ) {
+        calculatedTable.materialize();
+      }
+      table = calculatedTable;
     }
     return table;
   }
@@ -150,12 +218,12 @@ public class TableModelUtils {
    * @param outputIndexes
    * @param rowFilter            (optional)
    * @param hasColumnDefinitions
-   * @return
+   * @return view of the output columns, or the same table if there's nothing to do
    * @throws InvalidOutputIndexException
    */
-  private static TableModel filterTable( final TableModel table, List<Integer> outputIndexes,
-                                         final List<String> columnNames, final DataTableFilter rowFilter,
-                                         boolean hasColumnDefinitions ) throws InvalidOutputIndexException {
+  private static TableModel projectTable( final TableModel table, List<Integer> outputIndexes,
+                                          final List<String> columnNames, final DataTableFilter rowFilter,
+                                          boolean hasColumnDefinitions ) throws InvalidOutputIndexException {
     int columnCount = outputIndexes.size();
 
     if ( columnCount == 0 && ( rowFilter != null || hasColumnDefinitions ) ) {
@@ -184,33 +252,78 @@ public class TableModelUtils {
       final int rowCount = table.getRowCount();
       logger.debug( rowCount == 0 ? "No data found" : "Found " + rowCount + " rows" );
 
-      final Class<?>[] colTypes = new Class[ columnCount ];
+      final int[] columns = new int[ columnCount ];
       final String[] colNames = new String[ columnCount ];
-      //just set the number of rows/columns
-      final TypedTableModel typedTableModel = new TypedTableModel( colNames, colTypes, rowCount );
-
-      for ( int rowIn = 0, rowOut = 0; rowIn < rowCount; rowIn++, rowOut++ ) {
-        //filter rows
-        if ( rowFilter != null && !rowFilter.rowContainsSearchTerms( table, rowIn ) ) {
-          rowOut--;
-          continue;
-        }
-        //filter columns
-        for ( int j = 0; j < outputIndexes.size(); j++ ) {
-          final int outputIndex = outputIndexes.get( j );
-          typedTableModel.setValueAt( table.getValueAt( rowIn, outputIndex ), rowOut, j );
-        }
+      for ( int i = 0; i < columnCount; i++ ) {
+        columns[ i ] = outputIndexes.get( i );
+        colNames[ i ] = columnNames.get( columns[ i ] );
       }
+      return new ProjectedTableModel( table, columns, colNames );
+    }
+    return table;
+  }
 
-      //since we set the calculated table model to infer types, they will be available after rows are evaluated
-      for ( int i = 0; i < outputIndexes.size(); i++ ) {
-        final int outputIndex = outputIndexes.get( i );
-        typedTableModel.setColumnName( i, columnNames.get( outputIndex ) );
-        typedTableModel.setColumnType( i, table.getColumnClass( outputIndex ) );
+  /**
+   * @param projected view of the output columns of <code>table</code>
+   * @param table     table with the columns the filter searches
+   * @param rowFilter row filter
+   * @return view of the matching rows
+   */
+  private static PermutedTableModel filterRows( final TableModel projected, final TableModel table,
+                                                final DataTableFilter rowFilter ) {
+    final int rowCount = table.getRowCount();
+    int[] rows = new int[ rowCount ];
+    int matches = 0;
+    for ( int row = 0; row < rowCount; row++ ) {
+      if ( rowFilter.rowContainsSearchTerms( table, row ) ) {
+        rows[ matches++ ] = row;
       }
-      return typedTableModel;
     }
-    return table;
+    if ( matches < rowCount ) {
+      rows = Arrays.copyOf( rows, matches );
+    }
+    return new PermutedTableModel( projected, rows );
+  }
+
+  /**
+   * @return shared cache of filtered and sorted rows, null if disabled
+   */
+  public static PostProcessingCache getPostProcessingCache() {
+    if ( !CdaPropertiesHelper.getBoolProperty( POST_PROCESSING_CACHE, true ) ) {
+      return null;
+    }
+    PostProcessingCache cache = postProcessingCache;
+    if ( cache == null ) {
+      synchronized ( TableModelUtils.class ) {
+        cache = postProcessingCache;
+        if ( cache == null ) {
+          cache = new PostProcessingCache( CdaPropertiesHelper.getIntProperty(
+            POST_PROCESSING_CACHE_MAX_ROWS, PostProcessingCache.DEFAULT_MAX_ROWS ) );
+          postProcessingCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return key of the filtered and sorted rows of a cached result, null if it isn't cached
+   */
+  private static PostProcessingCache.Key createViewKey( final DataAccess dataAccess, final QueryOptions queryOptions,
+                                                        final CachedTable rawResult ) {
+    final ExtraCacheInfo info = rawResult.getInfo();
+    if ( rawResult.getKey() == null || info == null || info.getEntryTime() <= 0 ) {
+      return null;
+    }
+    return new PostProcessingCache.Key( rawResult.getKey(), info.getEntryTime(),
+      dataAccess.getId(),
+      dataAccess instanceof AbstractDataAccess ? ( (AbstractDataAccess) dataAccess ).getDefinitionVersion() : null,
+      queryOptions.getOutputIndexId(),
+      new ArrayList<String>( queryOptions.getOutputColumnName() ),
+      new ArrayList<String>( queryOptions.getSortBy() ),
+      StringUtils.trim( queryOptions.getExtraSettings().get( DT_FILTER ) ),
+      queryOptions.getExtraSettings().get( DT_SEARCHABLE ),
+      CdaPropertiesHelper.getStringProperty( SORTING_TYPE, null ) );
   }
 
 
@@ -325,6 +438,10 @@ public class TableModelUtils {
     return columnNames;
   }
 
+  /**
+   * Copies a query result before it is cached, without the columns referenced only by index. The copy is a
+   * {@link ColumnarTableModel} unless <code>pt.webdetails.cda.ColumnarResults</code> is false.
+   */
   public static TableModel copyTableModel( final DataAccess dataAccess, final TableModel t ) {
 
     // We're removing the ::table-by-index:: cols
@@ -367,6 +484,9 @@ public class TableModelUtils {
       }
     }
 
+    if ( CdaPropertiesHelper.getBoolProperty( COLUMNAR_COPY, true ) ) {
+      return new ColumnarTableModel( colNames, colTypes, t );
+    }
     final TypedTableModel typedTableModel = new TypedTableModel( colNames, colTypes, rowCount );
     for ( int r = 0; r < rowCount; r++ ) {
       for ( int c = 0; c < count; c++ ) {
@@ -483,17 +603,20 @@ public class TableModelUtils {
   }
 
 
-  private static TableModel paginateTableModel( MetadataTableModel t, QueryOptions queryOptions ) {
-
-    if ( !queryOptions.isPaginate() || ( queryOptions.getPageSize() == 0 && queryOptions.getPageStart() == 0 ) ) {
-      return t;
+  /**
+   * Copies the requested page of a table, or all of it if not paginating.
+   */
+  private static TableModel paginateTableModel( TableModel t, QueryOptions queryOptions ) {
+
+    final boolean paginate =
+      queryOptions.isPaginate() && ( queryOptions.getPageSize() != 0 || queryOptions.getPageStart() != 0 );
+    final int totalRows = t.getRowCount();
+    final int pageStart = paginate ? queryOptions.getPageStart() : 0;
+    final int rowCount = paginate ? Math.min( queryOptions.getPageSize(), totalRows - pageStart ) : totalRows;
+    if ( paginate ) {
+      logger.debug( "Paginating " + queryOptions.getPageSize() + " pages from page " + queryOptions.getPageStart() );
     }
 
-
-    final int rowCount = Math.min( queryOptions.getPageSize(), t.getRowCount() - queryOptions.getPageStart() );
-    logger.debug( "Paginating " + queryOptions.getPageSize() + " pages from page " + queryOptions.getPageStart() );
-
-
     final Class<?>[] colTypes = new Class[ t.getColumnCount() ];
     final String[] colNames = new String[ t.getColumnCount() ];
 
@@ -502,17 +625,24 @@ public class TableModelUtils {
       colNames[ i ] = t.getColumnName( i );
     }
 
-    final MetadataTableModel resultTableModel =
-      new MetadataTableModel( colNames, colTypes, rowCount, t.getAllMetadata() );
-    resultTableModel.setMetadata( "pageSize", queryOptions.getPageSize() );
-    resultTableModel.setMetadata( "pageStart", queryOptions.getPageStart() );
+    final MetadataTableModel resultTableModel = new MetadataTableModel( colNames, colTypes, Math.max( 0, rowCount ) );
+    resultTableModel.setMetadata( "totalRows", totalRows );
+    if ( paginate ) {
+      resultTableModel.setMetadata( "pageSize", queryOptions.getPageSize() );
+      resultTableModel.setMetadata( "pageStart", queryOptions.getPageStart() );
+    }
 
     for ( int r = 0; r < rowCount; r++ ) {
       for ( int j = 0; j < t.getColumnCount(); j++ ) {
-        resultTableModel.setValueAt( t.getValueAt( r + queryOptions.getPageStart(), j ), r, j );
+        resultTableModel.setValueAt( t.getValueAt( r + pageStart, j ), r, j );
       }
     }
 
+    //calculated column types are inferred as they are evaluated
+    for ( int i = 0; i < t.getColumnCount(); i++ ) {
+      resultTableModel.setColumnType( i, t.getColumnClass( i ) );
+    }
+
     return resultTableModel;
 
 
@@ -0,0 +1,93 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import javax.swing.table.TableModel;
+
+/**
+ * Rough heap footprint of query results, used to weigh cache entries against each other. Figures assume a 64 bit
+ * JVM with compressed references; they are meant to be in the right order of magnitude, not exact.
+ */
+public final class TableSizeEstimator {
+
+  static final int OBJECT_HEADER = 16;
+  static final int REFERENCE = 4;
+  static final int ARRAY_HEADER = 16;
+
+  /**
+   * Rows looked at to estimate the size of a table of boxed values.
+   */
+  private static final int SAMPLE_ROWS = 1000;
+
+  private TableSizeEstimator() {
+  }
+
+  /**
+   * @return estimated bytes taken by a table; exact layouts are used for {@link ColumnarTableModel}s, other tables are
+   * estimated from a sample of their rows, each held as an array of values
+   */
+  public static long estimate( final TableModel table ) {
+    if ( table instanceof ColumnarTableModel ) {
+      return ( (ColumnarTableModel) table ).getEstimatedSize();
+    }
+    final int rowCount = table.getRowCount();
+    final int columnCount = table.getColumnCount();
+    final long rowOverhead = ARRAY_HEADER + OBJECT_HEADER + (long) columnCount * REFERENCE;
+    if ( rowCount == 0 ) {
+      return OBJECT_HEADER;
+    }
+    final int step = Math.max( 1, rowCount / SAMPLE_ROWS );
+    long sampledBytes = 0;
+    int sampledRows = 0;
+    for ( int row = 0; row < rowCount; row += step ) {
+      for ( int col = 0; col < columnCount; col++ ) {
+        sampledBytes += estimateValue( table.getValueAt( row, col ) );
+      }
+      sampledRows++;
+    }
+    return OBJECT_HEADER + rowCount * ( rowOverhead + sampledBytes / sampledRows );
+  }
+
+  /**
+   * @return estimated bytes taken by a single value, not counting the reference to it
+   */
+  public static long estimateValue( final Object value ) {
+    if ( value == null ) {
+      return 0;
+    }
+    if ( value instanceof String ) {
+      return estimateString( (String) value );
+    }
+    if ( value instanceof Long || value instanceof Double || value instanceof Integer || value instanceof Float
+      || value instanceof Short || value instanceof Byte || value instanceof Boolean ) {
+      return OBJECT_HEADER + 8;
+    }
+    if ( value instanceof Date ) {
+      // Timestamps also hold their nanoseconds
+      return value instanceof java.sql.Timestamp ? OBJECT_HEADER + 16 : OBJECT_HEADER + 8;
+    }
+    if ( value instanceof BigDecimal ) {
+      final BigInteger unscaled = ( (BigDecimal) value ).unscaledValue();
+      return OBJECT_HEADER + 24 + OBJECT_HEADER + 24 + ARRAY_HEADER + 4 * ( unscaled.bitLength() / 32 + 1 );
+    }
+    return OBJECT_HEADER + 16;
+  }
+
+  static long estimateString( final String value ) {
+    return OBJECT_HEADER + 8 + ARRAY_HEADER + 2L * value.length();
+  }
+}
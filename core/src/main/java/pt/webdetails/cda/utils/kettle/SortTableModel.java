@@ -23,6 +23,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableModel;
 
 import org.apache.commons.logging.Log;
@@ -40,6 +41,9 @@ import pt.webdetails.robochef.DynamicTransformation;
 import pt.webdetails.robochef.RowProductionManager;
 import pt.webdetails.robochef.TableModelInput;
 import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.CdaPropertiesHelper;
+import pt.webdetails.cda.utils.PermutedTableModel;
+import pt.webdetails.cda.utils.RowIndexSorter;
 
 public class SortTableModel implements RowProductionManager {
 
@@ -48,14 +52,22 @@ public class SortTableModel implements RowProductionManager {
   private static final long DEFAULT_ROW_PRODUCTION_TIMEOUT = 120;
   private static final TimeUnit DEFAULT_ROW_PRODUCTION_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
+  /**
+   * <code>pt.webdetails.cda.SortingType</code> value for sorting in memory without a kettle transformation
+   */
+  public static final String NATIVE_SORT = "NATIVE";
+  private static final String PARALLEL_THRESHOLD_PROPERTY = "pt.webdetails.cda.NativeSortParallelThreshold";
+
 
   public SortTableModel() {
   }
 
   public TableModel doSort( TableModel unsorted, List<String> sortBy ) throws SortException {
-    String sortType = CdaEngine.getInstance().getConfigProperty( "pt.webdetails.cda.SortingType" );
+    String sortType = getSortType();
     if ( "DEFAULT".equals( sortType ) || StringUtils.isEmpty( sortType ) ) {
       return defaultSort( unsorted, sortBy );
+    } else if ( NATIVE_SORT.equals( sortType ) ) {
+      return nativeSort( unsorted, sortBy );
     } else {
       return customSort( unsorted, sortBy, sortType );
     }
@@ -75,6 +87,75 @@ public class SortTableModel implements RowProductionManager {
     }
   }
 
+  /**
+   * Sorts in memory through a row index permutation, with the same ordering as {@link #defaultSort}.
+   */
+  public TableModel nativeSort( TableModel unsorted, List<String> sortBy ) throws SortException {
+    if ( unsorted == null || unsorted.getRowCount() == 0 ) {
+      return unsorted;
+    }
+    final int[] columns = new int[ sortBy.size() ];
+    final boolean[] ascending = new boolean[ sortBy.size() ];
+    for ( int i = 0; i < columns.length; i++ ) {
+      SortDescriptor sort = new SortDescriptor( sortBy.get( i ) );
+      columns[ i ] = sort.getIndex();
+      ascending[ i ] = "ASC".equals( sort.getDirection() );
+      if ( columns[ i ] >= unsorted.getColumnCount() ) {
+        throw new SortException( "Invalid sort column: " + sortBy.get( i ), null );
+      }
+    }
+    try {
+      if ( unsorted instanceof PermutedTableModel ) {
+        // sort the row indexes of the base table instead of stacking another permutation
+        final PermutedTableModel permuted = (PermutedTableModel) unsorted;
+        final int[] rows = new int[ permuted.getRowCount() ];
+        for ( int i = 0; i < rows.length; i++ ) {
+          rows[ i ] = permuted.getBaseRowIndex( i );
+        }
+        createSorter( permuted.getBase(), columns, ascending ).sort( rows );
+        return new PermutedTableModel( permuted.getBase(), rows );
+      }
+      return new PermutedTableModel( unsorted, createSorter( unsorted, columns, ascending ).sort() );
+    } catch ( Exception e ) {
+      throw new SortException( "Exception during sorting ", e );
+    }
+  }
+
+  /**
+   * Sorts a table into a permutation of the rows of its base table, which is the table itself or the base of a
+   * {@link PermutedTableModel}. Sorting types other than {@link #NATIVE_SORT} sort a copy of the table with the base
+   * row index as an extra column.
+   */
+  public PermutedTableModel sortPermutation( TableModel unsorted, List<String> sortBy ) throws SortException {
+    final TableModel base =
+      unsorted instanceof PermutedTableModel ? ( (PermutedTableModel) unsorted ).getBase() : unsorted;
+    if ( unsorted.getRowCount() == 0 ) {
+      return new PermutedTableModel( base, new int[ 0 ] );
+    }
+    if ( NATIVE_SORT.equals( getSortType() ) ) {
+      return (PermutedTableModel) nativeSort( unsorted, sortBy );
+    }
+    final TableModel sorted = doSort( new RowIndexedTableModel( unsorted ), sortBy );
+    final int indexColumn = sorted.getColumnCount() - 1;
+    final int[] rows = new int[ sorted.getRowCount() ];
+    for ( int i = 0; i < rows.length; i++ ) {
+      rows[ i ] = ( (Number) sorted.getValueAt( i, indexColumn ) ).intValue();
+    }
+    return new PermutedTableModel( base, rows );
+  }
+
+  private static String getSortType() {
+    return CdaEngine.getInstance().getConfigProperty( "pt.webdetails.cda.SortingType" );
+  }
+
+  private static RowIndexSorter createSorter( TableModel table, int[] columns, boolean[] ascending ) {
+    RowIndexSorter sorter = new RowIndexSorter( table, columns, ascending );
+    sorter.setPool( CdaEngine.getInstance().getSortPool() );
+    sorter.setParallelThreshold(
+      CdaPropertiesHelper.getIntProperty( PARALLEL_THRESHOLD_PROPERTY, RowIndexSorter.DEFAULT_PARALLEL_THRESHOLD ) );
+    return sorter;
+  }
+
   public TableModel defaultSort( TableModel unsorted, List<String> sortBy ) throws SortException {
 
     if ( unsorted == null || unsorted.getRowCount() == 0 ) {
@@ -231,4 +312,47 @@ public class SortTableModel implements RowProductionManager {
       this.index = index;
     }
   }
+
+  /**
+   * Adds the base table row index as the last column.
+   */
+  private static class RowIndexedTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+    private static final String ROW_INDEX_COLUMN = "cda_row_index";
+
+    private final TableModel table;
+
+    RowIndexedTableModel( TableModel table ) {
+      this.table = table;
+    }
+
+    @Override
+    public int getRowCount() {
+      return table.getRowCount();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return table.getColumnCount() + 1;
+    }
+
+    @Override
+    public String getColumnName( int column ) {
+      return column < table.getColumnCount() ? table.getColumnName( column ) : ROW_INDEX_COLUMN;
+    }
+
+    @Override
+    public Class<?> getColumnClass( int column ) {
+      return column < table.getColumnCount() ? table.getColumnClass( column ) : Integer.class;
+    }
+
+    @Override
+    public Object getValueAt( int row, int column ) {
+      if ( column < table.getColumnCount() ) {
+        return table.getValueAt( row, column );
+      }
+      return table instanceof PermutedTableModel ? ( (PermutedTableModel) table ).getBaseRowIndex( row ) : row;
+    }
+  }
 }
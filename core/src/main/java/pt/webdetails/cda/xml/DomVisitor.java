@@ -27,6 +27,7 @@ import pt.webdetails.cda.connections.mondrian.MondrianJndiConnectionInfo;
 import pt.webdetails.cda.connections.scripting.ScriptingConnection;
 import pt.webdetails.cda.connections.scripting.ScriptingConnectionInfo;
 import pt.webdetails.cda.connections.sql.JdbcConnectionInfo;
+import pt.webdetails.cda.connections.sql.JdbcPoolConfig;
 import pt.webdetails.cda.connections.sql.SqlJndiConnectionInfo;
 import pt.webdetails.cda.connections.xpath.XPathConnection;
 import pt.webdetails.cda.connections.xpath.XPathConnectionInfo;
@@ -94,7 +95,17 @@ public class DomVisitor {
     ele.addElement( "Url" ).addText( conInfo.getUrl() );
     ele.addElement( "User" ).addText( conInfo.getUser() );
     ele.addElement( "Pass" ).addText( nvl( conInfo.getPass() ) );
-
+    final JdbcPoolConfig pool = conInfo.getPoolConfig();
+    if ( pool != null ) {
+      final Element poolEle = ele.addElement( "Pool" );
+      poolEle.addElement( "MinSize" ).addText( String.valueOf( pool.getMinSize() ) );
+      poolEle.addElement( "MaxSize" ).addText( String.valueOf( pool.getMaxSize() ) );
+      if ( pool.getValidationQuery() != null ) {
+        poolEle.addElement( "ValidationQuery" ).addText( pool.getValidationQuery() );
+      }
+      poolEle.addElement( "IdleTimeout" ).addText( String.valueOf( pool.getIdleTimeout() ) );
+      poolEle.addElement( "MaxWait" ).addText( String.valueOf( pool.getMaxWait() ) );
+    }
   }
 
   // ...sql.jndi
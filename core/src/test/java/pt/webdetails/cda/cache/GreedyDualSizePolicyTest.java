@@ -0,0 +1,80 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GreedyDualSizePolicyTest {
+
+  @Test
+  public void testEvictsLargeCheapEntriesFirst() {
+    GreedyDualSizePolicy<String> policy = new GreedyDualSizePolicy<String>( 1000 );
+    assertEquals( Collections.emptyList(), policy.add( "small slow", 10, 5000 ) );
+    assertEquals( Collections.emptyList(), policy.add( "large quick", 800, 10 ) );
+    assertEquals( Collections.emptyList(), policy.add( "small quick", 10, 10 ) );
+
+    assertEquals( Arrays.asList( "large quick" ), policy.add( "medium", 300, 1000 ) );
+    assertEquals( 320, policy.getTotalSize() );
+    assertEquals( 3, policy.getEntryCount() );
+    assertEquals( 1, policy.getEvictionCount() );
+  }
+
+  @Test
+  public void testHitsKeepEntries() {
+    GreedyDualSizePolicy<String> policy = new GreedyDualSizePolicy<String>( 100 );
+    policy.add( "a", 50, 100 );
+    policy.add( "b", 50, 100 );
+    policy.touch( "a" );
+    assertEquals( Arrays.asList( "b" ), policy.add( "c", 50, 100 ) );
+  }
+
+  @Test
+  public void testUnreadEntriesAgeOut() {
+    GreedyDualSizePolicy<String> policy = new GreedyDualSizePolicy<String>( 100 );
+    policy.add( "costly", 50, 1000 );
+    // each eviction raises the priority of later entries, until they outweigh the costly one
+    int added = 0;
+    while ( !policy.add( "entry" + added, 50, 100 ).contains( "costly" ) ) {
+      added++;
+      assertTrue( added < 100 );
+    }
+    assertTrue( added > 10 );
+  }
+
+  @Test
+  public void testOversizedEntryNotKept() {
+    GreedyDualSizePolicy<String> policy = new GreedyDualSizePolicy<String>( 100 );
+    policy.add( "a", 50, 100 );
+    assertEquals( Arrays.asList( "huge" ), policy.add( "huge", 500, 1 ) );
+    assertEquals( 50, policy.getTotalSize() );
+  }
+
+  @Test
+  public void testRemoveAndReplace() {
+    GreedyDualSizePolicy<String> policy = new GreedyDualSizePolicy<String>( 100 );
+    policy.add( "a", 50, 100 );
+    policy.add( "a", 70, 100 );
+    assertEquals( 70, policy.getTotalSize() );
+    policy.remove( "a" );
+    policy.remove( "missing" );
+    assertEquals( 0, policy.getTotalSize() );
+    assertEquals( 0, policy.getEntryCount() );
+  }
+}
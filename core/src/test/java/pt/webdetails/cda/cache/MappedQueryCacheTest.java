@@ -0,0 +1,163 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+import pt.webdetails.cda.connections.Connection;
+import pt.webdetails.cda.dataaccess.Parameter;
+import pt.webdetails.cda.test.util.TableModelChecker;
+
+import javax.swing.table.TableModel;
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static pt.webdetails.cda.test.util.CdaTestHelper.getMockEnvironment;
+import static pt.webdetails.cda.test.util.CdaTestHelper.initBareEngine;
+
+public class MappedQueryCacheTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Connection connection = mock( Connection.class );
+
+  @BeforeClass
+  public static void init() {
+    initBareEngine( getMockEnvironment() );
+  }
+
+  @Test
+  public void testPutGetRemove() throws Exception {
+    MappedQueryCache cache = new MappedQueryCache( folder.getRoot(), SEGMENT_SIZE, 4 );
+    try {
+      TableModel table = table( 10 );
+      cache.putTableModel( key( "a" ), table, 60, info( "a", table ) );
+      new TableModelChecker( true, true ).assertEquals( table, cache.getTableModel( key( "a" ) ) );
+      assertNull( cache.getTableModel( key( "b" ) ) );
+      assertEquals( "a", cache.getCacheEntryInfo( key( "a" ) ).getDataAccessId() );
+      assertEquals( Integer.valueOf( 10 ), cache.getElementInfo( key( "a" ) ).getRows() );
+      assertEquals( 1, cache.getElementInfo( key( "a" ) ).getHits() );
+
+      cache.putTableModel( key( "b" ), table, 60, info( "b", table ) );
+      assertEquals( 1, cache.removeAll( "settings", "b" ) );
+      assertTrue( cache.remove( key( "a" ) ) );
+      assertFalse( cache.remove( key( "a" ) ) );
+      assertNull( cache.getTableModel( key( "a" ) ) );
+    } finally {
+      cache.shutdownIfRunning();
+    }
+  }
+
+  @Test
+  public void testWarmRestart() throws Exception {
+    File dir = folder.getRoot();
+    MappedQueryCache cache = new MappedQueryCache( dir, SEGMENT_SIZE, 4 );
+    TableModel table = table( 20 );
+    cache.putTableModel( key( "kept" ), table( 5 ), 60, info( "kept", table ) );
+    cache.putTableModel( key( "kept" ), table, 60, info( "kept", table ) );
+    cache.putTableModel( key( "removed" ), table, 60, info( "removed", table ) );
+    cache.putTableModel( key( "expired" ), table, 1, info( "expired", table ) );
+    cache.remove( key( "removed" ) );
+    cache.shutdownIfRunning();
+
+    Thread.sleep( 1100 );
+    cache = new MappedQueryCache( dir, SEGMENT_SIZE, 4 );
+    try {
+      new TableModelChecker( true, true ).assertEquals( table, cache.getTableModel( key( "kept" ) ) );
+      assertNull( cache.getTableModel( key( "removed" ) ) );
+      assertNull( cache.getTableModel( key( "expired" ) ) );
+      assertEquals( 1, cache.getStore().getEntryCount() );
+    } finally {
+      cache.shutdownIfRunning();
+    }
+  }
+
+  @Test
+  public void testStoreSharedUntilLastCacheCloses() throws Exception {
+    MappedQueryCache first = new MappedQueryCache( folder.getRoot(), SEGMENT_SIZE, 4 );
+    MappedQueryCache second = new MappedQueryCache( folder.getRoot(), SEGMENT_SIZE, 4 );
+    try {
+      assertSame( first.getStore(), second.getStore() );
+      first.shutdownIfRunning();
+      first.shutdownIfRunning();
+
+      // still open for the other cache
+      TableModel table = table( 10 );
+      second.putTableModel( key( "a" ), table, 60, info( "a", table ) );
+      assertNotNull( second.getTableModel( key( "a" ) ) );
+    } finally {
+      second.shutdownIfRunning();
+    }
+
+    MappedQueryCache reopened = new MappedQueryCache( folder.getRoot(), SEGMENT_SIZE, 4 );
+    try {
+      assertNotSame( second.getStore(), reopened.getStore() );
+      assertNotNull( reopened.getTableModel( key( "a" ) ) );
+    } finally {
+      reopened.shutdownIfRunning();
+    }
+  }
+
+  @Test
+  public void testDropsOldestSegment() throws Exception {
+    MappedQueryCache cache = new MappedQueryCache( folder.getRoot(), SEGMENT_SIZE, 2 );
+    try {
+      TableModel table = table( 1000 );
+      for ( int i = 0; i < 20; i++ ) {
+        cache.putTableModel( key( "q" + i ), table, 0, info( "q" + i, table ) );
+      }
+      assertEquals( 2, cache.getStore().getSegmentCount() );
+      assertNull( cache.getTableModel( key( "q0" ) ) );
+      assertNotNull( cache.getTableModel( key( "q19" ) ) );
+
+      // too large for a segment, not cached
+      cache.putTableModel( key( "huge" ), table( 50000 ), 0, info( "huge", table ) );
+      assertNull( cache.getTableModel( key( "huge" ) ) );
+    } finally {
+      cache.shutdownIfRunning();
+    }
+  }
+
+  private TableCacheKey key( String query ) {
+    return new TableCacheKey( connection, query, Collections.<Parameter>emptyList(), null );
+  }
+
+  private static ExtraCacheInfo info( String dataAccessId, TableModel table ) {
+    return new ExtraCacheInfo( "settings", dataAccessId, 100, table );
+  }
+
+  private static TableModel table( int rows ) {
+    TypedTableModel table = new TypedTableModel( new String[] { "id", "name", "value" },
+      new Class<?>[] { Integer.class, String.class, Double.class } );
+    for ( int i = 0; i < rows; i++ ) {
+      table.addRow( i, "row " + i, i * 0.5 );
+    }
+    return table;
+  }
+}
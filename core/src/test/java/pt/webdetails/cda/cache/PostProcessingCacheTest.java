@@ -0,0 +1,70 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PostProcessingCacheTest {
+
+  @Test
+  public void testKeyMatchesSameEntry() {
+    PostProcessingCache cache = new PostProcessingCache( 100 );
+    int[] rows = { 1, 0 };
+    cache.put( new PostProcessingCache.Key( "entry", 1L, "0D", Arrays.asList( "a" ) ), rows );
+
+    assertArrayEquals( rows, cache.get( new PostProcessingCache.Key( "entry", 1L, "0D", Arrays.asList( "a" ) ) ) );
+    assertNull( cache.get( new PostProcessingCache.Key( "entry", 2L, "0D", Arrays.asList( "a" ) ) ) );
+    assertNull( cache.get( new PostProcessingCache.Key( "other", 1L, "0D", Arrays.asList( "a" ) ) ) );
+    assertNull( cache.get( new PostProcessingCache.Key( "entry", 1L, "0A", Arrays.asList( "a" ) ) ) );
+    assertEquals( 1, cache.getHitCount() );
+    assertEquals( 3, cache.getMissCount() );
+  }
+
+  @Test
+  public void testDropsEntriesOfReplacedResult() {
+    PostProcessingCache cache = new PostProcessingCache( 100 );
+    cache.put( new PostProcessingCache.Key( "entry", 1L, "0D" ), new int[ 2 ] );
+    cache.put( new PostProcessingCache.Key( "other", 1L, "0D" ), new int[ 2 ] );
+    cache.put( new PostProcessingCache.Key( "entry", 2L, "0A" ), new int[ 2 ] );
+
+    assertNull( cache.get( new PostProcessingCache.Key( "entry", 1L, "0D" ) ) );
+    assertEquals( 2, cache.getEntryCount() );
+    assertEquals( 4, cache.getCachedRowCount() );
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    PostProcessingCache cache = new PostProcessingCache( 10 );
+    PostProcessingCache.Key first = new PostProcessingCache.Key( "entry", 1L, 1 );
+    PostProcessingCache.Key second = new PostProcessingCache.Key( "entry", 1L, 2 );
+    PostProcessingCache.Key third = new PostProcessingCache.Key( "entry", 1L, 3 );
+    cache.put( first, new int[ 4 ] );
+    cache.put( second, new int[ 4 ] );
+    cache.get( first );
+    cache.put( third, new int[ 4 ] );
+
+    assertNull( cache.get( second ) );
+    assertEquals( 2, cache.getEntryCount() );
+    assertEquals( 8, cache.getCachedRowCount() );
+
+    cache.put( new PostProcessingCache.Key( "entry", 1L, 4 ), new int[ 11 ] );
+    assertEquals( 2, cache.getEntryCount() );
+  }
+}
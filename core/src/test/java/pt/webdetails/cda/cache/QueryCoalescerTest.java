@@ -0,0 +1,93 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryCoalescerTest {
+
+  @Test
+  public void testConcurrentCallsShareExecution() throws Exception {
+    final QueryCoalescer<String, Integer> coalescer = new QueryCoalescer<String, Integer>();
+    final AtomicInteger executions = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final int callers = 8;
+
+    ExecutorService executor = Executors.newFixedThreadPool( callers );
+    try {
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      results.add( executor.submit( () -> coalescer.execute( "key", () -> {
+        started.countDown();
+        release.await();
+        return executions.incrementAndGet();
+      } ) ) );
+      assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+      for ( int i = 1; i < callers; i++ ) {
+        results.add( executor.submit( () -> coalescer.execute( "key", () -> executions.incrementAndGet() ) ) );
+      }
+      // wait for every follower to be parked on the leader's execution
+      while ( coalescer.getCoalescedCount() < callers - 1 ) {
+        Thread.sleep( 10 );
+      }
+      release.countDown();
+
+      for ( Future<Integer> result : results ) {
+        assertEquals( Integer.valueOf( 1 ), result.get( 10, TimeUnit.SECONDS ) );
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals( 1, executions.get() );
+    assertEquals( 1, coalescer.getLeaderCount() );
+    assertEquals( callers - 1, coalescer.getCoalescedCount() );
+    assertEquals( 0, coalescer.getInFlightCount() );
+  }
+
+  @Test
+  public void testKeyReleasedAfterExecution() throws Exception {
+    QueryCoalescer<String, Integer> coalescer = new QueryCoalescer<String, Integer>();
+    assertEquals( Integer.valueOf( 1 ), coalescer.execute( "key", () -> 1 ) );
+    assertEquals( Integer.valueOf( 2 ), coalescer.execute( "key", () -> 2 ) );
+    assertEquals( 2, coalescer.getLeaderCount() );
+    assertEquals( 0, coalescer.getCoalescedCount() );
+  }
+
+  @Test
+  public void testExceptionPropagated() throws Exception {
+    QueryCoalescer<String, Integer> coalescer = new QueryCoalescer<String, Integer>();
+    try {
+      coalescer.execute( "key", () -> {
+        throw new IllegalStateException( "boom" );
+      } );
+      fail( "exception expected" );
+    } catch ( IllegalStateException e ) {
+      assertEquals( "boom", e.getMessage() );
+    }
+    assertEquals( 0, coalescer.getInFlightCount() );
+  }
+}
@@ -0,0 +1,71 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+
+package pt.webdetails.cda.cache;
+
+import org.junit.Test;
+import pt.webdetails.cda.exporter.CachingTableQueryResult;
+import pt.webdetails.cda.exporter.CompressedQueryResult;
+import pt.webdetails.cda.exporter.ExportedTableQueryResult;
+import pt.webdetails.cda.exporter.JsonExporter;
+import pt.webdetails.cda.test.util.CdaTestHelper.SimpleTableModel;
+
+import javax.swing.table.TableModel;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseCacheTest {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    ResponseCache cache = new ResponseCache( 10 );
+    cache.put( "\"1\"", new byte[ 4 ] );
+    cache.put( "\"2\"", new byte[ 4 ] );
+    cache.get( "\"1\"" );
+    cache.put( "\"3\"", new byte[ 4 ] );
+
+    assertNull( cache.get( "\"2\"" ) );
+    assertEquals( 2, cache.getEntryCount() );
+    assertEquals( 8, cache.getCachedBytes() );
+    assertEquals( 1, cache.getHitCount() );
+    assertEquals( 1, cache.getMissCount() );
+
+    // too large to keep
+    cache.put( "\"4\"", new byte[ 11 ] );
+    assertEquals( 2, cache.getEntryCount() );
+  }
+
+  @Test
+  public void testCachesExportedOutput() throws Exception {
+    ResponseCache cache = new ResponseCache( 1024 * 1024 );
+    TableModel table = new SimpleTableModel( new Object[] { 1L, "a" }, new Object[] { 2L, "b" } );
+    JsonExporter exporter = new JsonExporter( Collections.<String, String>emptyMap() );
+    String expected = new ExportedTableQueryResult( exporter, table ).asString();
+
+    // written as usual, and kept compressed
+    assertEquals( expected, new CachingTableQueryResult( exporter, table, cache, "\"tag\"" ).asString() );
+    byte[] gzipped = cache.get( "\"tag\"" );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ResponseCache.gunzip( gzipped, out );
+    assertEquals( expected, out.toString( "UTF-8" ) );
+
+    CompressedQueryResult cached = new CompressedQueryResult( exporter, gzipped );
+    assertArrayEquals( gzipped, cached.getGzippedOutput() );
+    assertEquals( expected, cached.asString() );
+  }
+}
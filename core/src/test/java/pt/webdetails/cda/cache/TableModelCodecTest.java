@@ -0,0 +1,162 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.test.util.TableModelChecker;
+
+import javax.swing.table.TableModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.webdetails.cda.test.util.CdaTestHelper.createRandomTable;
+import static pt.webdetails.cda.test.util.CdaTestHelper.getMockEnvironment;
+import static pt.webdetails.cda.test.util.CdaTestHelper.initBareEngine;
+
+public class TableModelCodecTest {
+
+  private static final Log logger = LogFactory.getLog( TableModelCodecTest.class );
+
+  @BeforeClass
+  public static void init() {
+    initBareEngine( getMockEnvironment() );
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    TypedTableModel table = new TypedTableModel(
+      new String[] { "long", "int", "double", "bool", "string", "date", "timestamp", "decimal", "mixed" },
+      new Class<?>[] { Long.class, Integer.class, Double.class, Boolean.class, String.class, Date.class,
+        Timestamp.class, BigDecimal.class, Object.class } );
+    Timestamp timestamp = new Timestamp( 1500000000123L );
+    timestamp.setNanos( 123456789 );
+    table.addRow( Long.MIN_VALUE, -1, Double.NaN, true, "\u00e9", new Date( 0L ), timestamp, new BigDecimal( "-1.50" ),
+      "text" );
+    table.addRow( null, null, null, null, null, null, null, null, null );
+    table.addRow( Long.MAX_VALUE, Integer.MAX_VALUE, -0.5d, false, "", new Date( -1000L ), new Timestamp( 0L ),
+      new BigDecimal( "12345678901234567890.1" ), 3L );
+    table.addRow( 0L, 0, 1e300, true, "\u00e9", new Date( 1500000000000L ), timestamp, BigDecimal.ZERO,
+      Arrays.asList( "a", "b" ) );
+
+    for ( boolean deflate : new boolean[] { false, true } ) {
+      TableModel decoded = TableModelCodec.decode( TableModelCodec.encode( table, deflate ) );
+      new TableModelChecker( true, true ).assertEquals( table, decoded );
+      assertEquals( Integer.class, decoded.getValueAt( 0, 1 ).getClass() );
+      assertEquals( Timestamp.class, decoded.getValueAt( 0, 6 ).getClass() );
+      assertEquals( 123456789, ( (Timestamp) decoded.getValueAt( 0, 6 ) ).getNanos() );
+      assertEquals( new BigDecimal( "-1.50" ), decoded.getValueAt( 0, 7 ) );
+    }
+  }
+
+  @Test
+  public void testEmptyTable() throws Exception {
+    TypedTableModel table = new TypedTableModel( new String[] { "a", "b" },
+      new Class<?>[] { String.class, Double.class } );
+    TableModel decoded = TableModelCodec.decode( TableModelCodec.encode( table, false ) );
+    new TableModelChecker( true, true ).assertEquals( table, decoded );
+    assertEquals( 0, decoded.getRowCount() );
+  }
+
+  @Test
+  public void testRepeatedStringsWrittenOnce() throws Exception {
+    TypedTableModel table = new TypedTableModel( new String[] { "s" }, new Class<?>[] { String.class } );
+    String value = "a fairly long string value repeated in every row";
+    for ( int i = 0; i < 1000; i++ ) {
+      table.addRow( value );
+    }
+    byte[] encoded = TableModelCodec.encode( table, false );
+    assertTrue( encoded.length < 2 * value.length() + 1000 + 64 );
+    new TableModelChecker().assertEquals( table, TableModelCodec.decode( encoded ) );
+  }
+
+  @Test
+  public void testSerializableView() throws Exception {
+    TableModel table = createRandomTable( 100, new Random( 100 ) );
+    TableModel read = (TableModel) deserialize( serialize( TableModelCodec.serializable( table ) ) );
+    new TableModelChecker( true, true ).assertEquals( table, read );
+  }
+
+  @Test( expected = IOException.class )
+  public void testRejectsOtherData() throws Exception {
+    TableModelCodec.decode( serialize( createRandomTable( 1, new Random( 1 ) ) ) );
+  }
+
+  /**
+   * Codec vs java serialization throughput and sizes; run with <code>-Dcda.benchmark=true</code>.
+   */
+  @Test
+  public void benchmarkCodecVersusSerialization() throws Exception {
+    Assume.assumeTrue( Boolean.getBoolean( "cda.benchmark" ) );
+    for ( int rows : new int[] { 1000, 10000, 100000, 500000 } ) {
+      TableModel table = createRandomTable( rows, new Random( rows ) );
+      // warm up
+      deserialize( serialize( table ) );
+      TableModelCodec.decode( TableModelCodec.encode( table, false ) );
+      TableModelCodec.decode( TableModelCodec.encode( table, true ) );
+
+      final int runs = 5;
+      long start = System.nanoTime();
+      byte[] serialized = null;
+      for ( int i = 0; i < runs; i++ ) {
+        serialized = serialize( table );
+        deserialize( serialized );
+      }
+      long java = ( System.nanoTime() - start ) / runs;
+      start = System.nanoTime();
+      byte[] encoded = null;
+      for ( int i = 0; i < runs; i++ ) {
+        encoded = TableModelCodec.encode( table, false );
+        TableModelCodec.decode( encoded );
+      }
+      long codec = ( System.nanoTime() - start ) / runs;
+      start = System.nanoTime();
+      byte[] deflated = null;
+      for ( int i = 0; i < runs; i++ ) {
+        deflated = TableModelCodec.encode( table, true );
+        TableModelCodec.decode( deflated );
+      }
+      long deflatedCodec = ( System.nanoTime() - start ) / runs;
+      logger.info( String.format(
+        "%d rows round trip: java %.2fms %dKB, codec %.2fms %dKB, deflated codec %.2fms %dKB", rows, java / 1e6,
+        serialized.length / 1024, codec / 1e6, encoded.length / 1024, deflatedCodec / 1e6, deflated.length / 1024 ) );
+    }
+  }
+
+  private static byte[] serialize( Object object ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( object );
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static Object deserialize( byte[] bytes ) throws Exception {
+    return new ObjectInputStream( new ByteArrayInputStream( bytes ) ).readObject();
+  }
+}
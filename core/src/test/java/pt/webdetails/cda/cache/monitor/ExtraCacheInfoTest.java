@@ -0,0 +1,57 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.cache.monitor;
+
+import org.junit.Test;
+
+import javax.swing.table.TableModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class ExtraCacheInfoTest {
+
+  @Test
+  public void testOnlyCountsRows() {
+    TableModel table = mock( TableModel.class );
+    when( table.getRowCount() ).thenReturn( 42 );
+    ExtraCacheInfo info = new ExtraCacheInfo( "settings", "dataAccess", 12L, table );
+    assertEquals( 42, info.getNbrRows() );
+    verify( table ).getRowCount();
+    verifyNoMoreInteractions( table );
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    ExtraCacheInfo info = new ExtraCacheInfo( "settings", "dataAccess", 12L, 42 );
+    info.setEntryTime( 1000L );
+    info.setTimeToLive( 3600 );
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( info );
+    out.close();
+    ExtraCacheInfo read =
+      (ExtraCacheInfo) new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ).readObject();
+
+    assertEquals( info.toString(), read.toString() );
+  }
+}
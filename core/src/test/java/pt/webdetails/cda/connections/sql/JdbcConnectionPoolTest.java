@@ -0,0 +1,209 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.connections.sql;
+
+import org.dom4j.DocumentHelper;
+import org.junit.After;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JdbcConnectionPoolTest {
+
+  @After
+  public void tearDown() {
+    JdbcConnectionPool.closeAll();
+  }
+
+  @Test
+  public void testConnectionReused() throws Exception {
+    Connection physical = mockConnection();
+    ConnectionProvider factory = mockFactory( physical );
+    JdbcConnectionPool pool = new JdbcConnectionPool( "jdbc:test", "user", "pass", config( 2, 0 ), factory );
+
+    Connection first = pool.getConnection();
+    assertEquals( 1, pool.getActiveConnections() );
+    first.close();
+    assertTrue( first.isClosed() );
+    assertEquals( 0, pool.getActiveConnections() );
+    assertEquals( 1, pool.getIdleConnections() );
+
+    pool.getConnection().close();
+    verify( factory, times( 1 ) ).createConnection( "user", "pass" );
+    verify( physical, times( 0 ) ).close();
+    assertEquals( 2, pool.getBorrowCount() );
+    assertEquals( 1, pool.getCreatedCount() );
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    JdbcConnectionPool pool =
+      new JdbcConnectionPool( "jdbc:test", "user", "pass", config( 1, 0 ), mockFactory( mockConnection() ) );
+    Connection connection = pool.getConnection();
+    try {
+      pool.getConnection();
+      fail( "pool is exhausted" );
+    } catch ( SQLException e ) {
+      assertEquals( 1, pool.getTimeoutCount() );
+    }
+    connection.close();
+    assertNotNull( pool.getConnection() );
+  }
+
+  @Test
+  public void testClosedConnectionDiscarded() throws Exception {
+    Connection physical = mockConnection();
+    JdbcConnectionPool pool =
+      new JdbcConnectionPool( "jdbc:test", "user", "pass", config( 2, 0 ), mockFactory( physical ) );
+    Connection connection = pool.getConnection();
+    when( physical.isClosed() ).thenReturn( true );
+    connection.close();
+    assertEquals( 0, pool.getIdleConnections() );
+    assertEquals( 1, pool.getDestroyedCount() );
+  }
+
+  @Test
+  public void testTransactionRolledBack() throws Exception {
+    Connection physical = mockConnection();
+    when( physical.getAutoCommit() ).thenReturn( false );
+    JdbcConnectionPool pool =
+      new JdbcConnectionPool( "jdbc:test", "user", "pass", config( 2, 0 ), mockFactory( physical ) );
+    pool.getConnection().close();
+    verify( physical ).rollback();
+    verify( physical ).setAutoCommit( true );
+  }
+
+  @Test
+  public void testSettingsRestored() throws Exception {
+    Connection physical = mockConnection();
+    when( physical.isReadOnly() ).thenReturn( false );
+    when( physical.getCatalog() ).thenReturn( "main" );
+    when( physical.getTransactionIsolation() ).thenReturn( Connection.TRANSACTION_READ_COMMITTED );
+    JdbcConnectionPool pool =
+      new JdbcConnectionPool( "jdbc:test", "user", "pass", config( 2, 0 ), mockFactory( physical ) );
+    Connection connection = pool.getConnection();
+    connection.setReadOnly( true );
+    connection.setCatalog( "other" );
+    connection.setTransactionIsolation( Connection.TRANSACTION_SERIALIZABLE );
+    connection.close();
+    verify( physical ).setReadOnly( false );
+    verify( physical ).setCatalog( "main" );
+    verify( physical ).setTransactionIsolation( Connection.TRANSACTION_READ_COMMITTED );
+    assertEquals( 1, pool.getIdleConnections() );
+
+    // a setting that can't be set back discards the connection
+    connection = pool.getConnection();
+    connection.setSchema( "other" );
+    connection.close();
+    assertEquals( 0, pool.getIdleConnections() );
+    assertEquals( 1, pool.getDestroyedCount() );
+  }
+
+  @Test
+  public void testSharedPool() throws Exception {
+    ConnectionProvider factory = mockFactory( mockConnection() );
+    JdbcConnectionInfo info = connectionInfo( "<Pool><MaxSize>3</MaxSize></Pool>" );
+    JdbcConnectionPool pool = JdbcConnectionPool.getPool( "a.cda/1", info, factory );
+    assertSame( pool, JdbcConnectionPool.getPool( "b.cda/1",
+      connectionInfo( "<Pool><MaxSize>3</MaxSize></Pool>" ), factory ) );
+    assertEquals( 3, pool.getMaxSize() );
+    assertEquals( 1, pool.getIdleConnections() );
+    assertEquals( 1, JdbcConnectionPool.getPools().size() );
+
+    // other pool settings get their own pool
+    JdbcConnectionPool other = JdbcConnectionPool.getPool( "c.cda/1", connectionInfo( "<Pool/>" ), factory );
+    assertNotSame( pool, other );
+    assertEquals( JdbcPoolConfig.DEFAULT_MAX_SIZE, other.getMaxSize() );
+    assertEquals( 2, JdbcConnectionPool.getPools().size() );
+  }
+
+  @Test
+  public void testReplacedPoolClosed() throws Exception {
+    ConnectionProvider factory = mockFactory( mockConnection() );
+    JdbcConnectionPool pool =
+      JdbcConnectionPool.getPool( "a.cda/1", connectionInfo( "<Pool><MaxSize>3</MaxSize></Pool>" ), factory );
+    JdbcConnectionPool.getPool( "b.cda/1", connectionInfo( "<Pool><MaxSize>3</MaxSize></Pool>" ), factory );
+
+    // still used by the other definition
+    JdbcConnectionPool.getPool( "a.cda/1", connectionInfo( "<Pool><MaxSize>4</MaxSize></Pool>" ), factory );
+    assertNotNull( pool.getConnection() );
+
+    JdbcConnectionPool.getPool( "b.cda/1", connectionInfo( "<Pool><MaxSize>4</MaxSize></Pool>" ), factory );
+    assertEquals( 1, JdbcConnectionPool.getPools().size() );
+    try {
+      pool.getConnection();
+      fail( "replaced pool is closed" );
+    } catch ( SQLException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPoolConfig() throws Exception {
+    assertNull( connectionInfo( "" ).getPoolConfig() );
+    JdbcPoolConfig config = connectionInfo( "<Pool><MinSize>2</MinSize><MaxSize>5</MaxSize>"
+      + "<ValidationQuery>select 1</ValidationQuery><IdleTimeout>60</IdleTimeout><MaxWait>x</MaxWait></Pool>" )
+      .getPoolConfig();
+    assertEquals( 2, config.getMinSize() );
+    assertEquals( 5, config.getMaxSize() );
+    assertEquals( "select 1", config.getValidationQuery() );
+    assertEquals( 60, config.getIdleTimeout() );
+    assertEquals( JdbcPoolConfig.DEFAULT_MAX_WAIT, config.getMaxWait() );
+  }
+
+  private static JdbcPoolConfig config( int maxSize, int maxWait ) {
+    JdbcPoolConfig config = new JdbcPoolConfig();
+    config.setMaxSize( maxSize );
+    config.setMaxWait( maxWait );
+    return config;
+  }
+
+  private static JdbcConnectionInfo connectionInfo( String pool ) throws Exception {
+    return new JdbcConnectionInfo( DocumentHelper.parseText(
+      "<Connection id=\"1\" type=\"sql.jdbc\">"
+        + "<Driver>org.hsqldb.jdbcDriver</Driver>"
+        + "<Url>jdbc:hsqldb:mem:pooltest</Url>"
+        + "<User>sa</User>"
+        + "<Pass></Pass>"
+        + pool
+        + "</Connection>" ).getRootElement() );
+  }
+
+  private static Connection mockConnection() throws SQLException {
+    Connection connection = mock( Connection.class );
+    when( connection.getAutoCommit() ).thenReturn( true );
+    return connection;
+  }
+
+  private static ConnectionProvider mockFactory( Connection connection ) throws SQLException {
+    ConnectionProvider factory = mock( ConnectionProvider.class );
+    when( factory.createConnection( anyString(), anyString() ) ).thenReturn( connection );
+    return factory;
+  }
+}
@@ -16,8 +16,11 @@ package pt.webdetails.cda.dataaccess;
 import org.dom4j.Element;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.pentaho.reporting.engine.classic.core.ParameterDataRow;
 import pt.webdetails.cda.ICdaEnvironment;
+import pt.webdetails.cda.cache.CachedTable;
+import pt.webdetails.cda.cache.GreedyDualSizePolicy;
 import pt.webdetails.cda.cache.IQueryCache;
 import pt.webdetails.cda.cache.TableCacheKey;
 import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
@@ -33,14 +36,19 @@ import pt.webdetails.cpf.messaging.IEventPublisher;
 import javax.swing.table.TableModel;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -145,12 +153,180 @@ public class DataAccessTest {
 
     dataAccess.doQuery( queryOpts );
     verify( dataAccess, times( 1 ) ).performRawQuery( any( ParameterDataRow.class ) );
-    verify( cache, times( 1 ) ).getTableModel( any( TableCacheKey.class ) );
+    verify( cache, times( 1 ) ).getCachedTable( any( TableCacheKey.class ) );
     verify( cache, times( 1 ) ).putTableModel( any( TableCacheKey.class ), any( TableModel.class ), anyInt(),
       any( ExtraCacheInfo.class ) );
 
   }
 
+  @Test
+  public void testSlowQueriesOutliveFastOnesUnderSizePolicy() throws Exception {
+    ICdaEnvironment env = getMockEnvironment();
+    IQueryCache cache = mock( IQueryCache.class );
+    when( env.getQueryCache() ).thenReturn( cache );
+    initBareEngine( env );
+
+    final IDataSourceQuery dsQuery = mock( IDataSourceQuery.class );
+    when( dsQuery.getTableModel() ).thenReturn( new SimpleTableModel( new Object[ 0 ] ) );
+    TestSimpleDataAccess slow = new TestSimpleDataAccess( "slow", "slow", null, "q", "test" ) {
+      protected IDataSourceQuery performRawQuery( ParameterDataRow parameterDataRow ) throws QueryException {
+        try {
+          // well under a second
+          Thread.sleep( 300 );
+        } catch ( InterruptedException e ) {
+          throw new QueryException( "interrupted", e );
+        }
+        return dsQuery;
+      }
+    };
+    TestSimpleDataAccess fast = new TestSimpleDataAccess( "fast", "fast", null, "q", "test" ) {
+      protected IDataSourceQuery performRawQuery( ParameterDataRow parameterDataRow ) throws QueryException {
+        return dsQuery;
+      }
+    };
+    ArgumentCaptor<ExtraCacheInfo> infos = ArgumentCaptor.forClass( ExtraCacheInfo.class );
+    for ( TestSimpleDataAccess dataAccess : new TestSimpleDataAccess[] { slow, fast } ) {
+      dataAccess.setCdaSettings( mock( CdaSettings.class ) );
+      dataAccess.setCacheEnabled( true );
+      dataAccess.doQuery( new QueryOptions() );
+    }
+    verify( cache, times( 2 ) ).putTableModel( any( TableCacheKey.class ), any( TableModel.class ), anyInt(),
+      infos.capture() );
+    final long slowCost = infos.getAllValues().get( 0 ).getQueryDurationMs();
+    final long fastCost = infos.getAllValues().get( 1 ).getQueryDurationMs();
+    assertTrue( slowCost >= 300 );
+
+    // the slow entry is the larger of the two, yet computing it again costs more
+    GreedyDualSizePolicy<String> policy = new GreedyDualSizePolicy<String>( 100 );
+    policy.add( "slow", 40, slowCost );
+    policy.add( "fast", 30, fastCost );
+    List<String> evicted = policy.add( "next", 40, fastCost );
+    assertFalse( evicted.isEmpty() );
+    assertFalse( evicted.contains( "slow" ) );
+  }
+
+  @Test
+  public void testServesStaleEntryWhileRefreshing() throws Exception {
+    AbstractDataAccess.shutdownCache();
+    ICdaEnvironment env = getMockEnvironment();
+    IQueryCache cache = mock( IQueryCache.class );
+    when( env.getQueryCache() ).thenReturn( cache );
+    initBareEngine( env );
+
+    TableModel cached = new SimpleTableModel( new Object[] { "stale" } );
+    ExtraCacheInfo info = new ExtraCacheInfo( "settings", "id", 1L, 1 );
+    info.setEntryTime( System.currentTimeMillis() - 20000L );
+    when( cache.getCachedTable( any( TableCacheKey.class ) ) ).thenReturn( new CachedTable( null, cached, info ) );
+
+    final IDataSourceQuery dsQuery = mock( IDataSourceQuery.class );
+    when( dsQuery.getTableModel() ).thenReturn( new SimpleTableModel( new Object[] { "fresh" } ) );
+    TestSimpleDataAccess dataAccess = spy( new TestSimpleDataAccess( "id", "name", null, "q", "test" ) {
+      protected IDataSourceQuery performRawQuery( ParameterDataRow parameterDataRow ) throws QueryException {
+        return dsQuery;
+      }
+    } );
+    dataAccess.setCdaSettings( mock( CdaSettings.class ) );
+    dataAccess.setCacheEnabled( true );
+    dataAccess.setCacheDuration( 10 );
+    dataAccess.setStaleWhileRevalidate( 60 );
+
+    assertEquals( cached, dataAccess.queryDataSource( new QueryOptions() ) );
+    // the fresh result is cached for the duration plus the staleness window
+    verify( cache, timeout( 5000 ) ).putTableModel( any( TableCacheKey.class ), any( TableModel.class ), eq( 70 ),
+      any( ExtraCacheInfo.class ) );
+
+    // not refreshed while within the cache duration
+    info.setEntryTime( System.currentTimeMillis() );
+    assertEquals( cached, dataAccess.queryDataSource( new QueryOptions() ) );
+    verify( dataAccess, times( 1 ) ).performRawQuery( any( ParameterDataRow.class ) );
+    AbstractDataAccess.shutdownCache();
+  }
+
+  @Test
+  public void testRefreshesIncrementally() throws Exception {
+    AbstractDataAccess.shutdownCache();
+    ICdaEnvironment env = getMockEnvironment();
+    IQueryCache cache = mock( IQueryCache.class );
+    when( env.getQueryCache() ).thenReturn( cache );
+    initBareEngine( env );
+
+    SimpleTableModel cached = new SimpleTableModel( new Object[] { 1L, "a" }, new Object[] { 2L, "b" } );
+    cached.setColumnNames( "day", "value" );
+    cached.setColumnClasses( Long.class, String.class );
+    ExtraCacheInfo info = new ExtraCacheInfo( "settings", "id", 1L, 2 );
+    info.setEntryTime( System.currentTimeMillis() - 20000L );
+    when( cache.getCachedTable( any( TableCacheKey.class ) ) ).thenReturn( new CachedTable( null, cached, info ) );
+
+    final SimpleTableModel delta = new SimpleTableModel( new Object[] { 2L, "B" }, new Object[] { 3L, "c" } );
+    delta.setColumnNames( "day", "value" );
+    delta.setColumnClasses( Long.class, String.class );
+    final IDataSourceQuery dsQuery = mock( IDataSourceQuery.class );
+    when( dsQuery.getTableModel() ).thenReturn( delta );
+    TestSimpleDataAccess dataAccess = new TestSimpleDataAccess( "id", "name", null, "q", "test" ) {
+      protected IDataSourceQuery performRawQuery( ParameterDataRow parameterDataRow ) throws QueryException {
+        // only rows from the highest cached day on are queried
+        assertEquals( 2L, parameterDataRow.get( "since" ) );
+        return dsQuery;
+      }
+
+      @Override
+      public IncrementalRefresh getIncrementalRefresh() {
+        return new IncrementalRefresh( "day", "since", new String[] { "day" }, 0 );
+      }
+    };
+    dataAccess.setCdaSettings( mock( CdaSettings.class ) );
+    dataAccess.setParameters( Collections.singletonList( new Parameter( "since", "Integer", "0", "", "private" ) ) );
+    dataAccess.setCacheEnabled( true );
+    dataAccess.setCacheDuration( 10 );
+
+    TableModel merged = dataAccess.queryDataSource( new QueryOptions() );
+    assertEquals( 3, merged.getRowCount() );
+    assertEquals( "a", merged.getValueAt( 0, 1 ) );
+    assertEquals( "B", merged.getValueAt( 1, 1 ) );
+    assertEquals( 3L, merged.getValueAt( 2, 0 ) );
+    // kept for a number of cache durations when no retention is set
+    verify( cache ).putTableModel( any( TableCacheKey.class ), eq( merged ), eq( 240 ), any( ExtraCacheInfo.class ) );
+    AbstractDataAccess.shutdownCache();
+  }
+
+  @Test
+  public void testKeepsStaleEntryIfRefreshFails() throws Exception {
+    AbstractDataAccess.shutdownCache();
+    ICdaEnvironment env = getMockEnvironment();
+    IQueryCache cache = mock( IQueryCache.class );
+    when( env.getQueryCache() ).thenReturn( cache );
+    initBareEngine( env );
+
+    SimpleTableModel cached = new SimpleTableModel( new Object[] { 1L, "a" } );
+    cached.setColumnNames( "day", "value" );
+    cached.setColumnClasses( Long.class, String.class );
+    ExtraCacheInfo info = new ExtraCacheInfo( "settings", "id", 1L, 1 );
+    info.setEntryTime( System.currentTimeMillis() - 20000L );
+    when( cache.getCachedTable( any( TableCacheKey.class ) ) ).thenReturn( new CachedTable( null, cached, info ) );
+
+    TestSimpleDataAccess dataAccess = spy( new TestSimpleDataAccess( "id", "name", null, "q", "test" ) {
+      protected IDataSourceQuery performRawQuery( ParameterDataRow parameterDataRow ) throws QueryException {
+        throw new QueryException( "test", null );
+      }
+
+      @Override
+      public IncrementalRefresh getIncrementalRefresh() {
+        return new IncrementalRefresh( "day", "since", new String[ 0 ], 0 );
+      }
+    } );
+    dataAccess.setCdaSettings( mock( CdaSettings.class ) );
+    dataAccess.setParameters( Collections.singletonList( new Parameter( "since", "Integer", "0", "", "private" ) ) );
+    dataAccess.setCacheEnabled( true );
+    dataAccess.setCacheDuration( 10 );
+
+    assertEquals( cached, dataAccess.queryDataSource( new QueryOptions() ) );
+    // not queried again in full as if the cache couldn't be read
+    verify( dataAccess, times( 1 ) ).performRawQuery( any( ParameterDataRow.class ) );
+    verify( cache, never() ).putTableModel( any( TableCacheKey.class ), any( TableModel.class ), anyInt(),
+      any( ExtraCacheInfo.class ) );
+    AbstractDataAccess.shutdownCache();
+  }
+
   @Test
   public void testQueryDataSourceError() throws Exception {
     ICdaEnvironment env = getMockEnvironment();
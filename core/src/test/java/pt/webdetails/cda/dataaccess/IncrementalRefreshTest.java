@@ -0,0 +1,98 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.dataaccess;
+
+import org.dom4j.DocumentHelper;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.utils.ColumnarTableModel;
+
+import javax.swing.table.TableModel;
+import java.sql.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalRefreshTest {
+
+  @Test
+  public void testParse() throws Exception {
+    IncrementalRefresh refresh = new IncrementalRefresh( DocumentHelper.parseText(
+      "<Incremental column=\"day\" parameter=\"since\" keys=\"day, region\" retention=\"600\"/>" ).getRootElement() );
+    assertEquals( "day", refresh.getWatermarkColumn() );
+    assertEquals( "since", refresh.getWatermarkParameter() );
+    assertArrayEquals( new String[] { "day", "region" }, refresh.getKeyColumns() );
+    assertEquals( 600, refresh.getRetention() );
+  }
+
+  @Test
+  public void testWatermark() {
+    IncrementalRefresh refresh = new IncrementalRefresh( "day", "since", new String[ 0 ], 0 );
+    TypedTableModel table = table();
+    assertNull( refresh.getWatermark( table ) );
+    table.addRow( Date.valueOf( "2018-01-02" ), "north", 1L );
+    table.addRow( null, "north", 1L );
+    table.addRow( Date.valueOf( "2018-01-03" ), "north", 1L );
+    table.addRow( Date.valueOf( "2018-01-01" ), "north", 1L );
+    assertEquals( Date.valueOf( "2018-01-03" ), refresh.getWatermark( table ) );
+    assertNull( new IncrementalRefresh( "other", "since", new String[ 0 ], 0 ).getWatermark( table ) );
+  }
+
+  @Test
+  public void testAppend() {
+    TypedTableModel cached = table();
+    cached.addRow( Date.valueOf( "2018-01-01" ), "north", 1L );
+    TypedTableModel delta = table();
+    delta.addRow( Date.valueOf( "2018-01-01" ), "north", 2L );
+    TableModel merged = new IncrementalRefresh( "day", "since", new String[ 0 ], 0 ).merge( cached, delta );
+    assertEquals( 2, merged.getRowCount() );
+    assertEquals( 1L, merged.getValueAt( 0, 2 ) );
+    assertEquals( 2L, merged.getValueAt( 1, 2 ) );
+  }
+
+  @Test
+  public void testReplaceByKey() {
+    TypedTableModel cached = table();
+    cached.addRow( Date.valueOf( "2018-01-01" ), "north", 1L );
+    cached.addRow( Date.valueOf( "2018-01-02" ), "north", 2L );
+    cached.addRow( Date.valueOf( "2018-01-02" ), "south", 3L );
+    TypedTableModel delta = table();
+    delta.addRow( Date.valueOf( "2018-01-02" ), "south", 30L );
+    delta.addRow( Date.valueOf( "2018-01-03" ), "north", 4L );
+    delta.addRow( Date.valueOf( "2018-01-03" ), "north", 40L );
+
+    IncrementalRefresh refresh = new IncrementalRefresh( "day", "since", new String[] { "day", "region" }, 0 );
+    TableModel merged = refresh.merge( ColumnarTableModel.copyOf( cached ), delta );
+    assertTrue( merged instanceof ColumnarTableModel );
+    assertEquals( 4, merged.getRowCount() );
+    assertEquals( 1L, merged.getValueAt( 0, 2 ) );
+    assertEquals( 2L, merged.getValueAt( 1, 2 ) );
+    assertEquals( 30L, merged.getValueAt( 2, 2 ) );
+    // the last of the new rows with the same key wins
+    assertEquals( 40L, merged.getValueAt( 3, 2 ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testRejectsOtherColumns() {
+    TypedTableModel delta = new TypedTableModel( new String[] { "day" }, new Class<?>[] { Date.class } );
+    new IncrementalRefresh( "day", "since", new String[ 0 ], 0 ).merge( table(), delta );
+  }
+
+  private static TypedTableModel table() {
+    return new TypedTableModel( new String[] { "day", "region", "value" },
+      new Class<?>[] { Date.class, String.class, Long.class } );
+  }
+}
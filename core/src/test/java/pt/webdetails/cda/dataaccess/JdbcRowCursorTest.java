@@ -0,0 +1,90 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.dataaccess;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.ClassicEngineBoot;
+import org.pentaho.reporting.engine.classic.core.DataRow;
+import org.pentaho.reporting.engine.classic.core.modules.misc.datafactory.sql.ConnectionProvider;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class JdbcRowCursorTest {
+
+  @BeforeClass
+  public static void init() {
+    ClassicEngineBoot.getInstance().start();
+  }
+
+  @Test
+  public void testBindsArrayElements() throws Exception {
+    DataRow parameters = mock( DataRow.class );
+    when( parameters.get( "status" ) ).thenReturn( new String[] { "Shipped", "Cancelled" } );
+    when( parameters.get( "since" ) ).thenReturn( new Date( 1000L ) );
+    when( parameters.get( "none" ) ).thenReturn( new String[ 0 ] );
+    PreparedStatement statement = mock( PreparedStatement.class );
+
+    JdbcRowCursor.bind( statement, new String[] { "status", "since", "none" }, parameters );
+    verify( statement ).setObject( 1, "Shipped" );
+    verify( statement ).setObject( 2, "Cancelled" );
+    verify( statement ).setObject( 3, new Timestamp( 1000L ) );
+    verify( statement ).setObject( 4, null );
+  }
+
+  @Test
+  public void testReadsRows() throws Exception {
+    final String url = "jdbc:hsqldb:mem:jdbcRowCursorTest";
+    Class.forName( "org.hsqldb.jdbcDriver" );
+    Connection setup = DriverManager.getConnection( url, "sa", "" );
+    try ( Statement statement = setup.createStatement() ) {
+      statement.execute( "create table numbers (id integer, name varchar(10))" );
+      statement.execute( "insert into numbers values (1, 'one'), (2, 'two'), (3, 'three')" );
+    }
+    Connection connection = DriverManager.getConnection( url, "sa", "" );
+    ConnectionProvider provider = mock( ConnectionProvider.class );
+    when( provider.createConnection( anyString(), anyString() ) ).thenReturn( connection );
+    DataRow parameters = mock( DataRow.class );
+    when( parameters.get( "min" ) ).thenReturn( 2 );
+
+    JdbcRowCursor cursor = JdbcRowCursor.open( provider, "sa", "",
+      "select id, name as label from numbers where id >= ${min} order by id", parameters, 1 );
+    try {
+      assertEquals( 2, cursor.getColumnCount() );
+      assertEquals( "LABEL", cursor.getColumnName( 1 ) );
+      assertEquals( Integer.class, cursor.getColumnClass( 0 ) );
+      assertArrayEquals( new Object[] { 2, "two" }, cursor.nextRow() );
+      assertArrayEquals( new Object[] { 3, "three" }, cursor.nextRow() );
+      assertNull( cursor.nextRow() );
+    } finally {
+      cursor.close();
+    }
+    assertTrue( connection.isClosed() );
+    setup.createStatement().execute( "shutdown" );
+  }
+}
@@ -0,0 +1,159 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.dataaccess;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pt.webdetails.cda.CdaEngine;
+import pt.webdetails.cda.query.QueryOptions;
+import pt.webdetails.cda.settings.CdaSettings;
+import pt.webdetails.cda.test.util.CdaTestHelper;
+import pt.webdetails.cda.test.util.CdaTestHelper.SimpleTableModel;
+
+import javax.swing.table.TableModel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static pt.webdetails.cda.test.util.CdaTestHelper.getMockEnvironment;
+import static pt.webdetails.cda.test.util.CdaTestHelper.initBareEngine;
+
+public class UnionCompoundDataAccessTest {
+
+  @BeforeClass
+  public static void init() {
+    initBareEngine( getMockEnvironment() );
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    CdaEngine.getInstance().shutdown();
+  }
+
+  @Test
+  public void testChildrenRunInParallel() throws Exception {
+    final CyclicBarrier bothRunning = new CyclicBarrier( 2 );
+    DataAccess top = mock( DataAccess.class );
+    when( top.doQuery( any( QueryOptions.class ) ) ).thenAnswer( invocation -> {
+      bothRunning.await( 10, TimeUnit.SECONDS );
+      return new SimpleTableModel( new Object[] { "top" } );
+    } );
+    DataAccess bottom = mock( DataAccess.class );
+    when( bottom.doQuery( any( QueryOptions.class ) ) ).thenAnswer( invocation -> {
+      bothRunning.await( 10, TimeUnit.SECONDS );
+      return new SimpleTableModel( new Object[] { "bottom" } );
+    } );
+
+    TableModel result = createUnion( top, bottom ).queryDataSource( new QueryOptions() );
+    assertEquals( 2, result.getRowCount() );
+    assertEquals( "top", result.getValueAt( 0, 0 ) );
+    assertEquals( "bottom", result.getValueAt( 1, 0 ) );
+  }
+
+  @Test
+  public void testFailureCancelsSibling() throws Exception {
+    final CountDownLatch bottomStarted = new CountDownLatch( 1 );
+    final CountDownLatch bottomInterrupted = new CountDownLatch( 1 );
+    DataAccess top = mock( DataAccess.class );
+    when( top.doQuery( any( QueryOptions.class ) ) ).thenAnswer( invocation -> {
+      bottomStarted.await( 10, TimeUnit.SECONDS );
+      throw new QueryException( "top failed", (Exception) null );
+    } );
+    DataAccess bottom = mock( DataAccess.class );
+    when( bottom.doQuery( any( QueryOptions.class ) ) ).thenAnswer( invocation -> {
+      bottomStarted.countDown();
+      try {
+        Thread.sleep( TimeUnit.SECONDS.toMillis( 30 ) );
+      } catch ( InterruptedException e ) {
+        bottomInterrupted.countDown();
+      }
+      return new SimpleTableModel( new Object[] { "bottom" } );
+    } );
+
+    try {
+      createUnion( top, bottom ).queryDataSource( new QueryOptions() );
+      fail( "expected failure" );
+    } catch ( QueryException e ) {
+      assertEquals( "top failed", e.getMessage() );
+    }
+    assertTrue( "bottom query not cancelled", bottomInterrupted.await( 10, TimeUnit.SECONDS ) );
+  }
+
+  @Test
+  public void testRejectedChildRunsOnceInCallingThread() throws Exception {
+    final ThreadPoolExecutor executor = (ThreadPoolExecutor) CdaEngine.getInstance().getChildQueryExecutor();
+    final CountDownLatch freeOne = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    try {
+      // fill the executor, the first task being the one that ends early to leave a single free slot
+      executor.submit( () -> freeOne.await( 10, TimeUnit.SECONDS ) );
+      try {
+        while ( true ) {
+          executor.submit( () -> release.await( 10, TimeUnit.SECONDS ) );
+        }
+      } catch ( RejectedExecutionException e ) {
+        freeOne.countDown();
+      }
+      final long deadline = System.currentTimeMillis() + 10000;
+      while ( executor.getQueue().remainingCapacity() == 0 ) {
+        assertTrue( System.currentTimeMillis() < deadline );
+        Thread.sleep( 10 );
+      }
+
+      final Thread caller = Thread.currentThread();
+      DataAccess top = mock( DataAccess.class );
+      when( top.doQuery( any( QueryOptions.class ) ) ).thenReturn( new SimpleTableModel( new Object[] { "top" } ) );
+      DataAccess bottom = mock( DataAccess.class );
+      when( bottom.doQuery( any( QueryOptions.class ) ) ).thenAnswer( invocation -> {
+        assertSame( caller, Thread.currentThread() );
+        // lets the queued top query run
+        release.countDown();
+        return new SimpleTableModel( new Object[] { "bottom" } );
+      } );
+
+      TableModel result = createUnion( top, bottom ).queryDataSource( new QueryOptions() );
+      assertEquals( "top", result.getValueAt( 0, 0 ) );
+      assertEquals( "bottom", result.getValueAt( 1, 0 ) );
+      verify( top, times( 1 ) ).doQuery( any( QueryOptions.class ) );
+      verify( bottom, times( 1 ) ).doQuery( any( QueryOptions.class ) );
+    } finally {
+      freeOne.countDown();
+      release.countDown();
+    }
+  }
+
+  private UnionCompoundDataAccess createUnion( DataAccess top, DataAccess bottom ) throws Exception {
+    UnionCompoundDataAccess union = new UnionCompoundDataAccess( CdaTestHelper.getElementFromSnippet(
+      "<CompoundDataAccess id=\"union\" type=\"union\">"
+        + "<Top id=\"top\"/><Bottom id=\"bottom\"/>"
+        + "</CompoundDataAccess>" ) );
+    CdaSettings settings = mock( CdaSettings.class );
+    when( settings.getDataAccess( "top" ) ).thenReturn( top );
+    when( settings.getDataAccess( "bottom" ) ).thenReturn( bottom );
+    union.setCdaSettings( settings );
+    return union;
+  }
+}
@@ -112,6 +112,28 @@ public class CsvExporterTest extends AbstractKettleExporterTestBase {
     assertEquals( "'ok';''''';'''", result[ 2 ] );
   }
 
+  @Test
+  public void testNoHeaders() throws Exception {
+    HashMap<String, String> settings = new HashMap<>();
+    settings.put( AbstractKettleExporter.COLUMN_HEADERS_SETTING, "false" );
+    TableModel table = new SimpleTableModel( new Object[] { "a;b", 1L } );
+    assertEquals( "\"a;b\";\"1\"" + System.lineSeparator(), getCsvResult( table, settings ) );
+  }
+
+  @Test
+  public void testNativeMatchesKettle() throws Exception {
+    final ICdaEnvironment origEnv = CdaEngine.getEnvironment();
+    final TableModel table = BasicExportExamples.getTestTable1();
+    final String nativeResult = getCsvResult( table );
+    try {
+      initBareEngine( getMockEnvironment(
+        Collections.singletonMap( "pt.webdetails.cda.exporter.csv.Native", "false" ) ) );
+      assertEquals( getCsvResult( table ), nativeResult );
+    } finally {
+      initBareEngine( origEnv );
+    }
+  }
+
   private String getCsvResult( TableModel table ) throws ExporterException {
     Map<String, String> settings = Collections.emptyMap();
     return getCsvResult( table, settings );
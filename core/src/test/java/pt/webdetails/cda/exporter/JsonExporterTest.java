@@ -124,6 +124,21 @@ public class JsonExporterTest {
     assertJsonEquals( "call arg value", expectArg, obj );
   }
 
+  @Test
+  public void testExportMatchesJsonObject() throws Exception {
+    MetadataTableModel table = new MetadataTableModel(
+      new String[] { "double", "string", "long" },
+      new Class<?>[] { Double.class, String.class, Long.class },
+      3 );
+    table.setMetadata( "totalRows", 3 );
+    table.addRow( Double.NaN, "\"quoted\"", 1L );
+    table.addRow( Double.POSITIVE_INFINITY, null, Long.MAX_VALUE );
+    table.addRow( 2.5d, "\u00e1", null );
+    JsonExporter exporter = new JsonExporter( Collections.<String, String>emptyMap() );
+    String expected = exporter.getTableAsJson( table, null ).toString();
+    assertJsonEquals( "streamed export", expected, exportToJsonString( table ) );
+  }
+
   private String exportToJsonString( TableModel table ) throws ExporterException {
     return exportToJsonString( table, Collections.<String, String>emptyMap() );
   }
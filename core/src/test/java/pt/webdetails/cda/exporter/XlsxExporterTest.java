@@ -0,0 +1,108 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.exporter;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import pt.webdetails.cda.test.util.CdaTestHelper.SimpleTableModel;
+
+import javax.swing.table.TableModel;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XlsxExporterTest {
+
+  @Test
+  public void testWorkbookParts() throws Exception {
+    Map<String, byte[]> parts = export( BasicExportExamples.getTestTable1(), Collections.<String, String>emptyMap() );
+    assertTrue( parts.containsKey( "[Content_Types].xml" ) );
+    assertTrue( parts.containsKey( "_rels/.rels" ) );
+    assertTrue( parts.containsKey( "xl/workbook.xml" ) );
+    assertTrue( parts.containsKey( "xl/_rels/workbook.xml.rels" ) );
+    assertTrue( parts.containsKey( "xl/styles.xml" ) );
+    for ( byte[] part : parts.values() ) {
+      parse( part );
+    }
+  }
+
+  @Test
+  public void testSheet() throws Exception {
+    final TimeZone tz = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault( TimeZone.getTimeZone( "GMT" ) );
+      NodeList rows = getRows( BasicExportExamples.getTestTable1(), Collections.<String, String>emptyMap() );
+      assertEquals( 4, rows.getLength() );
+      assertEquals( "The Integer", getCellText( rows, 0, 0 ) );
+      assertEquals( "The Calculation", getCellText( rows, 0, 4 ) );
+      assertEquals( "1", getCellText( rows, 1, 0 ) );
+      assertEquals( "One", getCellText( rows, 1, 1 ) );
+      assertEquals( "1.05", getCellText( rows, 1, 2 ) );
+      // 2012-01-01 00:01:01
+      assertEquals( 40909 + 61d / 86400, Double.parseDouble( getCellText( rows, 1, 3 ) ), 1e-9 );
+      assertEquals( "Two > One", getCellText( rows, 2, 1 ) );
+      assertEquals( "", getCellText( rows, 2, 3 ) );
+    } finally {
+      TimeZone.setDefault( tz );
+    }
+  }
+
+  @Test
+  public void testNoHeadersAndEscaping() throws Exception {
+    Map<String, String> settings = new HashMap<>();
+    settings.put( AbstractKettleExporter.COLUMN_HEADERS_SETTING, "false" );
+    NodeList rows = getRows( new SimpleTableModel(
+      new Object[] { "<a & \"b\">\u0001", Double.NaN, true } ), settings );
+    assertEquals( 1, rows.getLength() );
+    assertEquals( "<a & \"b\">", getCellText( rows, 0, 0 ) );
+    assertEquals( "", getCellText( rows, 0, 1 ) );
+    assertEquals( "1", getCellText( rows, 0, 2 ) );
+  }
+
+  private static NodeList getRows( TableModel table, Map<String, String> settings ) throws Exception {
+    Document sheet = parse( export( table, settings ).get( "xl/worksheets/sheet1.xml" ) );
+    return sheet.getElementsByTagName( "row" );
+  }
+
+  private static String getCellText( NodeList rows, int row, int col ) {
+    return ( (Element) rows.item( row ) ).getElementsByTagName( "c" ).item( col ).getTextContent();
+  }
+
+  private static Map<String, byte[]> export( TableModel table, Map<String, String> settings ) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new XlsxExporter( settings ).export( out, table );
+    Map<String, byte[]> parts = new HashMap<>();
+    ZipInputStream zip = new ZipInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    for ( ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry() ) {
+      parts.put( entry.getName(), IOUtils.toByteArray( zip ) );
+    }
+    return parts;
+  }
+
+  private static Document parse( byte[] xml ) throws Exception {
+    return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( new ByteArrayInputStream( xml ) );
+  }
+}
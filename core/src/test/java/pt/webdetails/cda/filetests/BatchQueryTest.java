@@ -0,0 +1,94 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+
+package pt.webdetails.cda.filetests;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+import pt.webdetails.cda.CdaCoreService;
+import pt.webdetails.cda.exporter.ExportedTableQueryResult;
+import pt.webdetails.cda.query.QueryOptions;
+import pt.webdetails.cda.settings.CdaSettings;
+
+public class BatchQueryTest extends CdaTestCase {
+
+  public void testBatchQuery() throws Exception {
+    final Map<String, List<String>> query = spec( "1", "2003-04-01" );
+    final List<Map<String, List<String>>> specs = new ArrayList<Map<String, List<String>>>();
+    specs.add( query );
+    specs.add( spec( "1", "2004-01-01" ) );
+    specs.add( spec( "1", "2003-04-01" ) );
+    specs.add( spec( "unknown", "2003-04-01" ) );
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new CdaCoreService( getEngine() ).doBatchQuery( specs, out );
+
+    // one line per spec, in the order they complete
+    final String[] lines = out.toString( "UTF-8" ).split( "\n" );
+    assertEquals( 4, lines.length );
+    final JSONObject[] results = new JSONObject[ lines.length ];
+    for ( String line : lines ) {
+      final JSONObject result = new JSONObject( line );
+      results[ result.getInt( "index" ) ] = result;
+    }
+
+    final CdaSettings cdaSettings = parseSettingsFile( "sample-sql.cda" );
+    final QueryOptions queryOptions = new QueryOptions();
+    queryOptions.setDataAccessId( "1" );
+    queryOptions.addParameter( "orderDate", "2003-04-01" );
+    final String expected = new ExportedTableQueryResult( getEngine().getExporter( queryOptions ),
+      getEngine().doQuery( cdaSettings, queryOptions ) ).asString();
+    assertEquals( new JSONObject( expected ).toString(), results[ 0 ].getJSONObject( "result" ).toString() );
+    assertEquals( results[ 0 ].getJSONObject( "result" ).toString(),
+      results[ 2 ].getJSONObject( "result" ).toString() );
+    assertTrue( results[ 1 ].has( "result" ) );
+    assertTrue( results[ 3 ].has( "error" ) );
+  }
+
+  public void testAuditsEachQuery() throws Exception {
+    final List<Map<String, List<String>>> specs = new ArrayList<Map<String, List<String>>>();
+    specs.add( spec( "1", "2003-04-01" ) );
+    specs.add( spec( "1", "2004-01-01" ) );
+    specs.add( spec( "1", "2003-04-01" ) );
+    specs.add( spec( "unknown", "2003-04-01" ) );
+
+    final List<String> started = Collections.synchronizedList( new ArrayList<String>() );
+    final AtomicInteger ended = new AtomicInteger();
+    new CdaCoreService( getEngine() ).doBatchQuery( specs, new ByteArrayOutputStream(), ( path, params ) -> {
+      started.add( path );
+      return ended::incrementAndGet;
+    } );
+
+    // identical specs are queried and audited once, failed queries too
+    assertEquals( Arrays.asList( "sample-sql.cda", "sample-sql.cda", "sample-sql.cda" ), started );
+    assertEquals( 3, ended.get() );
+  }
+
+  private static Map<String, List<String>> spec( final String dataAccessId, final String orderDate ) {
+    final Map<String, List<String>> spec = new HashMap<String, List<String>>();
+    spec.put( "path", Arrays.asList( "sample-sql.cda" ) );
+    spec.put( "dataAccessId", Arrays.asList( dataAccessId ) );
+    spec.put( "paramorderDate", Arrays.asList( orderDate ) );
+    return spec;
+  }
+}
@@ -0,0 +1,57 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.filetests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import pt.webdetails.cda.settings.CdaSettings;
+
+public class SettingsCacheTest extends CdaTestCase {
+
+  public void testCachedUntilCleared() throws Exception {
+    getSettingsManager().clearCache();
+    CdaSettings settings = parseSettingsFile( "sample-sql.cda" );
+    assertSame( settings, parseSettingsFile( "sample-sql.cda" ) );
+
+    getSettingsManager().clearEntryFromCache( "sample-sql.cda" );
+    assertNotSame( settings, parseSettingsFile( "sample-sql.cda" ) );
+  }
+
+  public void testConcurrentReadsShareParse() throws Exception {
+    getSettingsManager().clearCache();
+    ExecutorService executor = Executors.newFixedThreadPool( 8 );
+    try {
+      List<Future<CdaSettings>> reads = new ArrayList<Future<CdaSettings>>();
+      for ( int i = 0; i < 8; i++ ) {
+        reads.add( executor.submit( new Callable<CdaSettings>() {
+          @Override
+          public CdaSettings call() throws Exception {
+            return parseSettingsFile( "sample-sql.cda" );
+          }
+        } ) );
+      }
+      CdaSettings first = reads.get( 0 ).get();
+      for ( Future<CdaSettings> read : reads ) {
+        assertSame( first, read.get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
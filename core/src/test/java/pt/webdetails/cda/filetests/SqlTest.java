@@ -17,6 +17,7 @@ import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.LinkedList;
 
@@ -30,6 +31,9 @@ import pt.webdetails.cda.cache.TableCacheKey;
 import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
 import pt.webdetails.cda.dataaccess.AbstractDataAccess;
 import pt.webdetails.cda.dataaccess.SqlDataAccess;
+import pt.webdetails.cda.exporter.ExportedQueryResult;
+import pt.webdetails.cda.exporter.ExportedStreamQueryResult;
+import pt.webdetails.cda.exporter.ExportedTableQueryResult;
 import pt.webdetails.cda.query.QueryOptions;
 import pt.webdetails.cda.settings.CdaSettings;
 import pt.webdetails.cda.test.util.CdaTestHelper;
@@ -160,4 +164,56 @@ public class SqlTest extends CdaTestCase {
     checker.setBigDecimalComparison( 3, "1e-14" );
     checker.assertEquals( expected, result );
   }
+
+  public void testCursorExport() throws Exception {
+    final CdaSettings cdaSettings = getSettingsManager().parseSettingsFile( "sample-sql.cda" );
+    final CdaEngine engine = getEngine();
+
+    QueryOptions queryOptions = new QueryOptions();
+    queryOptions.setDataAccessId( "1" );
+    queryOptions.addParameter( "orderDate", "2003-04-01" );
+    queryOptions.setOutputType( "json" );
+    queryOptions.setCacheBypass( true );
+
+    // rows are read from the database as they are written, with the same output
+    ExportedQueryResult streamed = engine.doExportQuery( cdaSettings, queryOptions );
+    assertTrue( streamed instanceof ExportedStreamQueryResult );
+    String expected =
+      new ExportedTableQueryResult( engine.getExporter( queryOptions ), engine.doQuery( cdaSettings, queryOptions ) )
+        .asString();
+    assertEquals( expected, streamed.asString() );
+    verify( cache, never() ).putTableModel( any( TableCacheKey.class ), any( TableModel.class ), anyInt(),
+      any( ExtraCacheInfo.class ) );
+
+    // sorted rows are read in full first
+    queryOptions.setSortBy( new LinkedList<String>( Arrays.asList( "1D" ) ) );
+    assertTrue( engine.doExportQuery( cdaSettings, queryOptions ) instanceof ExportedTableQueryResult );
+  }
+
+  public void testETag() throws Exception {
+    final CdaSettings cdaSettings = getSettingsManager().parseSettingsFile( "sample-sql.cda" );
+    final CdaEngine engine = getEngine();
+    cache.clearCache();
+
+    QueryOptions queryOptions = new QueryOptions();
+    queryOptions.setDataAccessId( "1" );
+    queryOptions.addParameter( "orderDate", "2003-04-01" );
+    queryOptions.setOutputType( "json" );
+
+    // nothing cached yet
+    assertNull( engine.getETag( cdaSettings, queryOptions ) );
+
+    ExportedQueryResult result = engine.doExportQuery( cdaSettings, queryOptions );
+    final String eTag = result.getETag();
+    assertNotNull( eTag );
+    assertEquals( eTag, engine.getETag( cdaSettings, queryOptions ) );
+    // found without reading the cached table
+    verify( cache, times( 1 ) ).getCachedTable( any( TableCacheKey.class ) );
+
+    queryOptions.setOutputType( "xml" );
+    assertFalse( eTag.equals( engine.getETag( cdaSettings, queryOptions ) ) );
+    queryOptions.setOutputType( "json" );
+    queryOptions.setCacheBypass( true );
+    assertNull( engine.getETag( cdaSettings, queryOptions ) );
+  }
 }
@@ -32,6 +32,7 @@ import org.mockito.Matchers;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
 import org.pentaho.reporting.libraries.base.config.Configuration;
 
 import pt.webdetails.cda.CdaEngine;
@@ -45,11 +46,14 @@ import javax.swing.table.TableModel;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 public class CdaTestHelper {
 
@@ -165,6 +169,12 @@ public class CdaTestHelper {
         }
       } );
     Mockito.when( env.getBaseConfig() ).thenReturn( conf );
+    Mockito.when( env.propagateContext( Matchers.any( Callable.class ) ) ).thenAnswer( new Answer<Callable<?>>() {
+      @Override
+      public Callable<?> answer( InvocationOnMock invocation ) throws Throwable {
+        return (Callable<?>) invocation.getArguments()[ 0 ];
+      }
+    } );
     return env;
   }
 
@@ -185,6 +195,22 @@ public class CdaTestHelper {
     return testEngine;
   }
 
+  /**
+   * @return table of double, long, string and date columns with random values, about one in twenty null
+   */
+  public static TableModel createRandomTable( int rows, Random random ) {
+    TypedTableModel table = new TypedTableModel( new String[] { "double", "long", "string", "date" },
+      new Class<?>[] { Double.class, Long.class, String.class, Date.class } );
+    for ( int i = 0; i < rows; i++ ) {
+      table.addRow(
+        random.nextInt( 20 ) == 0 ? null : random.nextInt( 100 ) / 4.0d,
+        random.nextInt( 20 ) == 0 ? null : (long) random.nextInt( 50 ),
+        random.nextInt( 20 ) == 0 ? null : "value " + random.nextInt( 500 ),
+        random.nextInt( 20 ) == 0 ? null : new Date( 1500000000000L + random.nextInt( 1000 ) * 86400000L ) );
+    }
+    return table;
+  }
+
   interface Comparison<T> {
     public boolean equal( T one, T two );
   }
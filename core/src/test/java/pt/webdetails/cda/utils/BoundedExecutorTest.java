@@ -0,0 +1,95 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedExecutorTest {
+
+  private final CountDownLatch release = new CountDownLatch( 1 );
+  private BoundedExecutor executor;
+
+  @After
+  public void tearDown() throws Exception {
+    release.countDown();
+    if ( executor != null ) {
+      executor.shutdownNow();
+      executor.awaitTermination( 10, TimeUnit.SECONDS );
+    }
+  }
+
+  @Test
+  public void testAbortCountsRejections() throws Exception {
+    executor = new BoundedExecutor( "test-abort", 1, 2, 1, BoundedExecutor.RejectionPolicy.ABORT );
+    for ( int i = 0; i < 3; i++ ) {
+      executor.execute( this::block );
+    }
+    try {
+      executor.execute( this::block );
+      fail( "expected rejection" );
+    } catch ( RejectedExecutionException e ) {
+      // expected
+    }
+    assertEquals( 2, executor.getPoolSize() );
+    assertEquals( 1, executor.getQueueDepth() );
+    assertEquals( 1, executor.getRejectedTaskCount() );
+  }
+
+  @Test
+  public void testCallerRuns() throws Exception {
+    executor = new BoundedExecutor( "test-caller-runs", 0, 1, 0, BoundedExecutor.RejectionPolicy.CALLER_RUNS );
+    executor.execute( this::block );
+    final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+    executor.execute( () -> runner.set( Thread.currentThread() ) );
+    assertSame( Thread.currentThread(), runner.get() );
+    assertEquals( 1, executor.getRejectedTaskCount() );
+  }
+
+  @Test
+  public void testMBeanRegistration() throws Exception {
+    executor = new BoundedExecutor( "test-jmx", 1, 1, 0, BoundedExecutor.RejectionPolicy.ABORT );
+    executor.registerMBean();
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName( "pt.webdetails.cda:type=Executor,name=test-jmx" );
+    assertTrue( server.isRegistered( name ) );
+    assertEquals( 0L, server.getAttribute( name, "RejectedTaskCount" ) );
+    assertEquals( "ABORT", server.getAttribute( name, "RejectionPolicy" ) );
+    executor.shutdown();
+    assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+    assertFalse( server.isRegistered( name ) );
+  }
+
+  private void block() {
+    try {
+      release.await( 10, TimeUnit.SECONDS );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -20,12 +20,19 @@ import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
 import pt.webdetails.cda.dataaccess.ColumnDefinition;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static pt.webdetails.cda.test.util.CdaTestHelper.getMockEnvironment;
 import static pt.webdetails.cda.test.util.CdaTestHelper.initBareEngine;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class CalculatedTableModelTest {
 
@@ -60,4 +67,79 @@ public class CalculatedTableModelTest {
     assertNull( tableModel.getValueAt( 2, 2 ) );
     assertNull( tableModel.getValueAt( 3, 2 ) );
   }
+
+  @Test
+  public void testChainedColumnsMaterialized() {
+    TypedTableModel typedTableModel = new TypedTableModel( new String[] { "Q1" }, new Class<?>[] { Double.class } );
+    typedTableModel.addRow( 1.0d );
+    typedTableModel.addRow( 2.0d );
+    typedTableModel.addRow( 3.0d );
+
+    ColumnDefinition doubled = new ColumnDefinition();
+    doubled.setName( "DOUBLED" );
+    doubled.setFormula( "=[Q1]*2" );
+    doubled.setType( ColumnDefinition.TYPE.CALCULATED_COLUMN );
+    ColumnDefinition plusOne = new ColumnDefinition();
+    plusOne.setName( "PLUS_ONE" );
+    plusOne.setFormula( "=[DOUBLED]+1" );
+    plusOne.setType( ColumnDefinition.TYPE.CALCULATED_COLUMN );
+
+    CalculatedTableModel tableModel =
+      new CalculatedTableModel( typedTableModel, new ColumnDefinition[] { doubled, plusOne }, true );
+    // evaluated twice through the same compiled formulas
+    assertEquals( 0, new BigDecimal( 5 ).compareTo( (BigDecimal) tableModel.getValueAt( 1, 2 ) ) );
+    assertEquals( 0, new BigDecimal( 5 ).compareTo( (BigDecimal) tableModel.getValueAt( 1, 2 ) ) );
+
+    assertSame( tableModel, tableModel.materialize() );
+    assertTrue( tableModel.isMaterialized() );
+    for ( int row = 0; row < 3; row++ ) {
+      BigDecimal expected = new BigDecimal( ( row + 1 ) * 2 );
+      assertEquals( 0, expected.compareTo( (BigDecimal) tableModel.getValueAt( row, 1 ) ) );
+      assertEquals( 0, expected.add( BigDecimal.ONE ).compareTo( (BigDecimal) tableModel.getValueAt( row, 2 ) ) );
+    }
+    assertEquals( BigDecimal.class, tableModel.getColumnClass( 2 ) );
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final int rows = 1000;
+    TypedTableModel typedTableModel = new TypedTableModel( new String[] { "Q1" }, new Class<?>[] { Double.class } );
+    for ( int row = 0; row < rows; row++ ) {
+      typedTableModel.addRow( (double) row );
+    }
+    ColumnDefinition plusOne = new ColumnDefinition();
+    plusOne.setName( "PLUS_ONE" );
+    plusOne.setFormula( "=[Q1]+1" );
+    plusOne.setType( ColumnDefinition.TYPE.CALCULATED_COLUMN );
+    final CalculatedTableModel tableModel =
+      new CalculatedTableModel( typedTableModel, new ColumnDefinition[] { plusOne }, false );
+
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for ( int task = 0; task < 4; task++ ) {
+        final int offset = task;
+        results.add( executor.submit( () -> {
+          for ( int i = 0; i < rows; i++ ) {
+            int row = ( i + offset * rows / 4 ) % rows;
+            Number value = (Number) tableModel.getValueAt( row, 1 );
+            if ( value.intValue() != row + 1 ) {
+              return false;
+            }
+          }
+          return true;
+        } ) );
+      }
+      for ( Future<Boolean> result : results ) {
+        assertTrue( result.get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    tableModel.materialize();
+    for ( int row = 0; row < rows; row++ ) {
+      assertEquals( row + 1, ( (Number) tableModel.getValueAt( row, 1 ) ).intValue() );
+    }
+  }
 }
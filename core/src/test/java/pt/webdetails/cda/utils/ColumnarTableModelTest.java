@@ -0,0 +1,138 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.test.util.TableModelChecker;
+
+import javax.swing.table.TableModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarTableModelTest {
+
+  @Test
+  public void testCopy() throws Exception {
+    TypedTableModel source = createTable();
+    TableModel copy = ColumnarTableModel.copyOf( source );
+    TableModelChecker checker = new TableModelChecker( true, true );
+    checker.assertEquals( source, copy );
+    for ( int row = 0; row < source.getRowCount(); row++ ) {
+      for ( int col = 0; col < source.getColumnCount(); col++ ) {
+        Object value = source.getValueAt( row, col );
+        if ( value != null ) {
+          assertEquals( value.getClass(), copy.getValueAt( row, col ).getClass() );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    TypedTableModel source = createTable();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( ColumnarTableModel.copyOf( source ) );
+    out.close();
+    TableModel read =
+      (TableModel) new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ).readObject();
+    new TableModelChecker( true, true ).assertEquals( source, read );
+  }
+
+  @Test
+  public void testSmallerThanRows() throws Exception {
+    final int rows = 20000;
+    TypedTableModel source = new TypedTableModel( new String[] { "id", "value", "category" },
+      new Class<?>[] { Long.class, Double.class, String.class } );
+    for ( int i = 0; i < rows; i++ ) {
+      source.addRow( (long) i, i / 3.0d, new String( "category " + ( i % 10 ) ) );
+    }
+    Object[][] boxedRows = new Object[ rows ][];
+    for ( int i = 0; i < rows; i++ ) {
+      boxedRows[ i ] = new Object[] { source.getValueAt( i, 0 ), source.getValueAt( i, 1 ), source.getValueAt( i, 2 ) };
+    }
+    int columnarSize = serializedSize( ColumnarTableModel.copyOf( source ) );
+    int boxedSize = serializedSize( boxedRows );
+    assertTrue( columnarSize + " vs " + boxedSize, columnarSize * 2 < boxedSize );
+  }
+
+  @Test
+  public void testEstimatedSizeBelowBoxedRows() {
+    final int rows = 10000;
+    TypedTableModel source = new TypedTableModel( new String[] { "id", "value", "category" },
+      new Class<?>[] { Long.class, Double.class, String.class } );
+    for ( int i = 0; i < rows; i++ ) {
+      source.addRow( (long) i, i / 3.0d, "category " + ( i % 10 ) );
+    }
+    long columnarSize = TableSizeEstimator.estimate( ColumnarTableModel.copyOf( source ) );
+    long boxedSize = TableSizeEstimator.estimate( source );
+    // two primitive arrays and string codes
+    assertTrue( columnarSize > rows * 20L );
+    assertTrue( columnarSize + " vs " + boxedSize, columnarSize * 2 < boxedSize );
+  }
+
+  @Test
+  public void testTimestampsAndDecimals() {
+    Timestamp nanos = new Timestamp( 1500L );
+    nanos.setNanos( 500000123 );
+    TypedTableModel source = new TypedTableModel( new String[] { "timestamp", "decimal", "scaled", "huge" },
+      new Class<?>[] { Timestamp.class, BigDecimal.class, BigDecimal.class, BigDecimal.class } );
+    source.addRow( nanos, new BigDecimal( "1.10" ), new BigDecimal( "-2.5" ), new BigDecimal( "1e40" ) );
+    source.addRow( null, new BigDecimal( "-0.01" ), new BigDecimal( "3" ), BigDecimal.ONE );
+    source.addRow( new Timestamp( -1L ), null, null, new BigDecimal( Long.MAX_VALUE ).add( BigDecimal.ONE ) );
+    TableModel copy = ColumnarTableModel.copyOf( source );
+    new TableModelChecker( true, true ).assertEquals( source, copy );
+
+    assertEquals( 500000123, ( (Timestamp) copy.getValueAt( 0, 0 ) ).getNanos() );
+    // decimals keep their own scale
+    assertEquals( 2, ( (BigDecimal) copy.getValueAt( 1, 1 ) ).scale() );
+    assertEquals( 0, ( (BigDecimal) copy.getValueAt( 1, 2 ) ).scale() );
+    assertEquals( new BigDecimal( "1e40" ), copy.getValueAt( 0, 3 ) );
+  }
+
+  @Test( expected = UnsupportedOperationException.class )
+  public void testReadOnly() {
+    ColumnarTableModel.copyOf( createTable() ).setValueAt( 1L, 0, 0 );
+  }
+
+  private static TypedTableModel createTable() {
+    TypedTableModel table = new TypedTableModel(
+      new String[] { "long", "int", "double", "string", "bool", "date", "timestamp", "decimal", "mixed" },
+      new Class<?>[] { Long.class, Integer.class, Double.class, String.class, Boolean.class, Date.class,
+        Timestamp.class, BigDecimal.class, Long.class } );
+    table.addRow( 1L, 1, 1.5d, "a", true, new Date( 0 ), new Timestamp( 1 ), BigDecimal.ONE, 1L );
+    table.addRow( null, null, null, null, null, null, null, null, null );
+    table.addRow( Long.MIN_VALUE, Integer.MAX_VALUE, Double.NaN, "a", false, new Date( 86400000L ),
+      new Timestamp( 2 ), new BigDecimal( "1.10" ), 2 );
+    table.addRow( Long.MAX_VALUE, -1, -0.0d, "b", true, new Date( -1 ), null, null, "three" );
+    return table;
+  }
+
+  private static int serializedSize( Object object ) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream( bytes );
+    out.writeObject( object );
+    out.close();
+    return bytes.size();
+  }
+}
@@ -0,0 +1,84 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.metadata.model.concept.types.JoinType;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.test.util.CdaTestHelper.SimpleTableModel;
+import pt.webdetails.cda.test.util.TableModelChecker;
+
+import javax.swing.table.TableModel;
+
+public class HashJoinTest {
+
+  private TypedTableModel left;
+  private TypedTableModel right;
+  private TableModelChecker checker;
+
+  @Before
+  public void setUp() {
+    left = new TypedTableModel( new String[] { "id", "name" }, new Class<?>[] { Integer.class, String.class } );
+    left.addRow( 1, "one" );
+    left.addRow( 2, "two" );
+    left.addRow( 3, "three" );
+    left.addRow( 2, "deux" );
+    right = new TypedTableModel( new String[] { "ID", "value" }, new Class<?>[] { Long.class, Double.class } );
+    right.addRow( 2L, 2.5d );
+    right.addRow( 4L, 4.5d );
+    checker = new TableModelChecker();
+  }
+
+  @Test
+  public void testInner() {
+    TableModel result = join( JoinType.INNER );
+    checker.assertColumnNames( result, "id", "name", "ID_1", "value" );
+    checker.assertColumnClasses( result, Long.class, String.class, Long.class, Double.class );
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { 2L, "two", 2L, 2.5d },
+      new Object[] { 2L, "deux", 2L, 2.5d } ), result );
+  }
+
+  @Test
+  public void testLeftOuter() {
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { 1L, "one", null, null },
+      new Object[] { 2L, "two", 2L, 2.5d },
+      new Object[] { 3L, "three", null, null },
+      new Object[] { 2L, "deux", 2L, 2.5d } ), join( JoinType.LEFT_OUTER ) );
+  }
+
+  @Test
+  public void testRightOuter() {
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { 2L, "two", 2L, 2.5d },
+      new Object[] { 2L, "deux", 2L, 2.5d },
+      new Object[] { null, null, 4L, 4.5d } ), join( JoinType.RIGHT_OUTER ) );
+  }
+
+  @Test
+  public void testFullOuter() {
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { 1L, "one", null, null },
+      new Object[] { 2L, "two", 2L, 2.5d },
+      new Object[] { 3L, "three", null, null },
+      new Object[] { 2L, "deux", 2L, 2.5d },
+      new Object[] { null, null, 4L, 4.5d } ), join( JoinType.FULL_OUTER ) );
+  }
+
+  private TableModel join( JoinType joinType ) {
+    return new HashJoin( left, new int[] { 0 }, right, new int[] { 0 }, joinType ).join();
+  }
+}
@@ -20,10 +20,15 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
 
+import pt.webdetails.cda.cache.CachedTable;
+import pt.webdetails.cda.cache.TableCacheKey;
+import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
+import pt.webdetails.cda.connections.Connection;
 import pt.webdetails.cda.dataaccess.ColumnDefinition;
 import pt.webdetails.cda.dataaccess.DataAccess;
 import pt.webdetails.cda.dataaccess.MdxDataAccess;
 import pt.webdetails.cda.dataaccess.DataAccess.OutputMode;
+import pt.webdetails.cda.dataaccess.Parameter;
 import pt.webdetails.cda.query.QueryOptions;
 import pt.webdetails.cda.test.util.TableModelChecker;
 
@@ -32,13 +37,17 @@ import static org.mockito.Mockito.*;
 
 import javax.swing.table.TableModel;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 
 public class TableModelUtilsTest {
 
+  private static final Connection connection = mock( Connection.class );
+
   @BeforeClass
   public static void init() {
     initBareEngine( getMockEnvironment() );
@@ -163,6 +172,170 @@ public class TableModelUtilsTest {
 
   }
 
+  @Test
+  public void testPaginationCopiesPageOnly() throws Exception {
+    TypedTableModel tm = new TypedTableModel(
+      new String[] { "id", "name" },
+      new Class<?>[] { Long.class, String.class }, 100 );
+    for ( long i = 0; i < 100; i++ ) {
+      tm.addRow( i, ( i % 2 == 0 ? "even " : "odd " ) + i );
+    }
+    final int[] reads = new int[ 1 ];
+    TableModel counting = new javax.swing.table.AbstractTableModel() {
+      public int getRowCount() {
+        return tm.getRowCount();
+      }
+
+      public int getColumnCount() {
+        return tm.getColumnCount();
+      }
+
+      public String getColumnName( int column ) {
+        return tm.getColumnName( column );
+      }
+
+      public Class<?> getColumnClass( int column ) {
+        return tm.getColumnClass( column );
+      }
+
+      public Object getValueAt( int row, int column ) {
+        reads[ 0 ]++;
+        return tm.getValueAt( row, column );
+      }
+    };
+    DataAccess dataAccess = mock( DataAccess.class );
+    when( dataAccess.getType() ).thenReturn( "any type" );
+    when( dataAccess.getColumnDefinitions() ).thenReturn( new ArrayList<ColumnDefinition>( 0 ) );
+    when( dataAccess.getOutputs( 0 ) ).thenReturn( new ArrayList<Integer>( Arrays.asList( 1 ) ) );
+    QueryOptions opts = new QueryOptions();
+    opts.setPaginate( true );
+    opts.setPageStart( 10 );
+    opts.setPageSize( 3 );
+
+    // a cached result, whose filtered rows are kept for the following pages
+    CachedTable cached = cachedResult( counting );
+    MetadataTableModel result =
+      (MetadataTableModel) TableModelUtils.postProcessTableModel( dataAccess, opts, cached );
+    TableModelChecker checker = new TableModelChecker();
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { "even 10" },
+      new Object[] { "odd 11" },
+      new Object[] { "even 12" } ), result );
+    checker.assertColumnNames( result, "name" );
+    Assert.assertEquals( "100", result.getMetadata( "totalRows" ) );
+    Assert.assertEquals( 3, reads[ 0 ] );
+
+    // total after filtering
+    opts.getExtraSettings().put( "dtFilter", "odd" );
+    result = (MetadataTableModel) TableModelUtils.postProcessTableModel( dataAccess, opts, cached );
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { "odd 21" },
+      new Object[] { "odd 23" },
+      new Object[] { "odd 25" } ), result );
+    Assert.assertEquals( "50", result.getMetadata( "totalRows" ) );
+    Assert.assertEquals( "3", result.getMetadata( "pageSize" ) );
+    Assert.assertEquals( "10", result.getMetadata( "pageStart" ) );
+
+    // next page reuses the filtered rows
+    reads[ 0 ] = 0;
+    opts.setPageStart( 20 );
+    result = (MetadataTableModel) TableModelUtils.postProcessTableModel( dataAccess, opts, cached );
+    checker.assertEquals( new SimpleTableModel(
+      new Object[] { "odd 41" },
+      new Object[] { "odd 43" },
+      new Object[] { "odd 45" } ), result );
+    Assert.assertEquals( "50", result.getMetadata( "totalRows" ) );
+    Assert.assertEquals( 3, reads[ 0 ] );
+  }
+
+  @Test
+  public void testSortedRowsKeptForCacheEntry() throws Exception {
+    TypedTableModel tm = new TypedTableModel( new String[] { "id" }, new Class<?>[] { Long.class }, 3 );
+    tm.addRow( 2L );
+    tm.addRow( 3L );
+    tm.addRow( 1L );
+    DataAccess dataAccess = mock( DataAccess.class );
+    when( dataAccess.getType() ).thenReturn( "any type" );
+    when( dataAccess.getColumnDefinitions() ).thenReturn( new ArrayList<ColumnDefinition>( 0 ) );
+    when( dataAccess.getOutputs( 0 ) ).thenReturn( new ArrayList<Integer>() );
+    QueryOptions opts = new QueryOptions();
+    opts.setSortBy( new ArrayList<>( Arrays.asList( "0A" ) ) );
+    CachedTable cached = cachedResult( tm );
+    final long hits = TableModelUtils.getPostProcessingCache().getHitCount();
+
+    TableModelUtils.postProcessTableModel( dataAccess, opts, cached );
+    // found again from a copy of the same entry, as read from a serializing cache
+    TableModel result = TableModelUtils.postProcessTableModel( dataAccess, opts,
+      new CachedTable( cacheKey(), tm, cached.getInfo() ) );
+    Assert.assertEquals( hits + 1, TableModelUtils.getPostProcessingCache().getHitCount() );
+    new TableModelChecker().assertEquals( new SimpleTableModel(
+      new Object[] { 1L },
+      new Object[] { 2L },
+      new Object[] { 3L } ), result );
+  }
+
+  private static CachedTable cachedResult( TableModel table ) {
+    ExtraCacheInfo info = new ExtraCacheInfo( "settings", "id", 1L, table.getRowCount() );
+    info.setEntryTime( System.currentTimeMillis() );
+    return new CachedTable( cacheKey(), table, info );
+  }
+
+  private static TableCacheKey cacheKey() {
+    return new TableCacheKey( connection, "query", Collections.<Parameter>emptyList(), null );
+  }
+
+  @Test
+  public void testPostProcessCursor() throws Exception {
+    TypedTableModel tm = new TypedTableModel(
+      new String[] { "id", "name" },
+      new Class<?>[] { Long.class, String.class }, 100 );
+    for ( long i = 0; i < 100; i++ ) {
+      tm.addRow( i, ( i % 2 == 0 ? "even " : "odd " ) + i );
+    }
+    ColumnDefinition renamed = new ColumnDefinition();
+    renamed.setIndex( 0 );
+    renamed.setName( "ID" );
+    ColumnDefinition twice = new ColumnDefinition();
+    twice.setName( "TWICE" );
+    twice.setFormula( "=[ID]*2" );
+    twice.setType( ColumnDefinition.TYPE.CALCULATED_COLUMN );
+    DataAccess dataAccess = mock( DataAccess.class );
+    when( dataAccess.getType() ).thenReturn( "any type" );
+    when( dataAccess.getColumnDefinition( 0 ) ).thenReturn( renamed );
+    when( dataAccess.getColumnDefinitions() ).thenReturn( new ArrayList<ColumnDefinition>( Arrays.asList( renamed ) ) );
+    when( dataAccess.getCalculatedColumns() ).thenReturn( new ArrayList<ColumnDefinition>( Arrays.asList( twice ) ) );
+    when( dataAccess.getOutputs( 0 ) ).thenReturn( new ArrayList<Integer>( Arrays.asList( 2, 1 ) ) );
+    QueryOptions opts = new QueryOptions();
+    opts.setPaginate( true );
+    opts.setPageStart( 10 );
+    opts.setPageSize( 3 );
+    opts.getExtraSettings().put( "dtFilter", "odd" );
+
+    RowCursor cursor = TableModelUtils.postProcessCursor( dataAccess, opts, RowCursor.over( tm ) );
+    Assert.assertEquals( 2, cursor.getColumnCount() );
+    Assert.assertEquals( "TWICE", cursor.getColumnName( 0 ) );
+    Assert.assertEquals( "name", cursor.getColumnName( 1 ) );
+    for ( long id = 21; id <= 25; id += 2 ) {
+      Object[] row = cursor.nextRow();
+      Assert.assertEquals( 0, new BigDecimal( id * 2 ).compareTo( (BigDecimal) row[ 0 ] ) );
+      Assert.assertEquals( "odd " + id, row[ 1 ] );
+      Assert.assertNull( cursor.getMetadata() );
+    }
+    Assert.assertNull( cursor.nextRow() );
+    Assert.assertEquals( BigDecimal.class, cursor.getColumnClass( 0 ) );
+    Assert.assertEquals( "50", cursor.getMetadata().get( "totalRows" ) );
+    Assert.assertEquals( "3", cursor.getMetadata().get( "pageSize" ) );
+    Assert.assertEquals( "10", cursor.getMetadata().get( "pageStart" ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testPostProcessCursorRejectsSorting() throws Exception {
+    QueryOptions opts = new QueryOptions();
+    opts.setSortBy( new ArrayList<>( Arrays.asList( "0A" ) ) );
+    TableModelUtils.postProcessCursor( mock( DataAccess.class ), opts,
+      RowCursor.over( new SimpleTableModel( new Object[] { 1 } ) ) );
+  }
+
   private class TableModelUtilsForTest {
 
     private TypedTableModel typedTableModel;
@@ -0,0 +1,111 @@
+/*!
+ * Copyright 2002 - 2018 Webdetails, a Hitachi Vantara company. All rights reserved.
+ *
+ * This software was developed by Webdetails and is provided under the terms
+ * of the Mozilla Public License, Version 2.0, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to  http://mozilla.org/MPL/2.0/. The Initial Developer is Webdetails.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package pt.webdetails.cda.utils.kettle;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.Test;
+import org.pentaho.reporting.engine.classic.core.util.TypedTableModel;
+import pt.webdetails.cda.exporter.AbstractKettleExporterTestBase;
+
+import javax.swing.table.TableModel;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static pt.webdetails.cda.test.util.CdaTestHelper.createRandomTable;
+
+public class SortTableModelTest extends AbstractKettleExporterTestBase {
+
+  private static final Log logger = LogFactory.getLog( SortTableModelTest.class );
+
+  @Test
+  public void testNativeSortMatchesDefault() throws Exception {
+    TableModel table = createRandomTable( 5000, new Random( 42 ) );
+    SortTableModel sorter = new SortTableModel();
+    for ( List<String> sortBy : Arrays.asList(
+      Arrays.asList( "0" ),
+      Arrays.asList( "1D", "0A" ),
+      Arrays.asList( "2", "3D" ),
+      Arrays.asList( "3A", "2D", "1" ) ) ) {
+      TableModel expected = sorter.defaultSort( table, sortBy );
+      TableModel actual = sorter.nativeSort( table, sortBy );
+      assertEquals( expected.getRowCount(), actual.getRowCount() );
+      for ( String sort : sortBy ) {
+        int column = Integer.parseInt( sort.replaceAll( "[AD]", "" ) );
+        for ( int row = 0; row < expected.getRowCount(); row++ ) {
+          assertEquals( sortBy + " row " + row, normalize( expected.getValueAt( row, column ) ),
+            normalize( actual.getValueAt( row, column ) ) );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNativeSortStable() throws Exception {
+    TypedTableModel table = new TypedTableModel( new String[] { "key", "order" },
+      new Class<?>[] { String.class, Long.class } );
+    table.addRow( "b", 1L );
+    table.addRow( "A", 2L );
+    table.addRow( null, 3L );
+    table.addRow( "a", 4L );
+    table.addRow( "B", 5L );
+    TableModel sorted = new SortTableModel().nativeSort( table, Arrays.asList( "0A" ) );
+    assertEquals( 3L, sorted.getValueAt( 0, 1 ) );
+    assertEquals( 2L, sorted.getValueAt( 1, 1 ) );
+    assertEquals( 4L, sorted.getValueAt( 2, 1 ) );
+    assertEquals( 1L, sorted.getValueAt( 3, 1 ) );
+    assertEquals( 5L, sorted.getValueAt( 4, 1 ) );
+    sorted = new SortTableModel().nativeSort( table, Arrays.asList( "0D" ) );
+    assertEquals( 1L, sorted.getValueAt( 0, 1 ) );
+    assertEquals( 3L, sorted.getValueAt( 4, 1 ) );
+  }
+
+  /**
+   * Kettle vs native sort timings; run with <code>-Dcda.benchmark=true</code>.
+   */
+  @Test
+  public void benchmarkNativeVersusDefault() throws Exception {
+    Assume.assumeTrue( Boolean.getBoolean( "cda.benchmark" ) );
+    SortTableModel sorter = new SortTableModel();
+    List<String> sortBy = Arrays.asList( "1D", "0A", "2" );
+    for ( int rows : new int[] { 1000, 10000, 100000, 500000 } ) {
+      TableModel table = createRandomTable( rows, new Random( rows ) );
+      // warm up
+      sorter.defaultSort( table, sortBy );
+      sorter.nativeSort( table, sortBy );
+
+      final int runs = 5;
+      long start = System.nanoTime();
+      for ( int i = 0; i < runs; i++ ) {
+        sorter.defaultSort( table, sortBy );
+      }
+      long kettle = ( System.nanoTime() - start ) / runs;
+      start = System.nanoTime();
+      for ( int i = 0; i < runs; i++ ) {
+        sorter.nativeSort( table, sortBy );
+      }
+      long nativeSort = ( System.nanoTime() - start ) / runs;
+      logger.info( String.format( "%d rows: kettle %.2fms, native %.2fms (x%.1f)", rows, kettle / 1e6,
+        nativeSort / 1e6, (double) kettle / nativeSort ) );
+    }
+  }
+
+  private static Object normalize( Object value ) {
+    return value instanceof Date ? ( (Date) value ).getTime() : value;
+  }
+}
@@ -67,6 +67,9 @@ public class CdaLifecycleListener extends SimpleLifeCycleListener implements IPl
 
 
   public void unLoaded() throws PluginLifecycleException {
+    if ( CdaEngine.isInitialized() ) {
+      CdaEngine.getInstance().shutdown();
+    }
   }
 
   @Override
@@ -19,6 +19,8 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.pentaho.platform.api.engine.IParameterProvider;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.solution.SimpleParameterProvider;
@@ -35,6 +37,7 @@ import pt.webdetails.cda.exporter.Exporter;
 import pt.webdetails.cda.exporter.ExporterException;
 import pt.webdetails.cda.exporter.TableExporter;
 import pt.webdetails.cda.exporter.UnsupportedExporterException;
+import pt.webdetails.cda.exporter.XlsxExporter;
 import pt.webdetails.cda.services.CacheManager;
 import pt.webdetails.cda.services.Editor;
 import pt.webdetails.cda.services.ExtEditor;
@@ -91,6 +94,7 @@ import static javax.ws.rs.core.MediaType.APPLICATION_XML;
 public class CdaUtils {
   private static final Log logger = LogFactory.getLog( CdaUtils.class );
   private static final String DOQUERY_GETSOLPATH = "Do Query: getSolPath:";
+  private static final String NDJSON = "application/x-ndjson";
 
   // TODO: safer to get from repos?
   private static final Pattern CDA_PATH = Pattern.compile( "^[^:]*([^/]+)[^?]*" );
@@ -120,19 +124,21 @@ public class CdaUtils {
   // TODO: wildcard for exported types?
   @GET
   @Path( "/doQuery" )
-  @Produces( { MimeTypes.JSON, MimeTypes.XML, MimeTypes.CSV, MimeTypes.XLS, MimeTypes.PLAIN_TEXT, MimeTypes.HTML } )
+  @Produces( { MimeTypes.JSON, MimeTypes.XML, MimeTypes.CSV, MimeTypes.XLS, XlsxExporter.MIME_TYPE,
+    MimeTypes.PLAIN_TEXT, MimeTypes.HTML } )
   public StreamingOutput doQueryGet( @Context UriInfo uriInfo,
                                      @Context HttpServletRequest servletRequest,
                                      @Context HttpServletResponse servletResponse ) {
     setCorsHeaders( servletRequest, servletResponse );
 
-    return doQuery( uriInfo.getQueryParameters(), servletResponse );
+    return doQuery( uriInfo.getQueryParameters(), servletRequest, servletResponse );
   }
 
   @POST
   @Path( "/doQuery" )
   @Consumes( APPLICATION_FORM_URLENCODED )
-  @Produces( { MimeTypes.JSON, MimeTypes.XML, MimeTypes.CSV, MimeTypes.XLS, MimeTypes.PLAIN_TEXT, MimeTypes.HTML } )
+  @Produces( { MimeTypes.JSON, MimeTypes.XML, MimeTypes.CSV, MimeTypes.XLS, XlsxExporter.MIME_TYPE,
+    MimeTypes.PLAIN_TEXT, MimeTypes.HTML } )
   public StreamingOutput doQueryPost( MultivaluedMap<String, String> formParams,
                                       @Context HttpServletRequest servletRequest,
                                       @Context HttpServletResponse servletResponse ) {
@@ -144,7 +150,7 @@ public class CdaUtils {
       params = getParameterMapFromRequest( servletRequest );
     }
 
-    return doQuery( params, servletResponse );
+    return doQuery( params, servletRequest, servletResponse );
   }
 
   @VisibleForTesting
@@ -154,7 +160,22 @@ public class CdaUtils {
     return core.doQuery( parameters );
   }
 
+  @VisibleForTesting
+  protected String getETagInternal( DoQueryParameters parameters ) throws Exception {
+    return getCdaCoreService().getETag( parameters );
+  }
+
+  public StreamingOutput doQuery( MultivaluedMap<String, String> params,
+                                  HttpServletResponse servletResponse ) {
+    return doQuery( params, null, servletResponse );
+  }
+
+  /**
+   * Answers with 304 Not Modified, before running the query, when the request's <code>If-None-Match</code> has the
+   * entity tag of the cached result.
+   */
   public StreamingOutput doQuery( MultivaluedMap<String, String> params,
+                                  HttpServletRequest servletRequest,
                                   HttpServletResponse servletResponse ) {
 
     AuditHelper auditHelper = new AuditHelper( CdaUtils.class, getPentahoSession() );
@@ -167,16 +188,114 @@ public class CdaUtils {
         return wrapQuery( parameters );
       }
 
+      final String ifNoneMatch = servletRequest != null ? servletRequest.getHeader( "If-None-Match" ) : null;
+      if ( ifNoneMatch != null ) {
+        final String eTag = getETagInternal( parameters );
+        if ( eTag != null && matchesETag( ifNoneMatch, eTag ) ) {
+          throw new WebApplicationException( Response.notModified().header( "ETag", eTag )
+            .header( "Vary", "Accept-Encoding" ).build() );
+        }
+        if ( eTag != null && matchesETag( ifNoneMatch, getGzipETag( eTag ) ) ) {
+          throw new WebApplicationException( Response.notModified().header( "ETag", getGzipETag( eTag ) )
+            .header( "Vary", "Accept-Encoding" ).build() );
+        }
+      }
+
       final ExportedQueryResult result = doQueryInternal( parameters );
       result.writeHeaders( servletResponse );
-
+      // the same result may be sent gzipped once its export is cached
+      servletResponse.addHeader( "Vary", "Accept-Encoding" );
+
+      final byte[] gzipped = acceptsGzip( servletRequest ) ? result.getGzippedOutput() : null;
+      if ( gzipped != null ) {
+        // cached output goes out as it was stored, tagged apart from its identity encoding
+        servletResponse.setHeader( "Content-Encoding", "gzip" );
+        if ( result.getETag() != null ) {
+          servletResponse.setHeader( "ETag", getGzipETag( result.getETag() ) );
+        }
+        servletResponse.setContentLength( gzipped.length );
+        return out -> out.write( gzipped );
+      }
       return toStreamingOutput( result );
+    } catch ( WebApplicationException ex ) {
+      throw ex;
     } catch ( Exception ex ) {
       throw new WebApplicationException( ex, Response.Status.INTERNAL_SERVER_ERROR );
     }
   }
 
-  private IParameterProvider getParameterProvider( MultivaluedMap<String, String> params ) {
+  /**
+   * @return if the request's <code>Accept-Encoding</code> allows gzip
+   */
+  static boolean acceptsGzip( HttpServletRequest servletRequest ) {
+    final String acceptEncoding = servletRequest != null ? servletRequest.getHeader( "Accept-Encoding" ) : null;
+    if ( acceptEncoding == null ) {
+      return false;
+    }
+    for ( String coding : acceptEncoding.split( "," ) ) {
+      final String[] parts = coding.split( ";" );
+      if ( parts[ 0 ].trim().equalsIgnoreCase( "gzip" ) ) {
+        return parts.length < 2 || !parts[ 1 ].replace( " ", "" ).matches( "q=0(\\.0*)?" );
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param eTag quoted entity tag of a result
+   * @return entity tag of its gzip content encoding
+   */
+  static String getGzipETag( String eTag ) {
+    return eTag.substring( 0, eTag.length() - 1 ) + "-gz\"";
+  }
+
+  /**
+   * @param ifNoneMatch value of an <code>If-None-Match</code> header
+   * @param eTag        quoted entity tag
+   * @return if the header lists the entity tag, weak or not, or is <code>*</code>
+   */
+  static boolean matchesETag( String ifNoneMatch, String eTag ) {
+    for ( String tag : ifNoneMatch.split( "," ) ) {
+      tag = tag.trim();
+      if ( tag.equals( "*" ) || tag.equals( eTag ) || tag.equals( "W/" + eTag ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Runs several queries in one request. The body is a json array with the parameters of each query, named as in
+   * doQuery; each result is written as a line of json as soon as it is ready. Each query is audited as doQuery is.
+   *
+   * @see CdaCoreService#doBatchQuery
+   */
+  @POST
+  @Path( "/doQueryBatch" )
+  @Consumes( APPLICATION_JSON )
+  @Produces( NDJSON )
+  public StreamingOutput doQueryBatch( String body,
+                                       @Context HttpServletRequest servletRequest,
+                                       @Context HttpServletResponse servletResponse ) {
+    setCorsHeaders( servletRequest, servletResponse );
+
+    final List<Map<String, List<String>>> specs = new ArrayList<>();
+    try {
+      final JSONArray queries = new JSONArray( body );
+      for ( int i = 0; i < queries.length(); i++ ) {
+        specs.add( queryParametersUtil.getParametersFromJson( queries.getJSONObject( i ).toString() ) );
+      }
+    } catch ( JSONException e ) {
+      throw new WebApplicationException( e, Response.Status.BAD_REQUEST );
+    }
+
+    final CdaCoreService core = getCdaCoreService();
+    final AuditHelper auditHelper = new AuditHelper( CdaUtils.class, getPentahoSession() );
+    return out -> core.doBatchQuery( specs, out,
+      ( path, params ) -> auditHelper.startQuery( path, getParameterProvider( params ) ) );
+  }
+
+  private IParameterProvider getParameterProvider( Map<String, List<String>> params ) {
     return new SimpleParameterProvider( params );
   }
 
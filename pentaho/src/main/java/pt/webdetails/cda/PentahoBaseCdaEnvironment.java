@@ -13,10 +13,19 @@
 
 package pt.webdetails.cda;
 
+import java.util.concurrent.Callable;
+
 import org.pentaho.platform.api.engine.IAuthorizationPolicy;
+import org.pentaho.platform.api.engine.IPentahoRequestContext;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.security.policy.rolebased.actions.RepositoryCreateAction;
 import org.pentaho.reporting.libraries.formula.FormulaContext;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import pt.webdetails.cda.cache.IQueryCache;
 import pt.webdetails.cda.utils.framework.PluginUtils;
@@ -80,4 +89,31 @@ public abstract class PentahoBaseCdaEnvironment extends BaseCdaEnvironment imple
     }
     return authorizationPolicy.isAllowed( RepositoryCreateAction.NAME );
   }
+
+  /**
+   * Carries the pentaho session, request context and authentication over to the thread running the task.
+   */
+  @Override
+  public <T> Callable<T> propagateContext( final Callable<T> task ) {
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final IPentahoRequestContext requestContext = PentahoRequestContextHolder.getRequestContext();
+    final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    return () -> {
+      final IPentahoSession previousSession = PentahoSessionHolder.getSession();
+      final IPentahoRequestContext previousRequestContext = PentahoRequestContextHolder.getRequestContext();
+      final SecurityContext previousSecurityContext = SecurityContextHolder.getContext();
+      try {
+        PentahoSessionHolder.setSession( session );
+        PentahoRequestContextHolder.setRequestContext( requestContext );
+        // pool threads may have inherited another thread's security context, don't change that one
+        SecurityContextHolder.clearContext();
+        SecurityContextHolder.getContext().setAuthentication( authentication );
+        return task.call();
+      } finally {
+        PentahoSessionHolder.setSession( previousSession );
+        PentahoRequestContextHolder.setRequestContext( previousRequestContext );
+        SecurityContextHolder.setContext( previousSecurityContext );
+      }
+    };
+  }
 }
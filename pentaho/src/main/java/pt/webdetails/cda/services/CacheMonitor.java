@@ -16,6 +16,7 @@ package pt.webdetails.cda.services;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
+import javax.swing.table.TableModel;
 
 import org.apache.commons.lang.StringUtils;
 import org.json.JSONArray;
@@ -27,6 +28,7 @@ import pt.webdetails.cda.cache.TableCacheKey;
 import pt.webdetails.cda.cache.monitor.CacheElementInfo;
 import pt.webdetails.cda.cache.monitor.ExtraCacheInfo;
 import pt.webdetails.cda.dataaccess.AbstractDataAccess;
+import pt.webdetails.cda.exporter.JsonExporter;
 import pt.webdetails.cda.utils.framework.JsonCallHandler;
 import pt.webdetails.cda.utils.framework.JsonCallHandler.JsonResultFields;
 import pt.webdetails.cda.utils.framework.JsonCallHandler.ResponseStatus;
@@ -38,6 +40,8 @@ public class CacheMonitor extends BaseService {
 
   //TODO: switch to jackson?
 
+  private static final int TABLE_SNAPSHOT_ROWS = 10;
+
   /**
    * formerly known as "cached" List queries in cache
    *
@@ -120,9 +124,11 @@ public class CacheMonitor extends BaseService {
       TableCacheKey lookupCacheKey = TableCacheKey.getTableCacheKeyFromString( encodedCacheKey );
       ExtraCacheInfo info = cdaCache.getCacheEntryInfo( lookupCacheKey );
 
-      if ( info != null ) {
+      // the preview is only rendered here, from the cached table
+      TableModel table = info != null ? cdaCache.getTableModel( lookupCacheKey ) : null;
+      if ( table != null ) {
         // put query results
-        result.put( ResultFields.RESULT, info.getTableSnapshot() );
+        result.put( ResultFields.RESULT, new JsonExporter( null ).getTableAsJson( table, TABLE_SNAPSHOT_ROWS ) );
         result.put( JsonResultFields.STATUS, ResponseStatus.OK );
       } else {
         return JsonCallHandler.getErrorJson( ErrorMsgs.CACHE_ITEM_NOT_FOUND );
@@ -35,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
@@ -118,6 +119,32 @@ public class CdaUtilsTest {
     verify( utils, times( 1 ) ).doQueryInternal( argumentCaptorDoQueryParams.getValue() );
   }
 
+  @Test
+  public void testMatchesETag() {
+    assertTrue( CdaUtils.matchesETag( "\"abc\"", "\"abc\"" ) );
+    assertTrue( CdaUtils.matchesETag( "\"xyz\", W/\"abc\"", "\"abc\"" ) );
+    assertTrue( CdaUtils.matchesETag( "*", "\"abc\"" ) );
+    assertFalse( CdaUtils.matchesETag( "\"xyz\"", "\"abc\"" ) );
+  }
+
+  @Test
+  public void testGzipETag() {
+    assertEquals( "\"abc-gz\"", CdaUtils.getGzipETag( "\"abc\"" ) );
+    assertFalse( CdaUtils.matchesETag( "\"abc-gz\"", "\"abc\"" ) );
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    HttpServletRequest request = mock( HttpServletRequest.class );
+    when( request.getHeader( "Accept-Encoding" ) ).thenReturn( "deflate, gzip;q=1.0, *;q=0.5" );
+    assertTrue( CdaUtils.acceptsGzip( request ) );
+    when( request.getHeader( "Accept-Encoding" ) ).thenReturn( "gzip;q=0, deflate" );
+    assertFalse( CdaUtils.acceptsGzip( request ) );
+    when( request.getHeader( "Accept-Encoding" ) ).thenReturn( null );
+    assertFalse( CdaUtils.acceptsGzip( request ) );
+    assertFalse( CdaUtils.acceptsGzip( null ) );
+  }
+
   private CdaUtils spyUtilsWithFakePreviewer( String file, String content ) throws Exception {
     Previewer previewer = mock( Previewer.class );
     when( previewer.previewQuery( file ) ).thenReturn( content );